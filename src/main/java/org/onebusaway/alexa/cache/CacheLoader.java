@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import java.io.IOException;
+
+/**
+ * Loads a value from its source (typically a REST API) when it isn't available in a cache.
+ *
+ * @param <V> type of the loaded value
+ */
+@FunctionalInterface
+public interface CacheLoader<V> {
+    /**
+     * Loads the value from its source.
+     *
+     * @return the loaded value
+     * @throws IOException if the value couldn't be loaded
+     */
+    V load() throws IOException;
+}
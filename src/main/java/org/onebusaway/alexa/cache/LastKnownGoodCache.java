@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory store of the last value successfully loaded for each key, used to give a degraded answer when a
+ * fresh value can't be loaded.
+ * <p>
+ * Unlike {@link SingleFlightCache}, values are kept long after they stop being fresh, and callers are told how old
+ * they are so they can decide how to use them.  Values older than the maximum age are never returned.  When the store
+ * is full the least recently used entry is evicted.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the stored values
+ */
+public class LastKnownGoodCache<K, V> {
+    private final long maxAgeMillis;
+    private final Clock clock;
+
+    private final Map<K, Snapshot<V>> entries;
+
+    private final AtomicLong servedCount = new AtomicLong();
+
+    /**
+     * @param maxAgeMillis age after which a value is too old to be useful, in milliseconds
+     * @param maxEntries   maximum number of values kept in memory
+     */
+    public LastKnownGoodCache(long maxAgeMillis, int maxEntries) {
+        this(maxAgeMillis, maxEntries, Clock.systemUTC());
+    }
+
+    LastKnownGoodCache(long maxAgeMillis, int maxEntries, Clock clock) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, Snapshot<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Snapshot<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Records a value that was just loaded successfully, replacing the previous value for the key
+     *
+     * @param key   key of the value
+     * @param value the loaded value
+     */
+    public void put(@NonNull K key, @NonNull V value) {
+        synchronized (entries) {
+            entries.put(key, new Snapshot<>(value, clock.millis()));
+        }
+    }
+
+    /**
+     * @param key key of the value
+     * @return the last value loaded for the key and its age, or empty if there is none or it's too old
+     */
+    public Optional<Aged<V>> get(@NonNull K key) {
+        Snapshot<V> snapshot;
+        synchronized (entries) {
+            snapshot = entries.get(key);
+        }
+        if (snapshot == null) {
+            return Optional.empty();
+        }
+        long ageMillis = Math.max(0, clock.millis() - snapshot.storedAtMillis);
+        if (ageMillis >= maxAgeMillis) {
+            synchronized (entries) {
+                entries.remove(key, snapshot);
+            }
+            return Optional.empty();
+        }
+        servedCount.incrementAndGet();
+        return Optional.of(new Aged<>(snapshot.value, ageMillis));
+    }
+
+    /**
+     * @return number of values currently in memory, including ones that are too old and haven't been evicted yet
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of times a stored value was returned
+     */
+    public long getServedCount() {
+        return servedCount.get();
+    }
+
+    /**
+     * A stored value together with how long ago it was loaded
+     *
+     * @param <V> type of the value
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Aged<V> {
+        private final V value;
+        private final long ageMillis;
+    }
+
+    @AllArgsConstructor
+    private static class Snapshot<V> {
+        private final V value;
+        private final long storedAtMillis;
+    }
+}
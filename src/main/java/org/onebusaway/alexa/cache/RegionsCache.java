@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.io.client.elements.ObaRegion;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-memory cache of the Regions API directory (http://regions.onebusaway.org/regions-v3.json).
+ * <p>
+ * The directory is downloaded on first use.  Once it is older than the TTL, callers keep getting the cached copy
+ * while a single background refresh downloads a new one.  If the refresh fails, the stale copy continues to be served
+ * and another refresh is attempted after {@link #RETRY_INTERVAL_MILLIS}.
+ * <p>
+ * Listeners can be registered to rebuild anything derived from the directory (e.g., indexes) whenever a new copy is
+ * downloaded.
+ * <p>
+ * The returned array is shared between callers and must not be modified.
+ */
+@Log4j
+public class RegionsCache {
+    static final long RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final CacheLoader<ObaRegion[]> loader;
+    private final long ttlMillis;
+    private final Executor refreshExecutor;
+    private final Clock clock;
+
+    private volatile ObaRegion[] regions;
+    private volatile long loadedAtMillis;
+    private volatile long retryAfterMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final List<Consumer<ObaRegion[]>> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+
+    /**
+     * @param loader    downloads the full regions directory
+     * @param ttlMillis how long a downloaded directory is considered fresh, in milliseconds
+     */
+    public RegionsCache(@NonNull CacheLoader<ObaRegion[]> loader, long ttlMillis) {
+        this(loader, ttlMillis, Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "regions-cache-refresh");
+            t.setDaemon(true);
+            return t;
+        }), Clock.systemUTC());
+    }
+
+    RegionsCache(CacheLoader<ObaRegion[]> loader, long ttlMillis, Executor refreshExecutor, Clock clock) {
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+    }
+
+    /**
+     * Registers a listener that is called with each newly downloaded directory, before it is served to callers.  If the
+     * directory has already been downloaded, the listener is called immediately with the cached copy.
+     *
+     * @param listener called with the full directory of regions
+     */
+    public void addListener(@NonNull Consumer<ObaRegion[]> listener) {
+        listeners.add(listener);
+        ObaRegion[] current = regions;
+        if (current != null) {
+            notifyListener(listener, current);
+        }
+    }
+
+    /**
+     * Returns all regions in the directory, downloading them if this is the first call.  If the cached directory is
+     * older than the TTL, the cached copy is returned and a background refresh is started.
+     *
+     * @return all regions in the Regions API directory
+     * @throws IOException if the directory has never been downloaded successfully and the download fails
+     */
+    public ObaRegion[] getRegions() throws IOException {
+        ObaRegion[] current = regions;
+        if (current == null) {
+            return loadInitial();
+        }
+        hitCount.incrementAndGet();
+        if (isRefreshDue()) {
+            startRefresh();
+        }
+        return current;
+    }
+
+    /**
+     * Downloads the directory on the calling thread.  Concurrent first callers wait for a single download.
+     */
+    private synchronized ObaRegion[] loadInitial() throws IOException {
+        if (regions != null) {
+            hitCount.incrementAndGet();
+            return regions;
+        }
+        missCount.incrementAndGet();
+        ObaRegion[] loaded = loader.load();
+        store(loaded);
+        log.info(String.format("Loaded %d regions from the Regions API", loaded.length));
+        return loaded;
+    }
+
+    private boolean isRefreshDue() {
+        long now = clock.millis();
+        return now - loadedAtMillis >= ttlMillis && now >= retryAfterMillis;
+    }
+
+    private void startRefresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            // Another caller already started the refresh
+            return;
+        }
+        try {
+            refreshExecutor.execute(this::refresh);
+        } catch (RejectedExecutionException e) {
+            log.error("Couldn't schedule regions refresh: " + e.getMessage());
+            refreshing.set(false);
+        }
+    }
+
+    private void refresh() {
+        try {
+            ObaRegion[] loaded = loader.load();
+            store(loaded);
+            refreshCount.incrementAndGet();
+            log.info(String.format("Refreshed %d regions from the Regions API", loaded.length));
+        } catch (Exception e) {
+            refreshFailureCount.incrementAndGet();
+            retryAfterMillis = clock.millis() + RETRY_INTERVAL_MILLIS;
+            log.error("Failed to refresh regions, continuing to serve the cached copy: " + e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private void store(ObaRegion[] loaded) throws IOException {
+        if (loaded == null) {
+            throw new IOException("Regions API returned no regions");
+        }
+        for (Consumer<ObaRegion[]> listener : listeners) {
+            notifyListener(listener, loaded);
+        }
+        loadedAtMillis = clock.millis();
+        regions = loaded;
+    }
+
+    private void notifyListener(Consumer<ObaRegion[]> listener, ObaRegion[] loaded) {
+        try {
+            listener.accept(loaded);
+        } catch (RuntimeException e) {
+            log.error("Regions listener failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return number of calls answered from the cache, including stale answers served during a refresh
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of calls that had to wait for the directory to be downloaded
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of successful background refreshes
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return number of failed background refreshes
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of values that are only fresh for a short time, such as real-time arrivals.
+ * <p>
+ * Values are served from memory until they are older than the TTL.  When several callers miss on the same key at the
+ * same time, only the first one calls the loader and the others wait for its result, so a burst of requests for the
+ * same key results in a single REST API call.  Failed loads aren't cached.  If the caller that's loading is interrupted
+ * (e.g. because its own request was cancelled), the callers waiting for it load the value themselves rather than
+ * failing with its interruption.  When the cache is full the least recently used entry is evicted.
+ *
+ * @param <K> type of the cache keys
+ * @param <V> type of the cached values
+ */
+@Log4j
+public class SingleFlightCache<K, V> {
+    private final String name;
+    private final long ttlMillis;
+    private final Clock clock;
+
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicLong totalLoadNanos = new AtomicLong();
+
+    /**
+     * @param name       name of the cache, used in log messages
+     * @param ttlMillis  how long a loaded value is considered fresh, in milliseconds
+     * @param maxEntries maximum number of values kept in memory
+     */
+    public SingleFlightCache(@NonNull String name, long ttlMillis, int maxEntries) {
+        this(name, ttlMillis, maxEntries, Clock.systemUTC());
+    }
+
+    SingleFlightCache(String name, long ttlMillis, int maxEntries, Clock clock) {
+        this.name = name;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key if it's fresh, and otherwise loads it.  If another caller is already loading
+     * the same key, waits for that load instead of starting another one.
+     *
+     * @param key    key of the value
+     * @param loader loads the value if it isn't cached
+     * @return the cached or newly loaded value
+     * @throws IOException if the value wasn't cached and couldn't be loaded
+     */
+    public V get(@NonNull K key, @NonNull CacheLoader<V> loader) throws IOException {
+        while (true) {
+            Entry<V> entry = getEntry(key);
+            if (isFresh(entry)) {
+                hitCount.incrementAndGet();
+                return entry.value;
+            }
+
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                return loadInFlight(key, loader, future);
+            }
+            coalescedCount.incrementAndGet();
+            try {
+                return await(existing);
+            } catch (AbandonedLoadException e) {
+                // The caller that was loading the value was interrupted, so try again
+                log.debug(name + " cache load of " + key + " was abandoned, retrying");
+            }
+        }
+    }
+
+    private V loadInFlight(K key, CacheLoader<V> loader, CompletableFuture<V> future) throws IOException {
+        try {
+            // Another caller may have finished loading between the first check and claiming the load
+            Entry<V> entry = getEntry(key);
+            if (isFresh(entry)) {
+                hitCount.incrementAndGet();
+                future.complete(entry.value);
+                return entry.value;
+            }
+            missCount.incrementAndGet();
+            V value = load(key, loader);
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(isInterruption(e) ? new AbandonedLoadException(e) : e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return true if the load failed because the loading thread was interrupted, rather than because of its source
+     */
+    private static boolean isInterruption(Exception e) {
+        return Thread.currentThread().isInterrupted()
+                || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+    }
+
+    /**
+     * Returns the cached value for the key if it's fresh, without loading it otherwise
+     *
+     * @param key key of the value
+     * @return the cached value, or empty if the key isn't cached or its value has expired
+     */
+    public Optional<V> getIfPresent(@NonNull K key) {
+        Entry<V> entry = getEntry(key);
+        if (!isFresh(entry)) {
+            return Optional.empty();
+        }
+        hitCount.incrementAndGet();
+        return Optional.of(entry.value);
+    }
+
+    private V load(K key, CacheLoader<V> loader) throws IOException {
+        long start = System.nanoTime();
+        try {
+            V value = loader.load();
+            if (value != null) {
+                synchronized (entries) {
+                    entries.put(key, new Entry<>(value, clock.millis()));
+                }
+            }
+            return value;
+        } catch (IOException | RuntimeException e) {
+            loadFailureCount.incrementAndGet();
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            totalLoadNanos.addAndGet(elapsed);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("%s cache loaded %s in %d ms - %s", name, key,
+                        TimeUnit.NANOSECONDS.toMillis(elapsed), getStats()));
+            }
+        }
+    }
+
+    private V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + name + " cache load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AbandonedLoadException) {
+                throw (AbandonedLoadException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private Entry<V> getEntry(K key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private boolean isFresh(Entry<V> entry) {
+        return entry != null && clock.millis() - entry.loadedAtMillis < ttlMillis;
+    }
+
+    /**
+     * Removes the value for the key, so the next call loads it again
+     *
+     * @param key key of the value to remove
+     */
+    public void invalidate(@NonNull K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return number of values currently in memory, including expired values that haven't been evicted yet
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of calls answered with a fresh cached value
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of calls that called the loader
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of calls that waited for another caller's load of the same key instead of calling the loader
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return number of loads that failed
+     */
+    public long getLoadFailureCount() {
+        return loadFailureCount.get();
+    }
+
+    /**
+     * @return fraction of calls that didn't call the loader (hits plus coalesced calls), or 0 if there were no calls
+     */
+    public double getHitRate() {
+        long hits = hitCount.get() + coalescedCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return average time taken by the loader, in milliseconds, or 0 if it hasn't been called
+     */
+    public double getAverageLoadMillis() {
+        long loads = missCount.get();
+        return loads == 0 ? 0 : totalLoadNanos.get() / 1e6 / loads;
+    }
+
+    /**
+     * @return summary of the cache metrics, for logging
+     */
+    public String getStats() {
+        return String.format("size=%d hits=%d misses=%d coalesced=%d failures=%d hitRate=%.2f avgLoadMs=%.1f",
+                size(), getHitCount(), getMissCount(), getCoalescedCount(), getLoadFailureCount(), getHitRate(),
+                getAverageLoadMillis());
+    }
+
+    /**
+     * Passed to the callers waiting for a load when the caller that was loading the value was interrupted
+     */
+    private static final class AbandonedLoadException extends RuntimeException {
+        private AbandonedLoadException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long loadedAtMillis;
+
+        private Entry(V value, long loadedAtMillis) {
+            this.value = value;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+}
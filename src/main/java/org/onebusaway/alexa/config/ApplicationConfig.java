@@ -72,12 +72,14 @@ public class ApplicationConfig {
                         handlerConfig.disableExperimentalRegionsHandler(),
                         handlerConfig.enableClockTimeHandler(),
                         handlerConfig.enableExperimentalRegionsHandler(),
+                        handlerConfig.forgetStopIntentHandler(),
                         handlerConfig.getArrivalsIntentHandler(),
                         handlerConfig.getCityIntentHandler(),
                         handlerConfig.getStopNumberIntentHandler(),
                         handlerConfig.helpIntentHandler(),
                         handlerConfig.noIntentHandler(),
                         handlerConfig.repeatIntentHandler(),
+                        handlerConfig.saveStopIntentHandler(),
                         handlerConfig.setCityIntentHandler(),
                         handlerConfig.setRouteFilterIntentHandler(),
                         handlerConfig.setStopNumberIntentHandler(),
@@ -14,13 +14,29 @@
  */
 package org.onebusaway.alexa.config;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
 import org.onebusaway.alexa.storage.ObaDao;
 import org.onebusaway.alexa.storage.ObaDynamoDbClient;
+import org.onebusaway.alexa.storage.UserDataWriteBehind;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 
 import javax.annotation.Resource;
+import java.util.Optional;
+
+import static org.onebusaway.alexa.config.ObaProperty.AWS_DYNAMODB_CONNECT_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.AWS_DYNAMODB_CONSISTENT_USER_READS;
+import static org.onebusaway.alexa.config.ObaProperty.AWS_DYNAMODB_MAX_CONNECTIONS;
+import static org.onebusaway.alexa.config.ObaProperty.AWS_DYNAMODB_MAX_ERROR_RETRIES;
+import static org.onebusaway.alexa.config.ObaProperty.AWS_DYNAMODB_SOCKET_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.AWS_DYNAMODB_WRITE_BEHIND;
 
 /**
  * AWS Spring config, which contains DynamoDB client.
@@ -30,13 +46,68 @@ public class DaoConfig {
     @Resource
     AWSCredentials awsCredentials;
 
+    @Value("${" + AWS_DYNAMODB_MAX_CONNECTIONS + ":20}")
+    private int maxConnections;
+
+    @Value("${" + AWS_DYNAMODB_CONNECT_TIMEOUT_MILLIS + ":1000}")
+    private int connectTimeoutMillis;
+
+    @Value("${" + AWS_DYNAMODB_SOCKET_TIMEOUT_MILLIS + ":2000}")
+    private int socketTimeoutMillis;
+
+    @Value("${" + AWS_DYNAMODB_MAX_ERROR_RETRIES + ":3}")
+    private int maxErrorRetries;
+
+    @Value("${" + AWS_DYNAMODB_CONSISTENT_USER_READS + ":true}")
+    private boolean consistentUserReads;
+
+    /**
+     * The SDK defaults (50 second timeouts and 10 retries) would let one slow DynamoDB call outlast the time Alexa
+     * allows for a response, so calls are given up on sooner and retried fewer times.
+     */
+    @Bean
+    public ClientConfiguration dynamoDbClientConfiguration() {
+        ClientConfiguration configuration = new ClientConfiguration()
+                .withMaxConnections(maxConnections)
+                .withTcpKeepAlive(true);
+        configuration.setConnectionTimeout(connectTimeoutMillis);
+        configuration.setSocketTimeout(socketTimeoutMillis);
+        configuration.setRetryPolicy(
+                PredefinedRetryPolicies.getDynamoDBDefaultRetryPolicyWithCustomMaxRetries(maxErrorRetries));
+        return configuration;
+    }
+
     @Bean
     public ObaDynamoDbClient obaDynamoDbClient() {
-        return new ObaDynamoDbClient(awsCredentials);
+        return new ObaDynamoDbClient(awsCredentials, dynamoDbClientConfiguration(), consistentUserReads);
+    }
+
+    /**
+     * Writes users' data in the background after the response is sent.  Only created when write-behind is on, so its
+     * thread is only started when it's used.
+     */
+    @Bean(destroyMethod = "close")
+    @Conditional(WriteBehindEnabled.class)
+    public UserDataWriteBehind userDataWriteBehind() {
+        ObaDynamoDbClient client = obaDynamoDbClient();
+        return new UserDataWriteBehind(client::saveItem);
     }
 
+    /**
+     * @param userDataWriteBehind background writer, or empty if users' data is written before the response is sent
+     */
     @Bean
-    public ObaDao obaDao() {
-        return new ObaDao(obaDynamoDbClient());
+    public ObaDao obaDao(Optional<UserDataWriteBehind> userDataWriteBehind) {
+        return new ObaDao(obaDynamoDbClient(), userDataWriteBehind.orElse(null));
+    }
+
+    /**
+     * True if users' data is written in the background after the response is sent, instead of before
+     */
+    static class WriteBehindEnabled implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return context.getEnvironment().getProperty(AWS_DYNAMODB_WRITE_BEHIND, Boolean.class, false);
+        }
     }
 }
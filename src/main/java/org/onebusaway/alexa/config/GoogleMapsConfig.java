@@ -14,23 +14,116 @@
  */
 package org.onebusaway.alexa.config;
 
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.lib.CityMatcher;
+import org.onebusaway.alexa.lib.Gazetteer;
+import org.onebusaway.alexa.lib.GeocodeCache;
+import org.onebusaway.alexa.lib.GeocodingClient;
 import org.onebusaway.alexa.lib.GoogleMaps;
+import org.onebusaway.alexa.storage.ObaDao;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_API_KEY;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_CONNECT_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_FUZZY_MATCH;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_FUZZY_MATCH_MIN_CONFIDENCE;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_GAZETTEER;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_GEOCODE_CACHE_MAX_ENTRIES;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_GEOCODE_CACHE_NOT_FOUND_TTL_HOURS;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_GEOCODE_CACHE_PERSISTENT;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_GEOCODE_CACHE_TTL_DAYS;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_QUERIES_PER_SECOND;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_READ_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.GOOGLE_MAPS_RETRY_TIMEOUT_MILLIS;
 
 /**
  * Google Map Service Spring config.
  */
 @Configuration
+@Log4j
 public class GoogleMapsConfig {
+    @Resource
+    ObaDao obaDao;
+
     @Value("${" + GOOGLE_MAPS_API_KEY + "}")
     private String apiKey;
 
+    @Value("${" + GOOGLE_MAPS_QUERIES_PER_SECOND + ":10}")
+    private int queriesPerSecond;
+
+    @Value("${" + GOOGLE_MAPS_CONNECT_TIMEOUT_MILLIS + ":2000}")
+    private int connectTimeoutMillis;
+
+    @Value("${" + GOOGLE_MAPS_READ_TIMEOUT_MILLIS + ":3000}")
+    private int readTimeoutMillis;
+
+    @Value("${" + GOOGLE_MAPS_RETRY_TIMEOUT_MILLIS + ":3000}")
+    private int retryTimeoutMillis;
+
+    @Value("${" + GOOGLE_MAPS_GEOCODE_CACHE_MAX_ENTRIES + ":1000}")
+    private int geocodeCacheMaxEntries;
+
+    @Value("${" + GOOGLE_MAPS_GEOCODE_CACHE_TTL_DAYS + ":90}")
+    private long geocodeCacheTtlDays;
+
+    @Value("${" + GOOGLE_MAPS_GEOCODE_CACHE_NOT_FOUND_TTL_HOURS + ":24}")
+    private long geocodeCacheNotFoundTtlHours;
+
+    @Value("${" + GOOGLE_MAPS_GEOCODE_CACHE_PERSISTENT + ":true}")
+    private boolean geocodeCachePersistent;
+
+    @Value("${" + GOOGLE_MAPS_GAZETTEER + ":true}")
+    private boolean useGazetteer;
+
+    /**
+     * True to match misheard city names that Google can't resolve to the gazetteer, using the match when its
+     * confidence is at least fuzzyMatchMinConfidence
+     */
+    @Value("${" + GOOGLE_MAPS_FUZZY_MATCH + ":true}")
+    private boolean fuzzyMatch;
+
+    @Value("${" + GOOGLE_MAPS_FUZZY_MATCH_MIN_CONFIDENCE + ":0.85}")
+    private double fuzzyMatchMinConfidence;
+
+    /**
+     * Shared by all requests, so connections and the rate limit are kept between calls
+     */
+    @Bean(destroyMethod = "close")
+    public GeocodingClient geocodingClient() {
+        return new GeocodingClient(apiKey, queriesPerSecond, connectTimeoutMillis, readTimeoutMillis,
+                retryTimeoutMillis);
+    }
+
+    @Bean
+    public GeocodeCache geocodeCache() {
+        return new GeocodeCache(geocodeCacheMaxEntries, TimeUnit.DAYS.toMillis(geocodeCacheTtlDays),
+                TimeUnit.HOURS.toMillis(geocodeCacheNotFoundTtlHours), geocodeCachePersistent ? obaDao : null);
+    }
+
     @Bean
     public GoogleMaps googleMaps() {
-        return new GoogleMaps(apiKey);
+        Gazetteer gazetteer = useGazetteer ? loadGazetteer() : null;
+        return new GoogleMaps(geocodingClient(), geocodeCache(), gazetteer,
+                gazetteer != null && fuzzyMatch ? new CityMatcher(gazetteer, fuzzyMatchMinConfidence) : null);
+    }
+
+    /**
+     * @return the bundled cities, or null if they can't be read, in which case every city is geocoded
+     */
+    private Gazetteer loadGazetteer() {
+        try {
+            Gazetteer gazetteer = Gazetteer.loadBundled();
+            log.info("Loaded " + gazetteer.size() + " city names into the gazetteer");
+            return gazetteer;
+        } catch (IOException e) {
+            log.error("Couldn't load the gazetteer, all cities will be geocoded: " + e.getMessage());
+            return null;
+        }
     }
 }
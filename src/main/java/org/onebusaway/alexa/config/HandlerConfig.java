@@ -27,6 +27,7 @@ import org.onebusaway.alexa.handlers.intent.DisableClockTimeHandler;
 import org.onebusaway.alexa.handlers.intent.DisableExperimentalRegionsHandler;
 import org.onebusaway.alexa.handlers.intent.EnableClockTimeHandler;
 import org.onebusaway.alexa.handlers.intent.EnableExperimentalRegionsHandler;
+import org.onebusaway.alexa.handlers.intent.ForgetStopIntentHandler;
 import org.onebusaway.alexa.handlers.intent.GetArrivalsIntentHandler;
 import org.onebusaway.alexa.handlers.intent.GetCityIntentHandler;
 import org.onebusaway.alexa.handlers.intent.GetStopNumberIntentHandler;
@@ -35,6 +36,7 @@ import org.onebusaway.alexa.handlers.intent.IntentHandler;
 import org.onebusaway.alexa.handlers.intent.LaunchRequestHandler;
 import org.onebusaway.alexa.handlers.intent.NoIntentHandler;
 import org.onebusaway.alexa.handlers.intent.RepeatIntentHandler;
+import org.onebusaway.alexa.handlers.intent.SaveStopIntentHandler;
 import org.onebusaway.alexa.handlers.intent.SetCityIntentHandler;
 import org.onebusaway.alexa.handlers.intent.SetRouteFilterIntentHandler;
 import org.onebusaway.alexa.handlers.intent.SetStopNumberIntentHandler;
@@ -98,6 +100,16 @@ public class HandlerConfig {
         return new EnableExperimentalRegionsHandler();
     }
 
+    /**
+     * Handler for ForgetStopIntent intent.
+     *
+     * @return
+     */
+    @Bean
+    public IntentHandler forgetStopIntentHandler() {
+        return new ForgetStopIntentHandler();
+    }
+
     /**
      * Handler for GetArrivalsIntent intent.
      *
@@ -168,6 +180,16 @@ public class HandlerConfig {
         return new RepeatIntentHandler();
     }
 
+    /**
+     * Handler for SaveStopIntent intent.
+     *
+     * @return
+     */
+    @Bean
+    public IntentHandler saveStopIntentHandler() {
+        return new SaveStopIntentHandler();
+    }
+
     /**
      * Handler for SetCity intent.
      *
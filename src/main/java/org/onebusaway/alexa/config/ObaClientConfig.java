@@ -14,20 +14,367 @@
  */
 package org.onebusaway.alexa.config;
 
+import org.apache.commons.lang3.StringUtils;
+import org.onebusaway.alexa.cache.LastKnownGoodCache;
+import org.onebusaway.alexa.cache.RegionsCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.lib.ArrivalsPrefetcher;
+import org.onebusaway.alexa.lib.CircuitBreakerPolicy;
+import org.onebusaway.alexa.lib.CircuitBreakers;
+import org.onebusaway.alexa.lib.CityRegionCache;
+import org.onebusaway.alexa.lib.ObaAsyncClient;
 import org.onebusaway.alexa.lib.ObaClient;
+import org.onebusaway.alexa.lib.ObaClientSharedCode;
+import org.onebusaway.alexa.lib.ObaUserClient;
+import org.onebusaway.alexa.lib.PooledObaConnectionFactory;
+import org.onebusaway.alexa.lib.ScanWindows;
+import org.onebusaway.alexa.lib.ScheduleCache;
+import org.onebusaway.alexa.lib.StopCodeIndexes;
+import org.onebusaway.alexa.lib.StreamingArrivalsParser;
+import org.onebusaway.io.client.ObaApi;
+import org.onebusaway.io.client.ObaConnectionFactory;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 
+import java.io.File;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ADAPTIVE_SCAN;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ADAPTIVE_SCAN_FULL_EVERY;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ADAPTIVE_SCAN_MAX_STOPS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ADAPTIVE_SCAN_MIN_MINUTES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ADAPTIVE_SCAN_TARGET_ARRIVALS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ARRIVALS_CACHE_MAX_ENTRIES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ARRIVALS_CACHE_TTL_SECONDS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ASYNC_THREADS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_ASYNC_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_BREAKER_FAILURE_RATE_PERCENT;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_BREAKER_HALF_OPEN_CALLS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_BREAKER_MINIMUM_CALLS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_BREAKER_OPEN_SECONDS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_BREAKER_SLOW_CALL_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_BREAKER_WINDOW_SIZE;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_CITY_REGION_CACHE_MAX_ENTRIES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_HTTP_CONNECT_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_HTTP_MAX_CONNECTIONS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_HTTP_MAX_CONNECTIONS_PER_HOST;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_HTTP_POOLED;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_HTTP_READ_TIMEOUT_MILLIS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_IO_THREADS;
 import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_MAPS_API_KEY;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_PREFETCH_ARRIVALS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_PREFETCH_MAX_USERS;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_REGIONS_CACHE_TTL_MINUTES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_SCHEDULE_CACHE_MAX_ENTRIES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_SCHEDULE_FALLBACK;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_STALE_ARRIVALS_MAX_AGE_MINUTES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_STALE_ARRIVALS_MAX_ENTRIES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_STOP_INDEX_DIR;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_STOP_INDEX_REFRESH_MINUTES;
+import static org.onebusaway.alexa.config.ObaProperty.ONEBUSAWAY_STREAMING_ARRIVALS;
 
 @Configuration
 public class ObaClientConfig {
     @Value("${" + ONEBUSAWAY_MAPS_API_KEY + "}")
     private String apiKey;
 
+    /**
+     * How long the regions directory is cached before it's refreshed in the background, in minutes.
+     */
+    @Value("${" + ONEBUSAWAY_REGIONS_CACHE_TTL_MINUTES + ":1440}")
+    private long regionsCacheTtlMinutes;
+
+    /**
+     * How long real-time arrivals for a stop are shared between users, in seconds.  OBA servers typically refresh
+     * real-time data every 30 seconds, so this should stay well below that.
+     */
+    @Value("${" + ONEBUSAWAY_ARRIVALS_CACHE_TTL_SECONDS + ":5}")
+    private long arrivalsCacheTtlSeconds;
+
+    @Value("${" + ONEBUSAWAY_ARRIVALS_CACHE_MAX_ENTRIES + ":1000}")
+    private int arrivalsCacheMaxEntries;
+
+    /**
+     * True to send OBA and Regions API calls through a pool of keep-alive connections, false to use the client
+     * library's default transport.  Only pooled calls are aborted when the request deadline passes; with the default
+     * transport the deadline is only checked before each call starts.
+     */
+    @Value("${" + ONEBUSAWAY_HTTP_POOLED + ":true}")
+    private boolean httpPooled;
+
+    @Value("${" + ONEBUSAWAY_HTTP_MAX_CONNECTIONS_PER_HOST + ":10}")
+    private int httpMaxConnectionsPerHost;
+
+    @Value("${" + ONEBUSAWAY_HTTP_MAX_CONNECTIONS + ":50}")
+    private int httpMaxConnections;
+
+    @Value("${" + ONEBUSAWAY_HTTP_CONNECT_TIMEOUT_MILLIS + ":2000}")
+    private int httpConnectTimeoutMillis;
+
+    @Value("${" + ONEBUSAWAY_HTTP_READ_TIMEOUT_MILLIS + ":5000}")
+    private int httpReadTimeoutMillis;
+
+    /**
+     * Installs the pooled transport for all OBA client library requests, or returns the library's own transport if
+     * pooling is turned off, in which case no pool is created.  Beans that make OBA calls depend on this one, so the
+     * transport is in place before the first call.  The destroy method is inferred, so only the pool is closed.
+     */
+    @Bean
+    public ObaConnectionFactory obaConnectionFactory() {
+        if (!httpPooled) {
+            return ObaApi.getConnectionFactory();
+        }
+        PooledObaConnectionFactory factory = new PooledObaConnectionFactory(httpMaxConnectionsPerHost,
+                httpMaxConnections, httpConnectTimeoutMillis, httpReadTimeoutMillis);
+        ObaApi.setConnectionFactory(factory);
+        return factory;
+    }
+
+    @Bean
+    @DependsOn("obaConnectionFactory")
+    public RegionsCache regionsCache() {
+        return new RegionsCache(ObaClientSharedCode::requestRegions, TimeUnit.MINUTES.toMillis(regionsCacheTtlMinutes));
+    }
+
+    /**
+     * Maximum number of blocking REST API and DynamoDB calls that run concurrently on behalf of a request.
+     */
+    @Value("${" + ONEBUSAWAY_IO_THREADS + ":16}")
+    private int ioThreads;
+
+    /**
+     * Bounded pool used to run independent blocking calls at the same time.  When the pool and its queue are full,
+     * calls run on the requesting thread instead of being rejected.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService obaExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ioThreads, ioThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(ioThreads * 4), daemonThreadFactory("oba-io"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Maximum number of calls made through the non-blocking client that run at the same time.
+     */
+    @Value("${" + ONEBUSAWAY_ASYNC_THREADS + ":32}")
+    private int asyncThreads;
+
+    /**
+     * How long a call made through the non-blocking client may take before its future fails, in milliseconds.
+     */
+    @Value("${" + ONEBUSAWAY_ASYNC_TIMEOUT_MILLIS + ":5000}")
+    private long asyncTimeoutMillis;
+
+    /**
+     * Dedicated pool for the non-blocking client.  Unlike obaExecutor, calls are rejected when it's saturated so that
+     * callers never block.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService obaAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(asyncThreads * 8), daemonThreadFactory("oba-async"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService obaTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("oba-timeout"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * True to decode arrivals responses as they're streamed, without the references section, false to let the client
+     * library decode the whole response.
+     */
+    @Value("${" + ONEBUSAWAY_STREAMING_ARRIVALS + ":true}")
+    private boolean streamingArrivals;
+
+    @Bean
+    public SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache() {
+        return new SingleFlightCache<>("arrivals", TimeUnit.SECONDS.toMillis(arrivalsCacheTtlSeconds),
+                arrivalsCacheMaxEntries);
+    }
+
+    /**
+     * Region time zones never change in practice, so they're kept for a day.  There is one entry per OBA server.
+     */
+    @Bean
+    public SingleFlightCache<String, TimeZone> timeZoneCache() {
+        return new SingleFlightCache<>("time zones", TimeUnit.DAYS.toMillis(1), 500);
+    }
+
+    /**
+     * A region's circuit breaker opens when this percentage of its recent OBA calls failed or took longer than the
+     * slow call threshold.  Calls to that region then fail straight away until trial calls succeed again.
+     */
+    @Value("${" + ONEBUSAWAY_BREAKER_FAILURE_RATE_PERCENT + ":50}")
+    private int breakerFailureRatePercent;
+
+    @Value("${" + ONEBUSAWAY_BREAKER_SLOW_CALL_MILLIS + ":3000}")
+    private long breakerSlowCallMillis;
+
+    @Value("${" + ONEBUSAWAY_BREAKER_WINDOW_SIZE + ":20}")
+    private int breakerWindowSize;
+
+    @Value("${" + ONEBUSAWAY_BREAKER_MINIMUM_CALLS + ":10}")
+    private int breakerMinimumCalls;
+
+    @Value("${" + ONEBUSAWAY_BREAKER_OPEN_SECONDS + ":30}")
+    private long breakerOpenSeconds;
+
+    @Value("${" + ONEBUSAWAY_BREAKER_HALF_OPEN_CALLS + ":3}")
+    private int breakerHalfOpenCalls;
+
     @Bean
+    public CircuitBreakers circuitBreakers() {
+        return new CircuitBreakers(new CircuitBreakerPolicy(breakerFailureRatePercent, breakerSlowCallMillis,
+                breakerWindowSize, breakerMinimumCalls, TimeUnit.SECONDS.toMillis(breakerOpenSeconds),
+                breakerHalfOpenCalls));
+    }
+
+    /**
+     * How long the last successful arrivals for a stop can be spoken when the region's OBA server fails, in minutes.
+     * Set to 0 to give the communication error prompt instead.
+     */
+    @Value("${" + ONEBUSAWAY_STALE_ARRIVALS_MAX_AGE_MINUTES + ":15}")
+    private long staleArrivalsMaxAgeMinutes;
+
+    @Value("${" + ONEBUSAWAY_STALE_ARRIVALS_MAX_ENTRIES + ":5000}")
+    private int staleArrivalsMaxEntries;
+
+    @Bean
+    public LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals() {
+        return new LastKnownGoodCache<>(TimeUnit.MINUTES.toMillis(staleArrivalsMaxAgeMinutes),
+                staleArrivalsMaxEntries);
+    }
+
+    /**
+     * Directory with the GTFS stops of each region, used to resolve stop numbers locally.  Leave empty to look up
+     * every stop number on the region's OBA server.
+     */
+    @Value("${" + ONEBUSAWAY_STOP_INDEX_DIR + ":}")
+    private String stopIndexDir;
+
+    @Value("${" + ONEBUSAWAY_STOP_INDEX_REFRESH_MINUTES + ":60}")
+    private long stopIndexRefreshMinutes;
+
+    @Bean
+    public StopCodeIndexes stopCodeIndexes() {
+        return new StopCodeIndexes(StringUtils.isBlank(stopIndexDir) ? null : new File(stopIndexDir),
+                TimeUnit.MINUTES.toMillis(stopIndexRefreshMinutes));
+    }
+
+    /**
+     * True to keep today's schedule for the stops users ask about, loaded in the background once per stop per day, so
+     * arrivals can be answered from the schedule when the region's OBA server fails.
+     */
+    @Value("${" + ONEBUSAWAY_SCHEDULE_FALLBACK + ":true}")
+    private boolean scheduleFallback;
+
+    @Value("${" + ONEBUSAWAY_SCHEDULE_CACHE_MAX_ENTRIES + ":2000}")
+    private int scheduleCacheMaxEntries;
+
+    @Bean
+    public ScheduleCache scheduleCache() {
+        return new ScheduleCache(scheduleCacheMaxEntries, obaAsyncExecutor());
+    }
+
+    /**
+     * True to ask OBA servers for a shorter window of arrivals at stops where the full window isn't needed to find the
+     * first few arrivals of every route, learned from earlier responses for the stop.
+     */
+    @Value("${" + ONEBUSAWAY_ADAPTIVE_SCAN + ":false}")
+    private boolean adaptiveScan;
+
+    @Value("${" + ONEBUSAWAY_ADAPTIVE_SCAN_MIN_MINUTES + ":15}")
+    private int adaptiveScanMinMinutes;
+
+    @Value("${" + ONEBUSAWAY_ADAPTIVE_SCAN_TARGET_ARRIVALS + ":3}")
+    private int adaptiveScanTargetArrivals;
+
+    @Value("${" + ONEBUSAWAY_ADAPTIVE_SCAN_FULL_EVERY + ":20}")
+    private int adaptiveScanFullEvery;
+
+    @Value("${" + ONEBUSAWAY_ADAPTIVE_SCAN_MAX_STOPS + ":5000}")
+    private int adaptiveScanMaxStops;
+
+    @Bean
+    public ScanWindows scanWindows() {
+        return new ScanWindows(adaptiveScanMinMinutes, ObaUserClient.ARRIVALS_SCAN_MINS, adaptiveScanTargetArrivals,
+                adaptiveScanFullEvery, adaptiveScanMaxStops);
+    }
+
+    /**
+     * Number of city names mapped straight to their region, or 0 to geocode the city and search the regions directory
+     * every time.
+     */
+    @Value("${" + ONEBUSAWAY_CITY_REGION_CACHE_MAX_ENTRIES + ":1000}")
+    private int cityRegionCacheMaxEntries;
+
+    @Bean
+    public CityRegionCache cityRegionCache() {
+        return new CityRegionCache(cityRegionCacheMaxEntries);
+    }
+
+    @Bean
+    @DependsOn("obaConnectionFactory")
     public ObaClient obaClient() {
-        return new ObaClient(apiKey);
+        return ObaClient.builder()
+                .apiKey(apiKey)
+                .regionsCache(regionsCache())
+                .arrivalsCache(arrivalsCache())
+                .timeZoneCache(timeZoneCache())
+                .arrivalsParser(streamingArrivals ? new StreamingArrivalsParser() : null)
+                .circuitBreakers(circuitBreakers())
+                .lastKnownArrivals(lastKnownArrivals())
+                .stopCodeIndexes(stopCodeIndexes())
+                .scheduleCache(scheduleFallback ? scheduleCache() : null)
+                .scanWindows(adaptiveScan ? scanWindows() : null)
+                .cityRegionCache(cityRegionCacheMaxEntries > 0 ? cityRegionCache() : null)
+                .build();
+    }
+
+    @Bean
+    public ObaAsyncClient obaAsyncClient() {
+        return new ObaAsyncClient(obaClient(), obaAsyncExecutor(), obaTimeoutScheduler(), asyncTimeoutMillis);
+    }
+
+    /**
+     * True to start fetching a returning user's arrivals while their data is read from DynamoDB.
+     */
+    @Value("${" + ONEBUSAWAY_PREFETCH_ARRIVALS + ":true}")
+    private boolean prefetchArrivals;
+
+    @Value("${" + ONEBUSAWAY_PREFETCH_MAX_USERS + ":10000}")
+    private int prefetchMaxUsers;
+
+    @Bean
+    public ArrivalsPrefetcher arrivalsPrefetcher() {
+        return new ArrivalsPrefetcher(obaAsyncClient(), prefetchMaxUsers, prefetchArrivals);
     }
 }
@@ -22,6 +22,55 @@ public class ObaProperty {
     public static final String APP_SKILL_ID_PRODUCTION = "skill-app-id-production";
     public static final String AWS_KEY_ID = "aws.key-id";
     public static final String AWS_SECRET_KEY = "aws.secret-key";
+    public static final String AWS_DYNAMODB_MAX_CONNECTIONS = "aws.dynamodb-max-connections";
+    public static final String AWS_DYNAMODB_CONNECT_TIMEOUT_MILLIS = "aws.dynamodb-connect-timeout-millis";
+    public static final String AWS_DYNAMODB_SOCKET_TIMEOUT_MILLIS = "aws.dynamodb-socket-timeout-millis";
+    public static final String AWS_DYNAMODB_MAX_ERROR_RETRIES = "aws.dynamodb-max-error-retries";
+    public static final String AWS_DYNAMODB_CONSISTENT_USER_READS = "aws.dynamodb-consistent-user-reads";
+    public static final String AWS_DYNAMODB_WRITE_BEHIND = "aws.dynamodb-write-behind";
     public static final String GOOGLE_MAPS_API_KEY = "googlemaps.api-key";
     public static final String ONEBUSAWAY_MAPS_API_KEY = "onebusaway.api-key";
+    public static final String ONEBUSAWAY_REGIONS_CACHE_TTL_MINUTES = "onebusaway.regions-cache-ttl-minutes";
+    public static final String ONEBUSAWAY_ARRIVALS_CACHE_TTL_SECONDS = "onebusaway.arrivals-cache-ttl-seconds";
+    public static final String ONEBUSAWAY_ARRIVALS_CACHE_MAX_ENTRIES = "onebusaway.arrivals-cache-max-entries";
+    public static final String ONEBUSAWAY_IO_THREADS = "onebusaway.io-threads";
+    public static final String ONEBUSAWAY_ASYNC_THREADS = "onebusaway.async-threads";
+    public static final String ONEBUSAWAY_ASYNC_TIMEOUT_MILLIS = "onebusaway.async-timeout-millis";
+    public static final String ONEBUSAWAY_HTTP_POOLED = "onebusaway.http-pooled";
+    public static final String ONEBUSAWAY_HTTP_MAX_CONNECTIONS_PER_HOST = "onebusaway.http-max-connections-per-host";
+    public static final String ONEBUSAWAY_HTTP_MAX_CONNECTIONS = "onebusaway.http-max-connections";
+    public static final String ONEBUSAWAY_HTTP_CONNECT_TIMEOUT_MILLIS = "onebusaway.http-connect-timeout-millis";
+    public static final String ONEBUSAWAY_HTTP_READ_TIMEOUT_MILLIS = "onebusaway.http-read-timeout-millis";
+    public static final String ONEBUSAWAY_STREAMING_ARRIVALS = "onebusaway.streaming-arrivals";
+    public static final String ONEBUSAWAY_BREAKER_FAILURE_RATE_PERCENT = "onebusaway.breaker-failure-rate-percent";
+    public static final String ONEBUSAWAY_BREAKER_SLOW_CALL_MILLIS = "onebusaway.breaker-slow-call-millis";
+    public static final String ONEBUSAWAY_BREAKER_WINDOW_SIZE = "onebusaway.breaker-window-size";
+    public static final String ONEBUSAWAY_BREAKER_MINIMUM_CALLS = "onebusaway.breaker-minimum-calls";
+    public static final String ONEBUSAWAY_BREAKER_OPEN_SECONDS = "onebusaway.breaker-open-seconds";
+    public static final String ONEBUSAWAY_BREAKER_HALF_OPEN_CALLS = "onebusaway.breaker-half-open-calls";
+    public static final String ONEBUSAWAY_STALE_ARRIVALS_MAX_AGE_MINUTES = "onebusaway.stale-arrivals-max-age-minutes";
+    public static final String ONEBUSAWAY_STALE_ARRIVALS_MAX_ENTRIES = "onebusaway.stale-arrivals-max-entries";
+    public static final String ONEBUSAWAY_STOP_INDEX_DIR = "onebusaway.stop-index-dir";
+    public static final String ONEBUSAWAY_STOP_INDEX_REFRESH_MINUTES = "onebusaway.stop-index-refresh-minutes";
+    public static final String ONEBUSAWAY_PREFETCH_ARRIVALS = "onebusaway.prefetch-arrivals";
+    public static final String ONEBUSAWAY_PREFETCH_MAX_USERS = "onebusaway.prefetch-max-users";
+    public static final String ONEBUSAWAY_SCHEDULE_FALLBACK = "onebusaway.schedule-fallback";
+    public static final String ONEBUSAWAY_SCHEDULE_CACHE_MAX_ENTRIES = "onebusaway.schedule-cache-max-entries";
+    public static final String ONEBUSAWAY_ADAPTIVE_SCAN = "onebusaway.adaptive-scan";
+    public static final String ONEBUSAWAY_ADAPTIVE_SCAN_MIN_MINUTES = "onebusaway.adaptive-scan-min-minutes";
+    public static final String ONEBUSAWAY_ADAPTIVE_SCAN_TARGET_ARRIVALS = "onebusaway.adaptive-scan-target-arrivals";
+    public static final String ONEBUSAWAY_ADAPTIVE_SCAN_FULL_EVERY = "onebusaway.adaptive-scan-full-every";
+    public static final String ONEBUSAWAY_ADAPTIVE_SCAN_MAX_STOPS = "onebusaway.adaptive-scan-max-stops";
+    public static final String ONEBUSAWAY_CITY_REGION_CACHE_MAX_ENTRIES = "onebusaway.city-region-cache-max-entries";
+    public static final String GOOGLE_MAPS_QUERIES_PER_SECOND = "googlemaps.queries-per-second";
+    public static final String GOOGLE_MAPS_CONNECT_TIMEOUT_MILLIS = "googlemaps.connect-timeout-millis";
+    public static final String GOOGLE_MAPS_READ_TIMEOUT_MILLIS = "googlemaps.read-timeout-millis";
+    public static final String GOOGLE_MAPS_RETRY_TIMEOUT_MILLIS = "googlemaps.retry-timeout-millis";
+    public static final String GOOGLE_MAPS_GEOCODE_CACHE_MAX_ENTRIES = "googlemaps.geocode-cache-max-entries";
+    public static final String GOOGLE_MAPS_GEOCODE_CACHE_TTL_DAYS = "googlemaps.geocode-cache-ttl-days";
+    public static final String GOOGLE_MAPS_GEOCODE_CACHE_NOT_FOUND_TTL_HOURS = "googlemaps.geocode-cache-not-found-ttl-hours";
+    public static final String GOOGLE_MAPS_GEOCODE_CACHE_PERSISTENT = "googlemaps.geocode-cache-persistent";
+    public static final String GOOGLE_MAPS_GAZETTEER = "googlemaps.gazetteer";
+    public static final String GOOGLE_MAPS_FUZZY_MATCH = "googlemaps.fuzzy-match";
+    public static final String GOOGLE_MAPS_FUZZY_MATCH_MIN_CONFIDENCE = "googlemaps.fuzzy-match-min-confidence";
 }
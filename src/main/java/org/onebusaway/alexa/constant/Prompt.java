@@ -35,12 +35,24 @@ public enum Prompt {
     ENABLE_CLOCK_TIME("enableClockTime", true),
     DISABLE_CLOCK_TIME("disableClockTime", true),
     ARRIVAL_INFO_FORMAT("arrivalInfoFormat", true),
+    STALE_ARRIVAL_INFO_FORMAT("staleArrivalInfoFormat", true),
+    STALE_ARRIVAL_INFO_ONE_MINUTE_FORMAT("staleArrivalInfoOneMinuteFormat", true),
+    SCHEDULED_ARRIVAL_INFO_FORMAT("scheduledArrivalInfoFormat", true),
+    STOP_ARRIVALS_FORMAT("stopArrivalsFormat"),
+    PRIMARY_STOP_ARRIVALS_FORMAT("primaryStopArrivalsFormat"),
+    STOP_ARRIVALS_ERROR("stopArrivalsError"),
+    STALE_STOP_ARRIVALS_FORMAT("staleStopArrivalsFormat"),
+    STALE_STOP_ARRIVALS_ONE_MINUTE_FORMAT("staleStopArrivalsOneMinuteFormat"),
     NO_ARRIVALS("noArrivals"),
     NO_ARRIVALS_AFTER_FILTER("noArrivalsAfterFilter"),
     SET_FILTER("setFilter", true),
     SELECT_ROUTE_TO_FILTER("selectRouteToFilter"),
     ONLY_ONE_ROUTE("onlyOneRoute", true),
     SAVE_ROUTE_FILTER("saveRouteFilter", true),
+    SAVE_STOP("saveStop", true),
+    FORGET_STOP("forgetStop", true),
+    FORGET_STOP_NOT_FOUND("forgetStopNotFound", true),
+    STOP_NAME_MISSING("stopNameMissing"),
     ENABLE_EXPERIMENTAL_REGIONS("enableExperimentalRegions", true),
     DISABLE_EXPERIMENTAL_REGIONS("disableExperimentalRegions", true),
     USER_EXIT("userExit", true),
@@ -53,6 +65,7 @@ public enum Prompt {
     UNKNOWN_INTENT_MESSAGE("unknownIntentMessage"),
     GENERAL_ERROR_MESSAGE("generalErrorMessage"),
     COMMUNICATION_ERROR_MESSAGE("communicationErrorMessage"),
+    TIMEOUT_ERROR_MESSAGE("timeoutErrorMessage"),
 
     // skill reprompts
     ASK_FOR_CITY("askForCity"),
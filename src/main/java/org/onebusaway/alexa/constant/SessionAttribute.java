@@ -24,6 +24,7 @@ public class SessionAttribute {
     public static final String CITY_NAME = "cityName";
     public static final String STOP_ID = "stopNumber";
     public static final String STOP_CODE = "stopCode";
+    public static final String STOP_NAME = "stopName";
     public static final String REGION_ID = "regionId";
     public static final String REGION_NAME = "regionName";
     public static final String OBA_BASE_URL = "obaBaseUrl";
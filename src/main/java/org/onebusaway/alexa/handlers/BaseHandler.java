@@ -23,7 +23,9 @@ import com.amazon.ask.model.RequestEnvelope;
 import com.amazon.ask.model.Response;
 import com.amazon.ask.request.Predicates;
 import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.lib.Deadline;
 import org.onebusaway.alexa.storage.ObaDao;
+import org.onebusaway.alexa.storage.UserDataUnitOfWork;
 
 import javax.inject.Inject;
 import java.util.Optional;
@@ -33,11 +35,21 @@ import java.util.Optional;
  */
 @Log4j
 abstract public class BaseHandler implements RequestHandler {
+    /**
+     * Alexa gives up on a response after 8 seconds - leave some time to build and send the response
+     */
+    public static final long REQUEST_BUDGET_MILLIS = 7000;
+
     @Inject
     protected ObaDao obaDao;
 
     protected HandlerInput handlerInput;
 
+    /**
+     * Deadline for answering the current request, passed to each call made on its behalf.
+     */
+    protected Deadline deadline;
+
     protected AttributesManager attributesManager;
 
     /**
@@ -74,10 +86,14 @@ abstract public class BaseHandler implements RequestHandler {
     @Override
     public Optional<Response> handle(final HandlerInput handlerInput) {
         try {
+            this.deadline = Deadline.after(REQUEST_BUDGET_MILLIS);
             this.handlerInput = handlerInput;
             this.attributesManager = handlerInput.getAttributesManager();
             log.info(handlerInput.getRequestEnvelopeJson());
-            return handle();
+            // Users' data is read from DynamoDB once per request, and saved once when the request has been handled
+            try (UserDataUnitOfWork.Scope ignored = obaDao.beginUnitOfWork()) {
+                return handle();
+            }
         } catch (Exception e) {
             log.error("Exception thrown while processing the request", e);
             // Let the exception handler to handle the request
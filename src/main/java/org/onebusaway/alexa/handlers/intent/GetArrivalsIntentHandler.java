@@ -34,6 +34,14 @@ public class GetArrivalsIntentHandler extends IntentHandler {
         return "GetArrivalsIntent";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean tellsArrivals() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -18,9 +18,11 @@ package org.onebusaway.alexa.handlers.intent;
 import com.amazon.ask.model.Response;
 import lombok.extern.log4j.Log4j;
 import org.onebusaway.alexa.constant.SessionAttribute.AskState;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
 import org.onebusaway.alexa.exception.OneBusAwayException;
 import org.onebusaway.alexa.handlers.BaseHandler;
 import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.ArrivalsPrefetcher;
 import org.onebusaway.alexa.lib.GoogleMaps;
 import org.onebusaway.alexa.lib.ObaClient;
 import org.onebusaway.alexa.lib.ObaUserClient;
@@ -35,6 +37,7 @@ import javax.inject.Inject;
 import java.util.Optional;
 
 import static org.onebusaway.alexa.constant.Prompt.GENERAL_ERROR_MESSAGE;
+import static org.onebusaway.alexa.constant.Prompt.TIMEOUT_ERROR_MESSAGE;
 import static org.onebusaway.alexa.constant.SessionAttribute.ASK_STATE;
 import static org.onebusaway.alexa.constant.SessionAttribute.AskState.NONE;
 import static org.onebusaway.alexa.constant.SessionAttribute.PRINCIPLE_ID;
@@ -59,6 +62,9 @@ abstract public class IntentHandler extends BaseHandler {
     @Inject
     protected PromptHelper promptHelper;
 
+    @Inject
+    protected ArrivalsPrefetcher arrivalsPrefetcher;
+
     protected AskState askState;
 
     protected PersonalizationInfo personalization;
@@ -76,8 +82,46 @@ abstract public class IntentHandler extends BaseHandler {
      */
     @Override
     public Optional<Response> handle() {
+        try {
+            return handleForUser();
+        } catch (RuntimeException e) {
+            // Once the time is up, whatever failed, the user should hear why they didn't get an answer
+            if (e instanceof DeadlineExceededException || (deadline != null && deadline.isExpired())) {
+                log.warn("Ran out of time handling the request: " + e.getMessage());
+                throw new OneBusAwayException(promptHelper.getPrompt(TIMEOUT_ERROR_MESSAGE), e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the user's data and handles the request with or without it.
+     *
+     * @return alexa response
+     */
+    private Optional<Response> handleForUser() {
         personalizationInitialization();
-        final Optional<ObaUserDataItem> obaUserDataItem = obaDao.getUserData(personalization.getPrincipleId());
+        final ArrivalsPrefetcher.Prefetch prefetch = tellsArrivals()
+                ? arrivalsPrefetcher.start(personalization.getPrincipleId(), deadline)
+                : ArrivalsPrefetcher.Prefetch.NONE;
+        try {
+            final Optional<ObaUserDataItem> obaUserDataItem = obaDao.getUserData(personalization.getPrincipleId());
+            obaUserDataItem.ifPresent(item -> arrivalsPrefetcher.remember(personalization.getPrincipleId(), item));
+            prefetch.keepIfFor(obaUserDataItem.orElse(null));
+            return handleForUser(obaUserDataItem);
+        } finally {
+            // Doesn't do anything if the handler already got the arrivals
+            prefetch.cancel();
+        }
+    }
+
+    /**
+     * Handles the request with or without the user's data.
+     *
+     * @param obaUserDataItem the user's data, or empty if the user hasn't been on-boarded
+     * @return alexa response
+     */
+    private Optional<Response> handleForUser(final Optional<ObaUserDataItem> obaUserDataItem) {
         populateAlexaSessionAttributes(obaUserDataItem);
         this.askState = AskState.valueOf(getSessionAttribute(ASK_STATE, String.class, NONE.toString()));
         log.info(String.format("askState is %s when request start", askState));
@@ -85,7 +129,7 @@ abstract public class IntentHandler extends BaseHandler {
 
         if (obaUserDataItem.isPresent()) {
             try {
-                final ObaUserClient obaUserClient = new ObaUserClient(obaUserDataItem.get().getObaBaseUrl());
+                final ObaUserClient obaUserClient = obaClient.withObaBaseUrl(obaUserDataItem.get().getObaBaseUrl(), deadline);
                 return handleWithObaData(obaUserDataItem.get(), obaUserClient);
             } catch (Exception e) {
                 throw new OneBusAwayException(promptHelper.getPrompt(GENERAL_ERROR_MESSAGE), e);
@@ -95,6 +139,16 @@ abstract public class IntentHandler extends BaseHandler {
         }
     }
 
+    /**
+     * Returns true if the handler tells returning users their arrivals, so they're worth fetching while the user's
+     * data is loaded.
+     *
+     * @return true if the handler tells arrivals when the user's data is available
+     */
+    protected boolean tellsArrivals() {
+        return false;
+    }
+
     /**
      * Initialized skill personalization.
      */
@@ -133,7 +187,7 @@ abstract public class IntentHandler extends BaseHandler {
     protected Optional<Response> fulfillCityAndStop() {
         final String userId = personalization.getPrincipleId();
         return CityUtil.fulfillCityAndStop(
-                userId, this.attributesManager, this.googleMaps, this.obaClient, this.obaDao);
+                userId, this.attributesManager, this.googleMaps, this.obaClient, this.obaDao, this.deadline);
     }
 
     /**
@@ -65,6 +65,14 @@ public class LaunchRequestHandler extends IntentHandler {
         return "LaunchRequest";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean tellsArrivals() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -82,7 +90,7 @@ public class LaunchRequestHandler extends IntentHandler {
             Optional<ObaUserDataItem> obaUserDataItem = this.obaDao.getUserData(personalization.getUserId());
             if (obaUserDataItem.isPresent()) {
                 try {
-                    ObaUserClient obaUserClient = new ObaUserClient(obaUserDataItem.get().getObaBaseUrl());
+                    ObaUserClient obaUserClient = obaClient.withObaBaseUrl(obaUserDataItem.get().getObaBaseUrl(), deadline);
                     final ObaStopResponse stop = obaUserClient.getStopDetails(obaUserDataItem.get().getStopId());
                     addOrUpdateSessionAttribute(ASK_STATE, SessionAttribute.AskState.COPY_PROFILE_CONFIRM.toString());
                     final String speech =
@@ -68,7 +68,7 @@ public class NoIntentHandler extends IntentHandler {
     @Override
     public Optional<Response> handleWithoutObaData() {
         if (askState == SessionAttribute.AskState.VERIFYSTOP) {
-            return StopUtil.handleDuplicateStopResponse(personalization.getPrincipleId(), this.attributesManager, false, googleMaps, obaClient, obaDao);
+            return StopUtil.handleDuplicateStopResponse(personalization.getPrincipleId(), this.attributesManager, false, googleMaps, obaClient, obaDao, deadline);
         }
         if (askState == SessionAttribute.AskState.COPY_PROFILE_CONFIRM && personalization.isPersonalized()) {
             return CityUtil.askForCityResponse();
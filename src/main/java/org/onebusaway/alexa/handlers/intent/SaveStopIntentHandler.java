@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onebusaway.alexa.handlers.intent;
+
+import com.amazon.ask.model.Intent;
+import com.amazon.ask.model.IntentRequest;
+import com.amazon.ask.model.Response;
+import com.amazon.ask.model.Slot;
+import com.amazon.ask.request.exception.handler.impl.AbstractHandlerInput;
+import lombok.extern.log4j.Log4j;
+import org.apache.commons.lang3.StringUtils;
+import org.onebusaway.alexa.lib.ObaUserClient;
+import org.onebusaway.alexa.storage.ObaUserDataItem;
+import org.onebusaway.alexa.util.CityUtil;
+import org.onebusaway.alexa.util.StorageUtil;
+
+import java.util.HashMap;
+import java.util.Optional;
+
+import static org.onebusaway.alexa.constant.Prompt.SAVE_STOP;
+import static org.onebusaway.alexa.constant.Prompt.STOP_NAME_MISSING;
+import static org.onebusaway.alexa.constant.SessionAttribute.STOP_NAME;
+
+/**
+ * Handler for SaveStopIntent intent request (e.g. "ask OneBusAway save my stop as work").
+ */
+@Log4j
+public class SaveStopIntentHandler extends IntentHandler {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIntentRequestName() {
+        return "SaveStopIntent";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Response> handleWithObaData(final ObaUserDataItem obaUserDataItem, final ObaUserClient obaUserClient) {
+        final String stopName = getStopNameFromRequest();
+        if (StringUtils.isBlank(stopName)) {
+            log.info("Stop name not found");
+            return promptHelper.getResponse(STOP_NAME_MISSING);
+        }
+        final String stopId = obaUserDataItem.getStopId();
+        log.info("Saving stop " + stopId + " as " + stopName);
+
+        // A name stands for one stop, so saving a name again moves it to the current stop
+        final HashMap<String, String> savedStops = obaUserDataItem.getSavedStops() == null
+                ? new HashMap<>() : new HashMap<>(obaUserDataItem.getSavedStops());
+        savedStops.values().removeIf(stopName::equalsIgnoreCase);
+        savedStops.put(stopId, stopName);
+        obaUserDataItem.setSavedStops(savedStops);
+        obaDao.saveUserData(obaUserDataItem);
+
+        final String output = promptHelper.getPrompt(SAVE_STOP, stopName);
+        StorageUtil.saveOutputForRepeat(output, obaDao, obaUserDataItem);
+        return promptHelper.getResponse(output);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Response> handleWithoutObaData() {
+        return CityUtil.askForCityResponse();
+    }
+
+    /**
+     * Gets the name the user gave the stop.
+     *
+     * @return the name of the stop, or null if the user didn't give one
+     */
+    private String getStopNameFromRequest() {
+        return Optional.of(handlerInput)
+                .map(AbstractHandlerInput::getRequest)
+                .map(request -> (IntentRequest) request)
+                .map(IntentRequest::getIntent)
+                .map(Intent::getSlots).map(m -> m.get(STOP_NAME))
+                .map(Slot::getValue).orElse(null);
+    }
+}
@@ -23,6 +23,7 @@ import com.amazon.ask.request.exception.handler.impl.AbstractHandlerInput;
 import lombok.extern.log4j.Log4j;
 import org.apache.commons.lang3.StringUtils;
 import org.onebusaway.alexa.constant.SessionAttribute;
+import org.onebusaway.alexa.lib.CityRegionCache.CityRegion;
 import org.onebusaway.alexa.lib.ObaUserClient;
 import org.onebusaway.alexa.storage.ObaUserDataItem;
 import org.onebusaway.alexa.util.CityUtil;
@@ -74,31 +75,38 @@ public class SetCityIntentHandler extends IntentHandler {
         }
 
         boolean experimentalRegions = getSessionAttribute(EXPERIMENTAL_REGIONS, Boolean.class, false);
-        Optional<Location> location = googleMaps.geocode(cityName);
-
-        // location can be null if there is an exception from Google GeocodingApi.
-        if (!location.isPresent()) {
-            log.debug("Location is not present.");
-            return CityUtil.askForCityResponse();
-        }
-
+        Optional<ObaRegion> region;
         try {
-            Optional<ObaRegion> region = obaClient.getClosestRegion(location.get(), experimentalRegions);
-            boolean isRegionNotExist = !region.map(ObaRegion::getObaBaseUrl).isPresent();
-            if (isRegionNotExist) {
-                return CityUtil.askForCityResponse(cityName, this.attributesManager, this.obaClient);
-            }
+            // Cities that have been named before are mapped straight to their region
+            region = obaClient.getCityRegion(cityName, experimentalRegions).map(CityRegion::getRegion);
+            if (!region.isPresent()) {
+                Optional<Location> location = googleMaps.geocode(cityName, deadline);
 
-            updateSessionWithCityInfo(cityName, region.get());
+                // location can be null if there is an exception from Google GeocodingApi.
+                if (!location.isPresent()) {
+                    log.debug("Location is not present.");
+                    return CityUtil.askForCityResponse();
+                }
 
-            if (askState == SessionAttribute.AskState.STOP_BEFORE_CITY) {
-                return fulfillCityAndStop();
+                deadline.check("finding the closest region");
+                region = obaClient.getClosestRegion(location.get(), experimentalRegions);
+                boolean isRegionNotExist = !region.map(ObaRegion::getObaBaseUrl).isPresent();
+                if (isRegionNotExist) {
+                    return CityUtil.askForCityResponse(cityName, this.attributesManager, this.obaClient);
+                }
+                obaClient.putCityRegion(cityName, experimentalRegions, region.get(), location.get());
             }
-            return promptHelper.getResponse(promptHelper.getPrompt(FOUND_CITY, region.get().getName()), promptHelper.getPrompt(ASK_FOR_STOP));
         } catch (IOException e) {
             log.error(e);
             return CityUtil.askForCityResponse(cityName, this.attributesManager, this.obaClient);
         }
+
+        updateSessionWithCityInfo(cityName, region.get());
+
+        if (askState == SessionAttribute.AskState.STOP_BEFORE_CITY) {
+            return fulfillCityAndStop();
+        }
+        return promptHelper.getResponse(promptHelper.getPrompt(FOUND_CITY, region.get().getName()), promptHelper.getPrompt(ASK_FOR_STOP));
     }
 
     /**
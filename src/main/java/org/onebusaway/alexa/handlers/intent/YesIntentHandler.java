@@ -68,7 +68,7 @@ public class YesIntentHandler extends IntentHandler {
     @Override
     public Optional<Response> handleWithoutObaData() {
         if (askState == SessionAttribute.AskState.VERIFYSTOP) {
-            return StopUtil.handleDuplicateStopResponse(personalization.getPrincipleId(), attributesManager, true, googleMaps, obaClient, obaDao);
+            return StopUtil.handleDuplicateStopResponse(personalization.getPrincipleId(), attributesManager, true, googleMaps, obaClient, obaDao, deadline);
         }
 
         if (askState == SessionAttribute.AskState.COPY_PROFILE_CONFIRM && personalization.isPersonalized()) {
@@ -76,7 +76,7 @@ public class YesIntentHandler extends IntentHandler {
                 Optional<ObaUserDataItem> obaUserDataItem = this.obaDao.getUserData(personalization.getUserId());
                 obaUserDataItem.get().setUserId(personalization.getPersonId());
                 obaUserDataItem.get().setPreviousResponse(StringUtils.EMPTY);
-                ObaUserClient obaUserClient = new ObaUserClient(obaUserDataItem.get().getObaBaseUrl());
+                ObaUserClient obaUserClient = obaClient.withObaBaseUrl(obaUserDataItem.get().getObaBaseUrl(), deadline);
                 this.obaDao.saveUserData(obaUserDataItem.get());
                 populateAlexaSessionAttributes(obaUserDataItem);
                 return CityUtil.tellArrivals(obaUserDataItem.get(), obaUserClient, attributesManager, obaDao);
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the arrivals for a stop from its cached schedule and whatever real-time arrivals are available, for when
+ * the region's OBA server can't give a fresh answer.
+ * <p>
+ * Real-time arrivals are kept as they are.  Scheduled trips that aren't among them are added as arrivals without a
+ * prediction, which SpeechUtil speaks as scheduled rather than predicted times.
+ */
+public final class ArrivalsEngine {
+    private static final ObjectMapper MAPPER = StreamingArrivalsParser.newElementMapper();
+
+    private ArrivalsEngine() {
+    }
+
+    /**
+     * @param schedule    the stop's schedule for the current service date
+     * @param realTime    real-time arrivals for the stop that haven't departed, possibly empty
+     * @param currentTime current time, in milliseconds since the epoch
+     * @param scanMins    number of minutes to look ahead for scheduled arrivals
+     * @return real-time arrivals plus the scheduled trips departing in the next scanMins minutes that they don't cover,
+     * in departure order
+     */
+    public static ObaArrivalInfo[] merge(@NonNull StopSchedule schedule, @NonNull ObaArrivalInfo[] realTime,
+                                         long currentTime, int scanMins) {
+        List<ObaArrivalInfo> arrivals = new ArrayList<>(Arrays.asList(realTime));
+        Set<String> realTimeTrips = new HashSet<>();
+        for (ObaArrivalInfo arrival : realTime) {
+            if (arrival.getTripId() != null) {
+                realTimeTrips.add(arrival.getTripId());
+            }
+        }
+        for (StopSchedule.StopTime stopTime : schedule.getDeparting(currentTime,
+                currentTime + TimeUnit.MINUTES.toMillis(scanMins))) {
+            if (stopTime.getTripId() == null || !realTimeTrips.contains(stopTime.getTripId())) {
+                arrivals.add(toArrivalInfo(schedule.getStopId(), stopTime));
+            }
+        }
+        arrivals.sort(Comparator.comparingLong(StaleArrivals::getDepartureTime));
+        return arrivals.toArray(new ObaArrivalInfo[0]);
+    }
+
+    /**
+     * The library's arrivals are immutable and only built by decoding JSON, so scheduled arrivals are bound the same
+     * way from their fields
+     */
+    static ObaArrivalInfo toArrivalInfo(String stopId, StopSchedule.StopTime stopTime) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("routeId", stopTime.getRouteId());
+        fields.put("routeShortName", stopTime.getRouteShortName());
+        fields.put("tripId", stopTime.getTripId());
+        fields.put("tripHeadsign", stopTime.getHeadsign());
+        fields.put("stopId", stopId);
+        fields.put("scheduledArrivalTime", stopTime.getArrivalTime());
+        fields.put("scheduledDepartureTime", stopTime.getDepartureTime());
+        fields.put("status", "default");
+        fields.put("predicted", false);
+        return MAPPER.convertValue(fields, ObaArrivalInfo.class);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.storage.ObaUserDataItem;
+
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts fetching a returning user's arrivals before their data has been read from DynamoDB, so the two round trips
+ * overlap instead of adding up.
+ * <p>
+ * The region and stop of recent users are remembered in memory.  A prefetch requests the arrivals for the remembered
+ * stop through the shared arrivals cache, so when the handler asks for the same stop it joins the call that's already
+ * in flight or gets its result.  If the user's data turns out to name a different stop, or the request doesn't need
+ * arrivals after all, the prefetch is cancelled.  A call that has already started isn't interrupted, because other
+ * requests for the same stop may have joined it through the arrivals cache.
+ */
+@Log4j
+public class ArrivalsPrefetcher {
+    private final ObaAsyncClient obaAsyncClient;
+    private final boolean enabled;
+
+    // Guarded by itself
+    private final Map<String, SavedStop> savedStops;
+
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong usedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+
+    /**
+     * @param obaAsyncClient client the arrivals are requested with
+     * @param maxUsers       maximum number of users whose stop is remembered
+     * @param enabled        false to never prefetch arrivals
+     */
+    public ArrivalsPrefetcher(@NonNull ObaAsyncClient obaAsyncClient, int maxUsers, boolean enabled) {
+        this.obaAsyncClient = obaAsyncClient;
+        this.enabled = enabled;
+        this.savedStops = new LinkedHashMap<String, SavedStop>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SavedStop> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    /**
+     * Starts fetching the arrivals for the user's remembered stop, if there is one
+     *
+     * @param userId   ID of the user
+     * @param deadline deadline of the request
+     * @return the prefetch, to be matched against the user's data once it's loaded
+     */
+    public Prefetch start(@NonNull String userId, @NonNull Deadline deadline) {
+        if (!enabled) {
+            return Prefetch.NONE;
+        }
+        SavedStop savedStop;
+        synchronized (savedStops) {
+            savedStop = savedStops.get(userId);
+        }
+        if (savedStop == null) {
+            return Prefetch.NONE;
+        }
+        try {
+            ObaAsyncUserClient client = obaAsyncClient.withObaBaseUrl(savedStop.obaBaseUrl).withDeadline(deadline);
+            // The window the request asks for first, so the request's call is answered by this one
+            CompletableFuture<?> future = client.getArrivalsAndDeparturesForStop(savedStop.stopId,
+                    client.getScanMinsForStop(savedStop.stopId));
+            startedCount.incrementAndGet();
+            log.debug("Prefetching arrivals for stop " + savedStop.stopId);
+            return new Prefetch(this, savedStop, future);
+        } catch (URISyntaxException e) {
+            return Prefetch.NONE;
+        }
+    }
+
+    /**
+     * Remembers the region and stop in the user's data, for the user's next request
+     *
+     * @param userId          ID of the user
+     * @param obaUserDataItem the user's data
+     */
+    public void remember(@NonNull String userId, @NonNull ObaUserDataItem obaUserDataItem) {
+        if (!enabled || obaUserDataItem.getObaBaseUrl() == null || obaUserDataItem.getStopId() == null) {
+            return;
+        }
+        synchronized (savedStops) {
+            savedStops.put(userId, new SavedStop(obaUserDataItem.getObaBaseUrl(), obaUserDataItem.getStopId()));
+        }
+    }
+
+    /**
+     * @return number of prefetches started
+     */
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    /**
+     * @return number of prefetches whose stop matched the user's data
+     */
+    public long getUsedCount() {
+        return usedCount.get();
+    }
+
+    /**
+     * @return number of prefetches cancelled because they weren't needed
+     */
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    /**
+     * Arrivals being fetched ahead of time for a request
+     */
+    public static class Prefetch {
+        /**
+         * A prefetch that wasn't started
+         */
+        public static final Prefetch NONE = new Prefetch(null, null, null);
+
+        private final ArrivalsPrefetcher prefetcher;
+        private final SavedStop savedStop;
+        private final CompletableFuture<?> future;
+
+        private Prefetch(ArrivalsPrefetcher prefetcher, SavedStop savedStop, CompletableFuture<?> future) {
+            this.prefetcher = prefetcher;
+            this.savedStop = savedStop;
+            this.future = future;
+        }
+
+        /**
+         * Keeps the prefetch if it's for the stop in the user's data, and otherwise cancels it
+         *
+         * @param obaUserDataItem the user's data, or null if the user hasn't set up a stop
+         * @return true if the prefetch is for the user's stop
+         */
+        public boolean keepIfFor(ObaUserDataItem obaUserDataItem) {
+            if (future == null) {
+                return false;
+            }
+            if (obaUserDataItem != null && savedStop.obaBaseUrl.equals(obaUserDataItem.getObaBaseUrl())
+                    && savedStop.stopId.equals(obaUserDataItem.getStopId())) {
+                prefetcher.usedCount.incrementAndGet();
+                return true;
+            }
+            cancel();
+            return false;
+        }
+
+        /**
+         * Cancels the prefetch if it's still running, e.g. because the request didn't need arrivals after all.  The
+         * call is dropped if it hasn't started, and otherwise left to finish for any other requests that joined it.
+         */
+        public void cancel() {
+            if (future != null && future.cancel(false)) {
+                prefetcher.cancelledCount.incrementAndGet();
+                log.debug("Cancelled prefetch of arrivals for stop " + savedStop.stopId);
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class SavedStop {
+        private final String obaBaseUrl;
+        private final String stopId;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+
+import java.time.Clock;
+import java.util.function.BiConsumer;
+
+/**
+ * Circuit breaker for the OBA server of a single region.
+ * <p>
+ * While the breaker is closed, the outcome and latency of each call is recorded over a window of the most recent
+ * calls.  Once enough of them failed or were slow, the breaker opens and calls are rejected straight away instead of
+ * each one waiting for the server to time out.  After a while the breaker is half-open: a few trial calls are let
+ * through, and the breaker closes if they all succeed or opens again if any of them fails.
+ */
+@Log4j
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Getter
+    private final String name;
+    private final CircuitBreakerPolicy policy;
+    private final Clock clock;
+    private final BiConsumer<CircuitBreaker, State> transitionListener;
+
+    // All of the following are guarded by this
+    private State state = State.CLOSED;
+    private final boolean[] windowFailed;
+    private final long[] windowLatencyMillis;
+    private int windowNext;
+    private int windowCount;
+    private int windowFailures;
+    private long windowTotalLatencyMillis;
+    private long openedAtMillis;
+    private int trialCallsStarted;
+    private int trialCallsSucceeded;
+    private long rejectedCount;
+
+    /**
+     * @param name               name of the breaker, used in log messages
+     * @param policy             thresholds for opening and closing the breaker
+     * @param transitionListener called with the breaker and its new state each time the state changes
+     */
+    public CircuitBreaker(@NonNull String name, @NonNull CircuitBreakerPolicy policy,
+                          @NonNull BiConsumer<CircuitBreaker, State> transitionListener) {
+        this(name, policy, transitionListener, Clock.systemUTC());
+    }
+
+    CircuitBreaker(String name, CircuitBreakerPolicy policy, BiConsumer<CircuitBreaker, State> transitionListener,
+                   Clock clock) {
+        this.name = name;
+        this.policy = policy;
+        this.transitionListener = transitionListener;
+        this.clock = clock;
+        this.windowFailed = new boolean[policy.getWindowSize()];
+        this.windowLatencyMillis = new long[policy.getWindowSize()];
+    }
+
+    /**
+     * Checks whether a call may be made.  Each call that's allowed must be followed by {@link #onResult(boolean, long)}
+     * or {@link #releasePermission()}.
+     *
+     * @return true if the call may be made, false if it should be rejected
+     */
+    public boolean tryAcquirePermission() {
+        State newState = null;
+        boolean permitted;
+        synchronized (this) {
+            if (state == State.OPEN && clock.millis() - openedAtMillis >= policy.getOpenMillis()) {
+                newState = transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.CLOSED) {
+                permitted = true;
+            } else if (state == State.HALF_OPEN && trialCallsStarted < policy.getHalfOpenCalls()) {
+                trialCallsStarted++;
+                permitted = true;
+            } else {
+                rejectedCount++;
+                permitted = false;
+            }
+        }
+        notifyTransition(newState);
+        return permitted;
+    }
+
+    /**
+     * Records the outcome of a call that was allowed by {@link #tryAcquirePermission()}
+     *
+     * @param success       true if the server answered, false if the call failed
+     * @param latencyMillis how long the call took, in milliseconds
+     */
+    public void onResult(boolean success, long latencyMillis) {
+        boolean failed = !success || latencyMillis >= policy.getSlowCallMillis();
+        State newState = null;
+        synchronized (this) {
+            switch (state) {
+                case HALF_OPEN:
+                    if (failed) {
+                        newState = transitionTo(State.OPEN);
+                    } else if (++trialCallsSucceeded >= policy.getHalfOpenCalls()) {
+                        newState = transitionTo(State.CLOSED);
+                    }
+                    break;
+                case CLOSED:
+                    record(failed, latencyMillis);
+                    if (windowCount >= policy.getMinimumCalls()
+                            && windowFailures * 100 >= policy.getFailureRatePercent() * windowCount) {
+                        newState = transitionTo(State.OPEN);
+                    }
+                    break;
+                default:
+                    // A call that started before the breaker opened - the breaker already knows the server is unhealthy
+                    break;
+            }
+        }
+        notifyTransition(newState);
+    }
+
+    /**
+     * Gives back the permission of a call that ended without saying anything about the server, e.g. because the request
+     * it was made for ran out of time or was cancelled.  The call isn't recorded, and if it was a trial call another
+     * one may be made in its place.
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && trialCallsStarted > trialCallsSucceeded) {
+            trialCallsStarted--;
+        }
+    }
+
+    /**
+     * @return current state of the breaker.  An open breaker whose open period is over reports OPEN until the next
+     * call is attempted.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return fraction of the calls in the current window that failed or were slow, or 0 if there were no calls
+     */
+    public synchronized double getFailureRate() {
+        return windowCount == 0 ? 0 : (double) windowFailures / windowCount;
+    }
+
+    /**
+     * @return average latency of the calls in the current window, in milliseconds, or 0 if there were no calls
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return windowCount == 0 ? 0 : (double) windowTotalLatencyMillis / windowCount;
+    }
+
+    /**
+     * @return number of calls rejected because the breaker was open
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: state=%s failureRate=%.2f avgLatencyMs=%.1f rejected=%d", name, state,
+                getFailureRate(), getAverageLatencyMillis(), rejectedCount);
+    }
+
+    private void record(boolean failed, long latencyMillis) {
+        if (windowCount == windowFailed.length) {
+            // Drop the oldest call from the window
+            if (windowFailed[windowNext]) {
+                windowFailures--;
+            }
+            windowTotalLatencyMillis -= windowLatencyMillis[windowNext];
+        } else {
+            windowCount++;
+        }
+        windowFailed[windowNext] = failed;
+        windowLatencyMillis[windowNext] = latencyMillis;
+        if (failed) {
+            windowFailures++;
+        }
+        windowTotalLatencyMillis += latencyMillis;
+        windowNext = (windowNext + 1) % windowFailed.length;
+    }
+
+    private State transitionTo(State newState) {
+        State oldState = state;
+        state = newState;
+        switch (newState) {
+            case OPEN:
+                openedAtMillis = clock.millis();
+                log.warn(String.format("Circuit breaker for %s opened (was %s) - failureRate=%.2f avgLatencyMs=%.1f",
+                        name, oldState, getFailureRate(), getAverageLatencyMillis()));
+                break;
+            case HALF_OPEN:
+                trialCallsStarted = 0;
+                trialCallsSucceeded = 0;
+                log.info(String.format("Circuit breaker for %s is half-open, sending trial calls", name));
+                break;
+            case CLOSED:
+                // Start over, so failures from before the outage don't count against the recovered server
+                windowNext = 0;
+                windowCount = 0;
+                windowFailures = 0;
+                windowTotalLatencyMillis = 0;
+                log.info(String.format("Circuit breaker for %s closed", name));
+                break;
+        }
+        return newState;
+    }
+
+    private void notifyTransition(State newState) {
+        if (newState != null) {
+            transitionListener.accept(this, newState);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Thresholds that decide when a {@link CircuitBreaker} opens, and how it recovers.
+ */
+@AllArgsConstructor
+@Getter
+public final class CircuitBreakerPolicy {
+    /**
+     * Percentage of failed or slow calls in the window at which the breaker opens
+     */
+    private final int failureRatePercent;
+
+    /**
+     * Calls that take at least this long count as failures, in milliseconds
+     */
+    private final long slowCallMillis;
+
+    /**
+     * Number of most recent calls the failure rate is computed over
+     */
+    private final int windowSize;
+
+    /**
+     * Number of calls needed in the window before the breaker can open
+     */
+    private final int minimumCalls;
+
+    /**
+     * How long the breaker stays open before it lets trial calls through, in milliseconds
+     */
+    private final long openMillis;
+
+    /**
+     * Number of trial calls that must succeed while half-open before the breaker closes
+     */
+    private final int halfOpenCalls;
+}
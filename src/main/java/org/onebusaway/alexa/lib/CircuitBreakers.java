@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.NonNull;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@link CircuitBreaker} per OBA server, keyed by base URL, so an outage in one region doesn't affect calls to
+ * the others.  Also counts state transitions across all regions.
+ */
+public class CircuitBreakers {
+    private final CircuitBreakerPolicy policy;
+    private final Clock clock;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong halfOpenedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+
+    /**
+     * @param policy thresholds used by the breaker of every region
+     */
+    public CircuitBreakers(@NonNull CircuitBreakerPolicy policy) {
+        this(policy, Clock.systemUTC());
+    }
+
+    CircuitBreakers(CircuitBreakerPolicy policy, Clock clock) {
+        this.policy = policy;
+        this.clock = clock;
+    }
+
+    /**
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @return the circuit breaker for the given OBA server
+     */
+    public CircuitBreaker forObaBaseUrl(@NonNull String obaBaseUrl) {
+        return breakers.computeIfAbsent(obaBaseUrl,
+                url -> new CircuitBreaker(url, policy, this::onTransition, clock));
+    }
+
+    /**
+     * @return number of times a breaker opened
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    /**
+     * @return number of times a breaker started sending trial calls
+     */
+    public long getHalfOpenedCount() {
+        return halfOpenedCount.get();
+    }
+
+    /**
+     * @return number of times a breaker closed after an outage
+     */
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    /**
+     * @return number of regions whose breaker isn't closed
+     */
+    public long getUnhealthyCount() {
+        return breakers.values().stream().filter(b -> b.getState() != CircuitBreaker.State.CLOSED).count();
+    }
+
+    /**
+     * @return summary of the breaker metrics, for logging
+     */
+    public String getStats() {
+        return String.format("regions=%d unhealthy=%d opened=%d halfOpened=%d closed=%d", breakers.size(),
+                getUnhealthyCount(), getOpenedCount(), getHalfOpenedCount(), getClosedCount());
+    }
+
+    private void onTransition(CircuitBreaker breaker, CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                openedCount.incrementAndGet();
+                break;
+            case HALF_OPEN:
+                halfOpenedCount.incrementAndGet();
+                break;
+            case CLOSED:
+                closedCount.incrementAndGet();
+                break;
+        }
+    }
+}
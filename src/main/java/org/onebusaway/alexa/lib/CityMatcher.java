@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.apache.commons.lang3.StringUtils;
+import org.onebusaway.location.Location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Matches a city name as heard by Alexa to the closest name in the {@link Gazetteer}, so misheard or misspelled
+ * cities ("Seatle", "Brooklin", "Spoken") can be resolved when the Google Geocoding API can't find them.
+ * <p>
+ * Candidates are the names that share a trigram or a Double Metaphone key with the city name.  Each candidate is scored
+ * from its edit distance to the city name, which must be within a bound that grows with the length of the name, and
+ * from how close their phonetic keys are.  The best match is returned with its score as the confidence, so callers can
+ * still geocode cities that were only matched with a low confidence.
+ */
+public class CityMatcher {
+    /**
+     * Weight of the edit distance in the confidence, with the rest coming from the phonetic keys
+     */
+    static final double TEXT_WEIGHT = 0.6;
+
+    /**
+     * Confidence a different place must be behind the best match by, otherwise the name is ambiguous
+     */
+    static final double AMBIGUITY_MARGIN = 0.05;
+
+    private static final int MAX_PHONETIC_CODE_LENGTH = 8;
+
+    private final Gazetteer gazetteer;
+
+    @Getter
+    private final double minConfidence;
+
+    private final DoubleMetaphone doubleMetaphone = new DoubleMetaphone();
+
+    // Phonetic key of each name in the gazetteer, by gazetteer index
+    private final String[] phoneticKeys;
+
+    // Gazetteer indexes of the names with each trigram, and with each phonetic key
+    private final Map<String, int[]> trigramIndex;
+    private final Map<String, int[]> phoneticIndex;
+
+    /**
+     * @param gazetteer     names to match against
+     * @param minConfidence confidence a match needs to be used instead of geocoding the city, from 0 to 1
+     */
+    public CityMatcher(@NonNull Gazetteer gazetteer, double minConfidence) {
+        this.gazetteer = gazetteer;
+        this.minConfidence = minConfidence;
+        doubleMetaphone.setMaxCodeLen(MAX_PHONETIC_CODE_LENGTH);
+
+        int n = gazetteer.size();
+        phoneticKeys = new String[n];
+        Map<String, List<Integer>> trigrams = new HashMap<>();
+        Map<String, List<Integer>> phonetic = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String name = gazetteer.getName(i);
+            for (String trigram : getTrigrams(name)) {
+                trigrams.computeIfAbsent(trigram, k -> new ArrayList<>()).add(i);
+            }
+            phoneticKeys[i] = getPhoneticKey(name);
+            phonetic.computeIfAbsent(phoneticKeys[i], k -> new ArrayList<>()).add(i);
+        }
+        trigramIndex = toArrays(trigrams);
+        phoneticIndex = toArrays(phonetic);
+    }
+
+    /**
+     * @param cityName city name as heard
+     * @return the closest name in the gazetteer and its location, or empty if no name is close enough or two different
+     * places are equally close
+     */
+    public Optional<Match> match(@NonNull String cityName) {
+        String query = GeocodeCache.normalize(cityName);
+        if (query.isEmpty()) {
+            return Optional.empty();
+        }
+        String queryKey = getPhoneticKey(query);
+
+        Set<Integer> candidates = new LinkedHashSet<>();
+        for (String trigram : getTrigrams(query)) {
+            addAll(candidates, trigramIndex.get(trigram));
+        }
+        addAll(candidates, phoneticIndex.get(queryKey));
+
+        int best = -1;
+        double bestConfidence = 0;
+        double runnerUpConfidence = 0;
+        for (int i : candidates) {
+            double confidence = getConfidence(query, queryKey, gazetteer.getName(i), phoneticKeys[i]);
+            if (confidence > bestConfidence) {
+                if (best >= 0 && !isSamePlace(best, i)) {
+                    runnerUpConfidence = bestConfidence;
+                }
+                best = i;
+                bestConfidence = confidence;
+            } else if (confidence > runnerUpConfidence && !isSamePlace(best, i)) {
+                runnerUpConfidence = confidence;
+            }
+        }
+        if (best < 0 || bestConfidence - runnerUpConfidence < AMBIGUITY_MARGIN) {
+            return Optional.empty();
+        }
+        return Optional.of(new Match(gazetteer.getName(best), gazetteer.getLocation(best), bestConfidence));
+    }
+
+    /**
+     * @return confidence from 0 to 1 that the query is the name, or 0 if they're too far apart to be compared
+     */
+    static double getConfidence(String query, String queryKey, String name, String nameKey) {
+        int maxLength = Math.max(query.length(), name.length());
+        // Allow about one edit for every three letters, so short names need to be heard almost exactly
+        int maxEdits = Math.max(1, maxLength / 3);
+        int edits = StringUtils.getLevenshteinDistance(query, name, maxEdits);
+        boolean samePhoneticKey = queryKey.equals(nameKey);
+        if (edits < 0) {
+            if (!samePhoneticKey) {
+                return 0;
+            }
+            edits = StringUtils.getLevenshteinDistance(query, name);
+        }
+        double textSimilarity = 1 - (double) edits / maxLength;
+        double phoneticSimilarity = samePhoneticKey ? 1 : 1 - (double) StringUtils.getLevenshteinDistance(queryKey, nameKey)
+                / Math.max(1, Math.max(queryKey.length(), nameKey.length()));
+        return TEXT_WEIGHT * textSimilarity + (1 - TEXT_WEIGHT) * phoneticSimilarity;
+    }
+
+    private boolean isSamePlace(int i, int j) {
+        Location a = gazetteer.getLocation(i);
+        Location b = gazetteer.getLocation(j);
+        return a.getLatitude() == b.getLatitude() && a.getLongitude() == b.getLongitude();
+    }
+
+    /**
+     * @return the Double Metaphone code of each word, separated by spaces
+     */
+    String getPhoneticKey(String normalizedName) {
+        StringBuilder key = new StringBuilder();
+        for (String word : StringUtils.split(normalizedName, ' ')) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(doubleMetaphone.doubleMetaphone(word));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the three-letter substrings of the name, padded so the first and last letters are in two trigrams
+     */
+    static Set<String> getTrigrams(String normalizedName) {
+        String padded = "  " + normalizedName + " ";
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    private static void addAll(Set<Integer> candidates, int[] indexes) {
+        if (indexes != null) {
+            for (int i : indexes) {
+                candidates.add(i);
+            }
+        }
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, List<Integer>> lists) {
+        Map<String, int[]> arrays = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : lists.entrySet()) {
+            arrays.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return arrays;
+    }
+
+    /**
+     * Name in the gazetteer matched to a city name
+     */
+    @AllArgsConstructor
+    @Getter
+    public static final class Match {
+        private final String name;
+        private final Location location;
+        private final double confidence;
+
+        @Override
+        public String toString() {
+            return String.format("%s (%.2f) at %s", name, confidence, location);
+        }
+    }
+}
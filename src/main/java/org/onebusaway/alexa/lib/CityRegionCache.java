@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.location.Location;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory map from a city name to the region that serves it, so a city users have named before is resolved
+ * without geocoding it or searching the regions directory.
+ * <p>
+ * Keys are the city name normalized like {@link GeocodeCache} keys plus whether experimental regions were included.
+ * Each entry keeps the region's ID and base URL and the city's location, which is needed to rank stops by distance.
+ * The map is cleared whenever a regions directory with different regions is downloaded, since a new or moved region
+ * can change the closest region to a city.
+ */
+@Log4j
+public class CityRegionCache {
+    private final Map<String, Entry> entries;
+    private String directoryFingerprint;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong clearCount = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of cities kept in memory
+     */
+    public CityRegionCache(int maxEntries) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param cityName                   city name as heard
+     * @param includeExperimentalRegions true if experimental regions were included when the region was found
+     * @return the region found for the city, or empty if the city hasn't been resolved since the directory changed
+     */
+    public synchronized Optional<Entry> get(@NonNull String cityName, boolean includeExperimentalRegions) {
+        Entry entry = entries.get(getKey(cityName, includeExperimentalRegions));
+        (entry != null ? hitCount : missCount).incrementAndGet();
+        return Optional.ofNullable(entry);
+    }
+
+    /**
+     * @param cityName                   city name as heard
+     * @param includeExperimentalRegions true if experimental regions were included when the region was found
+     * @param region                     closest region to the city
+     * @param location                   geocoded location of the city
+     */
+    public synchronized void put(@NonNull String cityName, boolean includeExperimentalRegions,
+                                 @NonNull ObaRegion region, @NonNull Location location) {
+        entries.put(getKey(cityName, includeExperimentalRegions),
+                new Entry(region.getId(), region.getObaBaseUrl(), location.getLatitude(), location.getLongitude()));
+    }
+
+    /**
+     * Removes the region found for a city, so it's resolved again
+     *
+     * @param cityName                   city name as heard
+     * @param includeExperimentalRegions true if experimental regions were included when the region was found
+     */
+    public synchronized void invalidate(@NonNull String cityName, boolean includeExperimentalRegions) {
+        entries.remove(getKey(cityName, includeExperimentalRegions));
+    }
+
+    /**
+     * Clears the cache if the regions differ from the last directory.  Registered with the RegionsCache, which calls
+     * it with every downloaded directory.
+     *
+     * @param regions full directory of regions
+     */
+    public synchronized void onRegionsLoaded(@NonNull ObaRegion[] regions) {
+        String fingerprint = getFingerprint(regions);
+        if (directoryFingerprint != null && !directoryFingerprint.equals(fingerprint) && !entries.isEmpty()) {
+            log.info("Regions directory changed, forgetting the regions of " + entries.size() + " cities");
+            entries.clear();
+            clearCount.incrementAndGet();
+        }
+        directoryFingerprint = fingerprint;
+    }
+
+    /**
+     * @return everything about the regions that can change which region is closest to a city
+     */
+    private static String getFingerprint(ObaRegion[] regions) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (ObaRegion region : regions) {
+            fingerprint.append(region.getId()).append('|')
+                    .append(region.getObaBaseUrl()).append('|')
+                    .append(region.getActive()).append('|')
+                    .append(region.getExperimental()).append('|')
+                    .append(region.getSupportsObaRealtimeApis());
+            ObaRegion.Bounds[] bounds = region.getBounds();
+            if (bounds != null) {
+                for (ObaRegion.Bounds b : bounds) {
+                    fingerprint.append('|').append(b.getLat()).append(',').append(b.getLon())
+                            .append(',').append(b.getLatSpan()).append(',').append(b.getLonSpan());
+                }
+            }
+            fingerprint.append('\n');
+        }
+        return fingerprint.toString();
+    }
+
+    private static String getKey(String cityName, boolean includeExperimentalRegions) {
+        return GeocodeCache.normalize(cityName) + "|" + includeExperimentalRegions;
+    }
+
+    /**
+     * @return number of cities in memory
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return summary of the cache metrics, for logging
+     */
+    public String getStats() {
+        return String.format("size=%d hits=%d misses=%d clears=%d", size(), hitCount.get(), missCount.get(),
+                clearCount.get());
+    }
+
+    /**
+     * Region and location of a city resolved from the cache
+     */
+    @AllArgsConstructor
+    @Getter
+    public static final class CityRegion {
+        private final ObaRegion region;
+        private final Location location;
+    }
+
+    /**
+     * Region found for a city
+     */
+    @AllArgsConstructor
+    @Getter
+    public static final class Entry {
+        private final long regionId;
+        private final String obaBaseUrl;
+        private final double latitude;
+        private final double longitude;
+
+        /**
+         * @return location of the city
+         */
+        public Location getLocation() {
+            Location l = new Location("City region cache");
+            l.setLatitude(latitude);
+            l.setLongitude(longitude);
+            return l;
+        }
+    }
+}
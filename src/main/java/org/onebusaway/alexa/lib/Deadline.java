@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a request must be answered.  A deadline is created when a request is received and passed
+ * to each call made on its behalf, so each call can limit its timeouts to the time that's left and no call is started
+ * once the time is up.
+ * <p>
+ * The OBA client library doesn't take per-call timeouts, so {@link #enter()} makes the deadline visible to the
+ * transport (see {@link PooledObaConnectionFactory}) for calls made on the current thread.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param millis time allowed from now, in milliseconds
+     * @return a deadline the given number of milliseconds from now
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * @return the deadline entered on the current thread, or null if calls on this thread don't have a deadline
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the deadline in terms of System.nanoTime()
+     */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * @return time left until the deadline in milliseconds, or 0 if it has passed
+     */
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * @return true if there is no time left
+     */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Fails fast if there's no time left to start a call
+     *
+     * @param operation description of the call for the exception message
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void check(String operation) {
+        if (isExpired()) {
+            throw new DeadlineExceededException("No time left for " + operation);
+        }
+    }
+
+    /**
+     * Returns the timeout a call should use so that it doesn't run past the deadline
+     *
+     * @param defaultTimeoutMillis timeout the call uses when there is more time than that left, in milliseconds
+     * @param operation            description of the call for the exception message
+     * @return the smaller of the default timeout and the time left, in milliseconds
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public int timeoutMillis(int defaultTimeoutMillis, String operation) {
+        check(operation);
+        // Round a fraction of a millisecond up, as a timeout of 0 means "wait forever" for most clients
+        return (int) Math.max(1, Math.min(defaultTimeoutMillis, remainingMillis()));
+    }
+
+    /**
+     * Makes this the deadline for calls made on the current thread, until the returned scope is closed
+     *
+     * @return scope to close when the calls are done
+     */
+    public Scope enter() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline(" + remainingMillis() + " ms left)";
+    }
+
+    /**
+     * Restores the previous deadline of the thread when closed
+     */
+    public interface Scope extends AutoCloseable {
+        Scope NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+}
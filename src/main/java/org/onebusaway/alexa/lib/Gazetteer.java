@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.location.Location;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable index of well-known city names and their locations, used to resolve a spoken city without calling the
+ * Google Geocoding API.
+ * <p>
+ * Names are normalized like {@link GeocodeCache} keys, sorted and kept in parallel arrays, and found with a binary
+ * search.  Each city is also indexed under its name followed by its state and state abbreviation.  A name listed for
+ * two different places is left out, so it's still resolved by Google.
+ */
+@Log4j
+public class Gazetteer {
+    /**
+     * Cities bundled with the skill
+     */
+    public static final String CITIES_RESOURCE = "/gazetteer/cities.csv";
+
+    private final String[] names;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private Gazetteer(String[] names, double[] latitudes, double[] longitudes) {
+        this.names = names;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * @return the cities bundled with the skill
+     * @throws IOException if the bundled cities can't be read
+     */
+    public static Gazetteer loadBundled() throws IOException {
+        InputStream in = Gazetteer.class.getResourceAsStream(CITIES_RESOURCE);
+        if (in == null) {
+            throw new IOException(CITIES_RESOURCE + " not found");
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Reads cities with one city per line as "name|alias|..., state, state abbreviation, latitude, longitude".
+     * Blank lines and lines starting with # are ignored.
+     *
+     * @param reader cities to index
+     * @return an index over the given cities
+     * @throws IOException if the cities can't be read or a line is malformed
+     */
+    public static Gazetteer read(@NonNull Reader reader) throws IOException {
+        Map<String, double[]> cities = new TreeMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length != 5) {
+                throw new IOException("Expected 5 fields on line " + lineNumber + ": " + line);
+            }
+            double[] location;
+            try {
+                location = new double[]{Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim())};
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid location on line " + lineNumber + ": " + line, e);
+            }
+            for (String name : fields[0].split("\\|")) {
+                String key = GeocodeCache.normalize(name);
+                add(cities, ambiguous, key, location);
+                add(cities, ambiguous, key + " " + GeocodeCache.normalize(fields[1]), location);
+                add(cities, ambiguous, key + " " + GeocodeCache.normalize(fields[2]), location);
+            }
+        }
+        cities.keySet().removeAll(ambiguous);
+
+        int n = cities.size();
+        String[] names = new String[n];
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        int i = 0;
+        for (Map.Entry<String, double[]> city : cities.entrySet()) {
+            names[i] = city.getKey();
+            latitudes[i] = city.getValue()[0];
+            longitudes[i] = city.getValue()[1];
+            i++;
+        }
+        return new Gazetteer(names, latitudes, longitudes);
+    }
+
+    private static void add(Map<String, double[]> cities, Set<String> ambiguous, String key, double[] location) {
+        double[] existing = cities.putIfAbsent(key, location);
+        if (existing != null && !Arrays.equals(existing, location)) {
+            log.debug("Leaving ambiguous city name \"" + key + "\" to Google");
+            ambiguous.add(key);
+        }
+    }
+
+    /**
+     * @param cityName city name as heard
+     * @return the location of the city, or empty if it isn't in the gazetteer
+     */
+    public Optional<Location> find(@NonNull String cityName) {
+        int i = Arrays.binarySearch(names, GeocodeCache.normalize(cityName));
+        return i < 0 ? Optional.empty() : Optional.of(getLocation(i));
+    }
+
+    /**
+     * @param i index of a name, from 0 to size() - 1
+     * @return the normalized name, in sorted order
+     */
+    String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * @param i index of a name, from 0 to size() - 1
+     * @return the location of the city with that name
+     */
+    Location getLocation(int i) {
+        Location l = new Location("Gazetteer");
+        l.setLatitude(latitudes[i]);
+        l.setLongitude(longitudes[i]);
+        return l;
+    }
+
+    /**
+     * @return number of names in the gazetteer, including aliases and names followed by a state
+     */
+    public int size() {
+        return names.length;
+    }
+}
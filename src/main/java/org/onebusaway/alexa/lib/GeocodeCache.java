@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.google.common.collect.ImmutableMap;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.storage.ObaDao;
+import org.onebusaway.alexa.storage.ObaGeocodeItem;
+import org.onebusaway.location.Location;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of geocoded city names, kept in memory in front of a DynamoDB table shared by every instance of the skill.
+ * <p>
+ * Cities don't move, so a location is kept for a long time.  City names are normalized before they're looked up, so
+ * "St. Petersburg" and "saint petersburg" share an entry.  Names that Google couldn't find are cached for a shorter
+ * time, so a user repeating one doesn't call Google each time.  Failed geocoding calls aren't cached.
+ */
+@Log4j
+public class GeocodeCache {
+    /**
+     * Words that speech recognition and users write more than one way, mapped to the form used in keys
+     */
+    private static final Map<String, String> WORD_VARIANTS = ImmutableMap.<String, String>builder()
+            .put("st", "saint")
+            .put("ste", "sainte")
+            .put("ft", "fort")
+            .put("mt", "mount")
+            .build();
+
+    private final SingleFlightCache<String, Geocode> geocodes;
+    private final ObaDao obaDao;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final Clock clock;
+
+    private final AtomicLong storeHitCount = new AtomicLong();
+    private final AtomicLong geocodeCount = new AtomicLong();
+
+    /**
+     * @param maxEntries        maximum number of cities kept in memory
+     * @param ttlMillis         how long a city's location is kept, in milliseconds
+     * @param negativeTtlMillis how long a city name that couldn't be found is remembered, in milliseconds
+     * @param obaDao            DAO of the shared table, or null to only keep cities in memory
+     */
+    public GeocodeCache(int maxEntries, long ttlMillis, long negativeTtlMillis, ObaDao obaDao) {
+        this(new SingleFlightCache<>("geocodes", ttlMillis, maxEntries), obaDao, ttlMillis, negativeTtlMillis,
+                Clock.systemUTC());
+    }
+
+    GeocodeCache(SingleFlightCache<String, Geocode> geocodes, ObaDao obaDao, long ttlMillis, long negativeTtlMillis,
+                 Clock clock) {
+        this.geocodes = geocodes;
+        this.obaDao = obaDao;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the location of a city from memory or the shared table, and otherwise geocodes it and stores the result
+     *
+     * @param cityName city to geocode
+     * @param geocoder geocodes the city if it isn't cached
+     * @return the location of the city, or empty if the city name couldn't be found
+     * @throws IOException if the city isn't cached and geocoding it failed
+     */
+    public Optional<Location> get(@NonNull String cityName, @NonNull Geocoder geocoder) throws IOException {
+        String key = normalize(cityName);
+        Geocode geocode = geocodes.get(key, () -> load(key, cityName, geocoder));
+        if (isExpired(geocode)) {
+            // A city name that couldn't be found expires before the memory cache's TTL, so it's retried
+            geocodes.invalidate(key);
+            geocode = geocodes.get(key, () -> load(key, cityName, geocoder));
+        }
+        return Optional.ofNullable(geocode.location);
+    }
+
+    private Geocode load(String key, String cityName, Geocoder geocoder) throws IOException {
+        Optional<Geocode> stored = loadFromStore(key);
+        if (stored.isPresent() && !isExpired(stored.get())) {
+            storeHitCount.incrementAndGet();
+            return stored.get();
+        }
+        geocodeCount.incrementAndGet();
+        Geocode geocode = new Geocode(geocoder.geocode().orElse(null), clock.millis());
+        saveToStore(key, cityName, geocode);
+        return geocode;
+    }
+
+    private Optional<Geocode> loadFromStore(String key) {
+        if (obaDao == null) {
+            return Optional.empty();
+        }
+        try {
+            return obaDao.getGeocode(key).map(item -> {
+                Location location = null;
+                if (item.getLatitude() != null && item.getLongitude() != null) {
+                    location = newLocation(item.getLatitude(), item.getLongitude());
+                }
+                return new Geocode(location, item.getGeocodedTime());
+            });
+        } catch (RuntimeException e) {
+            // The table is an optimization - fall back to geocoding the city
+            log.warn("Couldn't read geocoded city " + key + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private void saveToStore(String key, String cityName, Geocode geocode) {
+        if (obaDao == null) {
+            return;
+        }
+        Location location = geocode.location;
+        try {
+            obaDao.saveGeocode(new ObaGeocodeItem(key, cityName,
+                    location != null ? location.getLatitude() : null,
+                    location != null ? location.getLongitude() : null,
+                    geocode.geocodedAtMillis));
+        } catch (RuntimeException e) {
+            log.warn("Couldn't save geocoded city " + key + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isExpired(Geocode geocode) {
+        long ttl = geocode.location != null ? ttlMillis : negativeTtlMillis;
+        return clock.millis() - geocode.geocodedAtMillis >= ttl;
+    }
+
+    /**
+     * Normalizes a city name so that the ways it can be spoken or written map to the same key - case, accents,
+     * punctuation, spacing and abbreviations such as "St." for "Saint" are ignored.
+     *
+     * @param cityName city name as heard
+     * @return the normalized city name
+     */
+    static String normalize(@NonNull String cityName) {
+        String plain = Normalizer.normalize(cityName, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.US)
+                .replaceAll("[^\\p{L}\\p{Nd}]+", " ")
+                .trim();
+        return Arrays.stream(plain.split(" "))
+                .map(word -> WORD_VARIANTS.getOrDefault(word, word))
+                .collect(Collectors.joining(" "));
+    }
+
+    private static Location newLocation(double latitude, double longitude) {
+        Location location = new Location("Google Geocoding API");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+
+    /**
+     * @return number of cities in memory
+     */
+    public int size() {
+        return geocodes.size();
+    }
+
+    /**
+     * @return summary of the cache metrics, for logging
+     */
+    public String getStats() {
+        return String.format("%s storeHits=%d geocoded=%d", geocodes.getStats(), storeHitCount.get(),
+                geocodeCount.get());
+    }
+
+    /**
+     * Geocodes a city that isn't cached
+     */
+    public interface Geocoder {
+        /**
+         * @return the location of the city, or empty if the city name couldn't be found
+         * @throws IOException if the call failed, in which case nothing is cached
+         */
+        Optional<Location> geocode() throws IOException;
+    }
+
+    static final class Geocode {
+        private final Location location;
+        private final long geocodedAtMillis;
+
+        Geocode(Location location, long geocodedAtMillis) {
+            this.location = location;
+            this.geocodedAtMillis = geocodedAtMillis;
+        }
+    }
+}
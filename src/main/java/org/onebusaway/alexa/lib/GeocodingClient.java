@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.google.maps.GeoApiContext;
+import com.google.maps.GeocodingApi;
+import com.google.maps.PendingResult;
+import com.google.maps.errors.ZeroResultsException;
+import com.google.maps.model.GeocodingResult;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived client for the Google Geocoding API, shared by every request.
+ * <p>
+ * Each GeoApiContext has its own HTTP client and a rate limiter with its own dispatcher thread, so a single context is
+ * kept for the life of the skill instead of one per call.  The context's timeouts and retries are fixed when it's
+ * created, so each call also waits no longer than its request's deadline and is cancelled if the deadline passes.
+ */
+@Log4j
+public class GeocodingClient implements Closeable {
+    private final GeoApiContext context;
+    private final Requests requests;
+
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong notFoundCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong deadlineExceededCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param apiKey               Google Maps API key
+     * @param queriesPerSecond     maximum number of requests sent to Google per second
+     * @param connectTimeoutMillis connect timeout of each request, in milliseconds
+     * @param readTimeoutMillis    read timeout of each request, in milliseconds
+     * @param retryTimeoutMillis   how long failed requests are retried for, in milliseconds
+     */
+    public GeocodingClient(@NonNull String apiKey, int queriesPerSecond, int connectTimeoutMillis,
+                           int readTimeoutMillis, int retryTimeoutMillis) {
+        this(new GeoApiContext.Builder().apiKey(apiKey)
+                .queryRateLimit(queriesPerSecond)
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .retryTimeout(retryTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    private GeocodingClient(GeoApiContext context) {
+        this(context, address -> GeocodingApi.geocode(context, address));
+    }
+
+    GeocodingClient(GeoApiContext context, Requests requests) {
+        this.context = context;
+        this.requests = requests;
+    }
+
+    /**
+     * Geocodes an address, waiting no longer than the deadline
+     *
+     * @param address  address to geocode
+     * @param deadline deadline of the request the address is geocoded for
+     * @return the results for the address, which are empty if Google couldn't find it
+     * @throws IOException               if the call to Google failed
+     * @throws DeadlineExceededException if the deadline passed before Google answered
+     */
+    public GeocodingResult[] geocode(@NonNull String address, @NonNull Deadline deadline) throws IOException {
+        String operation = "geocoding " + address;
+        deadline.check(operation);
+        callCount.incrementAndGet();
+        long start = System.nanoTime();
+        PendingResult<GeocodingResult[]> request = requests.geocode(address);
+        CompletableFuture<GeocodingResult[]> result = new CompletableFuture<>();
+        try {
+            request.setCallback(new PendingResult.Callback<GeocodingResult[]>() {
+                @Override
+                public void onResult(GeocodingResult[] results) {
+                    result.complete(results);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            GeocodingResult[] results = result.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+            if (results == null || results.length == 0) {
+                notFoundCount.incrementAndGet();
+                return new GeocodingResult[0];
+            }
+            return results;
+        } catch (TimeoutException e) {
+            request.cancel();
+            deadlineExceededCount.incrementAndGet();
+            throw new DeadlineExceededException("Timed out " + operation, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.cancel();
+            throw new InterruptedIOException("Interrupted " + operation);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ZeroResultsException) {
+                notFoundCount.incrementAndGet();
+                return new GeocodingResult[0];
+            }
+            failureCount.incrementAndGet();
+            throw new IOException("Failed " + operation, e.getCause());
+        } catch (RuntimeException e) {
+            // e.g., the library couldn't build or send the request
+            failureCount.incrementAndGet();
+            throw new IOException("Failed " + operation, e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            totalNanos.addAndGet(elapsed);
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Geocoded %s in %d ms - %s", address,
+                        TimeUnit.NANOSECONDS.toMillis(elapsed), getStats()));
+            }
+        }
+    }
+
+    /**
+     * Stops the context's rate limiter and HTTP client threads.  The client can't be used afterwards - calls made
+     * after this aren't answered and run out of time at their deadline.
+     */
+    @Override
+    public void close() {
+        context.shutdown();
+    }
+
+    /**
+     * @return number of addresses geocoded
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * @return number of addresses Google couldn't find
+     */
+    public long getNotFoundCount() {
+        return notFoundCount.get();
+    }
+
+    /**
+     * @return number of calls that failed, not including calls that ran out of time
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return number of calls that were cancelled because their request's deadline passed
+     */
+    public long getDeadlineExceededCount() {
+        return deadlineExceededCount.get();
+    }
+
+    /**
+     * @return average time taken by a call, in milliseconds, or 0 if there were no calls
+     */
+    public double getAverageMillis() {
+        long calls = callCount.get();
+        return calls == 0 ? 0 : totalNanos.get() / 1e6 / calls;
+    }
+
+    /**
+     * @return longest time taken by a call, in milliseconds
+     */
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    /**
+     * @return summary of the client metrics, for logging
+     */
+    public String getStats() {
+        return String.format("calls=%d notFound=%d failures=%d deadlineExceeded=%d avgMs=%.1f maxMs=%d",
+                getCallCount(), getNotFoundCount(), getFailureCount(), getDeadlineExceededCount(),
+                getAverageMillis(), getMaxMillis());
+    }
+
+    /**
+     * Creates geocoding requests
+     */
+    interface Requests {
+        PendingResult<GeocodingResult[]> geocode(String address);
+    }
+}
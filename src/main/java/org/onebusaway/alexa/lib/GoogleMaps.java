@@ -14,15 +14,15 @@
  */
 package org.onebusaway.alexa.lib;
 
-import com.google.maps.GeoApiContext;
-import com.google.maps.GeocodingApi;
 import com.google.maps.model.GeocodingResult;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
 import org.onebusaway.location.Location;
 
+import java.io.IOException;
 import java.util.Optional;
 
 /**
@@ -32,24 +32,86 @@ import java.util.Optional;
 @Log4j
 public class GoogleMaps {
 	@Getter
-	private String apiKey;
+	private GeocodingClient geocodingClient;
 
 	/**
-	 * Returns the location of a city using the Google Geocoding API
+	 * Cities that have already been geocoded, or null to geocode every city
+	 */
+	private GeocodeCache geocodeCache;
+
+	/**
+	 * Well-known cities that are resolved without calling Google, or null to geocode every city
+	 */
+	private Gazetteer gazetteer;
+
+	/**
+	 * Matches misheard names of cities in the gazetteer when Google can't resolve them, or null to only use exact
+	 * matches
+	 */
+	private CityMatcher cityMatcher;
+
+	/**
+	 * Returns the location of a city from the gazetteer, or otherwise using the Google Geocoding API.  If Google
+	 * can't find the city or can't be reached, a name that's a confident match for a city in the gazetteer is used.
+	 * The match isn't tried first, as real cities that aren't in the gazetteer can be spelled almost like ones that
+	 * are (e.g., "Brookline" and "Brooklyn").
 	 *
 	 * @param cityName city to geocode
+	 * @param deadline deadline of the request the city is geocoded for - the call, including retries, won't run
+	 *                 past it
 	 * @return the location of a city using the Google Geocoding API, or null if the location
 	 *         couldn't be geocoded.
+	 * @throws DeadlineExceededException if the deadline has passed
 	 */
-	public Optional<Location> geocode(@NonNull String cityName) {
-		log.debug("Entered Google API");
-		GeoApiContext context = new GeoApiContext().setApiKey(getApiKey());
-		GeocodingResult[] results = null;
+	public Optional<Location> geocode(@NonNull String cityName, @NonNull Deadline deadline) {
+		if (gazetteer != null) {
+			Optional<Location> location = gazetteer.find(cityName);
+			if (location.isPresent()) {
+				log.debug(String.format("Found %s in the gazetteer: %s", cityName, location.get()));
+				return location;
+			}
+		}
+		Optional<Location> location;
 		try {
-			results = GeocodingApi.geocode(context, cityName).await();
-		} catch (Exception e) {
-			log.error("Got exception from GeocodingApi: " + e);
-			e.printStackTrace();
+			if (geocodeCache == null) {
+				location = requestGeocode(cityName, deadline);
+			} else {
+				location = geocodeCache.get(cityName, () -> requestGeocode(cityName, deadline));
+			}
+		} catch (IOException e) {
+			log.error("Got exception from GeocodingApi: " + e.getMessage(), e);
+			location = Optional.empty();
+		}
+		return location.isPresent() ? location : matchInGazetteer(cityName);
+	}
+
+	/**
+	 * @return the location of the city in the gazetteer the name is a confident match for, or empty if there's none
+	 */
+	private Optional<Location> matchInGazetteer(String cityName) {
+		if (cityMatcher == null) {
+			return Optional.empty();
+		}
+		Optional<CityMatcher.Match> match = cityMatcher.match(cityName);
+		if (match.isPresent() && match.get().getConfidence() >= cityMatcher.getMinConfidence()) {
+			log.info(String.format("Matched %s to %s", cityName, match.get()));
+			return Optional.of(match.get().getLocation());
+		}
+		match.ifPresent(m -> log.debug(String.format("Not using %s for %s", m, cityName)));
+		return Optional.empty();
+	}
+
+	/**
+	 * @return the location of the city, or empty if Google couldn't find it
+	 * @throws IOException if the call to Google failed
+	 */
+	private Optional<Location> requestGeocode(String cityName, Deadline deadline) throws IOException {
+		log.debug("Entered Google API");
+		// Times out with a DeadlineExceededException, so we don't tell the user we couldn't find their city when we
+		// just ran out of time
+		GeocodingResult[] results = geocodingClient.geocode(cityName, deadline);
+		if (results.length == 0) {
+			log.info("Google couldn't find " + cityName);
 			return Optional.empty();
 		}
 		Location l = new Location("Google Geocoding API");
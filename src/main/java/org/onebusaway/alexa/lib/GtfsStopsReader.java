@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.NonNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the stops of a GTFS stops.txt file into {@link StopCodeIndex.Stop}s, using the same stop IDs and codes as the
+ * OBA server that loaded the feed: the ID is the agency ID and the GTFS stop_id joined by an underscore, and stops
+ * without a stop_code are found by their stop_id.
+ */
+public class GtfsStopsReader {
+    private static final String LOCATION_TYPE_STOP = "0";
+
+    private GtfsStopsReader() {
+    }
+
+    /**
+     * @param agencyId ID of the agency that published the feed on the OBA server
+     * @param reader   contents of stops.txt
+     * @return the stops in the file, leaving out stations and other locations that aren't stops
+     * @throws IOException if the file can't be read or is missing a required column
+     */
+    public static List<StopCodeIndex.Stop> read(@NonNull String agencyId, @NonNull Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String headerLine = lines.readLine();
+        if (headerLine == null) {
+            return new ArrayList<>();
+        }
+        // Strip the byte order mark some feeds start with
+        List<String> header = Arrays.asList(parseLine(StringUtils.removeStart(headerLine, "\uFEFF")));
+        int idColumn = requireColumn(header, "stop_id");
+        int nameColumn = requireColumn(header, "stop_name");
+        int latColumn = requireColumn(header, "stop_lat");
+        int lonColumn = requireColumn(header, "stop_lon");
+        int codeColumn = header.indexOf("stop_code");
+        int locationTypeColumn = header.indexOf("location_type");
+
+        List<StopCodeIndex.Stop> stops = new ArrayList<>();
+        String line;
+        int lineNumber = 1;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] fields = parseLine(line);
+            String locationType = field(fields, locationTypeColumn);
+            if (!locationType.isEmpty() && !LOCATION_TYPE_STOP.equals(locationType)) {
+                continue;
+            }
+            String stopId = field(fields, idColumn);
+            String code = field(fields, codeColumn);
+            try {
+                stops.add(new StopCodeIndex.Stop(agencyId + "_" + stopId, code.isEmpty() ? stopId : code,
+                        field(fields, nameColumn), Double.parseDouble(field(fields, latColumn)),
+                        Double.parseDouble(field(fields, lonColumn))));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid coordinates on line " + lineNumber + " of stops.txt", e);
+            }
+        }
+        return stops;
+    }
+
+    private static int requireColumn(List<String> header, String name) throws IOException {
+        int column = header.indexOf(name);
+        if (column < 0) {
+            throw new IOException("stops.txt doesn't have a " + name + " column");
+        }
+        return column;
+    }
+
+    private static String field(String[] fields, int column) {
+        return column >= 0 && column < fields.length ? fields[column].trim() : "";
+    }
+
+    /**
+     * Splits a CSV line into fields.  Fields may be quoted, with quotes inside them doubled.
+     */
+    static String[] parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
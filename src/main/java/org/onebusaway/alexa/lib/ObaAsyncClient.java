@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Creates non-blocking clients for the OBA REST API of a region, which share one bounded executor.
+ */
+@AllArgsConstructor
+public class ObaAsyncClient {
+    @NonNull
+    private final ObaClient obaClient;
+    @NonNull
+    private final ExecutorService executor;
+    @NonNull
+    private final ScheduledExecutorService timeoutScheduler;
+    private final long defaultTimeoutMillis;
+
+    /**
+     * Returns a non-blocking client for the OBA REST API of a single region
+     *
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @return a non-blocking client for the given OBA server, using the default timeout
+     * @throws URISyntaxException if obaBaseUrl isn't a valid URI
+     */
+    public ObaAsyncUserClient withObaBaseUrl(@NonNull String obaBaseUrl) throws URISyntaxException {
+        return new ObaAsyncUserClient(obaClient.withObaBaseUrl(obaBaseUrl), executor, timeoutScheduler,
+                defaultTimeoutMillis);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.onebusaway.alexa.util.FutureUtil;
+import org.onebusaway.io.client.elements.ObaStop;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+import org.onebusaway.io.client.request.ObaScheduleForStopResponse;
+import org.onebusaway.io.client.request.ObaStopResponse;
+import org.onebusaway.location.Location;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking version of {@link ObaUserClient}.  Each method returns immediately with a future and runs the REST API
+ * call on a dedicated, bounded executor, so several calls can be composed without a thread waiting on each one.
+ * <p>
+ * Each future fails with a {@link TimeoutException} if the call doesn't complete within the timeout, and cancelling
+ * the returned future with cancel(true) interrupts the call, while cancel(false) only keeps it from starting.  Calls
+ * are rejected with a {@link RejectedExecutionException} when the executor is saturated.  Note that cancelling a future
+ * derived from the returned one (e.g., with thenApply()) doesn't cancel the call.
+ */
+public class ObaAsyncUserClient {
+    @Getter
+    private final ObaUserClient obaUserClient;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timeoutScheduler;
+    @Getter
+    private final long timeoutMillis;
+
+    /**
+     * @param obaUserClient    blocking client that makes the REST API calls
+     * @param executor         executor the calls run on
+     * @param timeoutScheduler scheduler used to fail calls that take longer than the timeout
+     * @param timeoutMillis    how long each call may take, in milliseconds
+     */
+    public ObaAsyncUserClient(@NonNull ObaUserClient obaUserClient, @NonNull ExecutorService executor,
+                              @NonNull ScheduledExecutorService timeoutScheduler, long timeoutMillis) {
+        this.obaUserClient = obaUserClient;
+        this.executor = executor;
+        this.timeoutScheduler = timeoutScheduler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns a client that makes the same calls with a different timeout
+     *
+     * @param timeoutMillis how long each call may take, in milliseconds
+     * @return a client with the given timeout
+     */
+    public ObaAsyncUserClient withTimeout(long timeoutMillis) {
+        return new ObaAsyncUserClient(obaUserClient, executor, timeoutScheduler, timeoutMillis);
+    }
+
+    /**
+     * Returns a client whose calls time out at the given deadline, or earlier if this client's timeout is shorter
+     *
+     * @param deadline deadline of the request the client is used for
+     * @return a client that respects the given deadline
+     */
+    public ObaAsyncUserClient withDeadline(@NonNull Deadline deadline) {
+        return new ObaAsyncUserClient(obaUserClient.withDeadline(deadline), executor, timeoutScheduler,
+                Math.min(timeoutMillis, deadline.remainingMillis()));
+    }
+
+    /**
+     * @see ObaUserClient#getNearbyStops(Location)
+     */
+    public CompletableFuture<ObaStop[]> getNearbyStops(@NonNull Location l) {
+        return call(() -> obaUserClient.getNearbyStops(l));
+    }
+
+    /**
+     * @see ObaUserClient#getStopFromCode(Location, String)
+     */
+    public CompletableFuture<ObaStop[]> getStopFromCode(@NonNull Location l, String stopCode) {
+        return call(() -> obaUserClient.getStopFromCode(l, stopCode));
+    }
+
+    /**
+     * @see ObaUserClient#getArrivalsAndDeparturesForStop(String, int)
+     */
+    public CompletableFuture<ObaArrivalInfoResponse> getArrivalsAndDeparturesForStop(@NonNull String stopId,
+                                                                                     int scanMins) {
+        return call(() -> obaUserClient.getArrivalsAndDeparturesForStop(stopId, scanMins));
+    }
+
+    /**
+     * @see ObaUserClient#scanArrivalsAndDeparturesForStop(String, Set)
+     */
+    public CompletableFuture<ScanWindows.Scan> scanArrivalsAndDeparturesForStop(@NonNull String stopId,
+                                                                               Set<String> routesToFilter) {
+        return call(() -> obaUserClient.scanArrivalsAndDeparturesForStop(stopId, routesToFilter));
+    }
+
+    /**
+     * Gets the arrivals and departures for several stops at the same time.  Each stop is requested like
+     * {@link #scanArrivalsAndDeparturesForStop(String, Set)}, so it gets the window that fits it, responses are shared
+     * through the arrivals cache (including a prefetch of the same stop) and each call is bounded by this client's
+     * timeout or deadline.  A stop whose call fails doesn't fail the batch.  Cancelling the returned future cancels
+     * the call for each stop.
+     *
+     * @param stopIds           the stopIds to return arrivals and departures for; duplicates are requested once
+     * @param routesToFilterOut routes the user doesn't want to hear about, keyed by stopId
+     * @return a future that completes, unless it's cancelled, with the outcome for each stop in the order given
+     */
+    public CompletableFuture<List<StopArrivals>> scanArrivalsAndDeparturesForStops(
+            @NonNull List<String> stopIds, @NonNull Map<String, ? extends Set<String>> routesToFilterOut) {
+        List<CompletableFuture<ScanWindows.Scan>> calls = new ArrayList<>();
+        List<CompletableFuture<StopArrivals>> outcomes = new ArrayList<>();
+        stopIds.stream().distinct().forEach(stopId -> {
+            CompletableFuture<ScanWindows.Scan> call =
+                    scanArrivalsAndDeparturesForStop(stopId, routesToFilterOut.get(stopId));
+            calls.add(call);
+            outcomes.add(call.handle((scan, error) -> new StopArrivals(stopId, error == null ? scan : null,
+                    error instanceof CompletionException ? error.getCause() : error)));
+        });
+        BatchFuture<List<StopArrivals>> result = new BatchFuture<>(calls);
+        CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0]))
+                .thenAccept(ignored -> result.complete(
+                        outcomes.stream().map(CompletableFuture::join).collect(Collectors.toList())));
+        return result;
+    }
+
+    /**
+     * @see ObaUserClient#getScanMinsForStop(String)
+     */
+    public int getScanMinsForStop(@NonNull String stopId) {
+        return obaUserClient.getScanMinsForStop(stopId);
+    }
+
+    /**
+     * @see ObaUserClient#getScheduleForStop(String, Date)
+     */
+    public CompletableFuture<ObaScheduleForStopResponse> getScheduleForStop(@NonNull String stopId, Date date) {
+        return call(() -> obaUserClient.getScheduleForStop(stopId, date));
+    }
+
+    /**
+     * @see ObaUserClient#getStopDetails(String)
+     */
+    public CompletableFuture<ObaStopResponse> getStopDetails(@NonNull String stopId) {
+        return call(() -> obaUserClient.getStopDetails(stopId));
+    }
+
+    /**
+     * @see ObaUserClient#getTimeZone()
+     */
+    public CompletableFuture<TimeZone> getTimeZone() {
+        return call(obaUserClient::getTimeZone);
+    }
+
+    private <T> CompletableFuture<T> call(Callable<T> call) {
+        CompletableFuture<T> result;
+        try {
+            result = FutureUtil.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> FutureUtil.failAndInterrupt(result,
+                new TimeoutException(String.format("OBA call to %s took longer than %d ms",
+                        obaUserClient.getObaBaseUrl(), timeoutMillis))),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        // Remove the timeout from the scheduler once the call has completed
+        result.whenComplete((value, error) -> timeout.cancel(false));
+        return result;
+    }
+
+    /**
+     * Future for the outcome of several calls that cancels the calls when it's cancelled
+     */
+    private static class BatchFuture<T> extends CompletableFuture<T> {
+        private final List<? extends Future<?>> calls;
+
+        private BatchFuture(List<? extends Future<?>> calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                calls.forEach(call -> call.cancel(mayInterruptIfRunning));
+            }
+            return cancelled;
+        }
+    }
+}
@@ -14,20 +14,264 @@
  */
 package org.onebusaway.alexa.lib;
 
+import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
-import org.onebusaway.io.client.ObaApi;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.cache.LastKnownGoodCache;
+import org.onebusaway.alexa.cache.RegionsCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.lib.CityRegionCache.CityRegion;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+import org.onebusaway.location.Location;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utilities for retrieving items from the OneBusAway REST APIs.
  */
+@Log4j
 public class ObaClient extends ObaClientSharedCode {
-    public ObaClient(@NonNull String apiKey) {
-        ObaApi.getDefaultContext().setApiKey(apiKey);
+    @Getter
+    private final RegionsCache regionsCache;
+
+    @Getter
+    private final SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache;
+
+    @Getter
+    private final SingleFlightCache<String, TimeZone> timeZoneCache;
+
+    private final String apiKey;
+
+    // Null if arrivals are decoded by the OBA client library
+    private final StreamingArrivalsParser arrivalsParser;
+
+    // One breaker per OBA server. Null if calls aren't guarded by circuit breakers.
+    @Getter
+    private final CircuitBreakers circuitBreakers;
+
+    // Last successful arrivals for each stop with the window they cover, spoken when the server fails. Null if there's
+    // no fallback.
+    @Getter
+    private final LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals;
+
+    // Stops by stop code for the regions with GTFS stops on local disk. Null if stops are only looked up on the server.
+    private final StopCodeIndexes stopCodeIndexes;
+
+    // Today's schedule for each stop, used to answer when the server fails. Null if schedules aren't cached.
+    @Getter
+    private final ScheduleCache scheduleCache;
+
+    // Learned arrivals window of each stop. Null if arrivals are always requested for the full window.
+    @Getter
+    private final ScanWindows scanWindows;
+
+    // Region of each city users have named. Null if cities are always geocoded.
+    @Getter
+    private final CityRegionCache cityRegionCache;
+
+    // One immutable context per OBA server, shared by all users of that region
+    private final ConcurrentMap<String, ObaRegionContext> regionContexts = new ConcurrentHashMap<>();
+
+    // Rebuilt by the regions cache each time a new directory is downloaded
+    private volatile RegionIndex regionIndex;
+    private volatile RegionIndex experimentalRegionIndex;
+    private volatile Map<Long, ObaRegion> regionsById = Collections.emptyMap();
+
+    /**
+     * Use {@link #builder()}.  The API key and the regions, arrivals and time zone caches are required, and every
+     * other feature is turned off if it's left unset.
+     */
+    @Builder
+    private ObaClient(@NonNull String apiKey,
+                      @NonNull RegionsCache regionsCache,
+                      @NonNull SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache,
+                      @NonNull SingleFlightCache<String, TimeZone> timeZoneCache,
+                      StreamingArrivalsParser arrivalsParser,
+                      CircuitBreakers circuitBreakers,
+                      LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals,
+                      StopCodeIndexes stopCodeIndexes,
+                      ScheduleCache scheduleCache,
+                      ScanWindows scanWindows,
+                      CityRegionCache cityRegionCache) {
+        this.apiKey = apiKey;
+        this.arrivalsParser = arrivalsParser;
+        this.circuitBreakers = circuitBreakers;
+        this.lastKnownArrivals = lastKnownArrivals;
+        this.stopCodeIndexes = stopCodeIndexes;
+        this.scheduleCache = scheduleCache;
+        this.scanWindows = scanWindows;
+        this.cityRegionCache = cityRegionCache;
+        this.regionsCache = regionsCache;
+        this.arrivalsCache = arrivalsCache;
+        this.timeZoneCache = timeZoneCache;
+        if (cityRegionCache != null) {
+            regionsCache.addListener(cityRegionCache::onRegionsLoaded);
+        }
+        regionsCache.addListener(this::buildRegionIndexes);
+    }
+
+    private void buildRegionIndexes(ObaRegion[] regions) {
+        experimentalRegionIndex = RegionIndex.build(filterRegions(regions, true));
+        regionIndex = RegionIndex.build(filterRegions(regions, false));
+        Map<Long, ObaRegion> byId = new HashMap<>();
+        for (ObaRegion region : filterRegions(regions, true)) {
+            byId.put(region.getId(), region);
+        }
+        regionsById = byId;
     }
 
+    /**
+     * Returns the region found for a city the last time it was named, so the city doesn't need to be geocoded and
+     * looked up in the regions directory again
+     *
+     * @param cityName                   city name as heard
+     * @param includeExperimentalRegions true if experimental (beta) regions should be included, false if they should not
+     * @return the city's region and location, or empty if the city hasn't been resolved since the directory changed
+     * @throws IOException if the regions directory can't be downloaded
+     */
+    public Optional<CityRegion> getCityRegion(@NonNull String cityName, boolean includeExperimentalRegions)
+            throws IOException {
+        if (cityRegionCache == null) {
+            return Optional.empty();
+        }
+        // Downloads the directory on first use, which also clears the cache if the regions have changed
+        regionsCache.getRegions();
+        Optional<CityRegionCache.Entry> entry = cityRegionCache.get(cityName, includeExperimentalRegions);
+        if (!entry.isPresent()) {
+            return Optional.empty();
+        }
+        ObaRegion region = regionsById.get(entry.get().getRegionId());
+        if (region == null
+                || (region.getExperimental() && !includeExperimentalRegions)
+                || !region.getObaBaseUrl().equals(entry.get().getObaBaseUrl())) {
+            cityRegionCache.invalidate(cityName, includeExperimentalRegions);
+            return Optional.empty();
+        }
+        return Optional.of(new CityRegion(region, entry.get().getLocation()));
+    }
+
+    /**
+     * Remembers the region found for a city, so it's resolved by {@link #getCityRegion(String, boolean)} next time
+     *
+     * @param cityName                   city name as heard
+     * @param includeExperimentalRegions true if experimental (beta) regions were included
+     * @param region                     closest region to the city
+     * @param location                   geocoded location of the city
+     */
+    public void putCityRegion(@NonNull String cityName, boolean includeExperimentalRegions,
+                              @NonNull ObaRegion region, @NonNull Location location) {
+        if (cityRegionCache != null) {
+            cityRegionCache.put(cityName, includeExperimentalRegions, region, location);
+        }
+    }
+
+    /**
+     * Get the closest region to a given location using a spatial index over the cached regions directory, so only
+     * the regions near the location are compared.  Results are the same as
+     * {@link ObaClientSharedCode#getClosestRegion(Location, boolean)}.
+     *
+     * @param l geographic location used to search for nearby regions
+     * @param includeExperimentalRegions true if experimental (beta) regions should be included, false if they should not
+     * @return the closest region in the Regions API to the given location, or empty if there are no nearby regions
+     * (within 100 miles of the provided location) or a region couldn't be found.
+     */
+    @Override
+    public Optional<ObaRegion> getClosestRegion(@NonNull Location l, boolean includeExperimentalRegions) throws IOException {
+        // Downloads the directory and builds the indexes on first use, and starts a refresh if the directory is stale
+        regionsCache.getRegions();
+        RegionIndex index = includeExperimentalRegions ? experimentalRegionIndex : regionIndex;
+        if (index == null) {
+            // The index couldn't be built from the directory, so compare the location with every region instead
+            return super.getClosestRegion(l, includeExperimentalRegions);
+        }
+        return index.getClosestRegion(l);
+    }
+
+    /**
+     * Returns the regions directory from the shared in-memory cache instead of downloading it for every request.
+     *
+     * @return the full directory of regions
+     * @throws IOException
+     */
+    @Override
+    protected ObaRegion[] getRegions() throws IOException {
+        return regionsCache.getRegions();
+    }
+
+    /**
+     * Returns the local index of a region's stops by stop code, so stop numbers can be resolved without a REST API call
+     *
+     * @param regionId ID of the region in the Regions API
+     * @return the stop code index for the region, or empty if the region's stops aren't available locally
+     */
+    public Optional<StopCodeIndex> getStopCodeIndex(long regionId) {
+        return stopCodeIndexes != null ? stopCodeIndexes.forRegion(regionId) : Optional.empty();
+    }
+
+    /**
+     * Returns a client for the OBA REST API of a single region.  Clients for different regions don't share any mutable
+     * state, so they can be used concurrently.
+     *
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @return a client for the given OBA server
+     * @throws URISyntaxException if obaBaseUrl isn't a valid URI
+     */
     public ObaUserClient withObaBaseUrl(@NonNull String obaBaseUrl) throws URISyntaxException {
-        return new ObaUserClient(obaBaseUrl);
+        return ObaUserClient.builder()
+                .context(getRegionContext(obaBaseUrl))
+                .arrivalsCache(arrivalsCache)
+                .timeZoneCache(timeZoneCache)
+                .arrivalsParser(arrivalsParser)
+                .circuitBreaker(circuitBreakers != null ? circuitBreakers.forObaBaseUrl(obaBaseUrl) : null)
+                .lastKnownArrivals(lastKnownArrivals)
+                .scheduleCache(scheduleCache)
+                .scanWindows(scanWindows)
+                .build();
+    }
+
+    /**
+     * Returns a client for the OBA REST API of a single region whose calls don't run past the given deadline.
+     *
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @param deadline   deadline of the request the client is used for
+     * @return a client for the given OBA server
+     * @throws URISyntaxException if obaBaseUrl isn't a valid URI
+     */
+    public ObaUserClient withObaBaseUrl(@NonNull String obaBaseUrl, @NonNull Deadline deadline) throws URISyntaxException {
+        return withObaBaseUrl(obaBaseUrl).withDeadline(deadline);
+    }
+
+    /**
+     * Returns the context for the given OBA server, creating it the first time the server is used
+     *
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @return the context for the given OBA server
+     * @throws URISyntaxException if obaBaseUrl isn't a valid URI
+     */
+    public ObaRegionContext getRegionContext(@NonNull String obaBaseUrl) throws URISyntaxException {
+        ObaRegionContext context = regionContexts.get(obaBaseUrl);
+        if (context == null) {
+            try {
+                context = new ObaRegionContext(obaBaseUrl, apiKey);
+            } catch (URISyntaxException e) {
+                log.error("ObaBaseUrl we constructed was invalid: " + e.getMessage());
+                throw e;
+            }
+            ObaRegionContext existing = regionContexts.putIfAbsent(obaBaseUrl, context);
+            if (existing != null) {
+                context = existing;
+            }
+        }
+        return context;
     }
 }
@@ -65,14 +65,45 @@ public abstract class ObaClientSharedCode {
      * @throws IOException
      */
     public List<ObaRegion> getAllRegions(boolean includeExperimentalRegions) throws IOException {
+        return filterRegions(getRegions(), includeExperimentalRegions);
+    }
+
+    /**
+     * Filters the full directory of regions down to the regions users can be onboarded to
+     *
+     * @param regions                    the full directory of regions
+     * @param includeExperimentalRegions true if experimental (beta) regions should be included, false if they should not
+     * @return the usable regions, in directory order
+     */
+    static List<ObaRegion> filterRegions(ObaRegion[] regions, boolean includeExperimentalRegions) {
+        return Arrays.stream(regions)
+                .filter(r -> (RegionUtils.isRegionUsable(r) || (r.getId() == NEW_YORK_REGION_ID && includeExperimentalRegions))
+                        && (!r.getExperimental() || includeExperimentalRegions)
+                        && r.getObaBaseUrl() != null)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the full, unfiltered directory of regions.  Subclasses can override this to serve the directory from a
+     * cache instead of the Regions API.
+     *
+     * @return the full directory of regions
+     * @throws IOException
+     */
+    protected ObaRegion[] getRegions() throws IOException {
+        return requestRegions();
+    }
+
+    /**
+     * Downloads the full, unfiltered directory of regions from the Regions API
+     *
+     * @return the full directory of regions
+     * @throws IOException
+     */
+    public static ObaRegion[] requestRegions() throws IOException {
         ObaRegionsResponse response = ObaRegionsRequest.newRequest().call();
         if (response.getCode() == ObaApi.OBA_OK) {
-            List<ObaRegion> regions = Arrays.asList(response.getRegions());
-            return regions.stream()
-                    .filter(r -> (RegionUtils.isRegionUsable(r) || (r.getId() == NEW_YORK_REGION_ID && includeExperimentalRegions))
-                            && (!r.getExperimental() || includeExperimentalRegions)
-                            && r.getObaBaseUrl() != null)
-                    .collect(Collectors.toList());
+            return response.getRegions();
         } else {
             throw new IOException("Error getting regions");
         }
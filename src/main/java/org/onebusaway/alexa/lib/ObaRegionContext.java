@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import org.onebusaway.io.client.ObaContext;
+import org.onebusaway.io.client.request.RequestBase;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Immutable settings used to call the OBA REST API of a single region.
+ * <p>
+ * ObaApi.getDefaultContext() is global to the JVM, so setting the base URL on it for each user lets concurrent
+ * requests for different regions call the wrong server.  Instead, each request builder is given a new context,
+ * populated from an instance of this class, so any number of regions can be called at the same time.
+ */
+@Getter
+@EqualsAndHashCode
+public final class ObaRegionContext {
+    private final String obaBaseUrl;
+    private final String apiKey;
+
+    /**
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @param apiKey     OBA REST API key
+     * @throws URISyntaxException if obaBaseUrl isn't a valid URI
+     */
+    public ObaRegionContext(@NonNull String obaBaseUrl, @NonNull String apiKey) throws URISyntaxException {
+        new URI(obaBaseUrl);
+        this.obaBaseUrl = obaBaseUrl;
+        this.apiKey = apiKey;
+    }
+
+    /**
+     * Points the request builder at this region, without touching the global ObaApi context
+     *
+     * @param builder request builder to apply this context to
+     * @return the same builder
+     */
+    public <T extends RequestBase.BuilderBase> T apply(@NonNull T builder) {
+        // A context of the request's own, rather than whatever the builder's getter returns, which could be shared
+        ObaContext context = new ObaContext();
+        context.setApiKey(apiKey);
+        try {
+            context.setBaseUrl(obaBaseUrl);
+        } catch (URISyntaxException e) {
+            // Can't happen - the URL was validated when this context was created
+            throw new IllegalStateException(e);
+        }
+        builder.setObaContext(context);
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        // Leave the API key out of log messages
+        return "ObaRegionContext(" + obaBaseUrl + ")";
+    }
+}
@@ -14,42 +14,113 @@
  */
 package org.onebusaway.alexa.lib;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.cache.LastKnownGoodCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.exception.CircuitOpenException;
 import org.onebusaway.io.client.ObaApi;
 import org.onebusaway.io.client.elements.ObaAgencyWithCoverage;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
 import org.onebusaway.io.client.elements.ObaStop;
 import org.onebusaway.io.client.request.*;
 import org.onebusaway.location.Location;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
 import java.util.Date;
+import java.util.Optional;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 @Log4j
 /*
  * Client code used to access the OBA REST API for a local OBA server.  All methods in this class result in a REST API
  * call (i.e., network access).
  *
- * FIXME: This class gives the illusion of object encapsulation, but it actually manipulates the global context of
- * ObaApi. I don't yet know the ObaApi well enough to fix this.
+ * Each request is built with its own copy of the region's context, so instances for different regions can be used
+ * concurrently.  Use ObaClient.withObaBaseUrl() to get an instance.
  */
 public class ObaUserClient extends ObaClientSharedCode {
     private static final int DEFAULT_SEARCH_RADIUS_METERS = 40000;
     public static final int ARRIVALS_SCAN_MINS = 65;
 
-    public ObaUserClient(@NonNull String obaBaseUrl) throws URISyntaxException {
-        log.debug("Instantiating ObaUserClient with obaBaseUrl " + obaBaseUrl);
-        try {
-            ObaApi.getDefaultContext().setBaseUrl(obaBaseUrl);
-        } catch (URISyntaxException e) {
-            log.error("ObaBaseUrl we constructed was invalid: " + e.getMessage());
-            throw e;
-        } catch (Exception e) {
-            log.error("Exception setting ObaBaseUrl: " + e.getMessage());
-            throw e;
-        }
+    @Getter
+    private final ObaRegionContext context;
+
+    // Shared by all clients, keyed by base URL, stop and scan window. Null if arrivals aren't cached.
+    private final SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache;
+
+    // Shared by all clients, keyed by base URL. Null if time zones aren't cached.
+    private final SingleFlightCache<String, TimeZone> timeZoneCache;
+
+    // Decodes arrivals without the sections speech doesn't use. Null if the library decodes them.
+    private final StreamingArrivalsParser arrivalsParser;
+
+    // Shared by all clients for the same region. Null if calls aren't guarded by a circuit breaker.
+    private final CircuitBreaker circuitBreaker;
+
+    // Shared by all clients, keyed by base URL and stop, with the window each response covers. Null if old arrivals
+    // aren't kept as a fallback.
+    private final LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals;
+
+    // Shared by all clients, keyed by base URL, stop and service date. Null if schedules aren't cached.
+    private final ScheduleCache scheduleCache;
+
+    // Shared by all clients, keyed by base URL and stop. Null if arrivals are always requested for the full window.
+    private final ScanWindows scanWindows;
+
+    // Deadline of the request this client is used for, or null if calls only use the transport's timeouts
+    @Getter
+    private final Deadline deadline;
+
+    /**
+     * Use {@link #builder()}, setting only the region's context and the caches and helpers the client should use.
+     * Everything left unset is null, which turns that feature off.
+     */
+    @Builder(toBuilder = true)
+    private ObaUserClient(@NonNull ObaRegionContext context,
+                          SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache,
+                          SingleFlightCache<String, TimeZone> timeZoneCache,
+                          StreamingArrivalsParser arrivalsParser,
+                          CircuitBreaker circuitBreaker,
+                          LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals,
+                          ScheduleCache scheduleCache,
+                          ScanWindows scanWindows,
+                          Deadline deadline) {
+        log.debug("Instantiating ObaUserClient with " + context);
+        this.context = context;
+        this.arrivalsCache = arrivalsCache;
+        this.timeZoneCache = timeZoneCache;
+        this.arrivalsParser = arrivalsParser;
+        this.circuitBreaker = circuitBreaker;
+        this.lastKnownArrivals = lastKnownArrivals;
+        this.scheduleCache = scheduleCache;
+        this.scanWindows = scanWindows;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns a client for the same region whose calls don't run past the given deadline.  Calls fail with a
+     * DeadlineExceededException instead of being made once the deadline has passed.
+     *
+     * @param deadline deadline of the request the client is used for
+     * @return a client that respects the given deadline
+     */
+    public ObaUserClient withDeadline(@NonNull Deadline deadline) {
+        return toBuilder().deadline(deadline).build();
+    }
+
+    /**
+     * @return base URL of the OBA REST API this client calls
+     */
+    public String getObaBaseUrl() {
+        return context.getObaBaseUrl();
     }
 
     /**
@@ -61,10 +132,11 @@ public class ObaUserClient extends ObaClientSharedCode {
      */
     public ObaStop[] getNearbyStops(@NonNull Location l) throws IOException {
         log.debug("Invoked getNearbyStops() with location " + l.toString());
-        ObaStopsForLocationResponse response = new ObaStopsForLocationRequest.Builder(l)
-                .setRadius(DEFAULT_SEARCH_RADIUS_METERS)
-                .build()
-                .call();
+        ObaStopsForLocationResponse response = call("getting stops near " + l,
+                () -> context.apply(new ObaStopsForLocationRequest.Builder(l))
+                        .setRadius(DEFAULT_SEARCH_RADIUS_METERS)
+                        .build()
+                        .call());
         log.debug("ObaStopsForLocationRequest returned " + response.toString());
         log.debug("  " + response.getStops().toString());
         if (response.getCode() == ObaApi.OBA_OK) {
@@ -80,7 +152,8 @@ public class ObaUserClient extends ObaClientSharedCode {
      * @return details about a particular stop, given it's stopId
      */
     public ObaStopResponse getStopDetails(@NonNull String stopId) throws IOException {
-        ObaStopResponse response = new ObaStopRequest.Builder(stopId).build().call();
+        ObaStopResponse response = call("getting stop details for " + stopId,
+                () -> context.apply(new ObaStopRequest.Builder(stopId)).build().call());
         log.debug("ObaStopRequest returned " + response.toString());
         if (response.getCode() == ObaApi.OBA_OK) {
             return response;
@@ -101,11 +174,12 @@ public class ObaUserClient extends ObaClientSharedCode {
     public ObaStop[] getStopFromCode(@NonNull Location l,
                                      String stopCode) throws IOException {
         log.debug("Invoked getStopFromCode() with location " + l.toString() + " and stopCode " + stopCode);
-        ObaStopsForLocationResponse response = new ObaStopsForLocationRequest.Builder(l)
-                .setQuery(stopCode)
-                .setRadius(DEFAULT_SEARCH_RADIUS_METERS)
-                .build()
-                .call();
+        ObaStopsForLocationResponse response = call("getting stop " + stopCode,
+                () -> context.apply(new ObaStopsForLocationRequest.Builder(l))
+                        .setQuery(stopCode)
+                        .setRadius(DEFAULT_SEARCH_RADIUS_METERS)
+                        .build()
+                        .call());
         log.debug("ObaStopsForLocationRequest returned = " + response);
         if (response.getCode() == ObaApi.OBA_OK) {
             return response.getStops();
@@ -115,7 +189,8 @@ public class ObaUserClient extends ObaClientSharedCode {
     }
 
     /**
-     * Returns the arrivals and departures for the given stopId
+     * Returns the arrivals and departures for the given stopId.  Responses are cached for a few seconds and shared
+     * between users, so many users asking about the same stop at once result in a single REST API call.
      *
      * @param stopId the stopId to return arrivals and departures for
      * @param scanMins number of minutes to look ahead for arrivals
@@ -123,10 +198,84 @@ public class ObaUserClient extends ObaClientSharedCode {
      */
     public ObaArrivalInfoResponse getArrivalsAndDeparturesForStop(@NonNull String stopId,
                                                                   int scanMins) throws IOException {
-        ObaArrivalInfoResponse response = new ObaArrivalInfoRequest.Builder(stopId, scanMins)
-                .build()
-                .call();
+        if (arrivalsCache == null) {
+            return requestArrivalsAndDeparturesForStop(stopId, scanMins);
+        }
+        String key = String.format("%s|%s|%d", context.getObaBaseUrl(), stopId, scanMins);
+        return arrivalsCache.get(key, () -> requestArrivalsAndDeparturesForStop(stopId, scanMins));
+    }
+
+    /**
+     * Returns the arrivals and departures for the given stopId over a window that fits the stop.  Busy stops are
+     * first asked for a shorter window learned from earlier responses, and the full window is only requested when
+     * that doesn't return enough arrivals, so the arrivals spoken are the same as with the full window.
+     *
+     * @param stopId         the stopId to return arrivals and departures for
+     * @param routesToFilter routes the user doesn't want to hear about, or null
+     * @return the arrival info response for the given stopId with the window it covers
+     */
+    public ScanWindows.Scan scanArrivalsAndDeparturesForStop(@NonNull String stopId,
+                                                             Set<String> routesToFilter) throws IOException {
+        if (scanWindows == null) {
+            return new ScanWindows.Scan(getArrivalsAndDeparturesForStop(stopId, ARRIVALS_SCAN_MINS),
+                    ARRIVALS_SCAN_MINS);
+        }
+        String key = getStopKey(stopId);
+        int scanMins = scanWindows.getScanMins(key);
+        ObaArrivalInfoResponse response = getArrivalsAndDeparturesForStop(stopId, scanMins);
+        boolean widened = false;
+        if (scanMins < scanWindows.getMaxScanMins() && !scanWindows.isEnough(key, response, routesToFilter)) {
+            scanMins = scanWindows.getMaxScanMins();
+            widened = true;
+            response = getArrivalsAndDeparturesForStop(stopId, scanMins);
+        }
+        scanWindows.record(key, response, scanMins, widened);
+        return new ScanWindows.Scan(response, scanMins);
+    }
+
+    /**
+     * Returns the arrivals of a scan that should be spoken.  With adaptive windows these are the ones any window that
+     * was enough to answer with has, so the answer doesn't depend on the window; otherwise they're all spoken.
+     *
+     * @param scan           arrivals returned by scanArrivalsAndDeparturesForStop()
+     * @param routesToFilter routes the user doesn't want to hear about, or null
+     * @return the arrivals to speak
+     */
+    public ObaArrivalInfo[] getSpokenArrivals(@NonNull ScanWindows.Scan scan, Set<String> routesToFilter) {
+        if (scanWindows == null) {
+            return scan.getResponse().getArrivalInfo();
+        }
+        return scanWindows.getSpokenArrivals(scan.getResponse(), routesToFilter);
+    }
+
+    /**
+     * @param stopId the stopId to return the window for
+     * @return number of minutes of arrivals scanArrivalsAndDeparturesForStop() requests first for the stop
+     */
+    public int getScanMinsForStop(@NonNull String stopId) {
+        return scanWindows != null ? scanWindows.getScanMins(getStopKey(stopId)) : ARRIVALS_SCAN_MINS;
+    }
+
+    private ObaArrivalInfoResponse requestArrivalsAndDeparturesForStop(String stopId, int scanMins) throws IOException {
+        ObaArrivalInfoResponse response = call("getting arrivals and departures for " + stopId, () -> {
+            if (arrivalsParser != null) {
+                try {
+                    ObaArrivalInfoResponse streamed = arrivalsParser.request(context, stopId, scanMins);
+                    if (streamed != null) {
+                        return streamed;
+                    }
+                } catch (JsonProcessingException e) {
+                    log.warn("Couldn't decode arrivals for " + stopId + ", retrying with the OBA client library: " + e.getMessage());
+                }
+            }
+            return context.apply(new ObaArrivalInfoRequest.Builder(stopId, scanMins))
+                    .build()
+                    .call();
+        });
         if (response.getCode() == ObaApi.OBA_OK) {
+            if (lastKnownArrivals != null) {
+                lastKnownArrivals.put(getStopKey(stopId), new ScanWindows.Scan(response, scanMins));
+            }
             return response;
         } else {
             throw new IOException(String.format("OBA Error %s getting arrivals and departures for %s", response.getCode(), stopId));
@@ -134,12 +283,40 @@ public class ObaUserClient extends ObaClientSharedCode {
     }
 
     /**
-     * Returns time zone for the current OneBusAway region
+     * Returns the arrivals from the last successful response for a stop, brought forward to the current time.  Used
+     * to answer with older data when getArrivalsAndDeparturesForStop() fails.  This doesn't make a REST API call.
+     *
+     * @param stopId the stopId to return arrivals for
+     * @return the arrivals that haven't departed yet, or empty if there's no recent response for the stop
+     */
+    public Optional<StaleArrivals> getStaleArrivalsForStop(@NonNull String stopId) {
+        if (lastKnownArrivals == null) {
+            return Optional.empty();
+        }
+        return lastKnownArrivals.get(getStopKey(stopId))
+                .map(aged -> StaleArrivals.from(aged.getValue(), aged.getAgeMillis()));
+    }
+
+    private String getStopKey(String stopId) {
+        return context.getObaBaseUrl() + "|" + stopId;
+    }
+
+    /**
+     * Returns time zone for the current OneBusAway region.  A region's time zone doesn't change, so it's only requested
+     * from the server the first time it's needed.
      *
      * @return time zone for the current OneBusAway region
      */
     public TimeZone getTimeZone() throws IOException {
-        ObaAgenciesWithCoverageResponse response = new ObaAgenciesWithCoverageRequest.Builder().build().call();
+        if (timeZoneCache == null) {
+            return requestTimeZone();
+        }
+        return timeZoneCache.get(context.getObaBaseUrl(), this::requestTimeZone);
+    }
+
+    private TimeZone requestTimeZone() throws IOException {
+        ObaAgenciesWithCoverageResponse response = call("getting time zone",
+                () -> context.apply(new ObaAgenciesWithCoverageRequest.Builder()).build().call());
         log.debug("ObaAgenciesWithCoverageRequest returned " + response.toString());
         if (response.getCode() == ObaApi.OBA_OK) {
             ObaAgencyWithCoverage[] agencies = response.getAgencies();
@@ -159,11 +336,13 @@ public class ObaUserClient extends ObaClientSharedCode {
      */
     public ObaScheduleForStopResponse getScheduleForStop(@NonNull String stopId,
                                                          Date date) throws IOException {
-        ObaScheduleForStopRequest.Builder requestBuilder = new ObaScheduleForStopRequest.Builder(stopId);
+        ObaScheduleForStopRequest.Builder requestBuilder =
+                context.apply(new ObaScheduleForStopRequest.Builder(stopId));
         if (date != null) {
             requestBuilder.setDate(date);
         }
-        ObaScheduleForStopResponse response = requestBuilder.build().call();
+        ObaScheduleForStopResponse response = call("getting full schedule for stop " + stopId,
+                () -> requestBuilder.build().call());
         if (response.getCode() == ObaApi.OBA_OK) {
             return response;
         } else {
@@ -171,6 +350,38 @@ public class ObaUserClient extends ObaClientSharedCode {
         }
     }
 
+    /**
+     * Returns today's schedule for the given stopId if it has been loaded by loadScheduleForStopInBackground().  Used
+     * to answer from the schedule when getArrivalsAndDeparturesForStop() fails.  This doesn't make a REST API call.
+     *
+     * @param stopId   the stopId to return the schedule for
+     * @param timeZone time zone of the region, which decides the current service date
+     * @return today's schedule for the stop, or empty if it isn't cached
+     */
+    public Optional<StopSchedule> getCachedScheduleForStop(@NonNull String stopId, @NonNull TimeZone timeZone) {
+        if (scheduleCache == null) {
+            return Optional.empty();
+        }
+        return scheduleCache.get(getObaBaseUrl(), stopId, timeZone);
+    }
+
+    /**
+     * Starts loading today's schedule for the given stopId in the background, unless it's already cached, so it's
+     * available if a later request for the stop fails.  The load isn't needed to answer the current request, so it
+     * doesn't use this client's deadline.
+     *
+     * @param stopId   the stopId to load the schedule for
+     * @param timeZone time zone of the region, which decides the current service date
+     */
+    public void loadScheduleForStopInBackground(@NonNull String stopId, @NonNull TimeZone timeZone) {
+        if (scheduleCache == null) {
+            return;
+        }
+        ObaUserClient client = toBuilder().deadline(null).build();
+        scheduleCache.loadInBackground(getObaBaseUrl(), stopId, timeZone,
+                date -> StopSchedule.from(stopId, client.getScheduleForStop(stopId, date)));
+    }
+
     /**
      * Returns stop information for the given stopId
      *
@@ -178,7 +389,8 @@ public class ObaUserClient extends ObaClientSharedCode {
      * @return details for the given stopId
      */
     public ObaStopResponse getStop(@NonNull String stopId) throws IOException {
-        ObaStopResponse response = new ObaStopRequest.Builder(stopId).build().call();
+        ObaStopResponse response = call("getting details for stop " + stopId,
+                () -> context.apply(new ObaStopRequest.Builder(stopId)).build().call());
         log.debug("ObaStopRequest returned " + response.toString());
         if (response.getCode() == ObaApi.OBA_OK) {
             return response;
@@ -186,4 +398,61 @@ public class ObaUserClient extends ObaClientSharedCode {
             throw new IOException(String.format("OBA Error %s getting details for stop %s", response.getCode(), stopId));
         }
     }
+
+    /**
+     * Makes a REST API call on behalf of this client.  Fails fast if the client's deadline has passed or the region's
+     * circuit breaker is open, and otherwise makes the call within the deadline and records its outcome with the
+     * breaker.  Only failures of the server (I/O errors and 5xx responses) count against it - a call that fails because
+     * the request ran out of time or was interrupted isn't recorded, as other requests' calls may well succeed.
+     *
+     * @param operation description of the call for exception messages
+     * @param call      the REST API call
+     * @return the response of the call
+     * @throws CircuitOpenException if the region's circuit breaker is open
+     */
+    private <T extends ObaResponse> T call(String operation, ObaCall<T> call) throws IOException {
+        if (deadline != null) {
+            deadline.check(operation);
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            throw new CircuitOpenException(String.format("Not %s - %s is unhealthy", operation, getObaBaseUrl()));
+        }
+        // Stays null if the call failed for a reason that has nothing to do with the server
+        Boolean success = null;
+        long start = System.nanoTime();
+        try (Deadline.Scope ignored = deadline != null ? deadline.enter() : Deadline.Scope.NONE) {
+            T response = call.call();
+            // Errors like an unknown stop ID still mean the server is healthy
+            success = response.getCode() != ObaApi.OBA_IO_EXCEPTION && response.getCode() < 500;
+            return response;
+        } catch (IOException e) {
+            if (!(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException) {
+                success = false;
+            }
+            throw e;
+        } finally {
+            if (circuitBreaker != null) {
+                if (success == null || (!success && isOutOfTime())) {
+                    circuitBreaker.releasePermission();
+                } else {
+                    circuitBreaker.onResult(success, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the request this client is used for has run out of time or been interrupted, in which case a
+     * failed call most likely timed out early because of it
+     */
+    private boolean isOutOfTime() {
+        return Thread.currentThread().isInterrupted() || (deadline != null && deadline.isExpired());
+    }
+
+    /**
+     * A REST API call
+     */
+    private interface ObaCall<T> {
+        T call() throws IOException;
+    }
 }
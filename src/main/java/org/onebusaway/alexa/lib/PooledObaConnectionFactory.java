@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+import org.onebusaway.io.client.ObaConnection;
+import org.onebusaway.io.client.ObaConnectionFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport for the OBA client library that reuses keep-alive connections from a pool, so calls to the same regional
+ * OBA servers don't pay for DNS, TCP and TLS setup each time.  Responses are requested gzip-compressed.
+ * <p>
+ * Install it with ObaApi.setConnectionFactory().  The library disconnects each connection once the response has been
+ * read, which returns it to the pool.
+ * <p>
+ * If the request is made within a {@link Deadline} scope, the timeouts are shortened to the time left before the
+ * deadline, and the request isn't sent at all once it has passed.  A request still running at the deadline, e.g. one
+ * whose response is streamed slowly enough that no single read times out, is aborted.  Requests that fail once the
+ * deadline has passed, whether aborted or timed out, throw {@link DeadlineExceededException}.
+ */
+@Log4j
+public class PooledObaConnectionFactory implements ObaConnectionFactory, Closeable {
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig requestConfig;
+    private final ScheduledThreadPoolExecutor abortScheduler;
+
+    /**
+     * @param maxConnectionsPerHost maximum number of open connections to a single OBA server
+     * @param maxConnections        maximum number of open connections to all OBA servers
+     * @param connectTimeoutMillis  how long to wait for a connection to be established, in milliseconds
+     * @param readTimeoutMillis     how long to wait for data from the server, in milliseconds
+     */
+    public PooledObaConnectionFactory(int maxConnectionsPerHost, int maxConnections, int connectTimeoutMillis,
+                                      int readTimeoutMillis) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connectionManager.setMaxTotal(maxConnections);
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                // Don't wait longer for a connection from the pool than it would take to open a new one
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .build();
+        // The builder adds Accept-Encoding: gzip,deflate and transparently decompresses responses
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        abortScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "oba-http-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+        abortScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public ObaConnection newConnection(@NonNull URI uri) {
+        return new PooledObaConnection(uri);
+    }
+
+    /**
+     * Closes all pooled connections
+     */
+    @Override
+    public void close() throws IOException {
+        abortScheduler.shutdownNow();
+        httpClient.close();
+    }
+
+    /**
+     * @return number of idle keep-alive connections in the pool
+     */
+    public int getIdleConnectionCount() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * @return number of connections currently used by a request
+     */
+    public int getLeasedConnectionCount() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * A single request.  The request is sent when the response code or body is first needed.
+     */
+    private class PooledObaConnection implements ObaConnection {
+        private final URI uri;
+        private CloseableHttpResponse response;
+        private Deadline deadline;
+        private Future<?> abortTask;
+        private volatile boolean aborted;
+
+        private PooledObaConnection(URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public Reader get() throws IOException {
+            return reader(execute(new HttpGet(uri)));
+        }
+
+        @Override
+        public Reader post(String string) throws IOException {
+            HttpPost post = new HttpPost(uri);
+            post.setEntity(new StringEntity(string, ContentType.APPLICATION_FORM_URLENCODED));
+            return reader(execute(post));
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return execute(new HttpGet(uri)).getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public void disconnect() {
+            if (abortTask != null) {
+                abortTask.cancel(false);
+            }
+            if (response == null) {
+                return;
+            }
+            try {
+                if (!aborted) {
+                    // Reading the rest of the body lets the connection be reused instead of closed
+                    EntityUtils.consume(response.getEntity());
+                }
+                response.close();
+            } catch (IOException e) {
+                log.debug("Error releasing connection to " + uri.getHost() + ": " + e.getMessage());
+            }
+        }
+
+        private CloseableHttpResponse execute(HttpRequestBase request) throws IOException {
+            if (response == null) {
+                deadline = Deadline.current();
+                if (deadline != null) {
+                    String operation = "request to " + uri.getHost();
+                    request.setConfig(RequestConfig.copy(requestConfig)
+                            .setConnectTimeout(deadline.timeoutMillis(requestConfig.getConnectTimeout(), operation))
+                            .setSocketTimeout(deadline.timeoutMillis(requestConfig.getSocketTimeout(), operation))
+                            .setConnectionRequestTimeout(
+                                    deadline.timeoutMillis(requestConfig.getConnectionRequestTimeout(), operation))
+                            .build());
+                    abortTask = abortScheduler.schedule(() -> {
+                        aborted = true;
+                        request.abort();
+                    }, deadline.getDeadlineNanos() - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                try {
+                    response = httpClient.execute(request);
+                } catch (IOException e) {
+                    throw abortedAtDeadline(e);
+                }
+            }
+            return response;
+        }
+
+        /**
+         * Throws DeadlineExceededException if the request failed because it ran out of time.
+         *
+         * @return the original exception, for the caller to rethrow
+         */
+        private IOException abortedAtDeadline(IOException e) {
+            if (aborted || (deadline != null && deadline.isExpired())) {
+                throw new DeadlineExceededException("Ran out of time for request to " + uri.getHost(), e);
+            }
+            return e;
+        }
+
+        private Reader reader(CloseableHttpResponse response) throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return new StringReader("");
+            }
+            ContentType contentType = ContentType.get(entity);
+            Charset charset = contentType != null && contentType.getCharset() != null ?
+                    contentType.getCharset() : StandardCharsets.UTF_8;
+            return new InputStreamReader(new DeadlineInputStream(entity.getContent()), charset);
+        }
+
+        /**
+         * Reports reads that fail because the request was aborted at the deadline as DeadlineExceededException.
+         */
+        private class DeadlineInputStream extends FilterInputStream {
+            private DeadlineInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (IOException e) {
+                    throw abortedAtDeadline(e);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (IOException e) {
+                    throw abortedAtDeadline(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.NonNull;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.io.client.util.RegionUtils;
+import org.onebusaway.location.Location;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable grid index over the bounds of a list of regions, used to find the closest region to a location without
+ * measuring the distance to every region in the directory.
+ * <p>
+ * Each region is bucketed into every 1x1 degree cell that one of its bounds overlaps.  A lookup collects the regions
+ * from the cells within {@link #SEARCH_RADIUS_METERS} of the location and hands only those to
+ * {@link RegionUtils#getClosestRegion}, so the proximity threshold and tie-breaking are exactly the same as a scan of
+ * the full list.
+ */
+public class RegionIndex {
+    /**
+     * RegionUtils only returns regions within 100 miles of the location.  Candidates are collected from twice that
+     * distance so the index never leaves out a region the full scan would have picked.
+     */
+    static final double SEARCH_RADIUS_METERS = 2 * 100 * 1609.344;
+
+    private static final double CELL_SIZE_DEGREES = 1.0;
+    private static final int ROWS = (int) (180 / CELL_SIZE_DEGREES);
+    private static final int COLUMNS = (int) (360 / CELL_SIZE_DEGREES);
+    // Slightly less than the length of a degree of latitude anywhere on earth, so the search box is never too small
+    private static final double METERS_PER_DEGREE = 110000;
+
+    private final List<ObaRegion> regions;
+    private final Map<Integer, int[]> cells;
+
+    private RegionIndex(List<ObaRegion> regions, Map<Integer, int[]> cells) {
+        this.regions = regions;
+        this.cells = cells;
+    }
+
+    /**
+     * Builds an index over the given regions.  The order of the list is kept so that ties are broken the same way as
+     * a scan of the full list.
+     *
+     * @param regions regions to index
+     * @return an index over the given regions
+     */
+    public static RegionIndex build(@NonNull List<ObaRegion> regions) {
+        Map<Integer, BitSet> buckets = new HashMap<>();
+        for (int i = 0; i < regions.size(); i++) {
+            ObaRegion.Bounds[] bounds = regions.get(i).getBounds();
+            if (bounds == null) {
+                // RegionUtils can't measure the distance to a region without bounds, so it never matches
+                continue;
+            }
+            for (ObaRegion.Bounds b : bounds) {
+                double halfLatSpan = Math.abs(b.getLatSpan()) / 2;
+                double halfLonSpan = Math.abs(b.getLonSpan()) / 2;
+                int minRow = row(b.getLat() - halfLatSpan);
+                int maxRow = row(b.getLat() + halfLatSpan);
+                int minColumn = column(b.getLon() - halfLonSpan);
+                int columnCount = Math.min(COLUMNS, column(b.getLon() + halfLonSpan) - minColumn + 1);
+                for (int r = minRow; r <= maxRow; r++) {
+                    for (int c = 0; c < columnCount; c++) {
+                        buckets.computeIfAbsent(cell(r, minColumn + c), k -> new BitSet()).set(i);
+                    }
+                }
+            }
+        }
+        Map<Integer, int[]> cells = new HashMap<>(buckets.size() * 2);
+        buckets.forEach((cell, members) -> cells.put(cell, members.stream().toArray()));
+        return new RegionIndex(Collections.unmodifiableList(new ArrayList<>(regions)), cells);
+    }
+
+    /**
+     * Returns the closest region to the given location, using the same proximity threshold as
+     * {@link ObaClientSharedCode#getClosestRegion}.
+     *
+     * @param l geographic location used to search for nearby regions
+     * @return the closest region to the given location, or empty if no region is close enough
+     */
+    public Optional<ObaRegion> getClosestRegion(@NonNull Location l) {
+        List<ObaRegion> candidates = getCandidates(l);
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(RegionUtils.getClosestRegion(candidates, l, true, false));
+    }
+
+    /**
+     * Returns the regions with bounds in the grid cells near the given location, in their original order.
+     *
+     * @param l geographic location used to search for nearby regions
+     * @return the regions that could be within the proximity threshold of the given location
+     */
+    List<ObaRegion> getCandidates(Location l) {
+        double latRadius = SEARCH_RADIUS_METERS / METERS_PER_DEGREE;
+        int minRow = row(l.getLatitude() - latRadius);
+        int maxRow = row(l.getLatitude() + latRadius);
+
+        // A degree of longitude gets shorter away from the equator, so size the box for the latitude furthest from it
+        double maxAbsLat = Math.min(90, Math.abs(l.getLatitude()) + latRadius);
+        double cosLat = Math.cos(Math.toRadians(maxAbsLat));
+        int columnCount = COLUMNS;
+        int minColumn = 0;
+        if (cosLat > 0) {
+            double lonRadius = SEARCH_RADIUS_METERS / (METERS_PER_DEGREE * cosLat);
+            if (lonRadius < 180) {
+                minColumn = column(l.getLongitude() - lonRadius);
+                columnCount = Math.min(COLUMNS, column(l.getLongitude() + lonRadius) - minColumn + 1);
+            }
+        }
+
+        BitSet matches = new BitSet(regions.size());
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                int[] members = cells.get(cell(r, minColumn + c));
+                if (members != null) {
+                    for (int i : members) {
+                        matches.set(i);
+                    }
+                }
+            }
+        }
+        List<ObaRegion> candidates = new ArrayList<>(matches.cardinality());
+        matches.stream().forEach(i -> candidates.add(regions.get(i)));
+        return candidates;
+    }
+
+    /**
+     * @return the number of regions in this index
+     */
+    public int size() {
+        return regions.size();
+    }
+
+    private static int row(double lat) {
+        int row = (int) Math.floor((lat + 90) / CELL_SIZE_DEGREES);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    /**
+     * Returns the unwrapped column for a longitude - callers wrap it with {@link #cell(int, int)} so boxes that cross
+     * the antimeridian work.
+     */
+    private static int column(double lon) {
+        return (int) Math.floor((lon + 180) / CELL_SIZE_DEGREES);
+    }
+
+    private static int cell(int row, int column) {
+        return row * COLUMNS + Math.floorMod(column, COLUMNS);
+    }
+}
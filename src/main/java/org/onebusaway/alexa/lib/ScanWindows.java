@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses how many minutes of arrivals to request for a stop, so busy stops aren't asked for an hour of departures
+ * when only the first few are spoken.
+ * <p>
+ * An in-memory table keeps, for each stop, the routes seen in its last full scan, an average of its headway and an
+ * average of how far ahead the target number of arrivals and the first arrival of every route were.  A stop's first
+ * scan, and every {@code fullScanEvery}th scan after that, uses the full window so the table stays current.  Other
+ * scans use the learned window, and are widened to the full window when too few arrivals or not every route came
+ * back.
+ * <p>
+ * Only the arrivals chosen by {@link #getSpokenArrivals} are spoken, which are the same whichever window answered,
+ * as long as the stop hasn't gained a route since its last full scan.
+ */
+public class ScanWindows {
+    // Weight of each new sample in the running averages
+    private static final double SMOOTHING = 0.25;
+
+    // Headroom on top of the learned window, for arrivals running later than usual
+    private static final double MARGIN = 1.5;
+
+    private final int minScanMins;
+    private final int maxScanMins;
+    private final int targetArrivals;
+    private final int fullScanEvery;
+
+    private final Map<String, StopStats> stats;
+
+    private final AtomicLong shortScanCount = new AtomicLong();
+    private final AtomicLong widenedScanCount = new AtomicLong();
+    private final AtomicLong fullScanCount = new AtomicLong();
+
+    /**
+     * @param minScanMins    shortest window requested, in minutes
+     * @param maxScanMins    full window, in minutes
+     * @param targetArrivals number of arrivals (after the user's route filter) a window should return
+     * @param fullScanEvery  how often a stop is scanned with the full window to refresh its routes
+     * @param maxStops       maximum number of stops kept in the table
+     */
+    public ScanWindows(int minScanMins, int maxScanMins, int targetArrivals, int fullScanEvery, int maxStops) {
+        this.minScanMins = Math.min(minScanMins, maxScanMins);
+        this.maxScanMins = maxScanMins;
+        this.targetArrivals = targetArrivals;
+        this.fullScanEvery = fullScanEvery;
+        this.stats = new LinkedHashMap<String, StopStats>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StopStats> eldest) {
+                return size() > maxStops;
+            }
+        };
+    }
+
+    /**
+     * @return the full window, in minutes
+     */
+    public int getMaxScanMins() {
+        return maxScanMins;
+    }
+
+    /**
+     * @param key key of the stop, unique across regions
+     * @return number of minutes of arrivals to request first for the stop
+     */
+    public int getScanMins(@NonNull String key) {
+        StopStats stopStats = getStats(key);
+        if (stopStats == null) {
+            return maxScanMins;
+        }
+        synchronized (stopStats) {
+            if (stopStats.scansSinceFull + 1 >= fullScanEvery || stopStats.coverageMins < 0) {
+                return maxScanMins;
+            }
+            double learned = Math.max(stopStats.coverageMins, Math.max(0, stopStats.headwayMins) * targetArrivals);
+            return (int) Math.max(minScanMins, Math.min(maxScanMins, Math.ceil(learned * MARGIN)));
+        }
+    }
+
+    /**
+     * Returns true if a response for a window shorter than the full one has enough arrivals to answer with
+     *
+     * @param key            key of the stop, unique across regions
+     * @param response       arrivals for the window
+     * @param routesToFilter routes the user doesn't want to hear about, or null
+     * @return true if the response has the target number of arrivals and an arrival of every route the stop's
+     * last full scan had
+     */
+    public boolean isEnough(@NonNull String key, @NonNull ObaArrivalInfoResponse response, Set<String> routesToFilter) {
+        Set<String> filter = routesToFilter != null ? routesToFilter : Collections.emptySet();
+        // Responses include buses that left in the last few minutes, which aren't spoken
+        ObaArrivalInfo[] arrivals = Arrays.stream(getArrivals(response))
+                .filter(a -> StaleArrivals.getDepartureTime(a) >= response.getCurrentTime())
+                .toArray(ObaArrivalInfo[]::new);
+        long count = Arrays.stream(arrivals).filter(a -> !filter.contains(a.getRouteId())).count();
+        if (count < targetArrivals) {
+            return false;
+        }
+        StopStats stopStats = getStats(key);
+        if (stopStats == null) {
+            return false;
+        }
+        Set<String> returnedRoutes = new HashSet<>();
+        for (ObaArrivalInfo arrival : arrivals) {
+            returnedRoutes.add(arrival.getRouteId());
+        }
+        synchronized (stopStats) {
+            for (String routeId : stopStats.routeIds) {
+                if (!filter.contains(routeId) && !returnedRoutes.contains(routeId)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Updates the stop's statistics with the arrivals that were answered with
+     *
+     * @param key      key of the stop, unique across regions
+     * @param response arrivals the answer is based on
+     * @param scanMins window the arrivals were requested for, in minutes
+     * @param widened  true if a shorter window was tried first and didn't have enough arrivals
+     */
+    public void record(@NonNull String key, @NonNull ObaArrivalInfoResponse response, int scanMins, boolean widened) {
+        boolean full = scanMins >= maxScanMins;
+        if (widened) {
+            widenedScanCount.incrementAndGet();
+        } else if (full) {
+            fullScanCount.incrementAndGet();
+        } else {
+            shortScanCount.incrementAndGet();
+        }
+
+        ObaArrivalInfo[] arrivals = Arrays.stream(getArrivals(response))
+                .filter(a -> StaleArrivals.getDepartureTime(a) >= response.getCurrentTime())
+                .toArray(ObaArrivalInfo[]::new);
+        long[] departures = Arrays.stream(arrivals).mapToLong(StaleArrivals::getDepartureTime).sorted().toArray();
+        Map<String, Long> firstDepartures = new HashMap<>();
+        for (ObaArrivalInfo arrival : arrivals) {
+            firstDepartures.merge(arrival.getRouteId(), StaleArrivals.getDepartureTime(arrival), Math::min);
+        }
+        // How far ahead the window had to reach for the target number of arrivals and every route
+        double coverageMins = departures.length < targetArrivals ? maxScanMins
+                : toMinutes(departures[targetArrivals - 1] - response.getCurrentTime());
+        for (long departure : firstDepartures.values()) {
+            coverageMins = Math.max(coverageMins, toMinutes(departure - response.getCurrentTime()));
+        }
+
+        StopStats stopStats;
+        synchronized (stats) {
+            stopStats = stats.computeIfAbsent(key, k -> new StopStats());
+        }
+        synchronized (stopStats) {
+            if (full) {
+                stopStats.routeIds = firstDepartures.keySet();
+                stopStats.scansSinceFull = 0;
+            } else {
+                stopStats.scansSinceFull++;
+            }
+            stopStats.coverageMins = smooth(stopStats.coverageMins, coverageMins);
+            if (departures.length >= 2) {
+                double headwayMins = toMinutes(departures[departures.length - 1] - departures[0])
+                        / (departures.length - 1);
+                stopStats.headwayMins = smooth(stopStats.headwayMins, headwayMins);
+            }
+        }
+    }
+
+    /**
+     * Chooses the arrivals to speak from a response: buses that have already left, the next target number of
+     * arrivals the user wants to hear about and the next arrival of every route.  A window that passes
+     * {@link #isEnough} has all of these, so a learned window is spoken the same as the full one.
+     *
+     * @param response       arrivals for the window
+     * @param routesToFilter routes the user doesn't want to hear about, or null
+     * @return the arrivals to speak, in the order of the response
+     */
+    public ObaArrivalInfo[] getSpokenArrivals(@NonNull ObaArrivalInfoResponse response, Set<String> routesToFilter) {
+        Set<String> filter = routesToFilter != null ? routesToFilter : Collections.emptySet();
+        long[] upcoming = Arrays.stream(getArrivals(response))
+                .filter(a -> !filter.contains(a.getRouteId()))
+                .mapToLong(StaleArrivals::getDepartureTime)
+                .filter(departure -> departure >= response.getCurrentTime())
+                .sorted()
+                .toArray();
+        long lastTarget = upcoming.length == 0 || targetArrivals <= 0 ? Long.MIN_VALUE
+                : upcoming[Math.min(targetArrivals, upcoming.length) - 1];
+        Map<String, Long> firstDepartures = new HashMap<>();
+        for (ObaArrivalInfo arrival : getArrivals(response)) {
+            long departure = StaleArrivals.getDepartureTime(arrival);
+            if (departure >= response.getCurrentTime()) {
+                firstDepartures.merge(arrival.getRouteId(), departure, Math::min);
+            }
+        }
+        return Arrays.stream(getArrivals(response))
+                .filter(a -> {
+                    long departure = StaleArrivals.getDepartureTime(a);
+                    return departure < response.getCurrentTime()
+                            || (!filter.contains(a.getRouteId()) && departure <= lastTarget)
+                            || departure == firstDepartures.get(a.getRouteId());
+                })
+                .toArray(ObaArrivalInfo[]::new);
+    }
+
+    private StopStats getStats(String key) {
+        synchronized (stats) {
+            return stats.get(key);
+        }
+    }
+
+    private static ObaArrivalInfo[] getArrivals(ObaArrivalInfoResponse response) {
+        return response.getArrivalInfo() != null ? response.getArrivalInfo() : new ObaArrivalInfo[0];
+    }
+
+    private static double smooth(double average, double sample) {
+        return average < 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    private static double toMinutes(long millis) {
+        return Math.max(0, millis) / (double) TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /**
+     * @param key key of the stop, unique across regions
+     * @return the learned headway of the stop in minutes, or empty if it isn't known
+     */
+    public OptionalDouble getHeadwayMins(@NonNull String key) {
+        StopStats stopStats = getStats(key);
+        if (stopStats == null) {
+            return OptionalDouble.empty();
+        }
+        synchronized (stopStats) {
+            return stopStats.headwayMins < 0 ? OptionalDouble.empty()
+                    : OptionalDouble.of(stopStats.headwayMins);
+        }
+    }
+
+    /**
+     * @return number of stops in the table
+     */
+    public int size() {
+        synchronized (stats) {
+            return stats.size();
+        }
+    }
+
+    /**
+     * @return summary of the scans made, for logging
+     */
+    public String getStats() {
+        return String.format("stops=%d short=%d widened=%d full=%d", size(), shortScanCount.get(),
+                widenedScanCount.get(), fullScanCount.get());
+    }
+
+    /**
+     * Arrivals for a stop with the window they were requested for
+     */
+    @AllArgsConstructor
+    @Getter
+    public static final class Scan {
+        private final ObaArrivalInfoResponse response;
+        // Minutes ahead the arrivals cover, for "no arrivals in the next N minutes"
+        private final int scanMins;
+    }
+
+    private static final class StopStats {
+        private Set<String> routeIds = Collections.emptySet();
+        private int scansSinceFull;
+        // Running averages in minutes, or -1 until the first sample
+        private double coverageMins = -1;
+        private double headwayMins = -1;
+    }
+}
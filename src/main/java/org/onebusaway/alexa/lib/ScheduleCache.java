@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Date;
+import java.util.Optional;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of stop schedules, keyed by OBA server, stop and service date, so arrivals can be answered from the
+ * schedule when a region's real-time data can't be fetched.
+ * <p>
+ * A schedule is only useful if it's loaded before the server fails, so schedules are loaded in the background after
+ * real-time arrivals for a stop are fetched, at most once per stop per day.  Looking up a cached schedule never makes
+ * a REST API call.
+ */
+@Log4j
+public class ScheduleCache {
+    private final SingleFlightCache<String, StopSchedule> schedules;
+    private final Executor executor;
+    private final Clock clock;
+
+    /**
+     * @param maxEntries maximum number of stop schedules kept in memory
+     * @param executor   runs background loads; loads rejected by the executor are skipped
+     */
+    public ScheduleCache(int maxEntries, @NonNull Executor executor) {
+        this(new SingleFlightCache<>("schedules", TimeUnit.DAYS.toMillis(1), maxEntries), executor, Clock.systemUTC());
+    }
+
+    ScheduleCache(SingleFlightCache<String, StopSchedule> schedules, Executor executor, Clock clock) {
+        this.schedules = schedules;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @param stopId     ID of the stop
+     * @param timeZone   time zone of the region, which decides the current service date
+     * @return today's schedule for the stop, or empty if it hasn't been loaded
+     */
+    public Optional<StopSchedule> get(@NonNull String obaBaseUrl, @NonNull String stopId, @NonNull TimeZone timeZone) {
+        return schedules.getIfPresent(getKey(obaBaseUrl, stopId, getServiceDate(timeZone)));
+    }
+
+    /**
+     * Loads today's schedule for the stop on the executor, unless it's already cached or being loaded
+     *
+     * @param obaBaseUrl base URL of the region's OBA REST API
+     * @param stopId     ID of the stop
+     * @param timeZone   time zone of the region, which decides the current service date
+     * @param loader     requests the stop's schedule for a date
+     */
+    public void loadInBackground(@NonNull String obaBaseUrl, @NonNull String stopId, @NonNull TimeZone timeZone,
+                                 @NonNull Loader loader) {
+        LocalDate serviceDate = getServiceDate(timeZone);
+        String key = getKey(obaBaseUrl, stopId, serviceDate);
+        if (schedules.getIfPresent(key).isPresent()) {
+            return;
+        }
+        // Noon in the region, so the request is for the same date whatever time zone the client library formats it in
+        Date date = Date.from(serviceDate.atTime(LocalTime.NOON).atZone(timeZone.toZoneId()).toInstant());
+        try {
+            executor.execute(() -> {
+                try {
+                    schedules.get(key, () -> loader.load(date));
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Couldn't load the schedule for " + stopId + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Skipped loading the schedule for " + stopId + " - executor is saturated");
+        }
+    }
+
+    private LocalDate getServiceDate(TimeZone timeZone) {
+        return Instant.ofEpochMilli(clock.millis()).atZone(timeZone.toZoneId()).toLocalDate();
+    }
+
+    private static String getKey(String obaBaseUrl, String stopId, LocalDate serviceDate) {
+        return obaBaseUrl + "|" + stopId + "|" + serviceDate;
+    }
+
+    /**
+     * @return number of stop schedules in memory
+     */
+    public int size() {
+        return schedules.size();
+    }
+
+    /**
+     * @return summary of the cache metrics, for logging
+     */
+    public String getStats() {
+        return schedules.getStats();
+    }
+
+    /**
+     * Requests a stop's schedule
+     */
+    public interface Loader {
+        /**
+         * @param date a time on the service date to request the schedule for
+         * @return the stop's schedule for the date
+         * @throws IOException if the schedule couldn't be requested
+         */
+        StopSchedule load(Date date) throws IOException;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arrivals from an earlier response for a stop, brought forward to the current time so they can be spoken when the
+ * region's OBA server can't be reached.
+ * <p>
+ * Arrival times are compared to the server's clock at the time of the response plus the age of the response, so the
+ * spoken minutes count down as if the response had just been received, and arrivals whose bus has already left are
+ * dropped.  Predictions aren't updated, so the answer should be qualified with {@link #getAgeMinutes()}.
+ */
+@Getter
+public class StaleArrivals {
+    // Arrivals that haven't departed yet
+    private final ObaArrivalInfo[] arrivals;
+
+    // The current time in terms of the server's clock, in milliseconds since the epoch
+    private final long currentTime;
+
+    // How long ago the response was received, in whole minutes, at least 1
+    private final int ageMinutes;
+
+    // Number of minutes ahead of the current time the arrivals still cover
+    private final int remainingScanMins;
+
+    private StaleArrivals(ObaArrivalInfo[] arrivals, long currentTime, int ageMinutes, int remainingScanMins) {
+        this.arrivals = arrivals;
+        this.currentTime = currentTime;
+        this.ageMinutes = ageMinutes;
+        this.remainingScanMins = remainingScanMins;
+    }
+
+    /**
+     * @param scan      last successful arrivals response for the stop, with the window it was requested for
+     * @param ageMillis how long ago the response was received, in milliseconds
+     * @return the arrivals in the response that haven't departed yet, relative to the current time
+     */
+    public static StaleArrivals from(@NonNull ScanWindows.Scan scan, long ageMillis) {
+        ObaArrivalInfoResponse response = scan.getResponse();
+        long currentTime = response.getCurrentTime() + ageMillis;
+        ObaArrivalInfo[] arrivals = response.getArrivalInfo() == null ? new ObaArrivalInfo[0]
+                : Arrays.stream(response.getArrivalInfo())
+                .filter(a -> getDepartureTime(a) >= currentTime)
+                .toArray(ObaArrivalInfo[]::new);
+        int ageMinutes = (int) Math.max(1, TimeUnit.MILLISECONDS.toMinutes(ageMillis));
+        return new StaleArrivals(arrivals, currentTime, ageMinutes, Math.max(0, scan.getScanMins() - ageMinutes));
+    }
+
+    static long getDepartureTime(ObaArrivalInfo arrival) {
+        return arrival.getPredictedDepartureTime() != 0 ? arrival.getPredictedDepartureTime()
+                : arrival.getScheduledDepartureTime();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of getting the arrivals for one stop of a batch - either the response or the reason there isn't one
+ */
+@AllArgsConstructor
+@Getter
+public class StopArrivals {
+    private final String stopId;
+
+    // Arrivals with the window they cover. Null if the call failed
+    private final ScanWindows.Scan scan;
+
+    // Null if the call succeeded
+    private final Throwable error;
+
+    /**
+     * @return true if the arrivals for the stop were returned
+     */
+    public boolean isSuccess() {
+        return scan != null;
+    }
+}
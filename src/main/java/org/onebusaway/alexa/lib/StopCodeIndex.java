@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import org.onebusaway.io.client.elements.ObaStop;
+import org.onebusaway.location.Location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable index of the stops in a region by stop code (the stop number on the placard in the bus zone), used to
+ * resolve a spoken stop number without asking the OBA server to search a 40 km radius for it.
+ * <p>
+ * Stops are sorted by code and kept in parallel arrays rather than as one object per stop, so a region with tens of
+ * thousands of stops only takes a few MB.  Stops sharing a code are next to each other and are found with a binary
+ * search.
+ */
+public class StopCodeIndex {
+    private final String[] codes;
+    private final String[] ids;
+    private final String[] names;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private StopCodeIndex(String[] codes, String[] ids, String[] names, double[] latitudes, double[] longitudes) {
+        this.codes = codes;
+        this.ids = ids;
+        this.names = names;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * @param stops stops to index
+     * @return an index over the given stops
+     */
+    public static StopCodeIndex build(@NonNull List<Stop> stops) {
+        Stop[] sorted = stops.toArray(new Stop[0]);
+        Arrays.sort(sorted, Comparator.comparing(s -> normalize(s.getStopCode())));
+        int n = sorted.length;
+        String[] codes = new String[n];
+        String[] ids = new String[n];
+        String[] names = new String[n];
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            codes[i] = normalize(sorted[i].getStopCode());
+            ids[i] = sorted[i].getId();
+            names[i] = sorted[i].getName();
+            latitudes[i] = sorted[i].getLatitude();
+            longitudes[i] = sorted[i].getLongitude();
+        }
+        return new StopCodeIndex(codes, ids, names, latitudes, longitudes);
+    }
+
+    /**
+     * Returns the stops with the given stop code, closest to the given location first
+     *
+     * @param stopCode user-facing stop ID (i.e., GTFS stop_code) to search for
+     * @param l        location to rank stops with the same code by, typically the geocoded city
+     * @return stops with the given code, or an empty array if there are none
+     */
+    public Stop[] find(@NonNull String stopCode, @NonNull Location l) {
+        String code = normalize(stopCode);
+        int first = firstIndexOf(code);
+        List<Stop> found = new ArrayList<>();
+        for (int i = first; i < codes.length && codes[i].equals(code); i++) {
+            found.add(new Stop(ids[i], codes[i], names[i], latitudes[i], longitudes[i]));
+        }
+        return rankByDistance(found.toArray(new Stop[0]), l);
+    }
+
+    /**
+     * @return number of stops in the index
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Sorts stops by distance from a location, closest first
+     *
+     * @param stops stops to sort
+     * @param l     location to measure from
+     * @return the same stops, sorted
+     */
+    public static Stop[] rankByDistance(@NonNull Stop[] stops, @NonNull Location l) {
+        if (stops.length > 1) {
+            Arrays.sort(stops, Comparator.comparingDouble(s -> distanceMeters(s, l)));
+        }
+        return stops;
+    }
+
+    private int firstIndexOf(String code) {
+        int low = 0;
+        int high = codes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codes[mid].compareTo(code) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double distanceMeters(Stop s, Location l) {
+        float[] results = new float[1];
+        Location.distanceBetween(l.getLatitude(), l.getLongitude(), s.getLatitude(), s.getLongitude(), results);
+        return results[0];
+    }
+
+    private static String normalize(String stopCode) {
+        return stopCode.trim().toUpperCase(Locale.US);
+    }
+
+    /**
+     * A stop found by its code.  Stored in the session during the duplicate stop dialog, where it's read back by the
+     * same property names as an ObaStop ("id", "stopCode" and "name").
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Stop {
+        private final String id;
+        private final String stopCode;
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+
+        /**
+         * @param stop stop returned by the OBA REST API
+         * @return the same stop
+         */
+        public static Stop of(@NonNull ObaStop stop) {
+            return new Stop(stop.getId(), stop.getStopCode(), stop.getName(), stop.getLatitude(), stop.getLongitude());
+        }
+    }
+}
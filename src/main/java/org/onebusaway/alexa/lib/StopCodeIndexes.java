@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stop code indexes for the regions that have GTFS stops on local disk, loaded on first use and reloaded when the
+ * files change.
+ * <p>
+ * The stops of a region are read from {@code <directory>/<regionId>/<agencyId>/stops.txt}, one subdirectory per agency
+ * in the region (e.g., {@code 1/1/stops.txt} and {@code 1/40/stops.txt} for King County Metro and Sound Transit in
+ * Puget Sound).  Regions without a directory don't have an index, and their stops are looked up on the OBA server.
+ */
+@Log4j
+public class StopCodeIndexes {
+    private static final String STOPS_FILE = "stops.txt";
+
+    private final File directory;
+    private final long refreshMillis;
+    private final Clock clock;
+
+    private final ConcurrentMap<Long, Loaded> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory     directory with a subdirectory of GTFS stops per region, or null if there are no indexes
+     * @param refreshMillis how often to check whether a region's files have changed, in milliseconds
+     */
+    public StopCodeIndexes(File directory, long refreshMillis) {
+        this(directory, refreshMillis, Clock.systemUTC());
+    }
+
+    StopCodeIndexes(File directory, long refreshMillis, Clock clock) {
+        this.directory = directory;
+        this.refreshMillis = refreshMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @param regionId ID of the region in the Regions API
+     * @return the stop code index for the region, or empty if there are no stops on disk for it
+     */
+    public Optional<StopCodeIndex> forRegion(long regionId) {
+        if (directory == null) {
+            return Optional.empty();
+        }
+        Loaded loaded = indexes.get(regionId);
+        if (loaded == null || clock.millis() - loaded.checkedAtMillis >= refreshMillis) {
+            loaded = indexes.compute(regionId, (id, current) -> refresh(id, current));
+        }
+        return Optional.ofNullable(loaded.index);
+    }
+
+    private Loaded refresh(long regionId, Loaded current) {
+        long now = clock.millis();
+        if (current != null && now - current.checkedAtMillis < refreshMillis) {
+            // Another thread refreshed the region while we were waiting
+            return current;
+        }
+        List<File> files = getStopsFiles(regionId);
+        long lastModified = files.stream().mapToLong(File::lastModified).max().orElse(0);
+        if (current != null && current.lastModified == lastModified) {
+            return new Loaded(current.index, lastModified, now);
+        }
+        if (files.isEmpty()) {
+            return new Loaded(null, 0, now);
+        }
+        try {
+            List<StopCodeIndex.Stop> stops = new ArrayList<>();
+            for (File file : files) {
+                try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    stops.addAll(GtfsStopsReader.read(file.getParentFile().getName(), reader));
+                }
+            }
+            StopCodeIndex index = StopCodeIndex.build(stops);
+            log.info(String.format("Loaded %d stops for region %d from %d files", index.size(), regionId, files.size()));
+            return new Loaded(index, lastModified, now);
+        } catch (IOException e) {
+            // Keep using the previous index, and try again at the next refresh
+            log.error("Couldn't load stops for region " + regionId + ": " + e.getMessage());
+            return new Loaded(current != null ? current.index : null, current != null ? current.lastModified : 0, now);
+        }
+    }
+
+    private List<File> getStopsFiles(long regionId) {
+        List<File> files = new ArrayList<>();
+        File[] agencyDirectories = new File(directory, Long.toString(regionId)).listFiles(File::isDirectory);
+        if (agencyDirectories != null) {
+            for (File agencyDirectory : agencyDirectories) {
+                File stopsFile = new File(agencyDirectory, STOPS_FILE);
+                if (stopsFile.isFile()) {
+                    files.add(stopsFile);
+                }
+            }
+        }
+        return files;
+    }
+
+    @AllArgsConstructor
+    private static class Loaded {
+        // Null if the region doesn't have any stops on disk
+        private final StopCodeIndex index;
+        private final long lastModified;
+        private final long checkedAtMillis;
+    }
+}
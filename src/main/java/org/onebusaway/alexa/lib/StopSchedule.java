@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.commons.lang3.StringUtils;
+import org.onebusaway.io.client.elements.ObaReferences;
+import org.onebusaway.io.client.elements.ObaRoute;
+import org.onebusaway.io.client.elements.ObaStopSchedule;
+import org.onebusaway.io.client.request.ObaScheduleForStopResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable schedule of a stop for one service day, with each stop time's route name and headsign resolved, so
+ * arrivals can be spoken from it without the response's references.  Stop times are sorted by departure time and
+ * the ones in a time window are found with a binary search.
+ */
+public class StopSchedule {
+    @Getter
+    private final String stopId;
+
+    private final StopTime[] stopTimes;
+
+    private StopSchedule(String stopId, StopTime[] stopTimes) {
+        this.stopId = stopId;
+        this.stopTimes = stopTimes;
+    }
+
+    /**
+     * @param stopId    ID of the stop
+     * @param stopTimes the stop's stop times for the day, in any order
+     * @return a schedule with the given stop times
+     */
+    public static StopSchedule of(@NonNull String stopId, @NonNull List<StopTime> stopTimes) {
+        StopTime[] sorted = stopTimes.toArray(new StopTime[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(StopTime::getDepartureTime));
+        return new StopSchedule(stopId, sorted);
+    }
+
+    /**
+     * @param stopId   ID of the stop the schedule was requested for
+     * @param response schedule-for-stop response for the stop
+     * @return the stop times in the response
+     */
+    public static StopSchedule from(@NonNull String stopId, @NonNull ObaScheduleForStopResponse response) {
+        List<StopTime> stopTimes = new ArrayList<>();
+        ObaStopSchedule schedule = response.getStopSchedule();
+        if (schedule != null && schedule.getRouteSchedules() != null) {
+            for (ObaStopSchedule.RouteSchedule routeSchedule : schedule.getRouteSchedules()) {
+                String routeShortName = getRouteShortName(response.getRefs(), routeSchedule.getRouteId());
+                if (routeSchedule.getDirectionSchedules() == null) {
+                    continue;
+                }
+                for (ObaStopSchedule.Direction direction : routeSchedule.getDirectionSchedules()) {
+                    if (direction.getStopTimes() == null) {
+                        continue;
+                    }
+                    for (ObaStopSchedule.StopTime stopTime : direction.getStopTimes()) {
+                        // A stop headsign overrides the trip headsign for trips whose sign changes along the way
+                        String headsign = StringUtils.isNotBlank(stopTime.getStopHeadsign())
+                                ? stopTime.getStopHeadsign() : direction.getTripHeadsign();
+                        stopTimes.add(new StopTime(routeSchedule.getRouteId(), routeShortName, headsign,
+                                stopTime.getTripId(), stopTime.getArrivalTime(), stopTime.getDepartureTime()));
+                    }
+                }
+            }
+        }
+        return of(stopId, stopTimes);
+    }
+
+    private static String getRouteShortName(ObaReferences refs, String routeId) {
+        ObaRoute route = refs != null ? refs.getRoute(routeId) : null;
+        if (route == null) {
+            return routeId;
+        }
+        return StringUtils.isNotBlank(route.getShortName()) ? route.getShortName() : route.getLongName();
+    }
+
+    /**
+     * Returns the stop times that depart in the given window
+     *
+     * @param fromMillis start of the window (inclusive), in milliseconds since the epoch
+     * @param toMillis   end of the window (inclusive), in milliseconds since the epoch
+     * @return stop times departing in the window, in departure order
+     */
+    public List<StopTime> getDeparting(long fromMillis, long toMillis) {
+        List<StopTime> result = new ArrayList<>();
+        for (int i = firstDepartingAtOrAfter(fromMillis); i < stopTimes.length; i++) {
+            if (stopTimes[i].getDepartureTime() > toMillis) {
+                break;
+            }
+            result.add(stopTimes[i]);
+        }
+        return result;
+    }
+
+    private int firstDepartingAtOrAfter(long millis) {
+        int low = 0;
+        int high = stopTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (stopTimes[mid].getDepartureTime() < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return number of stop times in the schedule
+     */
+    public int size() {
+        return stopTimes.length;
+    }
+
+    /**
+     * A scheduled arrival and departure of a trip at the stop
+     */
+    @AllArgsConstructor
+    @Getter
+    public static final class StopTime {
+        private final String routeId;
+        private final String routeShortName;
+        private final String headsign;
+        private final String tripId;
+        // Milliseconds since the epoch
+        private final long arrivalTime;
+        private final long departureTime;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.filter.FilteringParserDelegate;
+import com.fasterxml.jackson.core.filter.TokenFilter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.NonNull;
+import org.onebusaway.io.client.ObaApi;
+import org.onebusaway.io.client.ObaConnection;
+import org.onebusaway.io.client.ObaConnectionFactory;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decodes arrivals-and-departures-for-stop responses straight from the HTTP stream, keeping only the fields needed to
+ * speak arrival times.
+ * <p>
+ * The library reads the whole response into a tree and then binds every element, including the references section
+ * (every stop, route, trip and agency the arrivals mention) and each trip's real-time status.  For busy stops that's
+ * most of the payload, and none of it is used by SpeechUtil.  Here the tokens for those sections are skipped by the
+ * parser as they're read, and each arrival is bound directly from the stream with only the fields in
+ * {@link #ARRIVAL_FIELDS} populated.  Callers get the same ObaArrivalInfoResponse type, with getRefs() returning null.
+ */
+public class StreamingArrivalsParser {
+    /**
+     * Fields of each arrival that are decoded - everything SpeechUtil and ArrivalInfo read
+     */
+    static final Set<String> ARRIVAL_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "routeId", "routeShortName", "routeLongName", "tripId", "tripHeadsign", "stopId", "serviceDate",
+            "scheduledArrivalTime", "predictedArrivalTime", "scheduledDepartureTime", "predictedDepartureTime",
+            "status", "predicted", "frequency", "vehicleId")));
+
+    private static final String ARRIVALS_PATH = "api/where/arrivals-and-departures-for-stop/";
+
+    private static final TokenFilter ARRIVAL_FILTER = new TokenFilter() {
+        @Override
+        public TokenFilter includeProperty(String name) {
+            return ARRIVAL_FIELDS.contains(name) ? TokenFilter.INCLUDE_ALL : null;
+        }
+    };
+
+    private static final TokenFilter ARRIVALS_FILTER = new TokenFilter() {
+        @Override
+        public TokenFilter includeElement(int index) {
+            return ARRIVAL_FILTER;
+        }
+    };
+
+    private static final TokenFilter ENTRY_FILTER = new TokenFilter() {
+        @Override
+        public TokenFilter includeProperty(String name) {
+            return "arrivalsAndDepartures".equals(name) ? ARRIVALS_FILTER : TokenFilter.INCLUDE_ALL;
+        }
+    };
+
+    private static final TokenFilter DATA_FILTER = new TokenFilter() {
+        @Override
+        public TokenFilter includeProperty(String name) {
+            if ("references".equals(name)) {
+                return null;
+            }
+            return "entry".equals(name) ? ENTRY_FILTER : TokenFilter.INCLUDE_ALL;
+        }
+    };
+
+    private static final TokenFilter RESPONSE_FILTER = new TokenFilter() {
+        @Override
+        public TokenFilter includeProperty(String name) {
+            return "data".equals(name) ? DATA_FILTER : TokenFilter.INCLUDE_ALL;
+        }
+    };
+
+    private final JsonFactory jsonFactory;
+    private final ObjectReader responseReader;
+
+    public StreamingArrivalsParser() {
+        ObjectMapper mapper = newElementMapper();
+        jsonFactory = mapper.getFactory();
+        responseReader = mapper.readerFor(ObaArrivalInfoResponse.class);
+    }
+
+    /**
+     * @return a mapper that binds the library's elements, which are immutable classes with private fields named after
+     * the JSON properties
+     */
+    static ObjectMapper newElementMapper() {
+        return new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .setVisibility(PropertyAccessor.CREATOR, JsonAutoDetect.Visibility.ANY);
+    }
+
+    /**
+     * Requests the arrivals and departures for a stop, using the transport installed with ObaApi.setConnectionFactory()
+     *
+     * @param context  region to call
+     * @param stopId   the stopId to return arrivals and departures for
+     * @param scanMins number of minutes to look ahead for arrivals
+     * @return the decoded response, a response with the HTTP status as its code if the server didn't return OK, or null
+     * if no transport has been installed
+     * @throws IOException if the request fails or the response can't be decoded
+     */
+    public ObaArrivalInfoResponse request(@NonNull ObaRegionContext context, @NonNull String stopId,
+                                          int scanMins) throws IOException {
+        ObaConnectionFactory connectionFactory = ObaApi.getConnectionFactory();
+        if (connectionFactory == null) {
+            return null;
+        }
+        ObaConnection connection = connectionFactory.newConnection(getArrivalsUri(context, stopId, scanMins));
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode != ObaApi.OBA_OK) {
+                // Like the library, so errors like an unknown stop are told apart from transport failures by the code
+                return errorResponse(responseCode);
+            }
+            try (Reader reader = connection.get()) {
+                return parse(reader);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Decodes an arrivals-and-departures-for-stop response, skipping the sections that aren't needed to speak
+     * arrival times
+     *
+     * @param reader JSON response
+     * @return the decoded response
+     * @throws IOException if the response can't be read or isn't valid JSON
+     */
+    public ObaArrivalInfoResponse parse(@NonNull Reader reader) throws IOException {
+        try (JsonParser parser = new FilteringParserDelegate(jsonFactory.createParser(reader), RESPONSE_FILTER,
+                true, true)) {
+            return responseReader.readValue(parser);
+        }
+    }
+
+    private ObaArrivalInfoResponse errorResponse(int responseCode) throws IOException {
+        return responseReader.readValue(String.format("{\"code\":%d,\"text\":\"HTTP %d\"}", responseCode,
+                responseCode));
+    }
+
+    static URI getArrivalsUri(ObaRegionContext context, String stopId, int scanMins) throws IOException {
+        try {
+            URI base = new URI(context.getObaBaseUrl());
+            String basePath = base.getPath() == null || base.getPath().isEmpty() ? "/" : base.getPath();
+            if (!basePath.endsWith("/")) {
+                basePath += "/";
+            }
+            // The multi-argument constructor percent-encodes stop IDs that contain spaces or other reserved characters
+            return new URI(base.getScheme(), base.getAuthority(), basePath + ARRIVALS_PATH + stopId + ".json",
+                    String.format("version=2&key=%s&minutesAfter=%d", context.getApiKey(), scanMins), null);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid arrivals URL for stop " + stopId, e);
+        }
+    }
+}
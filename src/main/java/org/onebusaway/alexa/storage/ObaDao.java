@@ -14,6 +14,7 @@
  */
 package org.onebusaway.alexa.storage;
 
+import lombok.extern.log4j.Log4j;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.List;
@@ -22,11 +23,20 @@ import java.util.Optional;
 /**
  * OneBusAway data access object to retrieve or save userData.
  */
+@Log4j
 public class ObaDao {
     private final ObaDynamoDbClient dynamoDbClient;
 
+    // Writes users' data in the background. Null if users' data is written before the response is sent.
+    private final UserDataWriteBehind writeBehind;
+
     public ObaDao(ObaDynamoDbClient dynamoDbClient) {
+        this(dynamoDbClient, null);
+    }
+
+    public ObaDao(ObaDynamoDbClient dynamoDbClient, UserDataWriteBehind writeBehind) {
         this.dynamoDbClient = dynamoDbClient;
+        this.writeBehind = writeBehind;
     }
 
     /**
@@ -37,18 +47,29 @@ public class ObaDao {
      * @return the user profile info using user information from the session
      */
     public Optional<ObaUserDataItem> getUserData(String userId) {
-        ObaUserDataItem dataItem = new ObaUserDataItem();
-
         if (StringUtils.isBlank(userId)) {
             return Optional.empty();
         }
-        dataItem.setUserId(userId);
+        UserDataUnitOfWork unitOfWork = UserDataUnitOfWork.current();
+        if (unitOfWork != null) {
+            return unitOfWork.getUserData(userId, this::loadUserData);
+        }
+        return loadUserData(userId);
+    }
 
-        Optional<ObaUserDataItem> item = dynamoDbClient.loadItem(dataItem);
+    private Optional<ObaUserDataItem> loadUserData(String userId) {
+        // A write that hasn't reached DynamoDB yet is newer than what's stored
+        Optional<ObaUserDataItem> item = writeBehind != null ? writeBehind.getPending(userId) : Optional.empty();
+        if (!item.isPresent()) {
+            ObaUserDataItem dataItem = new ObaUserDataItem();
+            dataItem.setUserId(userId);
+            item = dynamoDbClient.loadItem(dataItem);
+        }
         if (item.isPresent() && item.get().getStopId() == null) {
             throw new RuntimeException(String.format("User %s does not have a stop ID set"));
         }
 
+        item.ifPresent(ObaUserDataItem::markClean);
         return item;
     }
 
@@ -59,12 +80,57 @@ public class ObaDao {
     }
 
     /**
-     * Saves the user profile info into the database.
+     * Saves the user profile info into the database.  Within a unit of work the user is written once when the unit of
+     * work ends, however many times it's saved.
      *
      * @param user
      */
     public void saveUserData(ObaUserDataItem user) {
-        dynamoDbClient.saveItem(user);
+        UserDataUnitOfWork unitOfWork = UserDataUnitOfWork.current();
+        if (unitOfWork != null) {
+            unitOfWork.saveUserData(user);
+        } else {
+            writeUserData(user);
+        }
+    }
+
+    /**
+     * Writes the user's data if it has changed since it was loaded or last written, in the background if write-behind
+     * is on
+     */
+    private void writeUserData(ObaUserDataItem user) {
+        if (!user.isDirty()) {
+            log.debug("Data for user " + user.getUserId() + " hasn't changed, not writing it");
+            return;
+        }
+        if (writeBehind != null) {
+            writeBehind.enqueue(user);
+        } else {
+            dynamoDbClient.saveItem(user);
+        }
+        user.markClean();
+    }
+
+    /**
+     * Starts a unit of work on the current thread, so repeated reads of a user during the request are served from
+     * memory and the user is written once when the returned scope is closed.  If a unit of work has already been
+     * started, the request keeps using it.
+     *
+     * @return scope to close when the request has been handled
+     */
+    public UserDataUnitOfWork.Scope beginUnitOfWork() {
+        if (UserDataUnitOfWork.current() != null) {
+            return UserDataUnitOfWork.Scope.NONE;
+        }
+        UserDataUnitOfWork unitOfWork = new UserDataUnitOfWork();
+        UserDataUnitOfWork.Scope scope = unitOfWork.enter();
+        return () -> {
+            try {
+                unitOfWork.flush(this::writeUserData);
+            } finally {
+                scope.close();
+            }
+        };
     }
 
     /**
@@ -78,12 +144,36 @@ public class ObaDao {
         dynamoDbClient.saveItem(obaUserEnableItem);
     }
 
+    /**
+     * Reads the geocoded location of a city.
+     *
+     * @param cityKey normalized city name
+     * @return the geocoded city, or empty if it isn't stored
+     */
+    public Optional<ObaGeocodeItem> getGeocode(String cityKey) {
+        ObaGeocodeItem geocodeItem = new ObaGeocodeItem();
+        geocodeItem.setCityKey(cityKey);
+        return dynamoDbClient.loadItem(geocodeItem);
+    }
+
+    /**
+     * Saves the geocoded location of a city into the database.
+     *
+     * @param geocodeItem
+     */
+    public void saveGeocode(ObaGeocodeItem geocodeItem) {
+        dynamoDbClient.saveItem(geocodeItem);
+    }
+
     /**
      * Removing list of obaUserData items from database.
      *
      * @param obaUserRelationItems
      */
     public void removeAllUserDataItem(List<ObaUserDataItem> obaUserRelationItems) {
+        if (writeBehind != null) {
+            obaUserRelationItems.forEach(item -> writeBehind.discard(item.getUserId()));
+        }
         dynamoDbClient.removeObaDataItems(obaUserRelationItems);
     }
 
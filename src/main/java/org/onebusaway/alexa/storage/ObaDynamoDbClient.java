@@ -14,22 +14,51 @@
  */
 package org.onebusaway.alexa.storage;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import lombok.Getter;
 
 import java.util.List;
 import java.util.Optional;
 
 /**
  * Client for DynamoDB persistance layer for the OneBusAway skill.
+ * <p>
+ * One mapper is shared by all calls.  The mapper is thread-safe and caches what it learns from each item class's
+ * annotations, which a mapper created per call had to work out again on every load and save.
  */
 public class ObaDynamoDbClient {
-    private final AmazonDynamoDBClient dynamoDBClient;
+    private static final DynamoDBMapperConfig CONSISTENT_READ = new DynamoDBMapperConfig(ConsistentReads.CONSISTENT);
+    private static final DynamoDBMapperConfig EVENTUAL_READ = new DynamoDBMapperConfig(ConsistentReads.EVENTUAL);
 
-    public ObaDynamoDbClient(AWSCredentials creds) {
-        dynamoDBClient = new AmazonDynamoDBClient(creds);
+    private final DynamoDBMapper mapper;
+
+    /**
+     * True if a user's data is read with a strongly consistent read, so a request sees what the previous request
+     * saved even if it arrives right after it
+     */
+    @Getter
+    private final boolean consistentUserReads;
+
+    /**
+     * @param creds               AWS credentials
+     * @param clientConfiguration connection pool, timeouts and retry policy of the DynamoDB client
+     * @param consistentUserReads true to read users' data with strongly consistent reads
+     */
+    public ObaDynamoDbClient(AWSCredentials creds, ClientConfiguration clientConfiguration,
+                             boolean consistentUserReads) {
+        this(new AmazonDynamoDBClient(creds, clientConfiguration), consistentUserReads);
+    }
+
+    ObaDynamoDbClient(AmazonDynamoDB dynamoDB, boolean consistentUserReads) {
+        this.mapper = new DynamoDBMapper(dynamoDB);
+        this.consistentUserReads = consistentUserReads;
     }
 
     /**
@@ -41,18 +70,30 @@ public class ObaDynamoDbClient {
      * @return
      */
     public Optional<ObaUserDataItem> loadItem(final ObaUserDataItem tableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
-        ObaUserDataItem item = mapper.load(tableItem);
+        ObaUserDataItem item = mapper.load(tableItem, consistentUserReads ? CONSISTENT_READ : EVENTUAL_READ);
         return Optional.ofNullable(item);
     }
 
+    /**
+     * Loads a geocoded city from DynamoDB by its normalized city name.
+     *
+     * @param geocodeItem item with the city key populated
+     * @return the stored item, or empty if the city hasn't been geocoded
+     */
+    public Optional<ObaGeocodeItem> loadItem(final ObaGeocodeItem geocodeItem) {
+        // Cities are geocoded once and never change, so a slightly stale read is fine
+        return Optional.ofNullable(mapper.load(geocodeItem, EVENTUAL_READ));
+    }
+
     /**
      * @param obaUserRelationItem
      * @return
      */
     public List<ObaUserRelationItem> loadItems(final ObaUserRelationItem obaUserRelationItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
-        DynamoDBQueryExpression<ObaUserRelationItem> queryExpression = new DynamoDBQueryExpression().withHashKeyValues(obaUserRelationItem);
+        // Relations are read to delete all of a user's data when the skill is disabled, so none can be missed
+        DynamoDBQueryExpression<ObaUserRelationItem> queryExpression = new DynamoDBQueryExpression()
+                .withHashKeyValues(obaUserRelationItem)
+                .withConsistentRead(true);
         return mapper.query(ObaUserRelationItem.class, queryExpression);
     }
 
@@ -62,7 +103,6 @@ public class ObaDynamoDbClient {
      * @param tableItem
      */
     public void saveItem(final ObaUserDataItem tableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         mapper.save(tableItem);
     }
 
@@ -72,7 +112,6 @@ public class ObaDynamoDbClient {
      * @param obaUserRelationItem
      */
     public void saveItem(final ObaUserRelationItem obaUserRelationItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         mapper.save(obaUserRelationItem);
     }
 
@@ -82,17 +121,24 @@ public class ObaDynamoDbClient {
      * @param obaUserEnableItem
      */
     public void saveItem(final ObaUserEnableItem obaUserEnableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         mapper.save(obaUserEnableItem);
     }
 
+    /**
+     * Store geocoded city to DynamoDB.
+     *
+     * @param geocodeItem
+     */
+    public void saveItem(final ObaGeocodeItem geocodeItem) {
+        mapper.save(geocodeItem);
+    }
+
     /**
      * Remove ObaUserDataItems from DynamoDB.
      *
      * @param obaUserDataItems
      */
     public void removeObaDataItems(final List<ObaUserDataItem> obaUserDataItems) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         mapper.batchDelete(obaUserDataItems);
     }
 
@@ -102,16 +148,6 @@ public class ObaDynamoDbClient {
      * @param obaUserRelationItems
      */
     public void removeObaRelations(final List<ObaUserRelationItem> obaUserRelationItems) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         mapper.batchDelete(obaUserRelationItems);
     }
-
-    /**
-     * Creates a {@link DynamoDBMapper} using the default configurations.
-     *
-     * @return
-     */
-    private DynamoDBMapper createDynamoDBMapper() {
-        return new DynamoDBMapper(dynamoDBClient);
-    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.storage;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Model representing an item of the Geocode table in DynamoDB for the
+ * OneBusAway skill - the location of a city name, shared by all users.
+ */
+@DynamoDBTable(tableName = "ObaGeocode")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ObaGeocodeItem {
+    /**
+     * City name as normalized by GeocodeCache.normalize(), so variants of the same name share an item
+     */
+    @Getter
+    @Setter
+    @DynamoDBHashKey(attributeName = "CityKey")
+    private String cityKey;
+
+    /**
+     * City name as it was first geocoded, for troubleshooting
+     */
+    @Getter
+    @Setter
+    @DynamoDBAttribute(attributeName = "CityName")
+    private String cityName;
+
+    /**
+     * Null if the city name couldn't be geocoded
+     */
+    @Getter
+    @Setter
+    @DynamoDBAttribute(attributeName = "Latitude")
+    private Double latitude;
+
+    /**
+     * Null if the city name couldn't be geocoded
+     */
+    @Getter
+    @Setter
+    @DynamoDBAttribute(attributeName = "Longitude")
+    private Double longitude;
+
+    /**
+     * Time the city name was geocoded, in milliseconds since the epoch
+     */
+    @Getter
+    @Setter
+    @DynamoDBAttribute(attributeName = "GeocodedTime")
+    private long geocodedTime;
+}
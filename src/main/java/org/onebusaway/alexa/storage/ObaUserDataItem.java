@@ -16,6 +16,7 @@ package org.onebusaway.alexa.storage;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBVersionAttribute;
 import lombok.AllArgsConstructor;
@@ -23,8 +24,10 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Model representing an item of the User Data table in DynamoDB for the
@@ -133,6 +136,69 @@ public class ObaUserDataItem {
     @DynamoDBAttribute(attributeName = "ExperimentalRegions")
     private boolean experimentalRegions;
 
+    /**
+     * Other stops (stop_id is the key) the user hears arrivals for along with their own stop, each mapped to the name
+     * Alexa uses for the stop when speaking its arrivals (e.g., "the stop at work")
+     */
+    @Getter
+    @Setter
+    @DynamoDBAttribute(attributeName = "SavedStops")
+    private HashMap<String, String> savedStops;
+
+    /**
+     * Incremented by the mapper on each save, which is rejected if the stored item's version has moved on since this
+     * item was loaded
+     */
+    @Getter
+    @Setter
     @DynamoDBVersionAttribute
     private Long version;
+
+    /**
+     * Persisted attributes as of the last time the item was loaded or saved, or null if it never was.  Not persisted,
+     * as it has no getter, and left out of the constructor, as it's final.
+     */
+    private final AtomicReference<Object[]> savedState = new AtomicReference<>();
+
+    /**
+     * @return true if the item has changed since it was last loaded or saved, or was never stored
+     */
+    @DynamoDBIgnore
+    public boolean isDirty() {
+        Object[] saved = savedState.get();
+        return saved == null || !Arrays.deepEquals(saved, getPersistedState());
+    }
+
+    /**
+     * Records the current attributes as the stored ones, after the item has been loaded or saved
+     */
+    public void markClean() {
+        savedState.set(getPersistedState());
+    }
+
+    /**
+     * @return a copy of the item that shares no mutable state with it, and that is dirty until it's marked clean
+     */
+    public ObaUserDataItem copy() {
+        return new ObaUserDataItem(userId, city, stopId, regionId, regionName, obaBaseUrl, previousResponse,
+                lastAccessTime, speakClockTime, timeZone, copyRoutesToFilterOut(), announcedIntroduction,
+                announcedFeaturesv1_1_0, experimentalRegions, savedStops == null ? null : new HashMap<>(savedStops),
+                version);
+    }
+
+    private Object[] getPersistedState() {
+        // Copies of the maps, since they're changed in place
+        return new Object[]{userId, city, stopId, regionId, regionName, obaBaseUrl, previousResponse,
+                lastAccessTime, speakClockTime, timeZone, copyRoutesToFilterOut(), announcedIntroduction,
+                announcedFeaturesv1_1_0, experimentalRegions, savedStops == null ? null : new HashMap<>(savedStops)};
+    }
+
+    private HashMap<String, HashSet<String>> copyRoutesToFilterOut() {
+        if (routesToFilterOut == null) {
+            return null;
+        }
+        HashMap<String, HashSet<String>> copy = new HashMap<>();
+        routesToFilterOut.forEach((stopId, routes) -> copy.put(stopId, routes == null ? null : new HashSet<>(routes)));
+        return copy;
+    }
 }
\ No newline at end of file
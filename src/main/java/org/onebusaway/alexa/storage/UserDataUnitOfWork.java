@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.storage;
+
+import lombok.extern.log4j.Log4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Users' data read and saved while handling one request.  The first read of a user loads the item from DynamoDB and
+ * later reads get the same item from memory, and saves only mark the item dirty, so each item is written once when the
+ * request ends.
+ * <p>
+ * Like a {@link org.onebusaway.alexa.lib.Deadline}, a unit of work is made current for the thread handling the
+ * request with {@link #enter()}, which is how {@link ObaDao} finds it.  Tasks handed to other threads can be run in
+ * the same unit of work with {@link #propagate(Callable)}.
+ */
+@Log4j
+public final class UserDataUnitOfWork {
+    private static final ThreadLocal<UserDataUnitOfWork> CURRENT = new ThreadLocal<>();
+
+    // Empty if the user has no data
+    private final ConcurrentMap<String, Optional<ObaUserDataItem>> items = new ConcurrentHashMap<>();
+
+    // Saved items, in the order they were first saved
+    private final Map<String, ObaUserDataItem> dirtyItems = new LinkedHashMap<>();
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+    private final AtomicInteger readCount = new AtomicInteger();
+    private final AtomicInteger saveCount = new AtomicInteger();
+
+    /**
+     * @return the unit of work entered on the current thread, or null if reads and saves go straight to DynamoDB
+     */
+    public static UserDataUnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Wraps a task so that it runs in the unit of work of the calling thread, for tasks run by an executor
+     *
+     * @param task task that reads or saves users' data
+     * @return the task, run in the calling thread's unit of work if it has one
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        UserDataUnitOfWork unitOfWork = current();
+        if (unitOfWork == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = unitOfWork.enter()) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * @param userId user to read
+     * @param loader reads the user from DynamoDB the first time the user is read in this unit of work
+     * @return the user's data, or empty if the user has no data
+     */
+    Optional<ObaUserDataItem> getUserData(String userId, Function<String, Optional<ObaUserDataItem>> loader) {
+        readCount.incrementAndGet();
+        return items.computeIfAbsent(userId, id -> {
+            loadCount.incrementAndGet();
+            return loader.apply(id);
+        });
+    }
+
+    /**
+     * Marks a user's data to be written when the unit of work ends, and serves it to later reads
+     *
+     * @param user data to save
+     */
+    void saveUserData(ObaUserDataItem user) {
+        saveCount.incrementAndGet();
+        items.put(user.getUserId(), Optional.of(user));
+        synchronized (dirtyItems) {
+            dirtyItems.put(user.getUserId(), user);
+        }
+    }
+
+    /**
+     * Hands each saved item to the writer once
+     *
+     * @param writer writes one item to DynamoDB, unless it hasn't changed since it was loaded
+     */
+    void flush(Consumer<ObaUserDataItem> writer) {
+        List<ObaUserDataItem> dirty;
+        synchronized (dirtyItems) {
+            dirty = new ArrayList<>(dirtyItems.values());
+            dirtyItems.clear();
+        }
+        for (ObaUserDataItem item : dirty) {
+            writer.accept(item);
+        }
+        log.debug(String.format("Unit of work done: %d reads with %d loads, %d saves of %d users",
+                readCount.get(), loadCount.get(), saveCount.get(), dirty.size()));
+    }
+
+    /**
+     * Makes this the unit of work for reads and saves on the current thread, until the returned scope is closed
+     *
+     * @return scope to close when the thread is done
+     */
+    public Scope enter() {
+        UserDataUnitOfWork previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Restores the previous unit of work of the thread when closed
+     */
+    public interface Scope extends AutoCloseable {
+        Scope NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+}
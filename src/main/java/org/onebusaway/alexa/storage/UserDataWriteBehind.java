@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.storage;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Writes users' data to DynamoDB in the background, so the response doesn't wait for the write.
+ * <p>
+ * Items are written one at a time, in the order users were queued.  A user that's queued again before their
+ * previous item was written only has the newer item written.  Until an item is written it's returned by
+ * {@link #getPending(String)}, so the user's next request reads what it saved even if DynamoDB doesn't have it yet.
+ * <p>
+ * Items keep the version they were loaded with, which the writes queued before them may since have moved past.  The
+ * versions this writer's own writes replaced are remembered, and an item carrying one of them is written as a change
+ * to the latest version instead.  An item whose version was moved past by another request is dropped and logged.
+ */
+@Log4j
+public class UserDataWriteBehind implements Closeable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    private static final int MAX_USERS_WITH_WRITTEN_VERSIONS = 10000;
+
+    private final Consumer<ObaUserDataItem> writer;
+    private final ExecutorService executor;
+
+    // Copy of the latest item queued for each user that hasn't been written yet
+    private final ConcurrentMap<String, ObaUserDataItem> pending = new ConcurrentHashMap<>();
+
+    // Versions written for the users written most recently, in access order
+    private final Map<String, WrittenVersions> writtenVersions =
+            new LinkedHashMap<String, WrittenVersions>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, WrittenVersions> eldest) {
+                    return size() > MAX_USERS_WITH_WRITTEN_VERSIONS;
+                }
+            };
+
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    /**
+     * @param writer writes one item to DynamoDB, checking and incrementing its version as
+     *               {@link ObaDynamoDbClient#saveItem(ObaUserDataItem)} does
+     */
+    public UserDataWriteBehind(@NonNull Consumer<ObaUserDataItem> writer) {
+        this(writer, Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "user-data-write-behind");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    UserDataWriteBehind(Consumer<ObaUserDataItem> writer, ExecutorService executor) {
+        this.writer = writer;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues an item to be written.  The item is copied, so it can be changed once this returns.
+     *
+     * @param item data to write
+     */
+    public void enqueue(@NonNull ObaUserDataItem item) {
+        String userId = item.getUserId();
+        if (pending.put(userId, item.copy()) != null) {
+            // The write that's already queued for the user picks up this item
+            coalescedCount.incrementAndGet();
+            return;
+        }
+        schedule(userId);
+    }
+
+    /**
+     * @param userId user to look up
+     * @return a copy of the user's item that's queued but not yet written, or empty if the user has no pending write
+     */
+    public Optional<ObaUserDataItem> getPending(@NonNull String userId) {
+        return Optional.ofNullable(pending.get(userId)).map(ObaUserDataItem::copy);
+    }
+
+    /**
+     * Drops the user's pending write, if it hasn't started, when the user's data is deleted
+     *
+     * @param userId user whose data is being deleted
+     */
+    public void discard(@NonNull String userId) {
+        pending.remove(userId);
+        synchronized (writtenVersions) {
+            writtenVersions.remove(userId);
+        }
+    }
+
+    private void schedule(String userId) {
+        try {
+            executor.execute(() -> write(userId));
+        } catch (RejectedExecutionException e) {
+            // Closing - don't lose the write
+            write(userId);
+        }
+    }
+
+    private void write(String userId) {
+        ObaUserDataItem item = pending.get(userId);
+        if (item == null) {
+            return;
+        }
+        // Reads may be copying the pending item, so the version is moved on in a copy of it
+        ObaUserDataItem write = item.copy();
+        Long version = getLatestVersion(userId, item.getVersion());
+        write.setVersion(version);
+        try {
+            writer.accept(write);
+            writeCount.incrementAndGet();
+            recordWrite(userId, version, write.getVersion());
+        } catch (ConditionalCheckFailedException e) {
+            conflictCount.incrementAndGet();
+            log.warn("Dropped stale write for user " + userId + ", another request changed their data first");
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            log.error("Failed to write data for user " + userId, e);
+        }
+        if (!pending.remove(userId, item)) {
+            // A newer item was queued while this one was being written
+            schedule(userId);
+        }
+    }
+
+    /**
+     * @param userId  user being written
+     * @param version version the item was loaded with
+     * @return the version written by this writer in place of the given one, or the given one if this writer didn't
+     * replace it
+     */
+    private Long getLatestVersion(String userId, Long version) {
+        synchronized (writtenVersions) {
+            WrittenVersions written = writtenVersions.get(userId);
+            return written != null && written.replaced(version) ? Long.valueOf(written.latest) : version;
+        }
+    }
+
+    /**
+     * @param userId     user that was written
+     * @param oldVersion version the write replaced
+     * @param newVersion version the write stored
+     */
+    private void recordWrite(String userId, Long oldVersion, Long newVersion) {
+        synchronized (writtenVersions) {
+            WrittenVersions written = writtenVersions.get(userId);
+            if (written != null && written.latest == WrittenVersions.toLong(oldVersion)) {
+                written.latest = WrittenVersions.toLong(newVersion);
+            } else {
+                writtenVersions.put(userId, new WrittenVersions(oldVersion, newVersion));
+            }
+        }
+    }
+
+    /**
+     * @return number of users with a write that hasn't finished
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return summary of the queue metrics, for logging
+     */
+    public String getStats() {
+        return String.format("pending=%d writes=%d coalesced=%d conflicts=%d failures=%d", pending.size(),
+                writeCount.get(), coalescedCount.get(), conflictCount.get(), failureCount.get());
+    }
+
+    /**
+     * Writes everything that's still queued before returning
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Gave up waiting for user data writes: " + getStats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Versions of a user's item that were replaced by this writer, one after another
+     */
+    private static class WrittenVersions {
+        // Version the first of the writes replaced
+        private final long first;
+
+        // Version stored by the last of the writes
+        private long latest;
+
+        private WrittenVersions(Long first, Long latest) {
+            this.first = toLong(first);
+            this.latest = toLong(latest);
+        }
+
+        /**
+         * @param version version an item was loaded with
+         * @return true if this writer's writes have moved the stored item past the version
+         */
+        private boolean replaced(Long version) {
+            long value = toLong(version);
+            return value >= first && value < latest;
+        }
+
+        /**
+         * @return the version, with an item that was never saved as version 0
+         */
+        private static long toLong(Long version) {
+            return version == null ? 0 : version;
+        }
+    }
+}
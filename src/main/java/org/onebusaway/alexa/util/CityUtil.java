@@ -20,25 +20,45 @@ import lombok.extern.log4j.Log4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.util.TextUtils;
 import org.onebusaway.alexa.config.SpringContext;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
 import org.onebusaway.alexa.exception.OneBusAwayException;
 import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.CityRegionCache.CityRegion;
+import org.onebusaway.alexa.lib.Deadline;
+import org.onebusaway.alexa.lib.ArrivalsEngine;
 import org.onebusaway.alexa.lib.GoogleMaps;
+import org.onebusaway.alexa.lib.ObaAsyncClient;
+import org.onebusaway.alexa.lib.ObaAsyncUserClient;
 import org.onebusaway.alexa.lib.ObaClient;
 import org.onebusaway.alexa.lib.ObaUserClient;
+import org.onebusaway.alexa.lib.ScanWindows;
+import org.onebusaway.alexa.lib.StaleArrivals;
+import org.onebusaway.alexa.lib.StopArrivals;
+import org.onebusaway.alexa.lib.StopCodeIndex;
+import org.onebusaway.alexa.lib.StopSchedule;
 import org.onebusaway.alexa.storage.ObaDao;
 import org.onebusaway.alexa.storage.ObaUserDataItem;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
 import org.onebusaway.io.client.elements.ObaRegion;
-import org.onebusaway.io.client.elements.ObaStop;
 import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
 import org.onebusaway.io.client.util.RegionUtils;
 import org.onebusaway.location.Location;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static org.onebusaway.alexa.constant.Prompt.ARRIVAL_INFO_FORMAT;
@@ -50,6 +70,11 @@ import static org.onebusaway.alexa.constant.Prompt.COMMUNICATION_ERROR_MESSAGE;
 import static org.onebusaway.alexa.constant.Prompt.DUPLICATED_STOPS;
 import static org.onebusaway.alexa.constant.Prompt.LOOKING_FOR_STOP_NUMBER;
 import static org.onebusaway.alexa.constant.Prompt.REASK_FOR_STOP;
+import static org.onebusaway.alexa.constant.Prompt.SCHEDULED_ARRIVAL_INFO_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STALE_ARRIVAL_INFO_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STALE_ARRIVAL_INFO_ONE_MINUTE_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STALE_STOP_ARRIVALS_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STALE_STOP_ARRIVALS_ONE_MINUTE_FORMAT;
 import static org.onebusaway.alexa.constant.Prompt.VERIFY_STOP;
 import static org.onebusaway.alexa.constant.Prompt.WELCOME_MESSAGE;
 import static org.onebusaway.alexa.constant.SessionAttribute.ASK_STATE;
@@ -72,6 +97,9 @@ public class CityUtil {
     private static PromptHelper promptHelper =
             SpringContext.getInstance().getBean("promptHelper", PromptHelper.class);
 
+    private static ObaAsyncClient obaAsyncClient =
+            SpringContext.getInstance().getBean("obaAsyncClient", ObaAsyncClient.class);
+
     /**
      * Returns the text for listing all supported regions to the user.
      *
@@ -110,9 +138,10 @@ public class CityUtil {
      * @param googleMaps client to access Google web APIs
      * @param obaClient client used to access the OBA REST API for a local OBA server
      * @param obaDao OneBusAway data access object
+     * @param deadline deadline of the current request
      * @return alexa response based on cityName and stopId
      */
-    public static Optional<Response> fulfillCityAndStop(String userId, AttributesManager attributesManager, GoogleMaps googleMaps, ObaClient obaClient, ObaDao obaDao) {
+    public static Optional<Response> fulfillCityAndStop(String userId, AttributesManager attributesManager, GoogleMaps googleMaps, ObaClient obaClient, ObaDao obaDao, Deadline deadline) {
         String cityName = SessionUtil.getSessionAttribute(attributesManager, CITY_NAME, String.class, StringUtils.EMPTY);
         String stopId = SessionUtil.getSessionAttribute(attributesManager, STOP_ID, String.class, StringUtils.EMPTY);
         boolean experimentalRegions = SessionUtil.getSessionAttribute(attributesManager, EXPERIMENTAL_REGIONS, Boolean.class, false);
@@ -128,27 +157,41 @@ public class CityUtil {
             return promptHelper.getResponse(LOOKING_FOR_STOP_NUMBER, ASK_FOR_STOP);
         }
 
-        // Map city name to a geographic location - even if we've done this before, we want to refresh the info
-        Optional<Location> location = googleMaps.geocode(cityName);
-        if (!location.isPresent()) {
-            log.error("location is blank");
-            return askForCityResponse(cityName, attributesManager, obaClient);
-        }
-
-        // Get closest region from geographic location
-        Optional<ObaRegion> region = Optional.empty();
+        Optional<Location> location;
+        Optional<ObaRegion> region;
         try {
-            region = obaClient.getClosestRegion(location.get(), experimentalRegions);
+            // Cities that have been named before are mapped straight to their region and location
+            Optional<CityRegion> cityRegion = obaClient.getCityRegion(cityName, experimentalRegions);
+            location = cityRegion.map(CityRegion::getLocation);
+            region = cityRegion.map(CityRegion::getRegion);
         } catch (IOException e) {
             return askForCityResponse(cityName, attributesManager, obaClient);
         }
+
         if (!region.isPresent()) {
-            return askForCityResponse(cityName, attributesManager, obaClient);
+            // Map city name to a geographic location - cities that have been geocoded before are answered from the cache
+            location = googleMaps.geocode(cityName, deadline);
+            if (!location.isPresent()) {
+                log.error("location is blank");
+                return askForCityResponse(cityName, attributesManager, obaClient);
+            }
+
+            // Get closest region from geographic location
+            deadline.check("finding the closest region");
+            try {
+                region = obaClient.getClosestRegion(location.get(), experimentalRegions);
+            } catch (IOException e) {
+                return askForCityResponse(cityName, attributesManager, obaClient);
+            }
+            if (!region.isPresent()) {
+                return askForCityResponse(cityName, attributesManager, obaClient);
+            }
+            obaClient.putCityRegion(cityName, experimentalRegions, region.get(), location.get());
         }
 
         ObaUserClient obaUserClient;
         try {
-            obaUserClient = obaClient.withObaBaseUrl(region.get().getObaBaseUrl());
+            obaUserClient = obaClient.withObaBaseUrl(region.get().getObaBaseUrl(), deadline);
         } catch (URISyntaxException e) {
             log.error("ObaBaseUrl " + region.get().getObaBaseUrl() + " for " + region.get().getName()
                     + " is invalid: " + e.getMessage());
@@ -156,9 +199,9 @@ public class CityUtil {
             return askForCityResponse(cityName, attributesManager, obaClient);
         }
 
-        ObaStop[] searchResults;
+        StopCodeIndex.Stop[] searchResults;
         try {
-            searchResults = obaUserClient.getStopFromCode(location.get(), stopId);
+            searchResults = findStopsByCode(obaClient, obaUserClient, region.get(), location.get(), stopId);
         } catch (IOException e) {
             log.error("Couldn't get stop from code " + stopId + ": " + e.getMessage());
             return askForCityResponse();
@@ -174,8 +217,38 @@ public class CityUtil {
             final String reprompt = promptHelper.getPrompt(VERIFY_STOP);
             return promptHelper.getResponse(speech, reprompt);
         } else {
-            return StorageUtil.finishOnboard(userId, cityName, searchResults[0].getId(), searchResults[0].getStopCode(), region.get(), obaUserClient, obaDao, attributesManager);
+            return StorageUtil.finishOnboard(userId, cityName, searchResults[0].getId(), searchResults[0].getStopCode(), region.get(), obaUserClient, obaDao, attributesManager, deadline);
+        }
+    }
+
+    /**
+     * Finds the stops with the given stop code in the region, using the region's local stop index if there is one
+     * and otherwise searching on the region's OBA server.
+     *
+     * @param obaClient client used to access the OBA REST API for a local OBA server
+     * @param obaUserClient client for the region's OBA server
+     * @param region the region the stop is in
+     * @param location geocoded location of the city the user lives in
+     * @param stopCode user-facing stop ID (i.e., GTFS stop_code) to search for
+     * @return the stops with the given stop code, closest to the city first
+     * @throws IOException if the stop isn't in the local index and the OBA server couldn't be searched
+     */
+    private static StopCodeIndex.Stop[] findStopsByCode(final ObaClient obaClient, final ObaUserClient obaUserClient,
+                                                        final ObaRegion region, final Location location,
+                                                        final String stopCode) throws IOException {
+        Optional<StopCodeIndex> index = obaClient.getStopCodeIndex(region.getId());
+        if (index.isPresent()) {
+            StopCodeIndex.Stop[] stops = index.get().find(stopCode, location);
+            if (stops.length > 0) {
+                return stops;
+            }
+            // The local stops may be older than the server's, so a stop that was just added is still found
+            log.info("Stop code " + stopCode + " isn't in the local index for " + region.getName());
         }
+        StopCodeIndex.Stop[] stops = Arrays.stream(obaUserClient.getStopFromCode(location, stopCode))
+                .map(StopCodeIndex.Stop::of)
+                .toArray(StopCodeIndex.Stop[]::new);
+        return StopCodeIndex.rankByDistance(stops, location);
     }
 
     /**
@@ -188,29 +261,207 @@ public class CityUtil {
      * @return tell arrival response
      */
     public static Optional<Response> tellArrivals(final ObaUserDataItem obaUserDataItem, final ObaUserClient obaUserClient, final AttributesManager attributesManager, final ObaDao obaDao) {
-        ObaArrivalInfoResponse response;
+        final String timeZoneText = obaUserDataItem.getTimeZone();
+        TimeZone timeZone = null;
+        if (!TextUtils.isEmpty(timeZoneText)) {
+            timeZone = TimeZone.getTimeZone(timeZoneText);
+        }
+
+        String stopId = SessionUtil.getSessionAttribute(attributesManager, STOP_ID, String.class);
+        HashSet<String> routesToFilter = obaUserDataItem.getRoutesToFilterOut().get(stopId);
+
+        HashMap<String, String> savedStops = obaUserDataItem.getSavedStops();
+        if (savedStops != null && !savedStops.isEmpty()) {
+            Optional<String> prompt = getMultiStopPrompt(obaUserDataItem, obaUserClient, timeZone);
+            if (prompt.isPresent()) {
+                StorageUtil.saveOutputForRepeat(prompt.get(), obaDao, obaUserDataItem);
+                return promptHelper.getResponse(prompt.get());
+            }
+            // None of the stops answered, so fall back to the user's own stop and its last known arrivals
+        }
+
+        String prompt;
         try {
-            response = obaUserClient.getArrivalsAndDeparturesForStop(
-                    obaUserDataItem.getStopId(),
-                    ARRIVALS_SCAN_MINS
-            );
-            final String timeZoneText = obaUserDataItem.getTimeZone();
-            TimeZone timeZone = null;
-            if (!TextUtils.isEmpty(timeZoneText)) {
-                timeZone = TimeZone.getTimeZone(timeZoneText);
+            ScanWindows.Scan scan = obaUserClient.scanArrivalsAndDeparturesForStop(obaUserDataItem.getStopId(),
+                    routesToFilter);
+            ObaArrivalInfoResponse response = scan.getResponse();
+            ObaArrivalInfo[] arrivals = obaUserClient.getSpokenArrivals(scan, routesToFilter);
+            String output = SpeechUtil.getArrivalText(arrivals, scan.getScanMins(), response.getCurrentTime(),
+                    obaUserDataItem.getSpeakClockTime(), timeZone, routesToFilter);
+            prompt = promptHelper.getPrompt(ARRIVAL_INFO_FORMAT, output);
+            if (timeZone != null) {
+                // Keeps today's schedule for the stop in case a later request can't get real-time arrivals
+                obaUserClient.loadScheduleForStopInBackground(obaUserDataItem.getStopId(), timeZone);
+            }
+        } catch (IOException | DeadlineExceededException e) {
+            Optional<FallbackArrivals> fallback = getFallbackArrivals(obaUserDataItem, obaUserClient,
+                    obaUserDataItem.getStopId(), e, timeZone, routesToFilter);
+            if (!fallback.isPresent()) {
+                if (e instanceof DeadlineExceededException) {
+                    throw (DeadlineExceededException) e;
+                }
+                throw new OneBusAwayException(promptHelper.getPrompt(COMMUNICATION_ERROR_MESSAGE));
+            }
+            int ageMinutes = fallback.get().ageMinutes;
+            String output = fallback.get().output;
+            if (ageMinutes == 0) {
+                prompt = promptHelper.getPrompt(SCHEDULED_ARRIVAL_INFO_FORMAT, output);
+            } else if (ageMinutes == 1) {
+                prompt = promptHelper.getPrompt(STALE_ARRIVAL_INFO_ONE_MINUTE_FORMAT, output);
+            } else {
+                prompt = promptHelper.getPrompt(STALE_ARRIVAL_INFO_FORMAT, Integer.toString(ageMinutes), output);
+            }
+        }
+        StorageUtil.saveOutputForRepeat(prompt, obaDao, obaUserDataItem);
+        return promptHelper.getResponse(prompt);
+    }
+
+    /**
+     * Builds the arrival info for a stop whose real-time arrivals couldn't be retrieved, from the last arrivals we got
+     * for the stop if they're recent enough and from its schedule.
+     *
+     * @param obaUserDataItem OneBusAway User Data item
+     * @param obaUserClient client used to access the OBA REST API for a local OBA server
+     * @param stopId the stop whose arrivals couldn't be retrieved
+     * @param error why they couldn't be retrieved, for logging
+     * @param timeZone time zone of the stop, or null if it isn't known
+     * @param routesToFilter routes the user doesn't want to hear about at the stop, or null
+     * @return the arrival info, or empty if there are neither recent arrivals nor a schedule for the stop
+     */
+    private static Optional<FallbackArrivals> getFallbackArrivals(final ObaUserDataItem obaUserDataItem,
+                                                                  final ObaUserClient obaUserClient,
+                                                                  final String stopId, final Throwable error,
+                                                                  final TimeZone timeZone,
+                                                                  final HashSet<String> routesToFilter) {
+        Optional<StaleArrivals> staleArrivals = obaUserClient.getStaleArrivalsForStop(stopId);
+        Optional<StopSchedule> schedule = timeZone != null
+                ? obaUserClient.getCachedScheduleForStop(stopId, timeZone)
+                : Optional.empty();
+        if (staleArrivals.isPresent()) {
+            StaleArrivals stale = staleArrivals.get();
+            log.warn(String.format("Couldn't get arrivals for %s, using arrivals from %d minutes ago: %s",
+                    stopId, stale.getAgeMinutes(), error.getMessage()));
+            // The schedule covers the part of the scan window the old response no longer does
+            ObaArrivalInfo[] arrivals = schedule
+                    .map(s -> ArrivalsEngine.merge(s, stale.getArrivals(), stale.getCurrentTime(), ARRIVALS_SCAN_MINS))
+                    .orElse(stale.getArrivals());
+            int scanMins = schedule.isPresent() ? ARRIVALS_SCAN_MINS : stale.getRemainingScanMins();
+            String output = SpeechUtil.getArrivalText(arrivals, scanMins, stale.getCurrentTime(),
+                    obaUserDataItem.getSpeakClockTime(), timeZone, routesToFilter);
+            return Optional.of(new FallbackArrivals(output, stale.getAgeMinutes()));
+        }
+        if (schedule.isPresent()) {
+            log.warn(String.format("Couldn't get arrivals for %s, using its schedule: %s", stopId, error.getMessage()));
+            long currentTime = System.currentTimeMillis();
+            ObaArrivalInfo[] arrivals = ArrivalsEngine.merge(schedule.get(), new ObaArrivalInfo[0], currentTime,
+                    ARRIVALS_SCAN_MINS);
+            String output = SpeechUtil.getArrivalText(arrivals, ARRIVALS_SCAN_MINS, currentTime,
+                    obaUserDataItem.getSpeakClockTime(), timeZone, routesToFilter);
+            return Optional.of(new FallbackArrivals(output, 0));
+        }
+        log.warn("Couldn't get arrivals for " + stopId + ": " + error.getMessage());
+        return Optional.empty();
+    }
+
+    /**
+     * Arrival info for a stop built from older data when its real-time arrivals couldn't be retrieved
+     */
+    private static class FallbackArrivals {
+        private final String output;
+
+        // How old the real-time arrivals are, in minutes, or 0 if the arrivals only come from the schedule
+        private final int ageMinutes;
+
+        private FallbackArrivals(String output, int ageMinutes) {
+            this.output = output;
+            this.ageMinutes = ageMinutes;
+        }
+
+        /**
+         * @return the arrival info as one of several stops in a response, saying how old it is unless it only comes
+         * from the schedule, whose arrivals are already spoken as scheduled
+         */
+        private String getStopOutput() {
+            if (ageMinutes == 0) {
+                return output;
             }
+            return ageMinutes == 1
+                    ? promptHelper.getPrompt(STALE_STOP_ARRIVALS_ONE_MINUTE_FORMAT, output)
+                    : promptHelper.getPrompt(STALE_STOP_ARRIVALS_FORMAT, Integer.toString(ageMinutes), output);
+        }
+    }
 
-            String stopId = SessionUtil.getSessionAttribute(attributesManager, STOP_ID, String.class);
-            HashSet<String> routesToFilter = obaUserDataItem.getRoutesToFilterOut().get(stopId);
+    /**
+     * Gets the arrivals for the user's stop and their saved stops at the same time, and returns them as one prompt
+     * with the user's stop first and the saved stops in order of their names.  Each stop is asked for the window that
+     * fits it, and a stop whose arrivals couldn't be retrieved is answered from its last known arrivals or schedule
+     * when there are any.
+     *
+     * @param obaUserDataItem OneBusAway User Data item
+     * @param obaUserClient client used to access the OBA REST API for a local OBA server
+     * @param timeZone time zone of the stops, or null if it isn't known
+     * @return the arrivals prompt, or empty if none of the stops could be answered
+     */
+    private static Optional<String> getMultiStopPrompt(final ObaUserDataItem obaUserDataItem,
+                                                       final ObaUserClient obaUserClient, final TimeZone timeZone) {
+        List<String> stopIds = new ArrayList<>();
+        stopIds.add(obaUserDataItem.getStopId());
+        obaUserDataItem.getSavedStops().entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(savedStop -> stopIds.add(savedStop.getKey()));
+        HashMap<String, HashSet<String>> routesToFilterOut = obaUserDataItem.getRoutesToFilterOut();
 
-            String output = SpeechUtil.getArrivalText(response.getArrivalInfo(), ARRIVALS_SCAN_MINS,
-                    response.getCurrentTime(), obaUserDataItem.getSpeakClockTime(), timeZone, routesToFilter);
-            StorageUtil.saveOutputForRepeat(promptHelper.getPrompt(ARRIVAL_INFO_FORMAT, output), obaDao, obaUserDataItem);
+        Deadline deadline = obaUserClient.getDeadline();
+        CompletableFuture<List<StopArrivals>> future = null;
+        List<StopArrivals> stopArrivals;
+        try {
+            ObaAsyncUserClient client = obaAsyncClient.withObaBaseUrl(obaUserClient.getObaBaseUrl());
+            if (deadline != null) {
+                client = client.withDeadline(deadline);
+            }
+            future = client.scanArrivalsAndDeparturesForStops(stopIds, routesToFilterOut);
+            stopArrivals = deadline != null ? FutureUtil.getBefore(future, deadline.getDeadlineNanos()) : future.get();
+        } catch (URISyntaxException | ExecutionException | TimeoutException e) {
+            if (future != null) {
+                FutureUtil.cancelAll(future);
+            }
+            stopArrivals = stopIds.stream()
+                    .distinct()
+                    .map(stopId -> new StopArrivals(stopId, null, e))
+                    .collect(Collectors.toList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            FutureUtil.cancelAll(future);
+            return Optional.empty();
+        }
 
-            return promptHelper.getResponse(promptHelper.getPrompt(ARRIVAL_INFO_FORMAT, output));
-        } catch (IOException e) {
-            throw new OneBusAwayException(promptHelper.getPrompt(COMMUNICATION_ERROR_MESSAGE));
+        // Keyed by stopId in the order the stops are spoken, with null for a stop that couldn't be answered
+        Map<String, String> stopOutputs = new LinkedHashMap<>();
+        for (StopArrivals stop : stopArrivals) {
+            HashSet<String> routesToFilter = routesToFilterOut.get(stop.getStopId());
+            if (stop.isSuccess()) {
+                ScanWindows.Scan scan = stop.getScan();
+                stopOutputs.put(stop.getStopId(), SpeechUtil.getArrivalText(
+                        obaUserClient.getSpokenArrivals(scan, routesToFilter), scan.getScanMins(),
+                        scan.getResponse().getCurrentTime(), obaUserDataItem.getSpeakClockTime(), timeZone,
+                        routesToFilter));
+                if (timeZone != null) {
+                    obaUserClient.loadScheduleForStopInBackground(stop.getStopId(), timeZone);
+                }
+                continue;
+            }
+            stopOutputs.put(stop.getStopId(), getFallbackArrivals(obaUserDataItem, obaUserClient, stop.getStopId(),
+                    stop.getError(), timeZone, routesToFilter)
+                    .map(FallbackArrivals::getStopOutput)
+                    .orElse(null));
+        }
+
+        if (stopOutputs.values().stream().allMatch(Objects::isNull)) {
+            return Optional.empty();
         }
+        String output = SpeechUtil.getMultiStopArrivalText(stopOutputs, obaUserDataItem.getStopId(),
+                obaUserDataItem.getSavedStops());
+        return Optional.of(promptHelper.getPrompt(ARRIVAL_INFO_FORMAT, output));
     }
 
     /**
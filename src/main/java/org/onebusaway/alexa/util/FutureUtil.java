@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Utilities for running blocking calls (REST API and DynamoDB) concurrently.
+ */
+public class FutureUtil {
+    /**
+     * Runs a blocking call on the given executor.  Exceptions thrown by the call complete the future exceptionally
+     * with the original exception as the cause.  Unlike CompletableFuture.supplyAsync(), cancelling the returned future
+     * with cancel(true) interrupts the call if it's running.
+     *
+     * @param task     blocking call to run
+     * @param executor executor to run the call on
+     * @return a future that completes with the result of the call
+     * @throws RejectedExecutionException if the executor doesn't accept the call
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Callable<T> task, ExecutorService executor) {
+        TaskFuture<T> result = new TaskFuture<>();
+        result.task = executor.submit(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for the future to complete, but not past the given deadline
+     *
+     * @param future        future to wait for
+     * @param deadlineNanos deadline in terms of System.nanoTime()
+     * @return the result of the future
+     * @throws TimeoutException     if the deadline passed before the future completed
+     * @throws ExecutionException   if the future completed exceptionally
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public static <T> T getBefore(Future<T> future, long deadlineNanos)
+            throws TimeoutException, ExecutionException, InterruptedException {
+        return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Fails a future returned by {@link #supplyAsync(Callable, ExecutorService)} with the given error, and interrupts
+     * its call if it's still running
+     *
+     * @param future future to fail
+     * @param error  error to fail it with, e.g. a TimeoutException
+     * @return true if this failed the future, false if it had already completed
+     */
+    public static boolean failAndInterrupt(CompletableFuture<?> future, Throwable error) {
+        if (!future.completeExceptionally(error)) {
+            return false;
+        }
+        if (future instanceof TaskFuture) {
+            Future<?> t = ((TaskFuture<?>) future).task;
+            if (t != null) {
+                t.cancel(true);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cancels all of the given futures that haven't completed yet, interrupting the calls of futures returned by
+     * {@link #supplyAsync(Callable, ExecutorService)}
+     *
+     * @param futures futures to cancel
+     */
+    public static void cancelAll(Future<?>... futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Future that cancels the task running the call when it's cancelled
+     */
+    private static class TaskFuture<T> extends CompletableFuture<T> {
+        private volatile Future<?> task;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> t = task;
+            if (cancelled && t != null) {
+                t.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+}
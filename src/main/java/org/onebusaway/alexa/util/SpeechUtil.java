@@ -29,6 +29,7 @@ import org.onebusaway.io.client.elements.ObaArrivalInfo;
 import org.onebusaway.io.client.util.ArrivalInfo;
 import org.onebusaway.io.client.util.UIUtils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -38,6 +39,9 @@ import java.util.TimeZone;
 
 import static org.onebusaway.alexa.constant.Prompt.NO_ARRIVALS;
 import static org.onebusaway.alexa.constant.Prompt.NO_ARRIVALS_AFTER_FILTER;
+import static org.onebusaway.alexa.constant.Prompt.PRIMARY_STOP_ARRIVALS_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STOP_ARRIVALS_ERROR;
+import static org.onebusaway.alexa.constant.Prompt.STOP_ARRIVALS_FORMAT;
 import static org.onebusaway.alexa.constant.SessionAttribute.ANNOUNCED_FEATURES_V1_1_0;
 
 /**
@@ -84,6 +88,32 @@ public class SpeechUtil {
         return output;
     }
 
+    /**
+     * Joins the arrival info for several stops into one response, with each stop's arrivals introduced by its name.  A
+     * stop whose arrivals couldn't be retrieved gets a short apology rather than failing the whole response.
+     *
+     * @param stopOutputs arrival info text for each stop, keyed by stopId in the order they should be spoken, or null
+     *                    for a stop whose arrivals couldn't be retrieved
+     * @param primaryStopId stopId of the user's own stop, which is introduced as "your stop"
+     * @param stopNames name to speak for each of the other stops, keyed by stopId
+     * @return the arrival info text for all of the stops formatted for speech
+     */
+    public static String getMultiStopArrivalText(Map<String, String> stopOutputs, String primaryStopId,
+                                                 Map<String, String> stopNames) {
+        List<String> outputs = new ArrayList<>();
+        stopOutputs.forEach((stopId, output) -> {
+            String stopName = stopNames.getOrDefault(stopId, stopId);
+            if (output == null) {
+                outputs.add(promptHelper.getPrompt(STOP_ARRIVALS_ERROR, stopName));
+            } else {
+                outputs.add(stopId.equals(primaryStopId)
+                        ? promptHelper.getPrompt(PRIMARY_STOP_ARRIVALS_FORMAT, output)
+                        : promptHelper.getPrompt(STOP_ARRIVALS_FORMAT, stopName, output));
+            }
+        });
+        return String.join(" -- ", outputs);
+    }
+
     /**
      * Returns the set of routes to filter for the given user and stop ID saved to the provided session or DAO
      * (in that order), or null if there is no filter for the given STOP_ID
@@ -95,8 +125,20 @@ public class SpeechUtil {
      * there is no filter for the given STOP_ID
      */
     public static HashSet getRoutesToFilter(ObaDao obaDao, String userId, Map<String, Object> alexaSession) {
+        return getRoutesToFilter(obaDao.getUserData(userId), alexaSession);
+    }
+
+    /**
+     * Returns the set of routes to filter for the given user data and stop ID saved to the provided session or user
+     * data (in that order), or null if there is no filter for the given STOP_ID
+     *
+     * @param optUserData user data that was already read from the DAO
+     * @param alexaSession alexa skill session
+     * @return the set of routes to filter for the provided STOP_ID in the session or user data, or null if there is no
+     * filter for the given STOP_ID
+     */
+    public static HashSet getRoutesToFilter(Optional<ObaUserDataItem> optUserData, Map<String, Object> alexaSession) {
         HashMap<String, HashSet<String>> routeFilters;
-        Optional<ObaUserDataItem> optUserData = obaDao.getUserData(userId);
         if (optUserData.isPresent()) {
             routeFilters = optUserData.get().getRoutesToFilterOut();
             if (routeFilters != null) {
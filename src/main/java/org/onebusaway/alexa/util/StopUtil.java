@@ -20,6 +20,7 @@ import lombok.extern.log4j.Log4j;
 import org.onebusaway.alexa.config.SpringContext;
 import org.onebusaway.alexa.constant.SessionAttribute;
 import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.Deadline;
 import org.onebusaway.alexa.lib.GoogleMaps;
 import org.onebusaway.alexa.lib.ObaClient;
 import org.onebusaway.alexa.lib.ObaUserClient;
@@ -64,21 +65,23 @@ public class StopUtil {
      * @param googleMaps client to access Google web APIs
      * @param obaClient client used to access the OBA REST API for a local OBA server
      * @param obaDao OneBusAway data access object
+     * @param deadline deadline of the current request
      * @return the proper response to the user for the duplicate stop dialog (e.g., did we find the stop, or do we need to ask again)
      */
-    public static Optional<Response> handleDuplicateStopResponse(String userId, AttributesManager attributesManager, boolean stopFound, GoogleMaps googleMaps, ObaClient obaClient, ObaDao obaDao) {
+    public static Optional<Response> handleDuplicateStopResponse(String userId, AttributesManager attributesManager, boolean stopFound, GoogleMaps googleMaps, ObaClient obaClient, ObaDao obaDao, Deadline deadline) {
         ArrayList<ObaStop> stops = SessionUtil.getSessionAttribute(attributesManager, DIALOG_FOUND_STOPS, ArrayList.class);
         boolean experimentalRegions = SessionUtil.getSessionAttribute(attributesManager, SessionAttribute.EXPERIMENTAL_REGIONS, Boolean.class, false);
         if (stops != null) {
             if (stopFound && stops.size() > 0) {
                 String cityName = SessionUtil.getSessionAttribute(attributesManager, CITY_NAME, String.class);
 
-                Optional<Location> location = googleMaps.geocode(cityName);
+                Optional<Location> location = googleMaps.geocode(cityName, deadline);
                 if (!location.isPresent()) {
                     return CityUtil.askForCityResponse(cityName, attributesManager, obaClient);
                 }
 
                 Optional<ObaRegion> region;
+                deadline.check("finding the closest region");
                 try {
                     region = obaClient.getClosestRegion(location.get(), experimentalRegions);
                 } catch (IOException e) {
@@ -88,7 +91,7 @@ public class StopUtil {
 
                 ObaUserClient obaUserClient;
                 try {
-                    obaUserClient = obaClient.withObaBaseUrl(region.get().getObaBaseUrl());
+                    obaUserClient = obaClient.withObaBaseUrl(region.get().getObaBaseUrl(), deadline);
                 } catch (URISyntaxException e) {
                     log.error("ObaBaseUrl " + region.get().getObaBaseUrl() + " for " + region.get().getName()
                             + " is invalid: " + e.getMessage());
@@ -97,7 +100,7 @@ public class StopUtil {
                 }
 
                 LinkedHashMap<String, String> stopData = (LinkedHashMap<String, String>) stops.get(0);
-                return StorageUtil.finishOnboard(userId, cityName, stopData.get("id"), stopData.get("stopCode"), region.get(), obaUserClient, obaDao, attributesManager);
+                return StorageUtil.finishOnboard(userId, cityName, stopData.get("id"), stopData.get("stopCode"), region.get(), obaUserClient, obaDao, attributesManager, deadline);
             } else if (!stopFound && stops.size() > 1) {
                 stops.remove(0);
                 SessionUtil.addOrUpdateSessionAttribute(attributesManager, DIALOG_FOUND_STOPS, stops);
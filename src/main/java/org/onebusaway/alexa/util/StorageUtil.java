@@ -20,19 +20,27 @@ import lombok.extern.log4j.Log4j;
 import org.apache.commons.lang3.StringUtils;
 import org.onebusaway.alexa.OneBusAwayAlexa;
 import org.onebusaway.alexa.config.SpringContext;
+import org.onebusaway.alexa.constant.Prompt;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
 import org.onebusaway.alexa.exception.OneBusAwayException;
 import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.Deadline;
 import org.onebusaway.alexa.lib.ObaUserClient;
 import org.onebusaway.alexa.storage.ObaDao;
 import org.onebusaway.alexa.storage.ObaUserDataItem;
+import org.onebusaway.alexa.storage.UserDataUnitOfWork;
 import org.onebusaway.io.client.elements.ObaRegion;
 import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.onebusaway.alexa.constant.Prompt.COMMUNICATION_ERROR_MESSAGE;
 import static org.onebusaway.alexa.constant.Prompt.FINISH_ONBOARDING;
@@ -48,10 +56,18 @@ import static org.onebusaway.alexa.lib.ObaUserClient.ARRIVALS_SCAN_MINS;
  */
 @Log4j
 public class StorageUtil {
+    /**
+     * How out of date a user's last access time can be before it's worth writing an otherwise unchanged item to update
+     * it
+     */
+    static final long LAST_ACCESS_TIME_RESOLUTION_MILLIS = TimeUnit.HOURS.toMillis(1);
 
     private static PromptHelper promptHelper =
             SpringContext.getInstance().getBean("promptHelper", PromptHelper.class);
 
+    private static ExecutorService executor =
+            SpringContext.getInstance().getBean("obaExecutor", ExecutorService.class);
+
     /**
      * Finishes the on-board process of saving user data to the persistent data store and returns response to user saying
      * save was successful
@@ -64,41 +80,44 @@ public class StorageUtil {
      * @param obaUserClient
      * @param obaDao
      * @param attributesManager
+     * @param deadline deadline of the current request - onboarding fails if its data isn't available by then
      * @return response to user saying initial save an onboard process was successful
      */
     public static Optional<Response> finishOnboard(
             String userId, String cityName, String stopId, String stopCode, ObaRegion region,
-            ObaUserClient obaUserClient, ObaDao obaDao, AttributesManager attributesManager) {
+            ObaUserClient obaUserClient, ObaDao obaDao, AttributesManager attributesManager, Deadline deadline) {
         log.debug(String.format(
                 "Crupdating user with city %s and stop ID %s, code %s, regionId %d, regionName %s, obaBaseUrl %s.",
                 cityName, stopId, stopCode, region.getId(), region.getName(), region.getObaBaseUrl()));
 
+        // Arrivals, time zone and the existing user record don't depend on each other, so fetch them at the same time
+        deadline.check("fetching onboarding data");
+        CompletableFuture<ObaArrivalInfoResponse> arrivalsFuture = FutureUtil.supplyAsync(
+                () -> obaUserClient.getArrivalsAndDeparturesForStop(stopId, ARRIVALS_SCAN_MINS), executor);
+        CompletableFuture<TimeZone> timeZoneFuture = FutureUtil.supplyAsync(obaUserClient::getTimeZone, executor);
+        CompletableFuture<Optional<ObaUserDataItem>> userDataFuture = FutureUtil.supplyAsync(
+                UserDataUnitOfWork.propagate(() -> obaDao.getUserData(userId)), executor);
+
         ObaArrivalInfoResponse response;
+        TimeZone timeZone;
+        Optional<ObaUserDataItem> userData;
         try {
-            response = obaUserClient.getArrivalsAndDeparturesForStop(
-                    stopId,
-                    ARRIVALS_SCAN_MINS
-            );
-        } catch (IOException e) {
-            log.error("Failed to get oba arrival info", e);
-            throw new OneBusAwayException(promptHelper.getPrompt(COMMUNICATION_ERROR_MESSAGE));
+            response = awaitOnboardingStep(arrivalsFuture, deadline, "oba arrival info", COMMUNICATION_ERROR_MESSAGE);
+            timeZone = awaitOnboardingStep(timeZoneFuture, deadline, "time zone", GENERAL_ERROR_MESSAGE);
+            userData = awaitOnboardingStep(userDataFuture, deadline, "user data", GENERAL_ERROR_MESSAGE);
+        } catch (RuntimeException e) {
+            FutureUtil.cancelAll(arrivalsFuture, timeZoneFuture, userDataFuture);
+            throw e;
         }
 
         long speakClockTime = SessionUtil.getSessionAttribute(attributesManager, CLOCK_TIME, Long.class, 0L);
 
-        TimeZone timeZone;
-        try {
-            timeZone = obaUserClient.getTimeZone();
-        } catch (IOException e) {
-            throw new OneBusAwayException(promptHelper.getPrompt(GENERAL_ERROR_MESSAGE));
-        }
-
         boolean experimentalRegions = SessionUtil.getSessionAttribute(attributesManager, EXPERIMENTAL_REGIONS, Boolean.class, false);
 
         // This code path is current used for the SetCityIntent if this isn't the users first time using the skill
         // And, we can't store HashMaps in sessions (they get converted to ArrayLists by Alexa)
         // So, try to get route filters from persisted data in case the user has previously set them
-        HashSet<String> routesToFilter = SpeechUtil.getRoutesToFilter(obaDao, userId, attributesManager.getSessionAttributes());
+        HashSet<String> routesToFilter = SpeechUtil.getRoutesToFilter(userData, attributesManager.getSessionAttributes());
 
         String arrivalInfoText = SpeechUtil.getArrivalText(response.getArrivalInfo(), ARRIVALS_SCAN_MINS,
                 response.getCurrentTime(), speakClockTime, timeZone, routesToFilter);
@@ -110,12 +129,41 @@ public class StorageUtil {
                 StringUtils.EMPTY : promptHelper.getPrompt(INTRODUCTION);
 
         String onboardingSpeech = promptHelper.getPrompt(FINISH_ONBOARDING, stopCode, SpeechUtil.formatRegionName(region.getName()), introduction, arrivalInfoText);
-        createOrUpdateUser(userId, cityName, stopId, region.getId(), region.getName(), region.getObaBaseUrl(), onboardingSpeech,
-                System.currentTimeMillis(), speakClockTime, timeZone, 1L,
+        createOrUpdateUser(userData, userId, cityName, stopId, region.getId(), region.getName(), region.getObaBaseUrl(),
+                onboardingSpeech, System.currentTimeMillis(), speakClockTime, timeZone, 1L,
                 1L, experimentalRegions, obaDao);
         return promptHelper.getResponse(onboardingSpeech);
     }
 
+    /**
+     * Waits for one of the concurrent onboarding calls, converting any failure into the prompt that should be read to
+     * the user
+     *
+     * @param future      the onboarding call to wait for
+     * @param deadline    deadline of the current request
+     * @param description description of the call for log messages
+     * @param errorPrompt prompt to read to the user if the call failed
+     * @return the result of the call
+     * @throws DeadlineExceededException if the call didn't complete before the deadline
+     */
+    private static <T> T awaitOnboardingStep(CompletableFuture<T> future, Deadline deadline, String description,
+                                             Prompt errorPrompt) {
+        try {
+            return FutureUtil.getBefore(future, deadline.getDeadlineNanos());
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Timed out getting " + description, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DeadlineExceededException) {
+                throw (DeadlineExceededException) e.getCause();
+            }
+            log.error("Failed to get " + description, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted getting " + description);
+        }
+        throw new OneBusAwayException(promptHelper.getPrompt(errorPrompt));
+    }
+
     /**
      * Creates or updates the user data in the persistent data store
      *
@@ -137,9 +185,41 @@ public class StorageUtil {
                                           String regionObaBaseUrl, String previousResponse, long lastAccessTime,
                                           long speakClockTime, TimeZone timeZone, long announcedIntroduction, long announcedFeaturesv1_1_0,
                                           boolean experimentalRegions, ObaDao obaDao) {
-        Optional<ObaUserDataItem> optUserData = obaDao.getUserData(userId);
+        createOrUpdateUser(obaDao.getUserData(userId), userId, cityName, stopId, regionId, regionName, regionObaBaseUrl,
+                previousResponse, lastAccessTime, speakClockTime, timeZone, announcedIntroduction,
+                announcedFeaturesv1_1_0, experimentalRegions, obaDao);
+    }
+
+    /**
+     * Creates or updates the user data in the persistent data store, using user data that was already read from the
+     * data store instead of reading it again
+     *
+     * @param optUserData the user's existing data, or empty if this is a new user
+     * @param userId
+     * @param cityName
+     * @param stopId
+     * @param regionId
+     * @param regionName
+     * @param regionObaBaseUrl
+     * @param previousResponse
+     * @param lastAccessTime
+     * @param speakClockTime
+     * @param timeZone
+     * @param announcedIntroduction
+     * @param announcedFeaturesv1_1_0
+     * @param obaDao
+     */
+    public static void createOrUpdateUser(Optional<ObaUserDataItem> optUserData, String userId, String cityName,
+                                          String stopId, long regionId, String regionName, String regionObaBaseUrl,
+                                          String previousResponse, long lastAccessTime, long speakClockTime,
+                                          TimeZone timeZone, long announcedIntroduction, long announcedFeaturesv1_1_0,
+                                          boolean experimentalRegions, ObaDao obaDao) {
         if (optUserData.isPresent()) {
             ObaUserDataItem userData = optUserData.get();
+            if (!StringUtils.equals(userData.getObaBaseUrl(), regionObaBaseUrl) && userData.getSavedStops() != null) {
+                // Saved stops are stop IDs on the old region's server, so they mean nothing in the new region
+                userData.setSavedStops(new HashMap<>());
+            }
             userData.setCity(cityName);
             userData.setStopId(stopId);
             userData.setRegionId(regionId);
@@ -169,6 +249,7 @@ public class StorageUtil {
                     announcedIntroduction,
                     announcedFeaturesv1_1_0,
                     experimentalRegions,
+                    new HashMap<>(),
                     null
             );
             obaDao.saveUserData(userData);
@@ -185,7 +266,11 @@ public class StorageUtil {
     public static void saveOutputForRepeat(String output, ObaDao obaDao, ObaUserDataItem userData) {
         log.debug("Caching output for repeat = " + output);
         userData.setPreviousResponse(output);
-        userData.setLastAccessTime(System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        // The access time alone isn't worth a write, so an unchanged item only gets a new one every so often
+        if (userData.isDirty() || now - userData.getLastAccessTime() >= LAST_ACCESS_TIME_RESOLUTION_MILLIS) {
+            userData.setLastAccessTime(now);
+        }
         obaDao.saveUserData(userData);
     }
 }
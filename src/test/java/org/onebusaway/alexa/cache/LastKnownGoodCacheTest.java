@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.when;
+
+public class LastKnownGoodCacheTest {
+    private static final long MAX_AGE_MILLIS = 60000;
+
+    @Mock
+    private Clock clock;
+
+    private LastKnownGoodCache<String, String> cache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(clock.millis()).thenReturn(0L);
+        cache = new LastKnownGoodCache<>(MAX_AGE_MILLIS, 2, clock);
+    }
+
+    @Test
+    public void get_withinMaxAge_returnsValueAndAge() {
+        cache.put("stop", "arrivals");
+        when(clock.millis()).thenReturn(MAX_AGE_MILLIS - 1);
+
+        LastKnownGoodCache.Aged<String> aged = cache.get("stop").get();
+
+        assertEquals("arrivals", aged.getValue());
+        assertEquals(MAX_AGE_MILLIS - 1, aged.getAgeMillis());
+        assertEquals(1, cache.getServedCount());
+    }
+
+    @Test
+    public void get_afterMaxAge_returnsEmptyAndRemovesValue() {
+        cache.put("stop", "arrivals");
+        when(clock.millis()).thenReturn(MAX_AGE_MILLIS);
+
+        assertFalse(cache.get("stop").isPresent());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getServedCount());
+    }
+
+    @Test
+    public void put_existingKey_replacesValueAndResetsAge() {
+        cache.put("stop", "old");
+        when(clock.millis()).thenReturn(30000L);
+        cache.put("stop", "new");
+
+        LastKnownGoodCache.Aged<String> aged = cache.get("stop").get();
+
+        assertEquals("new", aged.getValue());
+        assertEquals(0, aged.getAgeMillis());
+    }
+
+    @Test
+    public void put_full_evictsLeastRecentlyUsed() {
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a").get().getValue());
+        assertFalse(cache.get("b").isPresent());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.io.client.elements.ObaRegion;
+
+import java.io.IOException;
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RegionsCacheTest {
+    private static final long TTL_MILLIS = 1000;
+
+    @Mock
+    private CacheLoader<ObaRegion[]> loader;
+    @Mock
+    private Clock clock;
+
+    private final ObaRegion[] regions = new ObaRegion[]{mock(ObaRegion.class)};
+    private final ObaRegion[] refreshedRegions = new ObaRegion[]{mock(ObaRegion.class), mock(ObaRegion.class)};
+
+    private RegionsCache regionsCache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(clock.millis()).thenReturn(0L);
+        // Run background refreshes on the calling thread so they can be verified synchronously
+        regionsCache = new RegionsCache(loader, TTL_MILLIS, Runnable::run, clock);
+    }
+
+    @Test
+    public void getRegions_calledTwiceWithinTtl_loadsOnce() throws Exception {
+        when(loader.load()).thenReturn(regions);
+
+        assertSame(regions, regionsCache.getRegions());
+        assertSame(regions, regionsCache.getRegions());
+
+        verify(loader, times(1)).load();
+        assertEquals(1, regionsCache.getMissCount());
+        assertEquals(1, regionsCache.getHitCount());
+    }
+
+    @Test
+    public void getRegions_afterTtl_servesCachedCopyAndRefreshes() throws Exception {
+        when(loader.load()).thenReturn(regions, refreshedRegions);
+        regionsCache.getRegions();
+
+        when(clock.millis()).thenReturn(TTL_MILLIS);
+        assertSame(regions, regionsCache.getRegions());
+        assertSame(refreshedRegions, regionsCache.getRegions());
+
+        verify(loader, times(2)).load();
+        assertEquals(1, regionsCache.getRefreshCount());
+    }
+
+    @Test
+    public void getRegions_refreshFails_keepsServingStaleCopy() throws Exception {
+        when(loader.load()).thenReturn(regions).thenThrow(new IOException());
+        regionsCache.getRegions();
+
+        when(clock.millis()).thenReturn(TTL_MILLIS);
+        assertSame(regions, regionsCache.getRegions());
+        assertSame(regions, regionsCache.getRegions());
+
+        // The failed refresh isn't retried until the retry interval has passed
+        verify(loader, times(2)).load();
+        assertEquals(1, regionsCache.getRefreshFailureCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void getRegions_initialLoadFails_throwsIOException() throws Exception {
+        when(loader.load()).thenThrow(new IOException());
+        regionsCache.getRegions();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class SingleFlightCacheTest {
+    private static final long TTL_MILLIS = 5000;
+
+    @Mock
+    private Clock clock;
+
+    private SingleFlightCache<String, String> cache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(clock.millis()).thenReturn(0L);
+        cache = new SingleFlightCache<>("test", TTL_MILLIS, 2, clock);
+    }
+
+    @Test
+    public void get_withinTtl_loadsOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("1", cache.get("stop", () -> String.valueOf(loads.incrementAndGet())));
+        when(clock.millis()).thenReturn(TTL_MILLIS - 1);
+        assertEquals("1", cache.get("stop", () -> String.valueOf(loads.incrementAndGet())));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void get_afterTtl_reloads() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("stop", () -> String.valueOf(loads.incrementAndGet()));
+
+        when(clock.millis()).thenReturn(TTL_MILLIS);
+        assertEquals("2", cache.get("stop", () -> String.valueOf(loads.incrementAndGet())));
+    }
+
+    @Test
+    public void getIfPresent_onlyReturnsFreshValuesAndNeverLoads() throws Exception {
+        assertFalse(cache.getIfPresent("stop").isPresent());
+        assertEquals(0, cache.getMissCount());
+
+        cache.get("stop", () -> "1");
+        assertEquals("1", cache.getIfPresent("stop").get());
+
+        when(clock.millis()).thenReturn(TTL_MILLIS);
+        assertFalse(cache.getIfPresent("stop").isPresent());
+    }
+
+    @Test
+    public void get_loadFails_isNotCached() throws Exception {
+        try {
+            cache.get("stop", () -> {
+                throw new IOException("OBA Error");
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("OBA Error", e.getMessage());
+        }
+
+        assertEquals("ok", cache.get("stop", () -> "ok"));
+        assertEquals(1, cache.getLoadFailureCount());
+    }
+
+    @Test
+    public void get_moreKeysThanMaxEntries_evictsLeastRecentlyUsed() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", () -> "a" + loads.incrementAndGet());
+        cache.get("b", () -> "b" + loads.incrementAndGet());
+        cache.get("a", () -> "a" + loads.incrementAndGet());
+        cache.get("c", () -> "c" + loads.incrementAndGet());
+
+        assertEquals(2, cache.size());
+        assertEquals("a1", cache.get("a", () -> "a" + loads.incrementAndGet()));
+        assertEquals("b4", cache.get("b", () -> "b" + loads.incrementAndGet()));
+    }
+
+    @Test
+    public void get_concurrentMisses_shareOneLoad() throws Exception {
+        int callers = 8;
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String> slowLoader = () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+            try {
+                releaseLoad.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return "arrivals";
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("stop", slowLoader)));
+            loadStarted.await(5, TimeUnit.SECONDS);
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> cache.get("stop", slowLoader)));
+            }
+            // Wait until every other caller is blocked on the in-flight load
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.getCoalescedCount() < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            releaseLoad.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("arrivals", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(callers - 1, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void get_loadingCallerInterrupted_waitingCallerLoadsItself() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> loading = executor.submit(() -> cache.get("stop", () -> {
+                loadStarted.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted reading arrivals");
+                }
+                return "interrupted";
+            }));
+            loadStarted.await(5, TimeUnit.SECONDS);
+            Future<String> waiting = executor.submit(() -> cache.get("stop", () -> "arrivals"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            loading.cancel(true);
+
+            assertEquals("arrivals", waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getLoadFailureCount());
+    }
+
+    @Test
+    public void get_loadTimesOut_waitingCallersGetTimeout() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String> timingOutLoader = () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+            try {
+                releaseLoad.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            throw new SocketTimeoutException("Read timed out");
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> loading = executor.submit(() -> cache.get("stop", timingOutLoader));
+            loadStarted.await(5, TimeUnit.SECONDS);
+            Future<String> waiting = executor.submit(() -> cache.get("stop", timingOutLoader));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            releaseLoad.countDown();
+
+            try {
+                waiting.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getCause() instanceof SocketTimeoutException);
+            }
+            try {
+                loading.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+}
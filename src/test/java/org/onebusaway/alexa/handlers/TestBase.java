@@ -29,6 +29,8 @@ import org.mockito.Spy;
 import org.onebusaway.alexa.config.SpringContext;
 import org.onebusaway.alexa.constant.SessionAttribute;
 import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.ArrivalsPrefetcher;
+import org.onebusaway.alexa.lib.Deadline;
 import org.onebusaway.alexa.lib.GoogleMaps;
 import org.onebusaway.alexa.lib.ObaClient;
 import org.onebusaway.alexa.lib.ObaUserClient;
@@ -43,7 +45,9 @@ import java.util.HashMap;
 import java.util.Optional;
 import java.util.SimpleTimeZone;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 import static org.onebusaway.alexa.constant.SessionAttribute.ASK_STATE;
@@ -71,6 +75,8 @@ abstract public class TestBase {
     @Mock
     protected ObaUserClient obaUserClient;
     @Mock
+    protected ArrivalsPrefetcher arrivalsPrefetcher;
+    @Mock
     protected AnnotationConfigApplicationContext annotationConfigApplicationContext;
     @Spy
     protected HashMap<String, Object> sessionAttributes = new HashMap();
@@ -127,6 +133,9 @@ abstract public class TestBase {
     protected void mockStaticUtils() throws Exception{
         PowerMockito.mockStatic(SpringContext.class);
         PowerMockito.whenNew(ObaUserClient.class).withAnyArguments().thenReturn(obaUserClient);
+        when(obaClient.withObaBaseUrl(anyString())).thenReturn(obaUserClient);
+        when(obaClient.withObaBaseUrl(anyString(), any(Deadline.class))).thenReturn(obaUserClient);
+        when(arrivalsPrefetcher.start(anyString(), any(Deadline.class))).thenReturn(ArrivalsPrefetcher.Prefetch.NONE);
         PowerMockito.when(SpringContext.getInstance()).thenReturn(annotationConfigApplicationContext);
     }
 
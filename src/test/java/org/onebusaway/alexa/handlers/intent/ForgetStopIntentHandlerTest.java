@@ -0,0 +1,102 @@
+package org.onebusaway.alexa.handlers.intent;
+
+import com.amazon.ask.model.Intent;
+import com.amazon.ask.model.IntentRequest;
+import com.amazon.ask.model.RequestEnvelope;
+import com.amazon.ask.model.Slot;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mockito;
+import org.onebusaway.alexa.constant.Prompt;
+import org.onebusaway.alexa.handlers.TestBase;
+import org.onebusaway.alexa.util.CityUtil;
+import org.onebusaway.alexa.util.StorageUtil;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.when;
+
+@PrepareForTest({
+        ForgetStopIntentHandler.class,
+        StorageUtil.class,
+        CityUtil.class
+})
+public class ForgetStopIntentHandlerTest extends TestBase {
+    @InjectMocks
+    private ForgetStopIntentHandler forgetStopIntentHandler = new ForgetStopIntentHandler();
+
+    @Captor
+    private ArgumentCaptor<HashMap<String, String>> savedStopsArgumentCaptor;
+
+    private static final String FORGET_STOP_INTENT_NAME = "ForgetStopIntent";
+    private static final String STOP_NAME_KEY = "stopName";
+
+    @Test
+    public void getIntentRequestName_withoutInput_getRequestName() {
+        assertEquals(FORGET_STOP_INTENT_NAME, forgetStopIntentHandler.getIntentRequestName());
+    }
+
+    @Test
+    public void handle_nameSaved_removesStop() {
+        PowerMockito.mockStatic(StorageUtil.class);
+        HashMap<String, String> savedStops = new HashMap<>();
+        savedStops.put("1_100", "Work");
+        savedStops.put("1_200", "home");
+        when(obaUserDataItem.getSavedStops()).thenReturn(savedStops);
+        withStopName("work");
+        forgetStopIntentHandler.handle(this.handlerInput);
+        Mockito.verify(obaUserDataItem).setSavedStops(savedStopsArgumentCaptor.capture());
+        assertEquals(Collections.singletonMap("1_200", "home"), savedStopsArgumentCaptor.getValue());
+        Mockito.verify(obaDao).saveUserData(obaUserDataItem);
+        Mockito.verify(promptHelper).getPrompt(eq(Prompt.FORGET_STOP), eq("work"));
+        PowerMockito.verifyStatic(StorageUtil.class);
+        StorageUtil.saveOutputForRepeat(anyString(), any(), any());
+    }
+
+    @Test
+    public void handle_nameNotSaved_saysSo() {
+        PowerMockito.mockStatic(StorageUtil.class);
+        withStopName("work");
+        forgetStopIntentHandler.handle(this.handlerInput);
+        Mockito.verify(obaUserDataItem, never()).setSavedStops(any());
+        Mockito.verify(obaDao, never()).saveUserData(any());
+        Mockito.verify(promptHelper).getPrompt(eq(Prompt.FORGET_STOP_NOT_FOUND), eq("work"));
+    }
+
+    @Test
+    public void handle_stopNameNotInRequest_asksForName() {
+        forgetStopIntentHandler.handle(this.handlerInput);
+        Mockito.verify(promptHelper).getResponse(eq(Prompt.STOP_NAME_MISSING));
+        Mockito.verify(obaDao, never()).saveUserData(any());
+    }
+
+    @Test
+    public void handle_withoutObaData_askForCityResponse() {
+        PowerMockito.mockStatic(CityUtil.class);
+        withoutObaData();
+        forgetStopIntentHandler.handle(this.handlerInput);
+        PowerMockito.verifyStatic(CityUtil.class);
+        CityUtil.askForCityResponse();
+    }
+
+    private void withStopName(String stopName) {
+        Map<String, Slot> slots = new HashMap<>();
+        slots.put(STOP_NAME_KEY, Slot.builder().withValue(stopName).build());
+        Intent intent = Intent.builder().withSlots(slots).build();
+        IntentRequest intentRequest = IntentRequest.builder().withIntent(intent).build();
+        requestEnvelope = RequestEnvelope.builder().withContext(context).withRequest(intentRequest).withSession(session).build();
+        when(handlerInput.getRequestEnvelope()).thenReturn(requestEnvelope);
+        when(handlerInput.getRequest()).thenReturn(intentRequest);
+    }
+}
@@ -3,12 +3,18 @@ package org.onebusaway.alexa.handlers.intent;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.onebusaway.alexa.handlers.TestBase;
+import org.onebusaway.alexa.lib.ArrivalsPrefetcher;
+import org.onebusaway.alexa.lib.Deadline;
 import org.onebusaway.alexa.util.CityUtil;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @PrepareForTest({
         CityUtil.class
@@ -40,4 +46,29 @@ public class GetArrivalsIntentHandlerTest extends TestBase {
         PowerMockito.verifyStatic(CityUtil.class);
         CityUtil.askForCityResponse();
     }
+
+    @Test
+    public void handle_withObaData_keepsPrefetchedArrivals() {
+        ArrivalsPrefetcher.Prefetch prefetch = mock(ArrivalsPrefetcher.Prefetch.class);
+        when(arrivalsPrefetcher.start(eq(USER_ID), any(Deadline.class))).thenReturn(prefetch);
+        PowerMockito.mockStatic(CityUtil.class);
+
+        getArrivalsIntentHandler.handle(this.handlerInput);
+
+        verify(arrivalsPrefetcher).remember(USER_ID, obaUserDataItem);
+        verify(prefetch).keepIfFor(obaUserDataItem);
+    }
+
+    @Test
+    public void handle_withoutObaData_cancelsPrefetchedArrivals() {
+        withoutObaData();
+        ArrivalsPrefetcher.Prefetch prefetch = mock(ArrivalsPrefetcher.Prefetch.class);
+        when(arrivalsPrefetcher.start(eq(USER_ID), any(Deadline.class))).thenReturn(prefetch);
+        PowerMockito.mockStatic(CityUtil.class);
+
+        getArrivalsIntentHandler.handle(this.handlerInput);
+
+        verify(prefetch).keepIfFor(null);
+        verify(prefetch).cancel();
+    }
 }
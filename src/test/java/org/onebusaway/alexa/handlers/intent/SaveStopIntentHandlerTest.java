@@ -0,0 +1,104 @@
+package org.onebusaway.alexa.handlers.intent;
+
+import com.amazon.ask.model.Intent;
+import com.amazon.ask.model.IntentRequest;
+import com.amazon.ask.model.RequestEnvelope;
+import com.amazon.ask.model.Slot;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mockito;
+import org.onebusaway.alexa.constant.Prompt;
+import org.onebusaway.alexa.handlers.TestBase;
+import org.onebusaway.alexa.util.CityUtil;
+import org.onebusaway.alexa.util.StorageUtil;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.when;
+
+@PrepareForTest({
+        SaveStopIntentHandler.class,
+        StorageUtil.class,
+        CityUtil.class
+})
+public class SaveStopIntentHandlerTest extends TestBase {
+    @InjectMocks
+    private SaveStopIntentHandler saveStopIntentHandler = new SaveStopIntentHandler();
+
+    @Captor
+    private ArgumentCaptor<HashMap<String, String>> savedStopsArgumentCaptor;
+
+    private static final String SAVE_STOP_INTENT_NAME = "SaveStopIntent";
+    private static final String STOP_NAME_KEY = "stopName";
+
+    @Test
+    public void getIntentRequestName_withoutInput_getRequestName() {
+        assertEquals(SAVE_STOP_INTENT_NAME, saveStopIntentHandler.getIntentRequestName());
+    }
+
+    @Test
+    public void handle_stopNameInRequest_savesStopUnderName() {
+        PowerMockito.mockStatic(StorageUtil.class);
+        withStopName("work");
+        saveStopIntentHandler.handle(this.handlerInput);
+        Mockito.verify(obaUserDataItem).setSavedStops(savedStopsArgumentCaptor.capture());
+        assertEquals(1, savedStopsArgumentCaptor.getValue().size());
+        assertEquals("work", savedStopsArgumentCaptor.getValue().get(STOP_ID));
+        Mockito.verify(obaDao).saveUserData(obaUserDataItem);
+        Mockito.verify(promptHelper).getPrompt(eq(Prompt.SAVE_STOP), eq("work"));
+        PowerMockito.verifyStatic(StorageUtil.class);
+        StorageUtil.saveOutputForRepeat(anyString(), any(), any());
+    }
+
+    @Test
+    public void handle_nameAlreadySaved_movesNameToCurrentStop() {
+        PowerMockito.mockStatic(StorageUtil.class);
+        HashMap<String, String> savedStops = new HashMap<>();
+        savedStops.put("1_100", "Work");
+        savedStops.put("1_200", "home");
+        when(obaUserDataItem.getSavedStops()).thenReturn(savedStops);
+        withStopName("work");
+        saveStopIntentHandler.handle(this.handlerInput);
+        Mockito.verify(obaUserDataItem).setSavedStops(savedStopsArgumentCaptor.capture());
+        Map<String, String> expected = new HashMap<>();
+        expected.put("1_200", "home");
+        expected.put(STOP_ID, "work");
+        assertEquals(expected, savedStopsArgumentCaptor.getValue());
+    }
+
+    @Test
+    public void handle_stopNameNotInRequest_asksForName() {
+        saveStopIntentHandler.handle(this.handlerInput);
+        Mockito.verify(promptHelper).getResponse(eq(Prompt.STOP_NAME_MISSING));
+        Mockito.verify(obaDao, never()).saveUserData(any());
+    }
+
+    @Test
+    public void handle_withoutObaData_askForCityResponse() {
+        PowerMockito.mockStatic(CityUtil.class);
+        withoutObaData();
+        saveStopIntentHandler.handle(this.handlerInput);
+        PowerMockito.verifyStatic(CityUtil.class);
+        CityUtil.askForCityResponse();
+    }
+
+    private void withStopName(String stopName) {
+        Map<String, Slot> slots = new HashMap<>();
+        slots.put(STOP_NAME_KEY, Slot.builder().withValue(stopName).build());
+        Intent intent = Intent.builder().withSlots(slots).build();
+        IntentRequest intentRequest = IntentRequest.builder().withIntent(intent).build();
+        requestEnvelope = RequestEnvelope.builder().withContext(context).withRequest(intentRequest).withSession(session).build();
+        when(handlerInput.getRequestEnvelope()).thenReturn(requestEnvelope);
+        when(handlerInput.getRequest()).thenReturn(intentRequest);
+    }
+}
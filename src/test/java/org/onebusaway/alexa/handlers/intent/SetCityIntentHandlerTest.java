@@ -4,12 +4,14 @@ import com.amazon.ask.model.Intent;
 import com.amazon.ask.model.IntentRequest;
 import com.amazon.ask.model.RequestEnvelope;
 import com.amazon.ask.model.Slot;
+import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.onebusaway.alexa.constant.SessionAttribute;
 import org.onebusaway.alexa.handlers.TestBase;
+import org.onebusaway.alexa.lib.CityRegionCache.CityRegion;
 import org.onebusaway.alexa.util.CityUtil;
 import org.onebusaway.io.client.elements.ObaRegionElement;
 import org.onebusaway.location.Location;
@@ -40,6 +42,11 @@ public class SetCityIntentHandlerTest extends TestBase {
     private static final String LOCATION_NAME = "locationName";
     private static final String OBA_URL = "https://obaurl.org";
 
+    @Before
+    public void setupCityRegions() throws Exception {
+        Mockito.when(obaClient.getCityRegion(anyString(), anyBoolean())).thenReturn(Optional.empty());
+    }
+
     @Test
     public void getIntentRequestName_withoutInput_getRequestName() {
         assertEquals(SET_CITY_INTENT_NAME, setCityIntentHandler.getIntentRequestName());
@@ -57,7 +64,7 @@ public class SetCityIntentHandlerTest extends TestBase {
     public void handle_withCityNameInRequestAndLocationIsNotPresent_askForCityResponse() {
         PowerMockito.mockStatic(CityUtil.class);
         mockIntentRequest();
-        Mockito.when(googleMaps.geocode(any())).thenReturn(Optional.empty());
+        Mockito.when(googleMaps.geocode(any(), any())).thenReturn(Optional.empty());
         setCityIntentHandler.handle(this.handlerInput);
         PowerMockito.verifyStatic(CityUtil.class);
         CityUtil.askForCityResponse();
@@ -67,7 +74,7 @@ public class SetCityIntentHandlerTest extends TestBase {
     public void handle_withCityNameInRequestAndLocationIsPresentButNotSupported_cityNotSupport() throws Exception {
         PowerMockito.mockStatic(CityUtil.class);
         mockIntentRequest();
-        Mockito.when(googleMaps.geocode(any())).thenReturn(Optional.of(new Location(LOCATION_NAME)));
+        Mockito.when(googleMaps.geocode(any(), any())).thenReturn(Optional.of(new Location(LOCATION_NAME)));
         Mockito.when(obaClient.getClosestRegion(any(), anyBoolean())).thenReturn(Optional.empty());
         setCityIntentHandler.handle(this.handlerInput);
         PowerMockito.verifyStatic(CityUtil.class);
@@ -77,11 +84,23 @@ public class SetCityIntentHandlerTest extends TestBase {
     @Test
     public void handle_withCityNameInRequestAndLocationIsPresent_getResponse() throws Exception {
         mockIntentRequest();
-        Mockito.when(googleMaps.geocode(any())).thenReturn(Optional.of(new Location(LOCATION_NAME)));
+        Mockito.when(googleMaps.geocode(any(), any())).thenReturn(Optional.of(new Location(LOCATION_NAME)));
         Mockito.when(obaClient.getClosestRegion(any(), anyBoolean())).thenReturn(Optional.of(obaRegionElement));
         Mockito.when(obaRegionElement.getObaBaseUrl()).thenReturn(OBA_URL);
         setCityIntentHandler.handle(this.handlerInput);
         Mockito.verify(promptHelper).getResponse(anyString(), anyString());
+        Mockito.verify(obaClient).putCityRegion(eq(CITY_NAME), anyBoolean(), eq(obaRegionElement), any());
+    }
+
+    @Test
+    public void handle_withCityNamedBefore_skipsGeocodingAndRegionSearch() throws Exception {
+        mockIntentRequest();
+        Mockito.when(obaClient.getCityRegion(eq(CITY_NAME), anyBoolean()))
+                .thenReturn(Optional.of(new CityRegion(obaRegionElement, new Location(LOCATION_NAME))));
+        setCityIntentHandler.handle(this.handlerInput);
+        Mockito.verify(promptHelper).getResponse(anyString(), anyString());
+        Mockito.verify(googleMaps, Mockito.never()).geocode(any(), any());
+        Mockito.verify(obaClient, Mockito.never()).getClosestRegion(any(), anyBoolean());
     }
 
     @Test
@@ -89,12 +108,12 @@ public class SetCityIntentHandlerTest extends TestBase {
         PowerMockito.mockStatic(CityUtil.class);
         when(sessionAttributes.get(ASK_STATE)).thenReturn(SessionAttribute.AskState.STOP_BEFORE_CITY.toString());
         mockIntentRequest();
-        Mockito.when(googleMaps.geocode(any())).thenReturn(Optional.of(new Location(LOCATION_NAME)));
+        Mockito.when(googleMaps.geocode(any(), any())).thenReturn(Optional.of(new Location(LOCATION_NAME)));
         Mockito.when(obaClient.getClosestRegion(any(), anyBoolean())).thenReturn(Optional.of(obaRegionElement));
         Mockito.when(obaRegionElement.getObaBaseUrl()).thenReturn(OBA_URL);
         setCityIntentHandler.handle(this.handlerInput);
         PowerMockito.verifyStatic(CityUtil.class);
-        CityUtil.fulfillCityAndStop(anyString(), any(), any(), any(), any());
+        CityUtil.fulfillCityAndStop(anyString(), any(), any(), any(), any(), any());
     }
 
     private void mockIntentRequest() {
@@ -52,6 +52,6 @@ public class SetStopNumberIntentHandlerTest extends TestBase {
         Mockito.when(handlerInput.getRequest()).thenReturn(intentRequest);
         setStopNumberIntentHandler.handle(this.handlerInput);
         PowerMockito.verifyStatic(CityUtil.class);
-        CityUtil.fulfillCityAndStop(anyString(), any(), any(), any(), any());
+        CityUtil.fulfillCityAndStop(anyString(), any(), any(), any(), any(), any());
     }
 }
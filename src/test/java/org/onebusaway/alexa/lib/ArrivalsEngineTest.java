@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.onebusaway.alexa.lib.StopScheduleTest.stop;
+
+public class ArrivalsEngineTest {
+    private static final long NOW = 1500000000000L;
+
+    private final StopSchedule schedule = StopSchedule.of("1_75403", Arrays.asList(
+            stop("departed", minutesLater(-1)),
+            stop("trip1", minutesLater(5)),
+            stop("trip2", minutesLater(20)),
+            stop("tooLate", minutesLater(70))));
+
+    @Test
+    public void merge_noRealTime_returnsScheduledArrivalsInWindow() {
+        ObaArrivalInfo[] arrivals = ArrivalsEngine.merge(schedule, new ObaArrivalInfo[0], NOW, 65);
+
+        assertEquals(2, arrivals.length);
+        assertEquals("trip1", arrivals[0].getTripId());
+        assertEquals("8", arrivals[0].getShortName());
+        assertEquals("Seattle Center", arrivals[0].getHeadsign());
+        assertEquals("1_75403", arrivals[0].getStopId());
+        assertEquals(minutesLater(5), arrivals[0].getScheduledDepartureTime());
+        assertEquals(0, arrivals[0].getPredictedDepartureTime());
+        assertFalse(arrivals[0].getPredicted());
+    }
+
+    @Test
+    public void merge_realTime_replacesScheduledTripsAndKeepsOrder() throws Exception {
+        ObaArrivalInfo[] realTime = new StreamingArrivalsParser().parse(new StringReader(
+                "{\"code\":200,\"currentTime\":" + NOW + ",\"data\":{\"entry\":{\"arrivalsAndDepartures\":["
+                        + "{\"tripId\":\"trip2\",\"routeShortName\":\"8\",\"scheduledDepartureTime\":"
+                        + minutesLater(20) + ",\"predictedDepartureTime\":" + minutesLater(2)
+                        + ",\"predicted\":true}]}}}")).getArrivalInfo();
+
+        ObaArrivalInfo[] arrivals = ArrivalsEngine.merge(schedule, realTime, NOW, 65);
+
+        assertEquals(2, arrivals.length);
+        assertEquals("trip2", arrivals[0].getTripId());
+        assertTrue(arrivals[0].getPredicted());
+        assertEquals("trip1", arrivals[1].getTripId());
+        assertFalse(arrivals[1].getPredicted());
+    }
+
+    private static long minutesLater(int minutes) {
+        return NOW + TimeUnit.MINUTES.toMillis(minutes);
+    }
+}
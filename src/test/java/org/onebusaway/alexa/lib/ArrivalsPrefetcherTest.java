@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.storage.ObaUserDataItem;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ArrivalsPrefetcherTest {
+    private static final String OBA_BASE_URL = "http://api.pugetsound.onebusaway.org/";
+
+    @Mock
+    private ObaAsyncClient obaAsyncClient;
+    @Mock
+    private ObaAsyncUserClient obaAsyncUserClient;
+
+    private CompletableFuture<ObaArrivalInfoResponse> future;
+    private ArrivalsPrefetcher prefetcher;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        future = new CompletableFuture<>();
+        when(obaAsyncClient.withObaBaseUrl(anyString())).thenReturn(obaAsyncUserClient);
+        when(obaAsyncUserClient.withDeadline(any(Deadline.class))).thenReturn(obaAsyncUserClient);
+        when(obaAsyncUserClient.getArrivalsAndDeparturesForStop(anyString(), anyInt())).thenReturn(future);
+        when(obaAsyncUserClient.getScanMinsForStop(anyString())).thenReturn(ObaUserClient.ARRIVALS_SCAN_MINS);
+        prefetcher = new ArrivalsPrefetcher(obaAsyncClient, 2, true);
+    }
+
+    @Test
+    public void start_unknownUser_doesNotFetch() throws Exception {
+        assertSame(ArrivalsPrefetcher.Prefetch.NONE, prefetcher.start("user", Deadline.after(7000)));
+
+        verify(obaAsyncClient, never()).withObaBaseUrl(anyString());
+    }
+
+    @Test
+    public void start_rememberedUser_fetchesSavedStop() throws Exception {
+        prefetcher.remember("user", userData("1_75403"));
+
+        ArrivalsPrefetcher.Prefetch prefetch = prefetcher.start("user", Deadline.after(7000));
+
+        verify(obaAsyncClient).withObaBaseUrl(OBA_BASE_URL);
+        verify(obaAsyncUserClient).getArrivalsAndDeparturesForStop("1_75403", ObaUserClient.ARRIVALS_SCAN_MINS);
+        assertTrue(prefetch.keepIfFor(userData("1_75403")));
+        assertFalse(future.isCancelled());
+        assertEquals(1, prefetcher.getUsedCount());
+    }
+
+    @Test
+    public void start_stopWithLearnedWindow_fetchesThatWindow() throws Exception {
+        when(obaAsyncUserClient.getScanMinsForStop("1_75403")).thenReturn(20);
+        prefetcher.remember("user", userData("1_75403"));
+
+        prefetcher.start("user", Deadline.after(7000));
+
+        verify(obaAsyncUserClient).getArrivalsAndDeparturesForStop("1_75403", 20);
+    }
+
+    @Test
+    public void keepIfFor_stopChanged_cancelsFetch() {
+        prefetcher.remember("user", userData("1_75403"));
+
+        ArrivalsPrefetcher.Prefetch prefetch = prefetcher.start("user", Deadline.after(7000));
+
+        assertFalse(prefetch.keepIfFor(userData("1_1108")));
+        assertTrue(future.isCancelled());
+        assertEquals(1, prefetcher.getCancelledCount());
+    }
+
+    @Test
+    public void keepIfFor_noUserData_cancelsFetch() {
+        prefetcher.remember("user", userData("1_75403"));
+
+        assertFalse(prefetcher.start("user", Deadline.after(7000)).keepIfFor(null));
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void cancel_fetchDone_isNotCounted() {
+        prefetcher.remember("user", userData("1_75403"));
+        ArrivalsPrefetcher.Prefetch prefetch = prefetcher.start("user", Deadline.after(7000));
+        future.complete(null);
+
+        prefetch.cancel();
+
+        assertEquals(0, prefetcher.getCancelledCount());
+    }
+
+    @Test
+    public void start_disabled_doesNotFetch() throws Exception {
+        prefetcher = new ArrivalsPrefetcher(obaAsyncClient, 2, false);
+        prefetcher.remember("user", userData("1_75403"));
+
+        assertSame(ArrivalsPrefetcher.Prefetch.NONE, prefetcher.start("user", Deadline.after(7000)));
+        verify(obaAsyncClient, never()).withObaBaseUrl(anyString());
+    }
+
+    @Test
+    public void keepIfFor_stopChangedWhileAnotherRequestJoinedFetch_otherRequestGetsArrivals() throws Exception {
+        ObaArrivalInfoResponse response = mock(ObaArrivalInfoResponse.class);
+        SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache = new SingleFlightCache<>("arrivals", 30000, 10);
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        ObaUserClient obaUserClient = mock(ObaUserClient.class);
+        when(obaUserClient.withDeadline(any(Deadline.class))).thenReturn(obaUserClient);
+        when(obaUserClient.getScanMinsForStop(anyString())).thenReturn(ObaUserClient.ARRIVALS_SCAN_MINS);
+        when(obaUserClient.getArrivalsAndDeparturesForStop(anyString(), anyInt())).thenAnswer(i ->
+                arrivalsCache.get(i.getArgumentAt(0, String.class), () -> {
+                    loadStarted.countDown();
+                    try {
+                        releaseLoad.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted reading arrivals");
+                    }
+                    return response;
+                }));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            when(obaAsyncClient.withObaBaseUrl(anyString()))
+                    .thenReturn(new ObaAsyncUserClient(obaUserClient, executor, scheduler, 5000));
+            prefetcher.remember("user", userData("1_75403"));
+            ArrivalsPrefetcher.Prefetch prefetch = prefetcher.start("user", Deadline.after(7000));
+            loadStarted.await(5, TimeUnit.SECONDS);
+            // Another user's request for the same stop joins the prefetch's call
+            Future<ObaArrivalInfoResponse> joined = executor.submit(() ->
+                    obaUserClient.getArrivalsAndDeparturesForStop("1_75403", ObaUserClient.ARRIVALS_SCAN_MINS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (arrivalsCache.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertFalse(prefetch.keepIfFor(userData("1_1108")));
+            releaseLoad.countDown();
+
+            assertSame(response, joined.get(5, TimeUnit.SECONDS));
+            assertEquals(1, arrivalsCache.getMissCount());
+            assertEquals(0, arrivalsCache.getLoadFailureCount());
+            assertEquals(1, prefetcher.getCancelledCount());
+        } finally {
+            executor.shutdownNow();
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static ObaUserDataItem userData(String stopId) {
+        ObaUserDataItem item = new ObaUserDataItem();
+        item.setObaBaseUrl(OBA_BASE_URL);
+        item.setStopId(stopId);
+        return item;
+    }
+}
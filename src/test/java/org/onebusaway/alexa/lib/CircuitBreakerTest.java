@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private static final String PUGET_SOUND = "http://api.pugetsound.onebusaway.org/";
+    private static final String TAMPA = "http://api.tampa.onebusaway.org/api/";
+
+    // Open at 50% failures over the last 10 calls (at least 4), for 30 seconds, then require 2 good trial calls
+    private static final CircuitBreakerPolicy POLICY = new CircuitBreakerPolicy(50, 3000, 10, 4, 30000, 2);
+
+    private MutableClock clock;
+    private CircuitBreakers breakers;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setup() {
+        clock = new MutableClock();
+        breakers = new CircuitBreakers(POLICY, clock);
+        breaker = breakers.forObaBaseUrl(PUGET_SOUND);
+    }
+
+    @Test
+    public void onResult_failuresBelowMinimumCalls_staysClosed() {
+        call(false, 100);
+        call(false, 100);
+        call(false, 100);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void onResult_failureRateReachesThreshold_opensAndRejectsCalls() {
+        call(true, 100);
+        call(true, 100);
+        call(false, 100);
+        call(false, 100);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(0.5, breaker.getFailureRate(), 0.001);
+        assertFalse(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(2, breaker.getRejectedCount());
+        assertEquals(1, breakers.getOpenedCount());
+        assertEquals(1, breakers.getUnhealthyCount());
+    }
+
+    @Test
+    public void onResult_slowCalls_countAsFailures() {
+        call(true, 100);
+        call(true, 100);
+        call(true, 3500);
+        call(true, 4000);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void onResult_failureRateBelowThreshold_staysClosed() {
+        for (int i = 0; i < 6; i++) {
+            call(true, 100);
+        }
+        for (int i = 0; i < 4; i++) {
+            call(false, 100);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.4, breaker.getFailureRate(), 0.001);
+        assertEquals(0, breakers.getOpenedCount());
+    }
+
+    @Test
+    public void tryAcquirePermission_openPeriodOver_allowsTrialCalls() {
+        open();
+        clock.advance(30000);
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1, breakers.getHalfOpenedCount());
+    }
+
+    @Test
+    public void onResult_trialCallsSucceed_closes() {
+        open();
+        clock.advance(30000);
+
+        call(true, 100);
+        call(true, 100);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate(), 0.001);
+        assertEquals(1, breakers.getClosedCount());
+        assertEquals(0, breakers.getUnhealthyCount());
+    }
+
+    @Test
+    public void onResult_trialCallFails_reopens() {
+        open();
+        clock.advance(30000);
+
+        call(true, 100);
+        call(false, 100);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breakers.getOpenedCount());
+        // The open period starts over
+        clock.advance(29000);
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void releasePermission_trialCall_allowsAnotherTrialCall() {
+        open();
+        clock.advance(30000);
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+
+        breaker.releasePermission();
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void forObaBaseUrl_differentRegions_haveSeparateBreakers() {
+        assertSame(breaker, breakers.forObaBaseUrl(PUGET_SOUND));
+        CircuitBreaker tampa = breakers.forObaBaseUrl(TAMPA);
+        assertNotSame(breaker, tampa);
+
+        open();
+
+        assertEquals(CircuitBreaker.State.CLOSED, tampa.getState());
+        assertTrue(tampa.tryAcquirePermission());
+    }
+
+    private void open() {
+        for (int i = 0; i < POLICY.getMinimumCalls(); i++) {
+            call(false, 100);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void call(boolean success, long latencyMillis) {
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(success, latencyMillis);
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = 1500000000000L;
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CityMatcherTest {
+    private static CityMatcher matcher;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        matcher = new CityMatcher(Gazetteer.loadBundled(), 0.85);
+    }
+
+    @Test
+    public void match_exactName_isFullyConfident() {
+        CityMatcher.Match match = matcher.match("Tampa Bay").get();
+
+        assertEquals("tampa bay", match.getName());
+        assertEquals(1, match.getConfidence(), 0);
+        assertEquals(27.9506, match.getLocation().getLatitude(), 0.0001);
+    }
+
+    @Test
+    public void match_misspelledNames_areConfident() {
+        assertConfidentMatch("seatle", "seattle");
+        assertConfidentMatch("Brooklin", "brooklyn");
+        assertConfidentMatch("tacomah", "tacoma");
+        assertConfidentMatch("Saint Petersberg", "saint petersburg");
+    }
+
+    @Test
+    public void match_soundsAlikeButSpelledDifferently_isLessConfident() {
+        CityMatcher.Match match = matcher.match("spoken").get();
+
+        assertEquals("spokane", match.getName());
+        assertTrue(match.getConfidence() < matcher.getMinConfidence());
+    }
+
+    @Test
+    public void match_unrelatedCity_returnsEmpty() {
+        assertFalse(matcher.match("Portland").isPresent());
+        assertFalse(matcher.match("").isPresent());
+    }
+
+    @Test
+    public void match_equallyCloseToTwoPlaces_returnsEmpty() throws Exception {
+        CityMatcher ambiguous = new CityMatcher(Gazetteer.read(new StringReader(
+                "Kent,Washington,WA,47.3809,-122.2348\nKant,Nowhere,NW,10.0,10.0\n")), 0.85);
+
+        assertFalse(ambiguous.match("Kint").isPresent());
+        assertEquals("kent", ambiguous.match("Kent").get().getName());
+    }
+
+    @Test
+    public void getConfidence_withinEditBound_combinesSpellingAndSound() {
+        String key = matcher.getPhoneticKey("seattle");
+
+        assertEquals(1, CityMatcher.getConfidence("seattle", key, "seattle", key), 0);
+        assertEquals(0, CityMatcher.getConfidence("ab", matcher.getPhoneticKey("ab"), "xyz",
+                matcher.getPhoneticKey("xyz")), 0);
+    }
+
+    @Test
+    public void getTrigrams_padsWordBoundaries() {
+        assertTrue(CityMatcher.getTrigrams("kent").contains("  k"));
+        assertTrue(CityMatcher.getTrigrams("kent").contains("nt "));
+        assertEquals(5, CityMatcher.getTrigrams("kent").size());
+    }
+
+    private static void assertConfidentMatch(String heard, String expected) {
+        CityMatcher.Match match = matcher.match(heard).get();
+        assertEquals(expected, match.getName());
+        assertTrue(heard + " matched with " + match.getConfidence(), match.getConfidence() >= matcher.getMinConfidence());
+    }
+}
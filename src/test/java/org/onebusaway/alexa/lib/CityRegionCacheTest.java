@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.onebusaway.alexa.cache.RegionsCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.location.Location;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CityRegionCacheTest {
+    private static final String SEATTLE_URL = "http://api.pugetsound.onebusaway.org/";
+    private static final String TAMPA_URL = "http://api.tampa.onebusaway.org/api/";
+
+    @Test
+    public void get_sameCitySpelledDifferently_returnsRegion() {
+        CityRegionCache cache = new CityRegionCache(10);
+        cache.put("St. Petersburg", false, region(0, TAMPA_URL), location(27.77, -82.64));
+
+        CityRegionCache.Entry entry = cache.get("saint petersburg", false).get();
+
+        assertEquals(0, entry.getRegionId());
+        assertEquals(TAMPA_URL, entry.getObaBaseUrl());
+        assertEquals(27.77, entry.getLocation().getLatitude(), 0);
+        assertFalse(cache.get("saint petersburg", true).isPresent());
+    }
+
+    @Test
+    public void put_pastMaxEntries_evictsLeastRecentlyUsed() {
+        CityRegionCache cache = new CityRegionCache(2);
+        cache.put("Seattle", false, region(1, SEATTLE_URL), location(47.6, -122.3));
+        cache.put("Tacoma", false, region(1, SEATTLE_URL), location(47.25, -122.44));
+        cache.get("Seattle", false);
+        cache.put("Tampa", false, region(0, TAMPA_URL), location(27.95, -82.46));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get("Seattle", false).isPresent());
+        assertFalse(cache.get("Tacoma", false).isPresent());
+    }
+
+    @Test
+    public void onRegionsLoaded_sameDirectory_keepsCities() {
+        CityRegionCache cache = new CityRegionCache(10);
+        cache.onRegionsLoaded(new ObaRegion[]{region(1, SEATTLE_URL)});
+        cache.put("Seattle", false, region(1, SEATTLE_URL), location(47.6, -122.3));
+
+        cache.onRegionsLoaded(new ObaRegion[]{region(1, SEATTLE_URL)});
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void onRegionsLoaded_changedDirectory_forgetsCities() {
+        CityRegionCache cache = new CityRegionCache(10);
+        cache.onRegionsLoaded(new ObaRegion[]{region(1, SEATTLE_URL)});
+        cache.put("Seattle", false, region(1, SEATTLE_URL), location(47.6, -122.3));
+
+        cache.onRegionsLoaded(new ObaRegion[]{region(1, SEATTLE_URL), region(0, TAMPA_URL)});
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getCityRegion_regionMovedToNewServer_resolvesCityAgain() throws Exception {
+        RegionsCache regionsCache = mock(RegionsCache.class);
+        CityRegionCache cache = new CityRegionCache(10);
+        ObaClient obaClient = ObaClient.builder()
+                .apiKey("key")
+                .regionsCache(regionsCache)
+                .arrivalsCache(mock(SingleFlightCache.class))
+                .timeZoneCache(mock(SingleFlightCache.class))
+                .cityRegionCache(cache)
+                .build();
+        ArgumentCaptor<Consumer> listeners = ArgumentCaptor.forClass(Consumer.class);
+        verify(regionsCache, times(2)).addListener(listeners.capture());
+        ObaRegion seattle = region(1, SEATTLE_URL);
+        loadRegions(listeners.getAllValues(), seattle);
+        obaClient.putCityRegion("Seattle", false, seattle, location(47.6, -122.3));
+
+        assertSame(seattle, obaClient.getCityRegion("Seattle", false).get().getRegion());
+
+        // Only the client's indexes see the new directory, so the stale entry is caught by the base URL check
+        when(seattle.getObaBaseUrl()).thenReturn("https://api.pugetsound.onebusaway.org/");
+        loadRegions(listeners.getAllValues().subList(1, 2), seattle);
+        assertFalse(obaClient.getCityRegion("Seattle", false).isPresent());
+        assertEquals(0, cache.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void loadRegions(List<Consumer> listeners, ObaRegion... regions) {
+        for (Consumer listener : listeners) {
+            listener.accept(regions);
+        }
+    }
+
+    private static ObaRegion region(long id, String obaBaseUrl) {
+        ObaRegion region = mock(ObaRegion.class);
+        when(region.getId()).thenReturn(id);
+        when(region.getObaBaseUrl()).thenReturn(obaBaseUrl);
+        when(region.getActive()).thenReturn(true);
+        when(region.getSupportsObaRealtimeApis()).thenReturn(true);
+        when(region.getSupportsObaDiscoveryApis()).thenReturn(true);
+        when(region.getBounds()).thenReturn(new ObaRegion.Bounds[0]);
+        return region;
+    }
+
+    private static Location location(double lat, double lon) {
+        Location l = new Location("test");
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        return l;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+    @Test
+    public void timeoutMillis_plentyOfTimeLeft_returnsDefaultTimeout() {
+        assertEquals(2000, Deadline.after(60000).timeoutMillis(2000, "test"));
+    }
+
+    @Test
+    public void timeoutMillis_littleTimeLeft_returnsTimeLeft() {
+        Deadline deadline = Deadline.after(500);
+
+        int timeout = deadline.timeoutMillis(2000, "test");
+
+        assertTrue(timeout > 0 && timeout <= 500);
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void timeoutMillis_deadlinePassed_throwsDeadlineExceeded() {
+        Deadline.after(0).timeoutMillis(2000, "test");
+    }
+
+    @Test
+    public void check_deadlinePassed_throwsDeadlineExceeded() {
+        Deadline deadline = Deadline.after(0);
+
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remainingMillis());
+        try {
+            deadline.check("test");
+        } catch (DeadlineExceededException e) {
+            return;
+        }
+        throw new AssertionError("Expected DeadlineExceededException");
+    }
+
+    @Test
+    public void enter_nestedScopes_restorePreviousDeadline() {
+        Deadline outer = Deadline.after(60000);
+        Deadline inner = Deadline.after(1000);
+
+        assertNull(Deadline.current());
+        try (Deadline.Scope ignored = outer.enter()) {
+            try (Deadline.Scope ignored2 = inner.enter()) {
+                assertSame(inner, Deadline.current());
+            }
+            assertSame(outer, Deadline.current());
+            assertFalse(outer.isExpired());
+        }
+        assertNull(Deadline.current());
+    }
+}
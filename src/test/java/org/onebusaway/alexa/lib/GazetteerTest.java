@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.location.Location;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GazetteerTest {
+    private static final String CITIES = "# name|alias,state,abbreviation,latitude,longitude\n"
+            + "Seattle,Washington,WA,47.6062,-122.3321\n"
+            + "\n"
+            + "Saint Petersburg|Saint Pete,Florida,FL,27.7676,-82.6403\n"
+            + "Springfield,Illinois,IL,39.7817,-89.6501\n"
+            + "Springfield,Missouri,MO,37.2090,-93.2923\n";
+
+    @Test
+    public void find_spokenVariants_returnCity() throws Exception {
+        Gazetteer gazetteer = Gazetteer.read(new StringReader(CITIES));
+
+        assertEquals(47.6062, gazetteer.find("Seattle").get().getLatitude(), 0.0001);
+        assertEquals(27.7676, gazetteer.find("St. Petersburg").get().getLatitude(), 0.0001);
+        assertEquals(27.7676, gazetteer.find("saint pete").get().getLatitude(), 0.0001);
+        assertEquals(-82.6403, gazetteer.find("St. Pete, FL").get().getLongitude(), 0.0001);
+        assertTrue(gazetteer.find("seattle washington").isPresent());
+    }
+
+    @Test
+    public void find_unknownCity_returnsEmpty() throws Exception {
+        Gazetteer gazetteer = Gazetteer.read(new StringReader(CITIES));
+
+        assertFalse(gazetteer.find("Portland").isPresent());
+        assertFalse(gazetteer.find("Seattle Florida").isPresent());
+    }
+
+    @Test
+    public void find_ambiguousName_isLeftToGoogle() throws Exception {
+        Gazetteer gazetteer = Gazetteer.read(new StringReader(CITIES));
+
+        assertFalse(gazetteer.find("Springfield").isPresent());
+        Optional<Location> missouri = gazetteer.find("Springfield Missouri");
+        assertEquals(37.2090, missouri.get().getLatitude(), 0.0001);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_malformedLine_throwsIOException() throws Exception {
+        Gazetteer.read(new StringReader("Seattle,Washington,47.6062,-122.3321\n"));
+    }
+
+    @Test
+    public void loadBundled_containsRegionCities() throws Exception {
+        Gazetteer gazetteer = Gazetteer.loadBundled();
+
+        assertTrue(gazetteer.find("Seattle").isPresent());
+        assertTrue(gazetteer.find("Tampa").isPresent());
+        assertTrue(gazetteer.find("Washington D.C.").isPresent());
+        assertFalse(gazetteer.find("Washington").isPresent());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.storage.ObaDao;
+import org.onebusaway.alexa.storage.ObaGeocodeItem;
+import org.onebusaway.location.Location;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GeocodeCacheTest {
+    private static final long NOW = 1500000000000L;
+    private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(90);
+    private static final long NOT_FOUND_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    @Mock
+    private ObaDao obaDao;
+
+    @Mock
+    private Clock clock;
+
+    private final AtomicInteger geocodeCount = new AtomicInteger();
+
+    private GeocodeCache cache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(clock.millis()).thenReturn(NOW);
+        when(obaDao.getGeocode(anyString())).thenReturn(Optional.empty());
+        cache = newCache(obaDao);
+    }
+
+    @Test
+    public void normalize_spellingVariants_haveSameKey() {
+        assertEquals("saint petersburg", GeocodeCache.normalize("St. Petersburg"));
+        assertEquals("saint petersburg", GeocodeCache.normalize("  saint   Petersburg "));
+        assertEquals("fort lauderdale", GeocodeCache.normalize("Ft. Lauderdale"));
+        assertEquals("san jose", GeocodeCache.normalize("San José"));
+        assertEquals("winston salem", GeocodeCache.normalize("Winston-Salem"));
+    }
+
+    @Test
+    public void get_sameCitySpokenDifferently_geocodesOnce() throws Exception {
+        Optional<Location> first = cache.get("St. Petersburg", this::tampa);
+        Optional<Location> second = cache.get("saint petersburg", this::tampa);
+
+        assertEquals(1, geocodeCount.get());
+        assertEquals(27.77, second.get().getLatitude(), 0.001);
+        assertEquals(first.get().getLongitude(), second.get().getLongitude(), 0.0);
+    }
+
+    @Test
+    public void get_cityGeocoded_isSavedToTable() throws Exception {
+        cache.get("St. Petersburg", this::tampa);
+
+        ArgumentCaptor<ObaGeocodeItem> item = ArgumentCaptor.forClass(ObaGeocodeItem.class);
+        verify(obaDao).saveGeocode(item.capture());
+        assertEquals("saint petersburg", item.getValue().getCityKey());
+        assertEquals("St. Petersburg", item.getValue().getCityName());
+        assertEquals(27.77, item.getValue().getLatitude(), 0.001);
+        assertEquals(NOW, item.getValue().getGeocodedTime());
+    }
+
+    @Test
+    public void get_cityInTable_doesNotGeocode() throws Exception {
+        when(obaDao.getGeocode("tampa")).thenReturn(Optional.of(
+                new ObaGeocodeItem("tampa", "Tampa", 27.95, -82.46, NOW - TimeUnit.DAYS.toMillis(30))));
+
+        Optional<Location> location = cache.get("Tampa", this::tampa);
+
+        assertEquals(0, geocodeCount.get());
+        assertEquals(27.95, location.get().getLatitude(), 0.001);
+    }
+
+    @Test
+    public void get_cityInTableExpired_geocodesAgain() throws Exception {
+        when(obaDao.getGeocode("tampa")).thenReturn(Optional.of(
+                new ObaGeocodeItem("tampa", "Tampa", 27.95, -82.46, NOW - TTL_MILLIS)));
+
+        cache.get("Tampa", this::tampa);
+
+        assertEquals(1, geocodeCount.get());
+    }
+
+    @Test
+    public void get_cityNotFound_isRememberedUntilNotFoundTtl() throws Exception {
+        assertFalse(cache.get("Atlantis", this::notFound).isPresent());
+        assertFalse(cache.get("atlantis", this::notFound).isPresent());
+        assertEquals(1, geocodeCount.get());
+        ArgumentCaptor<ObaGeocodeItem> item = ArgumentCaptor.forClass(ObaGeocodeItem.class);
+        verify(obaDao).saveGeocode(item.capture());
+        assertNull(item.getValue().getLatitude());
+
+        when(clock.millis()).thenReturn(NOW + NOT_FOUND_TTL_MILLIS);
+        cache.get("Atlantis", this::notFound);
+        assertEquals(2, geocodeCount.get());
+    }
+
+    @Test
+    public void get_geocodingFails_isNotCached() throws Exception {
+        try {
+            cache.get("Tampa", () -> {
+                throw new IOException("Google Error");
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertTrue(cache.get("Tampa", this::tampa).isPresent());
+        assertEquals(1, geocodeCount.get());
+    }
+
+    @Test
+    public void get_tableFails_stillGeocodes() throws Exception {
+        when(obaDao.getGeocode(anyString())).thenThrow(new RuntimeException("DynamoDB Error"));
+        doThrow(new RuntimeException("DynamoDB Error")).when(obaDao).saveGeocode(any(ObaGeocodeItem.class));
+
+        assertTrue(cache.get("Tampa", this::tampa).isPresent());
+        assertEquals(1, geocodeCount.get());
+    }
+
+    @Test
+    public void get_withoutTable_keepsCitiesInMemory() throws Exception {
+        cache = newCache(null);
+
+        cache.get("Tampa", this::tampa);
+        cache.get("TAMPA", this::tampa);
+
+        assertEquals(1, geocodeCount.get());
+        assertEquals(1, cache.size());
+    }
+
+    private GeocodeCache newCache(ObaDao dao) {
+        return new GeocodeCache(new SingleFlightCache<>("geocodes", TTL_MILLIS, 10), dao, TTL_MILLIS,
+                NOT_FOUND_TTL_MILLIS, clock);
+    }
+
+    private Optional<Location> tampa() {
+        geocodeCount.incrementAndGet();
+        Location location = new Location("test");
+        location.setLatitude(27.77);
+        location.setLongitude(-82.64);
+        return Optional.of(location);
+    }
+
+    private Optional<Location> notFound() {
+        geocodeCount.incrementAndGet();
+        return Optional.empty();
+    }
+}
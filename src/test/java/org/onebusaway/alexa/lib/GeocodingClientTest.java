@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.google.maps.GeoApiContext;
+import com.google.maps.PendingResult;
+import com.google.maps.errors.ZeroResultsException;
+import com.google.maps.model.GeocodingResult;
+import com.google.maps.model.Geometry;
+import com.google.maps.model.LatLng;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeocodingClientTest {
+    private final List<FakeRequest> requests = new ArrayList<>();
+
+    private Consumer<PendingResult.Callback<GeocodingResult[]>> answer;
+    private GeocodingClient client;
+
+    @Before
+    public void setup() {
+        client = new GeocodingClient(new GeoApiContext.Builder().apiKey("AIzaTest").build(), address -> {
+            FakeRequest request = new FakeRequest();
+            requests.add(request);
+            return request;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+    }
+
+    @Test
+    public void geocode_found_returnsResults() throws Exception {
+        GeocodingResult result = result(27.95, -82.46);
+        answer = callback -> callback.onResult(new GeocodingResult[]{result});
+
+        GeocodingResult[] results = client.geocode("Tampa", Deadline.after(5000));
+
+        assertSame(result, results[0]);
+        assertEquals(1, client.getCallCount());
+        assertEquals(0, client.getFailureCount());
+    }
+
+    @Test
+    public void geocode_zeroResults_returnsNoResults() throws Exception {
+        answer = callback -> callback.onFailure(new ZeroResultsException("ZERO_RESULTS"));
+
+        assertEquals(0, client.geocode("Atlantis", Deadline.after(5000)).length);
+        assertEquals(1, client.getNotFoundCount());
+        assertEquals(0, client.getFailureCount());
+    }
+
+    @Test
+    public void geocode_callFails_throwsIOException() throws Exception {
+        IOException error = new IOException("Google Error");
+        answer = callback -> callback.onFailure(error);
+
+        try {
+            client.geocode("Tampa", Deadline.after(5000));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertSame(error, e.getCause());
+        }
+        assertEquals(1, client.getFailureCount());
+    }
+
+    @Test
+    public void geocode_noAnswerBeforeDeadline_cancelsRequest() throws Exception {
+        answer = callback -> {
+        };
+
+        try {
+            client.geocode("Tampa", Deadline.after(50));
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(requests.get(0).cancelled);
+        }
+        assertEquals(1, client.getDeadlineExceededCount());
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void geocode_deadlinePassed_doesNotSendRequest() throws Exception {
+        try {
+            client.geocode("Tampa", Deadline.after(0));
+        } finally {
+            assertTrue(requests.isEmpty());
+        }
+    }
+
+    private static GeocodingResult result(double lat, double lng) {
+        GeocodingResult result = new GeocodingResult();
+        result.geometry = new Geometry();
+        result.geometry.location = new LatLng(lat, lng);
+        return result;
+    }
+
+    private class FakeRequest implements PendingResult<GeocodingResult[]> {
+        private boolean cancelled;
+
+        @Override
+        public void setCallback(Callback<GeocodingResult[]> callback) {
+            answer.accept(callback);
+        }
+
+        @Override
+        public GeocodingResult[] await() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public GeocodingResult[] awaitIgnoreError() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
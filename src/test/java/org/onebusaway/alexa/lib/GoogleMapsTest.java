@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.google.maps.model.GeocodingResult;
+import com.google.maps.model.Geometry;
+import com.google.maps.model.LatLng;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.location.Location;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GoogleMapsTest {
+    @Mock
+    private GeocodingClient geocodingClient;
+
+    private GoogleMaps googleMaps;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        Gazetteer gazetteer = Gazetteer.read(new StringReader("Tampa,Florida,FL,27.9506,-82.4572\n"
+                + "Brooklyn,New York,NY,40.6782,-73.9442\n"
+                + "Lynnwood,Washington,WA,47.8209,-122.3151\n"));
+        googleMaps = new GoogleMaps(geocodingClient, null, gazetteer, new CityMatcher(gazetteer, 0.85));
+    }
+
+    @Test
+    public void geocode_cityInGazetteer_doesNotCallGoogle() throws Exception {
+        Optional<Location> location = googleMaps.geocode("tampa", Deadline.after(5000));
+
+        assertEquals(27.9506, location.get().getLatitude(), 0.0001);
+        verify(geocodingClient, never()).geocode(anyString(), any(Deadline.class));
+    }
+
+    @Test
+    public void geocode_misheardCityGoogleCantFind_usesGazetteerMatch() throws Exception {
+        when(geocodingClient.geocode(anyString(), any(Deadline.class))).thenReturn(new GeocodingResult[0]);
+
+        Optional<Location> location = googleMaps.geocode("Tampah", Deadline.after(5000));
+
+        assertEquals(27.9506, location.get().getLatitude(), 0.0001);
+        verify(geocodingClient).geocode(eq("Tampah"), any(Deadline.class));
+    }
+
+    @Test
+    public void geocode_misheardCityGoogleFails_usesGazetteerMatch() throws Exception {
+        when(geocodingClient.geocode(anyString(), any(Deadline.class))).thenThrow(new IOException("Google Error"));
+
+        Optional<Location> location = googleMaps.geocode("Tampah", Deadline.after(5000));
+
+        assertEquals(27.9506, location.get().getLatitude(), 0.0001);
+    }
+
+    @Test
+    public void geocode_realCitySpelledLikeGazetteerCity_usesGoogle() throws Exception {
+        when(geocodingClient.geocode(eq("Brookline"), any(Deadline.class))).thenReturn(googleFinds(42.3318, -71.1212));
+        when(geocodingClient.geocode(eq("Lynwood"), any(Deadline.class))).thenReturn(googleFinds(33.9303, -118.2115));
+
+        assertEquals(42.3318, googleMaps.geocode("Brookline", Deadline.after(5000)).get().getLatitude(), 0.0001);
+        assertEquals(33.9303, googleMaps.geocode("Lynwood", Deadline.after(5000)).get().getLatitude(), 0.0001);
+    }
+
+    @Test
+    public void geocode_lowConfidenceMatchGoogleCantFind_returnsEmpty() throws Exception {
+        when(geocodingClient.geocode(anyString(), any(Deadline.class))).thenReturn(new GeocodingResult[0]);
+
+        assertFalse(googleMaps.geocode("Tempe", Deadline.after(5000)).isPresent());
+        verify(geocodingClient).geocode(eq("Tempe"), any(Deadline.class));
+    }
+
+    @Test
+    public void geocode_googleFails_returnsEmpty() throws Exception {
+        when(geocodingClient.geocode(anyString(), any(Deadline.class))).thenThrow(new IOException("Google Error"));
+
+        assertFalse(googleMaps.geocode("Portland", Deadline.after(5000)).isPresent());
+    }
+
+    private static GeocodingResult[] googleFinds(double lat, double lng) {
+        GeocodingResult result = new GeocodingResult();
+        result.geometry = new Geometry();
+        result.geometry.location = new LatLng(lat, lng);
+        return new GeocodingResult[]{result};
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GtfsStopsReaderTest {
+    @Test
+    public void read_stopsFile_prefixesIdsWithAgencyAndSkipsStations() throws Exception {
+        String stopsTxt = "\uFEFFstop_id,stop_code,stop_name,stop_lat,stop_lon,location_type\n"
+                + "3105,3105,\"Marion Transit Center, Bay 5\",27.9521,-82.4594,0\n"
+                + "MTC,,Marion Transit Center,27.9520,-82.4590,1\n"
+                + "\n"
+                + "4410,,\"Fowler Ave \"\"East\"\"\",28.0548,-82.4128,\n";
+
+        List<StopCodeIndex.Stop> stops = GtfsStopsReader.read("Hillsborough Area Regional Transit",
+                new StringReader(stopsTxt));
+
+        assertEquals(2, stops.size());
+        assertEquals("Hillsborough Area Regional Transit_3105", stops.get(0).getId());
+        assertEquals("3105", stops.get(0).getStopCode());
+        assertEquals("Marion Transit Center, Bay 5", stops.get(0).getName());
+        assertEquals(27.9521, stops.get(0).getLatitude(), 0.00001);
+        // Stops without a code are found by their stop_id
+        assertEquals("4410", stops.get(1).getStopCode());
+        assertEquals("Fowler Ave \"East\"", stops.get(1).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_missingColumn_throwsIOException() throws Exception {
+        GtfsStopsReader.read("1", new StringReader("stop_id,stop_name\n75403,Stevens Way\n"));
+    }
+
+    @Test
+    public void parseLine_emptyFields_keepsColumns() {
+        assertArrayEquals(new String[]{"1", "", "", "x"}, GtfsStopsReader.parseLine("1,,,x"));
+    }
+}
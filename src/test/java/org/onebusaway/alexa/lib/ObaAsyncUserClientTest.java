@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ObaAsyncUserClientTest {
+    @Mock
+    private ObaUserClient obaUserClient;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+    private ObaAsyncUserClient asyncClient;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        executor = Executors.newFixedThreadPool(2);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        asyncClient = new ObaAsyncUserClient(obaUserClient, executor, scheduler, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_callSucceeds_completesWithResponse() throws Exception {
+        ObaArrivalInfoResponse response = mock(ObaArrivalInfoResponse.class);
+        when(obaUserClient.getArrivalsAndDeparturesForStop(anyString(), anyInt())).thenReturn(response);
+
+        assertSame(response, asyncClient.getArrivalsAndDeparturesForStop("1_75403", 65).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void scanArrivalsAndDeparturesForStops_oneStopFails_completesWithEveryStopInOrder() throws Exception {
+        ScanWindows.Scan scan = new ScanWindows.Scan(mock(ObaArrivalInfoResponse.class), 20);
+        IOException error = new IOException("OBA Error");
+        HashSet<String> routesToFilter = new HashSet<>(Collections.singleton("1_8"));
+        when(obaUserClient.scanArrivalsAndDeparturesForStop("1_75403", routesToFilter)).thenReturn(scan);
+        when(obaUserClient.scanArrivalsAndDeparturesForStop("1_75404", null)).thenThrow(error);
+
+        List<StopArrivals> stops = asyncClient.scanArrivalsAndDeparturesForStops(
+                Arrays.asList("1_75404", "1_75403", "1_75404"), Collections.singletonMap("1_75403", routesToFilter))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, stops.size());
+        assertEquals("1_75404", stops.get(0).getStopId());
+        assertFalse(stops.get(0).isSuccess());
+        assertSame(error, stops.get(0).getError());
+        assertEquals("1_75403", stops.get(1).getStopId());
+        assertTrue(stops.get(1).isSuccess());
+        assertSame(scan, stops.get(1).getScan());
+        verify(obaUserClient, times(1)).scanArrivalsAndDeparturesForStop("1_75404", null);
+    }
+
+    @Test
+    public void scanArrivalsAndDeparturesForStops_cancelled_interruptsEachCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        when(obaUserClient.scanArrivalsAndDeparturesForStop(anyString(), any())).thenAnswer(i -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+
+        CompletableFuture<List<StopArrivals>> future =
+                asyncClient.scanArrivalsAndDeparturesForStops(Arrays.asList("1_75403", "1_75404"),
+                        Collections.emptyMap());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getTimeZone_callFails_completesExceptionally() throws Exception {
+        IOException error = new IOException("OBA Error");
+        when(obaUserClient.getTimeZone()).thenThrow(error);
+
+        try {
+            asyncClient.getTimeZone().get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void getTimeZone_callTakesLongerThanTimeout_failsAndInterruptsCall() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(obaUserClient.getTimeZone()).thenAnswer(i -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return TimeZone.getDefault();
+        });
+
+        try {
+            asyncClient.withTimeout(50).getTimeZone().get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getTimeZone_cancelled_interruptsCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(obaUserClient.getTimeZone()).thenAnswer(i -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return TimeZone.getDefault();
+        });
+
+        CompletableFuture<TimeZone> future = asyncClient.getTimeZone();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+
+        assertTrue(future.isCancelled());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getTimeZone_executorSaturated_failsWithoutBlocking() throws Exception {
+        executor.shutdown();
+
+        try {
+            asyncClient.getTimeZone().get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
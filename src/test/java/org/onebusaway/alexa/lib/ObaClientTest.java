@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.alexa.cache.RegionsCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.location.Location;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ObaClientTest {
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getClosestRegion_indexNotBuilt_scansRegions() throws Exception {
+        // A mock cache never calls its listeners, like a directory whose index failed to build
+        RegionsCache regionsCache = mock(RegionsCache.class);
+        ObaRegion seattle = region(47.6, -122.3);
+        when(regionsCache.getRegions()).thenReturn(new ObaRegion[]{seattle});
+        ObaClient obaClient = ObaClient.builder()
+                .apiKey("key")
+                .regionsCache(regionsCache)
+                .arrivalsCache(mock(SingleFlightCache.class))
+                .timeZoneCache(mock(SingleFlightCache.class))
+                .build();
+
+        assertSame(seattle, obaClient.getClosestRegion(location(47.7, -122.2), false).get());
+        assertFalse(obaClient.getClosestRegion(location(28.0, -82.4), false).isPresent());
+    }
+
+    private static ObaRegion region(double lat, double lon) {
+        ObaRegion.Bounds bounds = mock(ObaRegion.Bounds.class);
+        when(bounds.getLat()).thenReturn(lat);
+        when(bounds.getLon()).thenReturn(lon);
+        ObaRegion region = mock(ObaRegion.class);
+        when(region.getId()).thenReturn(1L);
+        when(region.getActive()).thenReturn(true);
+        when(region.getSupportsObaDiscoveryApis()).thenReturn(true);
+        when(region.getSupportsObaRealtimeApis()).thenReturn(true);
+        when(region.getObaBaseUrl()).thenReturn("http://api.pugetsound.onebusaway.org/");
+        when(region.getBounds()).thenReturn(new ObaRegion.Bounds[]{bounds});
+        return region;
+    }
+
+    private static Location location(double lat, double lon) {
+        Location l = new Location("test");
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        return l;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.alexa.cache.RegionsCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.io.client.ObaApi;
+import org.onebusaway.io.client.ObaContext;
+import org.onebusaway.io.client.request.ObaStopRequest;
+
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class ObaRegionContextTest {
+    private static final String API_KEY = "apiKey";
+    private static final String SEATTLE_URL = "http://api.pugetsound.onebusaway.org/";
+    private static final String TAMPA_URL = "http://api.tampa.onebusaway.org/api/";
+
+    @Test
+    public void apply_twoRegions_eachBuilderGetsItsOwnBaseUrl() throws Exception {
+        ObaStopRequest.Builder seattle = new ObaRegionContext(SEATTLE_URL, API_KEY).apply(new ObaStopRequest.Builder("1_75403"));
+        ObaStopRequest.Builder tampa = new ObaRegionContext(TAMPA_URL, API_KEY).apply(new ObaStopRequest.Builder("Hillsborough Area Regional Transit_3105"));
+
+        assertEquals(SEATTLE_URL, seattle.getObaContext().getBaseUrl());
+        assertEquals(TAMPA_URL, tampa.getObaContext().getBaseUrl());
+        assertEquals(API_KEY, tampa.getObaContext().getApiKey());
+        assertNotEquals(SEATTLE_URL, ObaApi.getDefaultContext().getBaseUrl());
+        assertNotEquals(TAMPA_URL, ObaApi.getDefaultContext().getBaseUrl());
+    }
+
+    @Test
+    public void apply_builderReturnsDefaultContext_leavesDefaultContextAlone() throws Exception {
+        ObaStopRequest.Builder builder = new ObaStopRequest.Builder("1_75403") {
+            @Override
+            public ObaContext getObaContext() {
+                // As if the library handed out the shared context instead of a copy
+                return mObaContext != null ? mObaContext : ObaApi.getDefaultContext();
+            }
+        };
+
+        new ObaRegionContext(SEATTLE_URL, API_KEY).apply(builder);
+
+        assertEquals(SEATTLE_URL, builder.getObaContext().getBaseUrl());
+        assertNotSame(ObaApi.getDefaultContext(), builder.getObaContext());
+        assertNotEquals(SEATTLE_URL, ObaApi.getDefaultContext().getBaseUrl());
+    }
+
+    @Test(expected = URISyntaxException.class)
+    public void constructor_invalidBaseUrl_throwsURISyntaxException() throws Exception {
+        new ObaRegionContext("http://bad url", API_KEY);
+    }
+
+    @Test
+    public void getRegionContext_sameBaseUrl_reusesContext() throws Exception {
+        ObaClient obaClient = ObaClient.builder()
+                .apiKey(API_KEY)
+                .regionsCache(mock(RegionsCache.class))
+                .arrivalsCache(mock(SingleFlightCache.class))
+                .timeZoneCache(mock(SingleFlightCache.class))
+                .build();
+
+        assertSame(obaClient.getRegionContext(SEATTLE_URL), obaClient.getRegionContext(SEATTLE_URL));
+        assertEquals(SEATTLE_URL, obaClient.withObaBaseUrl(SEATTLE_URL).getObaBaseUrl());
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.alexa.cache.CacheLoader;
+import org.onebusaway.alexa.cache.LastKnownGoodCache;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+import org.onebusaway.alexa.exception.CircuitOpenException;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+import org.onebusaway.io.client.ObaApi;
+import org.onebusaway.io.client.ObaConnection;
+import org.onebusaway.io.client.ObaConnectionFactory;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ObaUserClientTest {
+    private static final String OBA_BASE_URL = "http://api.tampa.onebusaway.org/api/";
+
+    @Mock
+    private SingleFlightCache<String, ObaArrivalInfoResponse> arrivalsCache;
+    @Mock
+    private SingleFlightCache<String, TimeZone> timeZoneCache;
+
+    private ObaUserClient obaUserClient;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        obaUserClient = ObaUserClient.builder()
+                .context(new ObaRegionContext(OBA_BASE_URL, "apiKey"))
+                .arrivalsCache(arrivalsCache)
+                .timeZoneCache(timeZoneCache)
+                .build();
+    }
+
+    @Test
+    public void getTimeZone_withCache_keysByRegion() throws Exception {
+        TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        when(timeZoneCache.get(eq(OBA_BASE_URL), any())).thenReturn(timeZone);
+
+        assertSame(timeZone, obaUserClient.getTimeZone());
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_withCache_keysByRegionStopAndScanWindow() throws Exception {
+        ObaArrivalInfoResponse response = mock(ObaArrivalInfoResponse.class);
+        when(arrivalsCache.get(eq(OBA_BASE_URL + "|Hillsborough Area Regional Transit_3105|65"), any()))
+                .thenReturn(response);
+
+        assertSame(response, obaUserClient.getArrivalsAndDeparturesForStop("Hillsborough Area Regional Transit_3105",
+                ObaUserClient.ARRIVALS_SCAN_MINS));
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_breakerOpen_failsWithoutCallingServer() throws Exception {
+        CircuitBreaker breaker = new CircuitBreakers(new CircuitBreakerPolicy(50, 3000, 10, 1, 30000, 1))
+                .forObaBaseUrl(OBA_BASE_URL);
+        breaker.tryAcquirePermission();
+        breaker.onResult(false, 100);
+        when(arrivalsCache.get(anyString(), any())).thenAnswer(
+                invocation -> ((CacheLoader<?>) invocation.getArguments()[1]).load());
+        obaUserClient = obaUserClient.toBuilder().circuitBreaker(breaker).build();
+
+        try {
+            obaUserClient.getArrivalsAndDeparturesForStop("1_75403", ObaUserClient.ARRIVALS_SCAN_MINS);
+            fail("Expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertEquals(1, breaker.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_serverFails_opensBreaker() throws Exception {
+        CircuitBreaker breaker = arrivalsFailingWith(new IOException("Connection refused"), false);
+
+        try {
+            obaUserClient.getArrivalsAndDeparturesForStop("1_75403", ObaUserClient.ARRIVALS_SCAN_MINS);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_unknownStop_doesNotCountAgainstServer() throws Exception {
+        CircuitBreaker breaker = new CircuitBreakers(new CircuitBreakerPolicy(50, 3000, 10, 1, 30000, 1))
+                .forObaBaseUrl(OBA_BASE_URL);
+        ObaConnection connection = mock(ObaConnection.class);
+        when(connection.getResponseCode()).thenReturn(404);
+        ObaConnectionFactory connectionFactory = mock(ObaConnectionFactory.class);
+        when(connectionFactory.newConnection(any(URI.class))).thenReturn(connection);
+        when(arrivalsCache.get(anyString(), any())).thenAnswer(
+                invocation -> ((CacheLoader<?>) invocation.getArguments()[1]).load());
+        obaUserClient = obaUserClient.toBuilder()
+                .arrivalsParser(new StreamingArrivalsParser())
+                .circuitBreaker(breaker)
+                .build();
+        ObaConnectionFactory previous = ObaApi.getConnectionFactory();
+        ObaApi.setConnectionFactory(connectionFactory);
+
+        try {
+            obaUserClient.getArrivalsAndDeparturesForStop("1_nosuchstop", ObaUserClient.ARRIVALS_SCAN_MINS);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertEquals(0, breaker.getFailureRate(), 0.001);
+        } finally {
+            ObaApi.setConnectionFactory(previous);
+        }
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_requestOutOfTime_doesNotCountAgainstServer() throws Exception {
+        // The transport shortens its timeout to what's left of the deadline, so the read times out when it passes
+        CircuitBreaker breaker = arrivalsFailingWith(new SocketTimeoutException("Read timed out"), true);
+
+        try {
+            obaUserClient.getArrivalsAndDeparturesForStop("1_75403", ObaUserClient.ARRIVALS_SCAN_MINS);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertEquals(0, breaker.getFailureRate(), 0.001);
+        }
+    }
+
+    @Test
+    public void getArrivalsAndDeparturesForStop_deadlineExceeded_doesNotCountAgainstServer() throws Exception {
+        CircuitBreaker breaker = arrivalsFailingWith(new DeadlineExceededException("No time left"), false);
+
+        try {
+            obaUserClient.getArrivalsAndDeparturesForStop("1_75403", ObaUserClient.ARRIVALS_SCAN_MINS);
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        }
+    }
+
+    @Test
+    public void getStaleArrivalsForStop_noLastKnownArrivals_returnsEmpty() {
+        assertFalse(obaUserClient.getStaleArrivalsForStop("1_75403").isPresent());
+    }
+
+    @Test
+    public void getStaleArrivalsForStop_withLastKnownArrivals_keysByRegionAndStop() throws Exception {
+        LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals = new LastKnownGoodCache<>(60000, 10);
+        ObaArrivalInfoResponse response = new StreamingArrivalsParser().parse(new StringReader(
+                "{\"code\":200,\"currentTime\":1500000000000,\"data\":{\"entry\":{\"arrivalsAndDepartures\":[]}}}"));
+        lastKnownArrivals.put(OBA_BASE_URL + "|1_75403",
+                new ScanWindows.Scan(response, ObaUserClient.ARRIVALS_SCAN_MINS));
+        obaUserClient = obaUserClient.toBuilder().lastKnownArrivals(lastKnownArrivals).build();
+
+        assertTrue(obaUserClient.getStaleArrivalsForStop("1_75403").isPresent());
+        assertFalse(obaUserClient.getStaleArrivalsForStop("1_75404").isPresent());
+    }
+
+    @Test
+    public void getStaleArrivalsForStop_afterShortWindow_coversOnlyThatWindow() throws Exception {
+        LastKnownGoodCache<String, ScanWindows.Scan> lastKnownArrivals = new LastKnownGoodCache<>(60000, 10);
+        StreamingArrivalsParser arrivalsParser = mock(StreamingArrivalsParser.class);
+        when(arrivalsParser.request(any(ObaRegionContext.class), eq("1_75403"), eq(10)))
+                .thenReturn(ScanWindowsTest.response("1_8@2", "1_8@5", "1_8@8"));
+        when(arrivalsCache.get(anyString(), any())).thenAnswer(
+                invocation -> ((CacheLoader<?>) invocation.getArguments()[1]).load());
+        obaUserClient = obaUserClient.toBuilder()
+                .arrivalsParser(arrivalsParser)
+                .lastKnownArrivals(lastKnownArrivals)
+                .build();
+
+        obaUserClient.getArrivalsAndDeparturesForStop("1_75403", 10);
+
+        // Under a minute old counts as one minute
+        assertEquals(9, obaUserClient.getStaleArrivalsForStop("1_75403").get().getRemainingScanMins());
+    }
+
+    @Test
+    public void scanArrivalsAndDeparturesForStop_shortWindowMissesRoute_widensToFullWindow() throws Exception {
+        ScanWindows scanWindows = new ScanWindows(5, ObaUserClient.ARRIVALS_SCAN_MINS, 3, 20, 100);
+        ObaArrivalInfoResponse full = ScanWindowsTest.response("1_8@2", "1_8@5", "1_8@8", "1_E@30");
+        scanWindows.record(OBA_BASE_URL + "|1_75403", full, ObaUserClient.ARRIVALS_SCAN_MINS, false);
+        when(arrivalsCache.get(eq(OBA_BASE_URL + "|1_75403|45"), any()))
+                .thenReturn(ScanWindowsTest.response("1_8@2", "1_8@5", "1_8@8"));
+        when(arrivalsCache.get(eq(OBA_BASE_URL + "|1_75403|65"), any())).thenReturn(full);
+        obaUserClient = obaUserClient.toBuilder().scanWindows(scanWindows).build();
+
+        assertEquals(45, obaUserClient.getScanMinsForStop("1_75403"));
+        ScanWindows.Scan scan = obaUserClient.scanArrivalsAndDeparturesForStop("1_75403", null);
+
+        assertSame(full, scan.getResponse());
+        assertEquals(ObaUserClient.ARRIVALS_SCAN_MINS, scan.getScanMins());
+    }
+
+    @Test
+    public void scanArrivalsAndDeparturesForStop_noScanWindows_usesFullWindow() throws Exception {
+        ObaArrivalInfoResponse response = mock(ObaArrivalInfoResponse.class);
+        when(arrivalsCache.get(eq(OBA_BASE_URL + "|1_75403|65"), any())).thenReturn(response);
+
+        ScanWindows.Scan scan = obaUserClient.scanArrivalsAndDeparturesForStop("1_75403", null);
+
+        assertSame(response, scan.getResponse());
+        assertEquals(ObaUserClient.ARRIVALS_SCAN_MINS, scan.getScanMins());
+    }
+
+    /**
+     * Sets up obaUserClient with a circuit breaker that opens on the first failure, and arrivals requests that fail
+     * with the given exception, optionally once the client's deadline has passed
+     */
+    private CircuitBreaker arrivalsFailingWith(Exception error, boolean outOfTime) throws Exception {
+        CircuitBreaker breaker = new CircuitBreakers(new CircuitBreakerPolicy(50, 3000, 10, 1, 30000, 1))
+                .forObaBaseUrl(OBA_BASE_URL);
+        StreamingArrivalsParser arrivalsParser = mock(StreamingArrivalsParser.class);
+        when(arrivalsParser.request(any(ObaRegionContext.class), anyString(), anyInt())).thenAnswer(invocation -> {
+            // Like the transport, which sees the deadline of the call made on its thread
+            Deadline deadline = Deadline.current();
+            while (deadline != null && !deadline.isExpired()) {
+                Thread.sleep(10);
+            }
+            throw error;
+        });
+        when(arrivalsCache.get(anyString(), any())).thenAnswer(
+                invocation -> ((CacheLoader<?>) invocation.getArguments()[1]).load());
+        obaUserClient = obaUserClient.toBuilder()
+                .arrivalsParser(arrivalsParser)
+                .circuitBreaker(breaker)
+                .build();
+        if (outOfTime) {
+            // Set up last, so the deadline doesn't pass before the call is made
+            obaUserClient = obaUserClient.withDeadline(Deadline.after(200));
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+import org.onebusaway.io.client.ObaConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledObaConnectionFactoryTest {
+    private static final String BODY = "{\"code\":200,\"text\":\"OK\"}";
+
+    private HttpServer server;
+    private PooledObaConnectionFactory factory;
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/api/where/current-time.json", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            respond(exchange, BODY);
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, BODY);
+        });
+        server.createContext("/trickle", exchange -> {
+            // Each byte arrives well within the read timeout, but the whole body takes 3 seconds
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 30; i++) {
+                    out.write(' ');
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException | IOException e) {
+                // The client went away
+            }
+        });
+        server.start();
+        factory = new PooledObaConnectionFactory(2, 10, 1000, 500);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        factory.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void newConnection_sequentialRequests_reuseKeepAliveConnection() throws Exception {
+        assertEquals(BODY, request("/api/where/current-time.json"));
+        assertEquals(BODY, request("/api/where/current-time.json"));
+
+        assertEquals(2, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+        assertEquals(1, factory.getIdleConnectionCount());
+        assertEquals(0, factory.getLeasedConnectionCount());
+    }
+
+    @Test
+    public void newConnection_gzipResponse_isDecompressed() throws Exception {
+        // respond() only compresses when the request says it accepts gzip
+        ObaConnection connection = factory.newConnection(uri("/api/where/current-time.json"));
+        try {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(BODY, IOUtils.toString(connection.get()));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void newConnection_slowServer_timesOut() throws Exception {
+        request("/slow");
+    }
+
+    @Test
+    public void newConnection_deadlineShorterThanReadTimeout_timesOutAtDeadline() throws Exception {
+        factory.close();
+        factory = new PooledObaConnectionFactory(2, 10, 1000, 5000);
+
+        long start = System.nanoTime();
+        try (Deadline.Scope ignored = Deadline.after(200).enter()) {
+            request("/slow");
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        }
+    }
+
+    @Test
+    public void newConnection_slowlyStreamedResponse_abortedAtDeadline() throws Exception {
+        long start = System.nanoTime();
+        try (Deadline.Scope ignored = Deadline.after(500).enter()) {
+            request("/trickle");
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        }
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void newConnection_deadlinePassed_doesNotSendRequest() throws Exception {
+        try (Deadline.Scope ignored = Deadline.after(0).enter()) {
+            request("/api/where/current-time.json");
+        } finally {
+            assertTrue(clientPorts.isEmpty());
+        }
+    }
+
+    private String request(String path) throws Exception {
+        ObaConnection connection = factory.newConnection(uri(path));
+        try {
+            return IOUtils.toString(connection.get());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            throw new IOException("Request didn't accept gzip");
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(bytes);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, compressed.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            compressed.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import lombok.extern.log4j.Log4j;
+import org.junit.Test;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.io.client.util.RegionUtils;
+import org.onebusaway.location.Location;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+@Log4j
+public class RegionIndexTest {
+    private static final int REGION_COUNT = 1000;
+    private static final int QUERY_COUNT = 5000;
+
+    @Test
+    public void getClosestRegion_thousandRegions_matchesLinearScan() {
+        Random random = new Random(42);
+        List<ObaRegion> regions = randomRegions(random);
+        List<Location> queries = randomLocations(random);
+        RegionIndex index = RegionIndex.build(regions);
+
+        int found = 0;
+        for (Location l : queries) {
+            ObaRegion expected = RegionUtils.getClosestRegion(regions, l, true, false);
+            Optional<ObaRegion> actual = index.getClosestRegion(l);
+            assertEquals("Mismatch at " + l, Optional.ofNullable(expected), actual);
+            if (expected != null) {
+                found++;
+            }
+        }
+        // Make sure the comparison exercised both outcomes
+        assertFalse(found == 0 || found == queries.size());
+    }
+
+    @Test
+    public void getClosestRegion_farFromAllRegions_returnsEmpty() {
+        ObaRegion seattle = region(1, bounds(47.6, -122.3, 0.5, 0.5));
+        RegionIndex index = RegionIndex.build(Collections.singletonList(seattle));
+
+        assertEquals(Optional.empty(), index.getClosestRegion(location(28.0, -82.4)));
+        assertEquals(Optional.of(seattle), index.getClosestRegion(location(47.7, -122.2)));
+    }
+
+    @Test
+    public void getClosestRegion_acrossAntimeridian_findsRegion() {
+        ObaRegion fiji = region(1, bounds(-17.8, 179.9, 0.2, 0.2));
+        RegionIndex index = RegionIndex.build(Collections.singletonList(fiji));
+
+        assertSame(fiji, index.getClosestRegion(location(-17.8, -179.9)).get());
+    }
+
+    /**
+     * Times the index against the linear scan.  Only run with -Dbenchmarks=true, so timings don't slow down or clutter
+     * the normal build.
+     */
+    @Test
+    public void getClosestRegion_benchmark() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        Random random = new Random(7);
+        List<ObaRegion> regions = randomRegions(random);
+        List<Location> queries = randomLocations(random);
+
+        long start = System.nanoTime();
+        RegionIndex index = RegionIndex.build(regions);
+        long buildNanos = System.nanoTime() - start;
+
+        // Warm up both paths before timing them
+        for (int i = 0; i < 2; i++) {
+            timeLinear(regions, queries);
+            timeIndexed(index, queries);
+        }
+        long linearNanos = timeLinear(regions, queries);
+        long indexedNanos = timeIndexed(index, queries);
+
+        log.info(String.format("RegionIndex benchmark (%d regions, %d lookups): build %.2f ms, "
+                        + "linear scan %.2f us/lookup, index %.2f us/lookup",
+                REGION_COUNT, QUERY_COUNT, buildNanos / 1e6,
+                linearNanos / 1e3 / QUERY_COUNT, indexedNanos / 1e3 / QUERY_COUNT));
+    }
+
+    private static long timeLinear(List<ObaRegion> regions, List<Location> queries) {
+        long start = System.nanoTime();
+        for (Location l : queries) {
+            RegionUtils.getClosestRegion(regions, l, true, false);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long timeIndexed(RegionIndex index, List<Location> queries) {
+        long start = System.nanoTime();
+        for (Location l : queries) {
+            index.getClosestRegion(l);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Regions with one to three bounds scattered over the continental US, Europe and Australia
+     */
+    private static List<ObaRegion> randomRegions(Random random) {
+        double[][] areas = {{25, 49, -125, -67}, {36, 60, -10, 30}, {-38, -12, 114, 153}};
+        List<ObaRegion> regions = new ArrayList<>(REGION_COUNT);
+        for (int i = 0; i < REGION_COUNT; i++) {
+            double[] area = areas[i % areas.length];
+            double lat = area[0] + random.nextDouble() * (area[1] - area[0]);
+            double lon = area[2] + random.nextDouble() * (area[3] - area[2]);
+            ObaRegion.Bounds[] bounds = new ObaRegion.Bounds[1 + random.nextInt(3)];
+            for (int b = 0; b < bounds.length; b++) {
+                bounds[b] = bounds(lat + random.nextGaussian() * 0.3, lon + random.nextGaussian() * 0.3,
+                        random.nextDouble() * 2, random.nextDouble() * 2);
+            }
+            regions.add(region(i, bounds));
+        }
+        return regions;
+    }
+
+    private static List<Location> randomLocations(Random random) {
+        List<Location> locations = new ArrayList<>(QUERY_COUNT);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            locations.add(location(-60 + random.nextDouble() * 130, -180 + random.nextDouble() * 360));
+        }
+        return locations;
+    }
+
+    private static Location location(double lat, double lon) {
+        Location l = new Location("test");
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        return l;
+    }
+
+    /**
+     * Regions are proxies rather than mocks so the linear scan isn't dominated by mock invocation overhead
+     */
+    private static ObaRegion region(long id, ObaRegion.Bounds... bounds) {
+        return (ObaRegion) Proxy.newProxyInstance(ObaRegion.class.getClassLoader(), new Class[]{ObaRegion.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "getBounds":
+                            return bounds;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return Long.hashCode(id);
+                        case "toString":
+                            return "Region " + id;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static ObaRegion.Bounds bounds(double lat, double lon, double latSpan, double lonSpan) {
+        return (ObaRegion.Bounds) Proxy.newProxyInstance(ObaRegion.Bounds.class.getClassLoader(),
+                new Class[]{ObaRegion.Bounds.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getLat":
+                            return lat;
+                        case "getLon":
+                            return lon;
+                        case "getLatSpan":
+                            return latSpan;
+                        case "getLonSpan":
+                            return lonSpan;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
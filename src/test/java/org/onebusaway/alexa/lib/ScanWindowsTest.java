@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanWindowsTest {
+    private static final String STOP = "http://api.pugetsound.onebusaway.org/|1_75403";
+    private static final long NOW = 1500000000000L;
+
+    private final ScanWindows scanWindows = new ScanWindows(5, 65, 3, 20, 100);
+
+    @Test
+    public void getScanMins_unknownStop_usesFullWindow() {
+        assertEquals(65, scanWindows.getScanMins(STOP));
+    }
+
+    @Test
+    public void getScanMins_frequentStop_learnsShortWindow() throws Exception {
+        // A bus every 3 minutes on each of two routes
+        scanWindows.record(STOP, response("1_8@2", "1_8@5", "1_E@3", "1_8@8", "1_E@6"), 65, false);
+
+        assertEquals(1.5, scanWindows.getHeadwayMins(STOP).getAsDouble(), 0.001);
+        // The third arrival and the first of each route are within 5 minutes, plus the margin
+        assertEquals(8, scanWindows.getScanMins(STOP));
+    }
+
+    @Test
+    public void getScanMins_infrequentStop_staysWithinFullWindow() throws Exception {
+        scanWindows.record(STOP, response("1_8@30", "1_8@60"), 65, false);
+
+        assertEquals(65, scanWindows.getScanMins(STOP));
+    }
+
+    @Test
+    public void getScanMins_fullScanDue_usesFullWindow() throws Exception {
+        ScanWindows refreshing = new ScanWindows(5, 65, 3, 2, 100);
+        refreshing.record(STOP, response("1_8@2", "1_8@5", "1_8@8"), 65, false);
+        assertEquals(14, refreshing.getScanMins(STOP));
+
+        refreshing.record(STOP, response("1_8@2", "1_8@5", "1_8@8"), 14, false);
+        assertEquals(65, refreshing.getScanMins(STOP));
+    }
+
+    @Test
+    public void isEnough_missingKnownRoute_isFalse() throws Exception {
+        scanWindows.record(STOP, response("1_8@2", "1_8@5", "1_E@9"), 65, false);
+
+        assertFalse(scanWindows.isEnough(STOP, response("1_8@2", "1_8@5", "1_8@8"), null));
+        assertTrue(scanWindows.isEnough(STOP, response("1_8@2", "1_8@5", "1_8@8"), Collections.singleton("1_E")));
+        assertTrue(scanWindows.isEnough(STOP, response("1_8@2", "1_E@5", "1_8@8"), null));
+    }
+
+    @Test
+    public void isEnough_tooFewUpcomingArrivals_isFalse() throws Exception {
+        scanWindows.record(STOP, response("1_8@2", "1_8@5", "1_8@8"), 65, false);
+
+        assertFalse(scanWindows.isEnough(STOP, response("1_8@-2", "1_8@5", "1_8@8"), null));
+        assertFalse(scanWindows.isEnough(STOP, response("1_8@2", "1_E@5", "1_E@8"), Collections.singleton("1_E")));
+    }
+
+    @Test
+    public void isEnough_unknownStop_isFalse() throws Exception {
+        assertFalse(scanWindows.isEnough(STOP, response("1_8@2", "1_8@5", "1_8@8"), null));
+    }
+
+    @Test
+    public void getSpokenArrivals_learnedWindow_sameAsFullWindow() throws Exception {
+        ObaArrivalInfoResponse full = response("1_8@-2", "1_8@2", "1_E@4", "1_8@5", "1_8@8", "1_E@20", "1_8@40");
+        scanWindows.record(STOP, full, 65, false);
+        ObaArrivalInfoResponse learned = response("1_8@-2", "1_8@2", "1_E@4", "1_8@5", "1_8@8");
+        assertTrue(scanWindows.isEnough(STOP, learned, null));
+
+        assertEquals(describe(scanWindows.getSpokenArrivals(full, null)),
+                describe(scanWindows.getSpokenArrivals(learned, null)));
+        assertEquals("1_8@-2 1_8@2 1_E@4 1_8@5", describe(scanWindows.getSpokenArrivals(learned, null)));
+    }
+
+    @Test
+    public void getSpokenArrivals_filteredRoute_countsOnlyRoutesSpoken() throws Exception {
+        ObaArrivalInfoResponse response = response("1_E@1", "1_8@2", "1_E@3", "1_8@5", "1_8@8", "1_8@12");
+
+        assertEquals("1_E@1 1_8@2 1_8@5 1_8@8",
+                describe(scanWindows.getSpokenArrivals(response, Collections.singleton("1_E"))));
+    }
+
+    /**
+     * @return the arrivals as routeId@minutes after the current time
+     */
+    private static String describe(ObaArrivalInfo[] arrivals) {
+        return Arrays.stream(arrivals)
+                .map(a -> a.getRouteId() + "@" + TimeUnit.MILLISECONDS.toMinutes(a.getScheduledDepartureTime() - NOW))
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * @param arrivals arrivals as routeId@minutes after the current time
+     */
+    static ObaArrivalInfoResponse response(String... arrivals) throws Exception {
+        StringBuilder json = new StringBuilder("{\"code\":200,\"currentTime\":" + NOW
+                + ",\"data\":{\"entry\":{\"arrivalsAndDepartures\":[");
+        for (int i = 0; i < arrivals.length; i++) {
+            String[] parts = arrivals[i].split("@");
+            long departure = NOW + TimeUnit.MINUTES.toMillis(Integer.parseInt(parts[1]));
+            json.append(i > 0 ? "," : "").append(String.format(
+                    "{\"routeId\":\"%s\",\"tripId\":\"trip%d\",\"scheduledDepartureTime\":%d}", parts[0], i, departure));
+        }
+        return new StreamingArrivalsParser().parse(new StringReader(json.append("]}}}").toString()));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.alexa.cache.SingleFlightCache;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class ScheduleCacheTest {
+    private static final String OBA_BASE_URL = "http://api.pugetsound.onebusaway.org/";
+    private static final TimeZone SEATTLE = TimeZone.getTimeZone("America/Los_Angeles");
+    // 11:30 PM on March 1st in Seattle, which is already March 2nd in UTC
+    private static final long LATE_EVENING = ZonedDateTime.of(2019, 3, 1, 23, 30, 0, 0, SEATTLE.toZoneId())
+            .toInstant().toEpochMilli();
+
+    @Mock
+    private Clock clock;
+
+    private final List<Date> requestedDates = new ArrayList<>();
+
+    private ScheduleCache cache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(clock.millis()).thenReturn(LATE_EVENING);
+        // Runs loads on the calling thread, so they're finished when loadInBackground() returns
+        cache = new ScheduleCache(new SingleFlightCache<>("schedules", TimeUnit.DAYS.toMillis(1), 10),
+                Runnable::run, clock);
+    }
+
+    @Test
+    public void loadInBackground_loadsOncePerStopAndServiceDate() {
+        cache.loadInBackground(OBA_BASE_URL, "1_75403", SEATTLE, this::load);
+        cache.loadInBackground(OBA_BASE_URL, "1_75403", SEATTLE, this::load);
+
+        assertEquals(1, requestedDates.size());
+        assertTrue(cache.get(OBA_BASE_URL, "1_75403", SEATTLE).isPresent());
+        assertFalse(cache.get(OBA_BASE_URL, "1_75404", SEATTLE).isPresent());
+        assertFalse(cache.get("http://api.tampa.onebusaway.org/api/", "1_75403", SEATTLE).isPresent());
+    }
+
+    @Test
+    public void loadInBackground_requestsRegionsServiceDate() {
+        cache.loadInBackground(OBA_BASE_URL, "1_75403", SEATTLE, this::load);
+
+        ZonedDateTime requested = requestedDates.get(0).toInstant().atZone(SEATTLE.toZoneId());
+        assertEquals(1, requested.getDayOfMonth());
+        assertEquals(12, requested.getHour());
+    }
+
+    @Test
+    public void get_nextServiceDate_isNotCached() {
+        cache.loadInBackground(OBA_BASE_URL, "1_75403", SEATTLE, this::load);
+        when(clock.millis()).thenReturn(LATE_EVENING + TimeUnit.HOURS.toMillis(1));
+
+        assertFalse(cache.get(OBA_BASE_URL, "1_75403", SEATTLE).isPresent());
+    }
+
+    @Test
+    public void loadInBackground_loadFails_isNotCached() {
+        cache.loadInBackground(OBA_BASE_URL, "1_75403", SEATTLE, date -> {
+            throw new IOException("Server down");
+        });
+
+        assertFalse(cache.get(OBA_BASE_URL, "1_75403", SEATTLE).isPresent());
+    }
+
+    @Test
+    public void loadInBackground_executorSaturated_skipsLoad() {
+        cache = new ScheduleCache(new SingleFlightCache<>("schedules", TimeUnit.DAYS.toMillis(1), 10),
+                r -> {
+                    throw new RejectedExecutionException();
+                }, clock);
+
+        cache.loadInBackground(OBA_BASE_URL, "1_75403", SEATTLE, this::load);
+
+        assertTrue(requestedDates.isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    private StopSchedule load(Date date) {
+        requestedDates.add(date);
+        return StopSchedule.of("1_75403", Collections.emptyList());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class StaleArrivalsTest {
+    private static final long RESPONSE_TIME = 1500000000000L;
+
+    private final StreamingArrivalsParser parser = new StreamingArrivalsParser();
+
+    @Test
+    public void from_oldResponse_dropsDepartedArrivalsAndShiftsCurrentTime() throws Exception {
+        // Three minutes later, the first bus has left and the second is predicted to leave after its schedule
+        ObaArrivalInfoResponse response = response(
+                arrival("8", minutesLater(2), 0),
+                arrival("E Line", minutesLater(3), minutesLater(4)),
+                arrival("D Line", minutesLater(10), 0));
+
+        StaleArrivals stale = StaleArrivals.from(fullScan(response), TimeUnit.MINUTES.toMillis(3));
+
+        assertEquals(2, stale.getArrivals().length);
+        assertEquals("E Line", stale.getArrivals()[0].getShortName());
+        assertEquals("D Line", stale.getArrivals()[1].getShortName());
+        assertEquals(minutesLater(3), stale.getCurrentTime());
+        assertEquals(3, stale.getAgeMinutes());
+        assertEquals(62, stale.getRemainingScanMins());
+    }
+
+    @Test
+    public void from_responseUnderAMinuteOld_reportsOneMinute() throws Exception {
+        StaleArrivals stale = StaleArrivals.from(fullScan(response(arrival("8", minutesLater(2), 0))), 20000);
+
+        assertEquals(1, stale.getArrivals().length);
+        assertEquals(1, stale.getAgeMinutes());
+    }
+
+    @Test
+    public void from_allDeparted_returnsNoArrivals() throws Exception {
+        StaleArrivals stale = StaleArrivals.from(fullScan(response(arrival("8", minutesLater(2), 0))),
+                TimeUnit.MINUTES.toMillis(80));
+
+        assertEquals(0, stale.getArrivals().length);
+        assertEquals(0, stale.getRemainingScanMins());
+    }
+
+    @Test
+    public void from_shortWindow_coversWhatIsLeftOfThatWindow() throws Exception {
+        ScanWindows.Scan scan = new ScanWindows.Scan(response(arrival("8", minutesLater(5), 0)), 10);
+
+        StaleArrivals stale = StaleArrivals.from(scan, TimeUnit.MINUTES.toMillis(3));
+
+        assertEquals(1, stale.getArrivals().length);
+        assertEquals(7, stale.getRemainingScanMins());
+    }
+
+    private static ScanWindows.Scan fullScan(ObaArrivalInfoResponse response) {
+        return new ScanWindows.Scan(response, ObaUserClient.ARRIVALS_SCAN_MINS);
+    }
+
+    private ObaArrivalInfoResponse response(String... arrivals) throws Exception {
+        return parser.parse(new StringReader("{\"code\":200,\"currentTime\":" + RESPONSE_TIME + ",\"version\":2,"
+                + "\"data\":{\"entry\":{\"stopId\":\"1_75403\",\"arrivalsAndDepartures\":["
+                + String.join(",", arrivals) + "]}}}"));
+    }
+
+    private static String arrival(String shortName, long scheduled, long predicted) {
+        return String.format("{\"routeShortName\":\"%s\",\"scheduledDepartureTime\":%d,\"predictedDepartureTime\":%d}",
+                shortName, scheduled, predicted);
+    }
+
+    private static long minutesLater(int minutes) {
+        return RESPONSE_TIME + TimeUnit.MINUTES.toMillis(minutes);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.location.Location;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class StopCodeIndexTest {
+    private static final StopCodeIndex INDEX = StopCodeIndex.build(Arrays.asList(
+            new StopCodeIndex.Stop("1_75403", "75403", "Stevens Way & Benton Ln", 47.6543, -122.3058),
+            new StopCodeIndex.Stop("1_1108", "1108", "3rd Ave & Pike St", 47.6097, -122.3380),
+            new StopCodeIndex.Stop("40_1108", "1108", "Everett Station Bay 3", 47.9754, -122.1978),
+            new StopCodeIndex.Stop("29_2870", "a12", "Lynnwood Transit Center", 47.8156, -122.2948)));
+
+    @Test
+    public void find_uniqueCode_returnsStop() {
+        StopCodeIndex.Stop[] stops = INDEX.find("75403", location(47.6062, -122.3321));
+
+        assertEquals(1, stops.length);
+        assertEquals("1_75403", stops[0].getId());
+        assertEquals("Stevens Way & Benton Ln", stops[0].getName());
+    }
+
+    @Test
+    public void find_duplicateCode_returnsClosestFirst() {
+        StopCodeIndex.Stop[] fromSeattle = INDEX.find("1108", location(47.6062, -122.3321));
+        StopCodeIndex.Stop[] fromEverett = INDEX.find("1108", location(47.9790, -122.2021));
+
+        assertEquals(2, fromSeattle.length);
+        assertEquals("1_1108", fromSeattle[0].getId());
+        assertEquals("40_1108", fromEverett[0].getId());
+    }
+
+    @Test
+    public void find_codeWithDifferentCaseAndSpaces_matches() {
+        assertEquals("29_2870", INDEX.find(" A12 ", location(47.6062, -122.3321))[0].getId());
+    }
+
+    @Test
+    public void find_unknownCode_returnsEmpty() {
+        assertEquals(0, INDEX.find("99999", location(47.6062, -122.3321)).length);
+        assertEquals(0, INDEX.find("", location(47.6062, -122.3321)).length);
+        assertEquals(4, INDEX.size());
+    }
+
+    private static Location location(double lat, double lon) {
+        Location l = new Location("test");
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        return l;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.location.Location;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.when;
+
+public class StopCodeIndexesTest {
+    private static final String HEADER = "stop_id,stop_code,stop_name,stop_lat,stop_lon\n";
+    private static final long REFRESH_MILLIS = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private Clock clock;
+
+    private StopCodeIndexes indexes;
+    private Location seattle;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(clock.millis()).thenReturn(0L);
+        indexes = new StopCodeIndexes(folder.getRoot(), REFRESH_MILLIS, clock);
+        seattle = new Location("test");
+        seattle.setLatitude(47.6062);
+        seattle.setLongitude(-122.3321);
+    }
+
+    @Test
+    public void forRegion_agencyDirectories_indexesAllAgencies() throws Exception {
+        write("1/1/stops.txt", HEADER + "1108,1108,3rd Ave & Pike St,47.6097,-122.3380\n");
+        write("1/40/stops.txt", HEADER + "1108,1108,Everett Station Bay 3,47.9754,-122.1978\n");
+
+        StopCodeIndex index = indexes.forRegion(1).get();
+
+        assertEquals(2, index.size());
+        assertEquals("1_1108", index.find("1108", seattle)[0].getId());
+    }
+
+    @Test
+    public void forRegion_noDirectory_returnsEmpty() {
+        assertFalse(indexes.forRegion(2).isPresent());
+        assertFalse(new StopCodeIndexes(null, REFRESH_MILLIS).forRegion(1).isPresent());
+    }
+
+    @Test
+    public void forRegion_fileChanged_reloadsAfterRefreshInterval() throws Exception {
+        File stops = write("1/1/stops.txt", HEADER + "1108,1108,3rd Ave & Pike St,47.6097,-122.3380\n");
+        assertEquals(1, indexes.forRegion(1).get().size());
+
+        write("1/1/stops.txt", HEADER + "1108,1108,3rd Ave & Pike St,47.6097,-122.3380\n"
+                + "75403,75403,Stevens Way & Benton Ln,47.6543,-122.3058\n");
+        stops.setLastModified(stops.lastModified() + 10000);
+        when(clock.millis()).thenReturn(REFRESH_MILLIS - 1);
+        assertEquals(1, indexes.forRegion(1).get().size());
+
+        when(clock.millis()).thenReturn(REFRESH_MILLIS);
+        assertEquals(2, indexes.forRegion(1).get().size());
+    }
+
+    @Test
+    public void forRegion_invalidFileOnRefresh_keepsPreviousIndex() throws Exception {
+        File stops = write("1/1/stops.txt", HEADER + "1108,1108,3rd Ave & Pike St,47.6097,-122.3380\n");
+        indexes.forRegion(1);
+
+        write("1/1/stops.txt", "stop_id\n1108\n");
+        stops.setLastModified(stops.lastModified() + 10000);
+        when(clock.millis()).thenReturn(REFRESH_MILLIS);
+
+        assertEquals(1, indexes.forRegion(1).get().size());
+    }
+
+    private File write(String path, String contents) throws Exception {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
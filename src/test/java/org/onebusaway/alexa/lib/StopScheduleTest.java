@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.Test;
+import org.onebusaway.io.client.elements.ObaReferences;
+import org.onebusaway.io.client.elements.ObaRoute;
+import org.onebusaway.io.client.elements.ObaStopSchedule;
+import org.onebusaway.io.client.request.ObaScheduleForStopResponse;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StopScheduleTest {
+    @Test
+    public void from_response_resolvesRouteNamesAndHeadsigns() {
+        ObaStopSchedule.StopTime[] stopTimes = {stopTime("1_trip2", 2000, "Queen Anne"), stopTime("1_trip1", 1000, null)};
+        ObaStopSchedule.Direction direction = mock(ObaStopSchedule.Direction.class);
+        when(direction.getTripHeadsign()).thenReturn("Seattle Center");
+        when(direction.getStopTimes()).thenReturn(stopTimes);
+        ObaStopSchedule.RouteSchedule routeSchedule = mock(ObaStopSchedule.RouteSchedule.class);
+        when(routeSchedule.getRouteId()).thenReturn("1_100");
+        when(routeSchedule.getDirectionSchedules()).thenReturn(new ObaStopSchedule.Direction[]{direction});
+        ObaStopSchedule stopSchedule = mock(ObaStopSchedule.class);
+        when(stopSchedule.getRouteSchedules()).thenReturn(new ObaStopSchedule.RouteSchedule[]{routeSchedule});
+        ObaRoute route = mock(ObaRoute.class);
+        when(route.getShortName()).thenReturn("8");
+        ObaReferences refs = mock(ObaReferences.class);
+        when(refs.getRoute("1_100")).thenReturn(route);
+        ObaScheduleForStopResponse response = mock(ObaScheduleForStopResponse.class);
+        when(response.getStopSchedule()).thenReturn(stopSchedule);
+        when(response.getRefs()).thenReturn(refs);
+
+        StopSchedule schedule = StopSchedule.from("1_75403", response);
+
+        assertEquals(2, schedule.size());
+        List<StopSchedule.StopTime> departing = schedule.getDeparting(0, Long.MAX_VALUE);
+        assertEquals("1_trip1", departing.get(0).getTripId());
+        assertEquals("8", departing.get(0).getRouteShortName());
+        assertEquals("Seattle Center", departing.get(0).getHeadsign());
+        assertEquals("Queen Anne", departing.get(1).getHeadsign());
+    }
+
+    @Test
+    public void from_emptyResponse_hasNoStopTimes() {
+        assertEquals(0, StopSchedule.from("1_75403", mock(ObaScheduleForStopResponse.class)).size());
+    }
+
+    @Test
+    public void getDeparting_returnsStopTimesInWindowInclusive() {
+        StopSchedule schedule = StopSchedule.of("1_75403", Arrays.asList(
+                stop("d", 4000), stop("a", 1000), stop("c", 3000), stop("b", 2000), stop("c2", 3000)));
+
+        List<StopSchedule.StopTime> departing = schedule.getDeparting(2000, 3000);
+
+        assertEquals(3, departing.size());
+        assertEquals("b", departing.get(0).getTripId());
+        assertEquals(3000, departing.get(2).getDepartureTime());
+        assertEquals(0, schedule.getDeparting(4001, 5000).size());
+    }
+
+    static StopSchedule.StopTime stop(String tripId, long departureTime) {
+        return new StopSchedule.StopTime("1_100", "8", "Seattle Center", tripId, departureTime, departureTime);
+    }
+
+    private static ObaStopSchedule.StopTime stopTime(String tripId, long time, String stopHeadsign) {
+        ObaStopSchedule.StopTime stopTime = mock(ObaStopSchedule.StopTime.class);
+        when(stopTime.getTripId()).thenReturn(tripId);
+        when(stopTime.getArrivalTime()).thenReturn(time);
+        when(stopTime.getDepartureTime()).thenReturn(time);
+        when(stopTime.getStopHeadsign()).thenReturn(stopHeadsign);
+        return stopTime;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.lib;
+
+import org.junit.After;
+import org.junit.Test;
+import org.onebusaway.io.client.ObaApi;
+import org.onebusaway.io.client.ObaConnection;
+import org.onebusaway.io.client.ObaConnectionFactory;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamingArrivalsParserTest {
+    private static final String RESPONSE = "{"
+            + "\"code\":200,\"currentTime\":1500000000000,\"text\":\"OK\",\"version\":2,"
+            + "\"data\":{"
+            + "\"references\":{\"agencies\":[{\"id\":\"1\",\"name\":\"Metro\"}],\"routes\":[{\"id\":\"1_100\"}],"
+            + "\"stops\":[],\"trips\":[{\"id\":\"1_trip\",\"tripHeadsign\":\"Not this one\"}],\"situations\":[]},"
+            + "\"entry\":{\"stopId\":\"1_75403\",\"nearbyStopIds\":[\"1_75404\"],\"arrivalsAndDepartures\":["
+            + arrival("1_100", "8", "Seattle Center", 1500000300000L, 1500000360000L, true)
+            + ","
+            + arrival("1_200", "E Line", "Aurora Village", 1500000900000L, 0, false)
+            + "]}}}";
+
+    private final StreamingArrivalsParser parser = new StreamingArrivalsParser();
+
+    @After
+    public void tearDown() {
+        ObaApi.setConnectionFactory(null);
+    }
+
+    @Test
+    public void parse_arrivalsResponse_decodesSpokenFields() throws Exception {
+        ObaArrivalInfoResponse response = parser.parse(new StringReader(RESPONSE));
+
+        assertEquals(200, response.getCode());
+        assertEquals(1500000000000L, response.getCurrentTime());
+        ObaArrivalInfo[] arrivals = response.getArrivalInfo();
+        assertEquals(2, arrivals.length);
+        assertEquals("1_100", arrivals[0].getRouteId());
+        assertEquals("8", arrivals[0].getShortName());
+        assertEquals("Seattle Center", arrivals[0].getHeadsign());
+        assertEquals(1500000300000L, arrivals[0].getScheduledArrivalTime());
+        assertEquals(1500000360000L, arrivals[0].getPredictedArrivalTime());
+        assertEquals("default", arrivals[0].getStatus());
+        assertTrue(arrivals[0].getPredicted());
+        assertEquals("E Line", arrivals[1].getShortName());
+        assertEquals(0, arrivals[1].getPredictedArrivalTime());
+        assertFalse(arrivals[1].getPredicted());
+    }
+
+    @Test
+    public void parse_arrivalsResponse_skipsReferencesAndTripStatus() throws Exception {
+        ObaArrivalInfoResponse response = parser.parse(new StringReader(RESPONSE));
+
+        assertNull(response.getRefs());
+        assertNull(response.getArrivalInfo()[0].getTripStatus());
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_truncatedResponse_throwsIOException() throws Exception {
+        parser.parse(new StringReader(RESPONSE.substring(0, RESPONSE.length() / 2)));
+    }
+
+    @Test
+    public void getArrivalsUri_stopIdWithSpaces_isEncoded() throws Exception {
+        ObaRegionContext context = new ObaRegionContext("http://api.tampa.onebusaway.org/api", "key");
+
+        URI uri = StreamingArrivalsParser.getArrivalsUri(context, "Hillsborough Area Regional Transit_3105", 65);
+
+        assertEquals("http://api.tampa.onebusaway.org/api/api/where/arrivals-and-departures-for-stop/"
+                        + "Hillsborough%20Area%20Regional%20Transit_3105.json?version=2&key=key&minutesAfter=65",
+                uri.toString());
+    }
+
+    @Test
+    public void request_installedTransport_decodesResponseAndReleasesConnection() throws Exception {
+        ObaConnection connection = mock(ObaConnection.class);
+        when(connection.getResponseCode()).thenReturn(200);
+        when(connection.get()).thenReturn(new StringReader(RESPONSE));
+        ObaConnectionFactory connectionFactory = mock(ObaConnectionFactory.class);
+        when(connectionFactory.newConnection(any(URI.class))).thenReturn(connection);
+        ObaApi.setConnectionFactory(connectionFactory);
+
+        ObaArrivalInfoResponse response = parser.request(
+                new ObaRegionContext("http://api.pugetsound.onebusaway.org/", "key"), "1_75403", 65);
+
+        assertEquals(2, response.getArrivalInfo().length);
+        verify(connection).disconnect();
+    }
+
+    @Test
+    public void request_errorStatus_returnsResponseWithStatusCode() throws Exception {
+        ObaConnection connection = mock(ObaConnection.class);
+        when(connection.getResponseCode()).thenReturn(404);
+        ObaConnectionFactory connectionFactory = mock(ObaConnectionFactory.class);
+        when(connectionFactory.newConnection(any(URI.class))).thenReturn(connection);
+        ObaApi.setConnectionFactory(connectionFactory);
+
+        ObaArrivalInfoResponse response = parser.request(
+                new ObaRegionContext("http://api.pugetsound.onebusaway.org/", "key"), "1_nosuchstop", 65);
+
+        assertEquals(404, response.getCode());
+        verify(connection, never()).get();
+        verify(connection).disconnect();
+    }
+
+    @Test
+    public void request_noTransport_returnsNull() throws Exception {
+        assertNull(parser.request(new ObaRegionContext("http://api.pugetsound.onebusaway.org/", "key"), "1_75403", 65));
+    }
+
+    private static String arrival(String routeId, String shortName, String headsign, long scheduled, long predicted,
+                                  boolean isPredicted) {
+        return String.format("{\"routeId\":\"%s\",\"routeShortName\":\"%s\",\"tripHeadsign\":\"%s\","
+                        + "\"scheduledArrivalTime\":%d,\"predictedArrivalTime\":%d,"
+                        + "\"scheduledDepartureTime\":%d,\"predictedDepartureTime\":%d,"
+                        + "\"status\":\"default\",\"predicted\":%b,\"numberOfStopsAway\":3,"
+                        + "\"tripStatus\":{\"activeTripId\":\"1_trip\",\"position\":{\"lat\":47.6,\"lon\":-122.3},"
+                        + "\"orientation\":90.0,\"situationIds\":[]}}",
+                routeId, shortName, headsign, scheduled, predicted, scheduled, predicted, isPredicted);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ObaDaoTest {
+    private static final String USER_ID = "user";
+
+    private ObaDynamoDbClient dynamoDbClient;
+    private ObaDao obaDao;
+    private ObaUserDataItem stored;
+
+    @Before
+    public void setup() {
+        dynamoDbClient = mock(ObaDynamoDbClient.class);
+        obaDao = new ObaDao(dynamoDbClient);
+        stored = new ObaUserDataItem();
+        stored.setUserId(USER_ID);
+        stored.setStopId("1_75403");
+        when(dynamoDbClient.loadItem(any(ObaUserDataItem.class))).thenReturn(Optional.of(stored));
+    }
+
+    @Test
+    public void getUserData_repeatedInUnitOfWork_loadsOnce() {
+        try (UserDataUnitOfWork.Scope ignored = obaDao.beginUnitOfWork()) {
+            assertSame(stored, obaDao.getUserData(USER_ID).get());
+            assertSame(stored, obaDao.getUserData(USER_ID).get());
+            assertSame(stored, obaDao.getUserData(USER_ID).get());
+        }
+
+        verify(dynamoDbClient, times(1)).loadItem(any(ObaUserDataItem.class));
+    }
+
+    @Test
+    public void saveUserData_inUnitOfWork_writesOnceWhenDone() {
+        try (UserDataUnitOfWork.Scope ignored = obaDao.beginUnitOfWork()) {
+            ObaUserDataItem user = obaDao.getUserData(USER_ID).get();
+            user.setCity("Seattle");
+            obaDao.saveUserData(user);
+            user.setPreviousResponse("Route 8 arrives in 3 minutes");
+            obaDao.saveUserData(user);
+
+            verify(dynamoDbClient, never()).saveItem(any(ObaUserDataItem.class));
+        }
+
+        verify(dynamoDbClient, times(1)).saveItem(stored);
+        assertNull(UserDataUnitOfWork.current());
+    }
+
+    @Test
+    public void getUserData_newUserSavedInUnitOfWork_readsSavedItem() {
+        when(dynamoDbClient.loadItem(any(ObaUserDataItem.class))).thenReturn(Optional.empty());
+        ObaUserDataItem created = new ObaUserDataItem();
+        created.setUserId(USER_ID);
+        created.setStopId("1_75403");
+
+        try (UserDataUnitOfWork.Scope ignored = obaDao.beginUnitOfWork()) {
+            assertFalse(obaDao.getUserData(USER_ID).isPresent());
+            obaDao.saveUserData(created);
+            assertSame(created, obaDao.getUserData(USER_ID).get());
+        }
+
+        verify(dynamoDbClient, times(1)).loadItem(any(ObaUserDataItem.class));
+        verify(dynamoDbClient).saveItem(created);
+    }
+
+    @Test
+    public void getUserData_taskOnOtherThread_sharesUnitOfWork() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (UserDataUnitOfWork.Scope ignored = obaDao.beginUnitOfWork()) {
+            obaDao.getUserData(USER_ID);
+            // Wrapped on the request thread, which is where the unit of work is current
+            Callable<Optional<ObaUserDataItem>> task = UserDataUnitOfWork.propagate(() -> obaDao.getUserData(USER_ID));
+            Future<Optional<ObaUserDataItem>> future = executor.submit(task);
+
+            assertSame(stored, future.get().get());
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(dynamoDbClient, times(1)).loadItem(any(ObaUserDataItem.class));
+    }
+
+    @Test
+    public void beginUnitOfWork_alreadyStarted_joinsOuterUnitOfWork() {
+        try (UserDataUnitOfWork.Scope outer = obaDao.beginUnitOfWork()) {
+            try (UserDataUnitOfWork.Scope inner = obaDao.beginUnitOfWork()) {
+                obaDao.saveUserData(stored);
+            }
+            verify(dynamoDbClient, never()).saveItem(any(ObaUserDataItem.class));
+            assertTrue(UserDataUnitOfWork.current() != null);
+        }
+
+        verify(dynamoDbClient).saveItem(stored);
+    }
+
+    @Test
+    public void saveUserData_unchangedSinceLoaded_isNotWritten() {
+        ObaUserDataItem user = obaDao.getUserData(USER_ID).get();
+        obaDao.saveUserData(user);
+
+        try (UserDataUnitOfWork.Scope ignored = obaDao.beginUnitOfWork()) {
+            obaDao.saveUserData(obaDao.getUserData(USER_ID).get());
+        }
+
+        verify(dynamoDbClient, never()).saveItem(any(ObaUserDataItem.class));
+    }
+
+    @Test
+    public void saveUserData_routeFilterChangedInPlace_isWritten() {
+        stored.setRoutesToFilterOut(new HashMap<>());
+        stored.getRoutesToFilterOut().put("1_75403", new HashSet<>());
+        ObaUserDataItem user = obaDao.getUserData(USER_ID).get();
+
+        user.getRoutesToFilterOut().get("1_75403").add("1_100");
+        obaDao.saveUserData(user);
+        obaDao.saveUserData(user);
+
+        verify(dynamoDbClient, times(1)).saveItem(user);
+    }
+
+    @Test
+    public void getUserData_writeBehindPending_readsPendingItem() {
+        ExecutorService neverRuns = mock(ExecutorService.class);
+        UserDataWriteBehind writeBehind = new UserDataWriteBehind(dynamoDbClient::saveItem, neverRuns);
+        ObaDao writeBehindDao = new ObaDao(dynamoDbClient, writeBehind);
+        ObaUserDataItem user = writeBehindDao.getUserData(USER_ID).get();
+        user.setPreviousResponse("Route 8 arrives in 3 minutes");
+
+        writeBehindDao.saveUserData(user);
+
+        verify(dynamoDbClient, never()).saveItem(any(ObaUserDataItem.class));
+        assertEquals("Route 8 arrives in 3 minutes",
+                writeBehindDao.getUserData(USER_ID).get().getPreviousResponse());
+        verify(dynamoDbClient, times(1)).loadItem(any(ObaUserDataItem.class));
+    }
+
+    @Test
+    public void getUserData_noUnitOfWork_readsAndWritesThrough() {
+        obaDao.getUserData(USER_ID);
+        obaDao.getUserData(USER_ID);
+        stored.setCity("Seattle");
+        obaDao.saveUserData(stored);
+
+        verify(dynamoDbClient, times(2)).loadItem(any(ObaUserDataItem.class));
+        verify(dynamoDbClient).saveItem(stored);
+        assertEquals(Optional.empty(), obaDao.getUserData(" "));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.storage;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import lombok.extern.log4j.Log4j;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+@Log4j
+public class ObaDynamoDbClientTest {
+    private static final int LOAD_COUNT = 20000;
+
+    private final List<GetItemRequest> requests = new ArrayList<>();
+
+    @Test
+    public void loadItem_userData_readsConsistentlyWhenConfigured() {
+        new ObaDynamoDbClient(fakeDynamoDb(), true).loadItem(userKey());
+        new ObaDynamoDbClient(fakeDynamoDb(), false).loadItem(userKey());
+
+        assertTrue(requests.get(0).getConsistentRead());
+        assertFalse(requests.get(1).getConsistentRead());
+    }
+
+    @Test
+    public void loadItem_userData_mapsStoredAttributes() {
+        ObaUserDataItem item = new ObaDynamoDbClient(fakeDynamoDb(), true).loadItem(userKey()).get();
+
+        assertEquals("user", item.getUserId());
+        assertEquals("1_75403", item.getStopId());
+        assertEquals(1, item.getRegionId());
+        assertEquals("ObaUserData", requests.get(0).getTableName());
+    }
+
+    @Test
+    public void loadItem_geocode_readsEventually() {
+        ObaGeocodeItem key = new ObaGeocodeItem();
+        key.setCityKey("seattle");
+
+        new ObaDynamoDbClient(fakeDynamoDb(), true).loadItem(key);
+
+        assertFalse(requests.get(0).getConsistentRead());
+    }
+
+    @Test
+    public void saveItem_anotherRequestSavedFirst_isRejected() {
+        Map<String, AttributeValue> stored = storedItem("saved by another request", 5);
+        ObaUserDataItem item = userKey();
+        item.setPreviousResponse("stale");
+        item.setVersion(4L);
+
+        try {
+            new ObaDynamoDbClient(versionEnforcingDynamoDb(stored), true).saveItem(item);
+            fail("Expected ConditionalCheckFailedException");
+        } catch (ConditionalCheckFailedException e) {
+            assertEquals("saved by another request", stored.get("PreviousResponse").getS());
+        }
+    }
+
+    @Test
+    public void saveItem_writeBehindWritesItemRepeatedly_storesLatest() throws Exception {
+        Map<String, AttributeValue> stored = new HashMap<>();
+        ObaDynamoDbClient client = new ObaDynamoDbClient(versionEnforcingDynamoDb(stored), true);
+        UserDataWriteBehind writeBehind = new UserDataWriteBehind(client::saveItem);
+        ObaUserDataItem item = userKey();
+
+        // The item keeps the version it was loaded with, which each write moves the stored item past
+        for (int i = 0; i < 3; i++) {
+            item.setPreviousResponse("response " + i);
+            writeBehind.enqueue(item);
+            awaitWrites(writeBehind);
+        }
+        // Copies queued together only carry the version the item had when they were queued
+        for (int i = 3; i < 20; i++) {
+            item.setPreviousResponse("response " + i);
+            writeBehind.enqueue(item);
+        }
+        writeBehind.close();
+
+        assertEquals("response 19", stored.get("PreviousResponse").getS());
+        assertTrue(writeBehind.getStats().contains("conflicts=0 failures=0"));
+    }
+
+    @Test
+    public void saveItem_writeBehindAfterAnotherRequestSaved_dropsStaleWrite() throws Exception {
+        Map<String, AttributeValue> stored = storedItem("saved by another request", 5);
+        ObaDynamoDbClient client = new ObaDynamoDbClient(versionEnforcingDynamoDb(stored), true);
+        UserDataWriteBehind writeBehind = new UserDataWriteBehind(client::saveItem);
+        ObaUserDataItem item = userKey();
+        item.setPreviousResponse("stale");
+        item.setVersion(4L);
+
+        writeBehind.enqueue(item);
+        writeBehind.close();
+
+        assertEquals("saved by another request", stored.get("PreviousResponse").getS());
+        assertTrue(writeBehind.getStats().contains("conflicts=1"));
+    }
+
+    /**
+     * Times a mapper per call against the shared mapper.  Only run with -Dbenchmarks=true, so timings don't slow down
+     * or clutter the normal build.
+     */
+    @Test
+    public void loadItem_benchmark() {
+        assumeTrue(Boolean.getBoolean("benchmarks"));
+        AmazonDynamoDB dynamoDb = fakeDynamoDb();
+        ObaDynamoDbClient client = new ObaDynamoDbClient(dynamoDb, true);
+
+        // Warm up both paths, so the annotation model is loaded and the JIT has compiled them, before timing them
+        for (int i = 0; i < 2; i++) {
+            timeMapperPerCall(dynamoDb);
+            timeSharedMapper(client);
+            requests.clear();
+        }
+        long perCallNanos = timeMapperPerCall(dynamoDb);
+        long sharedNanos = timeSharedMapper(client);
+
+        log.info(String.format("ObaDynamoDbClient benchmark (%d loads): mapper per call %.2f us/load, "
+                + "shared mapper %.2f us/load", LOAD_COUNT, perCallNanos / 1e3 / LOAD_COUNT,
+                sharedNanos / 1e3 / LOAD_COUNT));
+    }
+
+    private long timeMapperPerCall(AmazonDynamoDB dynamoDb) {
+        long start = System.nanoTime();
+        for (int i = 0; i < LOAD_COUNT; i++) {
+            new DynamoDBMapper(dynamoDb).load(userKey());
+        }
+        long elapsed = System.nanoTime() - start;
+        requests.clear();
+        return elapsed;
+    }
+
+    private long timeSharedMapper(ObaDynamoDbClient client) {
+        long start = System.nanoTime();
+        for (int i = 0; i < LOAD_COUNT; i++) {
+            client.loadItem(userKey());
+        }
+        long elapsed = System.nanoTime() - start;
+        requests.clear();
+        return elapsed;
+    }
+
+    private static ObaUserDataItem userKey() {
+        ObaUserDataItem key = new ObaUserDataItem();
+        key.setUserId("user");
+        return key;
+    }
+
+    private static Map<String, AttributeValue> storedItem(String previousResponse, long version) {
+        Map<String, AttributeValue> stored = new HashMap<>();
+        stored.put("UserId", new AttributeValue("user"));
+        stored.put("PreviousResponse", new AttributeValue(previousResponse));
+        stored.put("version", new AttributeValue().withN(Long.toString(version)));
+        return stored;
+    }
+
+    private static void awaitWrites(UserDataWriteBehind writeBehind) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (writeBehind.getPendingCount() > 0) {
+            assertTrue(System.currentTimeMillis() < giveUp);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A proxy rather than a mock, so the benchmark isn't dominated by mock invocation overhead
+     */
+    private AmazonDynamoDB fakeDynamoDb() {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("UserId", new AttributeValue("user"));
+        item.put("City", new AttributeValue("Seattle"));
+        item.put("StopId", new AttributeValue("1_75403"));
+        item.put("RegionId", new AttributeValue().withN("1"));
+        item.put("RegionName", new AttributeValue("Puget Sound"));
+        item.put("ObaBaseUrl", new AttributeValue("http://api.pugetsound.onebusaway.org/"));
+        item.put("LastAccessTime", new AttributeValue().withN("1500000000000"));
+        item.put("TimeZone", new AttributeValue("America/Los_Angeles"));
+        return (AmazonDynamoDB) Proxy.newProxyInstance(AmazonDynamoDB.class.getClassLoader(),
+                new Class[]{AmazonDynamoDB.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("getItem")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    requests.add((GetItemRequest) args[0]);
+                    return new GetItemResult().withItem(item);
+                });
+    }
+
+    /**
+     * Stores one item and, like DynamoDB, rejects a write whose expected attribute values don't match it
+     */
+    private static AmazonDynamoDB versionEnforcingDynamoDb(Map<String, AttributeValue> stored) {
+        return (AmazonDynamoDB) Proxy.newProxyInstance(AmazonDynamoDB.class.getClassLoader(),
+                new Class[]{AmazonDynamoDB.class}, (proxy, method, args) -> {
+                    synchronized (stored) {
+                        switch (method.getName()) {
+                            case "putItem":
+                                PutItemRequest put = (PutItemRequest) args[0];
+                                checkExpected(stored, put.getExpected());
+                                stored.clear();
+                                stored.putAll(put.getItem());
+                                return new PutItemResult();
+                            case "updateItem":
+                                UpdateItemRequest update = (UpdateItemRequest) args[0];
+                                checkExpected(stored, update.getExpected());
+                                stored.putAll(update.getKey());
+                                update.getAttributeUpdates().forEach((name, change) -> {
+                                    if (change.getValue() == null) {
+                                        stored.remove(name);
+                                    } else {
+                                        stored.put(name, change.getValue());
+                                    }
+                                });
+                                return new UpdateItemResult().withAttributes(new HashMap<>(stored));
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+
+    private static void checkExpected(Map<String, AttributeValue> stored,
+                                      Map<String, ExpectedAttributeValue> expected) {
+        if (expected == null) {
+            return;
+        }
+        expected.forEach((name, value) -> {
+            boolean matches = Boolean.FALSE.equals(value.getExists())
+                    ? !stored.containsKey(name)
+                    : value.getValue() == null || value.getValue().equals(stored.get(name));
+            if (!matches) {
+                throw new ConditionalCheckFailedException("The conditional request failed");
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UserDataWriteBehindTest {
+    private final List<ObaUserDataItem> written = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ExecutorService executor;
+    private UserDataWriteBehind writeBehind;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        writeBehind = new UserDataWriteBehind(written::add, executor);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void enqueue_sameUserTwiceBeforeWrite_writesLatestOnce() throws Exception {
+        blockWriter();
+        writeBehind.enqueue(item("user", "first"));
+        writeBehind.enqueue(item("user", "second"));
+
+        assertEquals("second", writeBehind.getPending("user").get().getPreviousResponse());
+        release.countDown();
+        writeBehind.close();
+
+        assertEquals(1, written.size());
+        assertEquals("second", written.get(0).getPreviousResponse());
+        assertEquals(0, writeBehind.getPendingCount());
+    }
+
+    @Test
+    public void enqueue_itemChangedAfterwards_writesQueuedState() throws Exception {
+        blockWriter();
+        ObaUserDataItem item = item("user", "queued");
+        writeBehind.enqueue(item);
+        item.setPreviousResponse("changed later");
+
+        release.countDown();
+        writeBehind.close();
+
+        assertEquals("queued", written.get(0).getPreviousResponse());
+    }
+
+    @Test
+    public void discard_pendingWrite_isNotWritten() throws Exception {
+        blockWriter();
+        writeBehind.enqueue(item("user", "deleted"));
+        writeBehind.discard("user");
+
+        release.countDown();
+        writeBehind.close();
+
+        assertTrue(written.isEmpty());
+        assertFalse(writeBehind.getPending("user").isPresent());
+    }
+
+    @Test
+    public void enqueue_writerFails_dropsItemAndKeepsWriting() throws Exception {
+        UserDataWriteBehind failing = new UserDataWriteBehind(item -> {
+            if (item.getUserId().equals("bad")) {
+                throw new IllegalStateException("Throughput exceeded");
+            }
+            written.add(item);
+        }, executor);
+
+        failing.enqueue(item("bad", "lost"));
+        failing.enqueue(item("good", "kept"));
+        failing.close();
+
+        assertEquals(1, written.size());
+        assertTrue(failing.getStats().contains("failures=1"));
+    }
+
+    /**
+     * Holds up the writer thread until the test releases it, so items stay queued
+     */
+    private void blockWriter() {
+        executor.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private static ObaUserDataItem item(String userId, String previousResponse) {
+        ObaUserDataItem item = new ObaUserDataItem();
+        item.setUserId(userId);
+        item.setStopId("1_75403");
+        item.setPreviousResponse(previousResponse);
+        return item;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.alexa.util;
+
+import com.amazon.ask.attributes.AttributesManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.alexa.config.SpringContext;
+import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.ObaAsyncClient;
+import org.onebusaway.alexa.lib.ObaAsyncUserClient;
+import org.onebusaway.alexa.lib.ObaUserClient;
+import org.onebusaway.alexa.lib.ScanWindows;
+import org.onebusaway.alexa.lib.StaleArrivals;
+import org.onebusaway.alexa.lib.StopArrivals;
+import org.onebusaway.alexa.lib.StreamingArrivalsParser;
+import org.onebusaway.alexa.storage.ObaUserDataItem;
+import org.onebusaway.io.client.elements.ObaArrivalInfo;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.onebusaway.alexa.constant.Prompt.ARRIVAL_INFO_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.NO_ARRIVALS;
+import static org.onebusaway.alexa.constant.Prompt.PRIMARY_STOP_ARRIVALS_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STALE_STOP_ARRIVALS_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STOP_ARRIVALS_FORMAT;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({
+        CityUtil.class,
+        SpeechUtil.class,
+        StorageUtil.class,
+        SpringContext.class
+})
+public class CityUtilTest {
+    private static final String OBA_BASE_URL = "http://api.pugetsound.onebusaway.org/";
+    private static final String STOP_ID = "1_75403";
+    private static final String SAVED_STOP_ID = "1_75404";
+
+    @Mock
+    AnnotationConfigApplicationContext annotationConfigApplicationContext;
+
+    @Mock
+    PromptHelper promptHelper;
+
+    @Mock
+    ObaAsyncClient obaAsyncClient;
+
+    @Mock
+    ObaAsyncUserClient obaAsyncUserClient;
+
+    @Mock
+    ObaUserClient obaUserClient;
+
+    @Mock
+    ObaUserDataItem obaUserDataItem;
+
+    @Mock
+    AttributesManager attributesManager;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(SpringContext.class);
+        when(SpringContext.getInstance()).thenReturn(annotationConfigApplicationContext);
+        PowerMockito.mockStatic(StorageUtil.class);
+        Whitebox.setInternalState(CityUtil.class, "promptHelper", promptHelper);
+        Whitebox.setInternalState(CityUtil.class, "obaAsyncClient", obaAsyncClient);
+        Whitebox.setInternalState(SpeechUtil.class, "promptHelper", promptHelper);
+
+        HashMap<String, String> savedStops = new HashMap<>();
+        savedStops.put(SAVED_STOP_ID, "work");
+        when(obaUserDataItem.getStopId()).thenReturn(STOP_ID);
+        when(obaUserDataItem.getSavedStops()).thenReturn(savedStops);
+        when(obaUserDataItem.getRoutesToFilterOut()).thenReturn(new HashMap<>());
+        when(attributesManager.getSessionAttributes()).thenReturn(new HashMap<>());
+        when(obaUserClient.getObaBaseUrl()).thenReturn(OBA_BASE_URL);
+        when(obaAsyncClient.withObaBaseUrl(OBA_BASE_URL)).thenReturn(obaAsyncUserClient);
+        when(promptHelper.getPrompt(eq(NO_ARRIVALS), anyString()))
+                .thenAnswer(i -> "No arrivals for " + i.getArguments()[1] + " minutes.");
+        when(promptHelper.getPrompt(eq(PRIMARY_STOP_ARRIVALS_FORMAT), anyString()))
+                .thenAnswer(i -> "At your stop: " + i.getArguments()[1]);
+        when(promptHelper.getPrompt(eq(STOP_ARRIVALS_FORMAT), anyString(), anyString()))
+                .thenAnswer(i -> "At " + i.getArguments()[1] + ": " + i.getArguments()[2]);
+        when(promptHelper.getPrompt(eq(STALE_STOP_ARRIVALS_FORMAT), anyString(), anyString()))
+                .thenAnswer(i -> "From " + i.getArguments()[1] + " minutes ago: " + i.getArguments()[2]);
+        when(promptHelper.getPrompt(eq(ARRIVAL_INFO_FORMAT), anyString())).thenAnswer(i -> i.getArguments()[1]);
+    }
+
+    @Test
+    public void tellArrivals_savedStopFails_speaksEachStopsWindowAndLastKnownArrivals() throws Exception {
+        // The user's stop answers with a learned window, and the saved stop from 3 minutes ago
+        ScanWindows.Scan scan = new ScanWindows.Scan(emptyResponse(), 20);
+        when(obaAsyncUserClient.scanArrivalsAndDeparturesForStops(eq(Arrays.asList(STOP_ID, SAVED_STOP_ID)), any()))
+                .thenReturn(CompletableFuture.completedFuture(Arrays.asList(
+                        new StopArrivals(STOP_ID, scan, null),
+                        new StopArrivals(SAVED_STOP_ID, null, new IOException("OBA Error")))));
+        when(obaUserClient.getSpokenArrivals(scan, null)).thenReturn(new ObaArrivalInfo[0]);
+        when(obaUserClient.getStaleArrivalsForStop(SAVED_STOP_ID)).thenReturn(Optional.of(StaleArrivals.from(
+                new ScanWindows.Scan(emptyResponse(), 65), TimeUnit.MINUTES.toMillis(3))));
+
+        CityUtil.tellArrivals(obaUserDataItem, obaUserClient, attributesManager, null);
+
+        verify(promptHelper).getResponse("At your stop: No arrivals for 20 minutes. -- "
+                + "At work: From 3 minutes ago: No arrivals for 62 minutes.");
+    }
+
+    @Test
+    public void tellArrivals_savedStopFailsWithoutFallback_apologizesForThatStop() throws Exception {
+        ScanWindows.Scan scan = new ScanWindows.Scan(emptyResponse(), 65);
+        when(obaAsyncUserClient.scanArrivalsAndDeparturesForStops(any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Arrays.asList(
+                        new StopArrivals(STOP_ID, scan, null),
+                        new StopArrivals(SAVED_STOP_ID, null, new IOException("OBA Error")))));
+        when(obaUserClient.getSpokenArrivals(any(), any(HashSet.class))).thenReturn(new ObaArrivalInfo[0]);
+        when(obaUserClient.getStaleArrivalsForStop(anyString())).thenReturn(Optional.empty());
+        when(promptHelper.getPrompt(any(), eq("work"))).thenReturn("I couldn't get arrivals for work.");
+
+        CityUtil.tellArrivals(obaUserDataItem, obaUserClient, attributesManager, null);
+
+        verify(promptHelper).getResponse("At your stop: No arrivals for 65 minutes. -- "
+                + "I couldn't get arrivals for work.");
+    }
+
+    private static ObaArrivalInfoResponse emptyResponse() throws IOException {
+        return new StreamingArrivalsParser().parse(new StringReader(
+                "{\"code\":200,\"currentTime\":1500000000000,\"data\":{\"entry\":{\"arrivalsAndDepartures\":[]}}}"));
+    }
+}
@@ -21,12 +21,31 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.onebusaway.alexa.config.SpringContext;
+import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.ScanWindows;
+import org.onebusaway.alexa.lib.StreamingArrivalsParser;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.onebusaway.alexa.constant.Prompt.NO_ARRIVALS_AFTER_FILTER;
+import static org.onebusaway.alexa.constant.Prompt.PRIMARY_STOP_ARRIVALS_FORMAT;
+import static org.onebusaway.alexa.constant.Prompt.STOP_ARRIVALS_ERROR;
+import static org.onebusaway.alexa.constant.Prompt.STOP_ARRIVALS_FORMAT;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -38,6 +57,9 @@ public class SpeechUtilTest {
     @Mock
     AnnotationConfigApplicationContext annotationConfigApplicationContext;
 
+    @Mock
+    PromptHelper promptHelper;
+
     private static final String TEST_ADDRESS_1 = "131st Street & 2nd Avenue";
     private static final String EXPECTES_ADDRESS_1 = "131st Street and 2nd Avenue";
     private static final String TEST_ADDRESS_2 = "131st Street + 2nd Avenue";
@@ -52,6 +74,44 @@ public class SpeechUtilTest {
         MockitoAnnotations.initMocks(this);
         PowerMockito.mockStatic(SpringContext.class);
         when(SpringContext.getInstance()).thenReturn(annotationConfigApplicationContext);
+        Whitebox.setInternalState(SpeechUtil.class, "promptHelper", promptHelper);
+    }
+
+    @Test
+    public void getMultiStopArrivalText_oneStopFailed_speaksEachStopInOrder() {
+        when(promptHelper.getPrompt(PRIMARY_STOP_ARRIVALS_FORMAT, "No arrivals.")).thenReturn("At your stop: No arrivals.");
+        when(promptHelper.getPrompt(STOP_ARRIVALS_FORMAT, "work", "No arrivals.")).thenReturn("At work: No arrivals.");
+        when(promptHelper.getPrompt(STOP_ARRIVALS_ERROR, "the gym")).thenReturn("I couldn't get arrivals for the gym.");
+        Map<String, String> stopNames = new HashMap<>();
+        stopNames.put("1_2", "work");
+        stopNames.put("1_3", "the gym");
+        Map<String, String> stopOutputs = new LinkedHashMap<>();
+        stopOutputs.put("1_1", "No arrivals.");
+        stopOutputs.put("1_2", "No arrivals.");
+        stopOutputs.put("1_3", null);
+
+        String result = SpeechUtil.getMultiStopArrivalText(stopOutputs, "1_1", stopNames);
+
+        assertEquals("At your stop: No arrivals. -- At work: No arrivals. -- I couldn't get arrivals for the gym.",
+                result);
+    }
+
+    @Test
+    public void getArrivalText_learnedScanWindow_speaksSameAsFullWindow() throws Exception {
+        when(promptHelper.getPrompt(eq(NO_ARRIVALS_AFTER_FILTER), anyString())).thenReturn("No arrivals.");
+        String stop = "http://api.pugetsound.onebusaway.org/|1_75403";
+        ScanWindows scanWindows = new ScanWindows(5, 65, 3, 20, 100);
+        ObaArrivalInfoResponse full = arrivals(2, 4, 5, 8, 20, 40);
+        scanWindows.record(stop, full, 65, false);
+        int learnedMins = scanWindows.getScanMins(stop);
+        ObaArrivalInfoResponse learned = arrivals(2, 4, 5, 8);
+
+        String fullText = SpeechUtil.getArrivalText(scanWindows.getSpokenArrivals(full, null), 65,
+                full.getCurrentTime(), 0, TimeZone.getDefault(), null);
+        String learnedText = SpeechUtil.getArrivalText(scanWindows.getSpokenArrivals(learned, null), learnedMins,
+                learned.getCurrentTime(), 0, TimeZone.getDefault(), null);
+
+        assertEquals(fullText, learnedText);
     }
 
     @Test
@@ -77,4 +137,20 @@ public class SpeechUtilTest {
         String result = SpeechUtil.replaceSpecialCharactersFromAddress(TEST_ADDRESS_4);
         assertEquals(EXPECTES_ADDRESS_4, result);
     }
+
+    /**
+     * @param minutes departure of each arrival, in minutes after the current time, alternating between two routes
+     */
+    private static ObaArrivalInfoResponse arrivals(int... minutes) throws IOException {
+        long now = 1500000000000L;
+        StringBuilder json = new StringBuilder("{\"code\":200,\"currentTime\":" + now
+                + ",\"data\":{\"entry\":{\"arrivalsAndDepartures\":[");
+        for (int i = 0; i < minutes.length; i++) {
+            json.append(i > 0 ? "," : "").append(String.format(
+                    "{\"routeId\":\"1_%s\",\"routeShortName\":\"%<s\",\"tripId\":\"trip%d\","
+                            + "\"scheduledDepartureTime\":%d}",
+                    i % 2 == 0 ? "8" : "E", i, now + TimeUnit.MINUTES.toMillis(minutes[i])));
+        }
+        return new StreamingArrivalsParser().parse(new StringReader(json.append("]}}}").toString()));
+    }
 }
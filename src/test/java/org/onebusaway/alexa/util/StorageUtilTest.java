@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016-2019 Sean J. Barbeau (sjbarbeau@gmail.com),
+ * Philip M. White (philip@mailworks.org)
+ * Chunzhang Mo (victormocz@gmail.com)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onebusaway.alexa.util;
+
+import com.amazon.ask.attributes.AttributesManager;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.onebusaway.alexa.config.SpringContext;
+import org.onebusaway.alexa.exception.DeadlineExceededException;
+import org.onebusaway.alexa.exception.OneBusAwayException;
+import org.onebusaway.alexa.helper.PromptHelper;
+import org.onebusaway.alexa.lib.Deadline;
+import org.onebusaway.alexa.lib.ObaUserClient;
+import org.onebusaway.alexa.storage.ObaDao;
+import org.onebusaway.alexa.storage.ObaUserDataItem;
+import org.onebusaway.io.client.elements.ObaRegion;
+import org.onebusaway.io.client.request.ObaArrivalInfoResponse;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.onebusaway.alexa.constant.Prompt.COMMUNICATION_ERROR_MESSAGE;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({
+        SpeechUtil.class,
+        SpringContext.class
+})
+public class StorageUtilTest {
+    private static final String USER_ID = "userId";
+    private static final String STOP_ID = "1_75403";
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(3);
+
+    @Mock
+    private AnnotationConfigApplicationContext annotationConfigApplicationContext;
+    @Mock
+    private PromptHelper promptHelper;
+    @Mock
+    private ObaUserClient obaUserClient;
+    @Mock
+    private ObaDao obaDao;
+    @Mock
+    private AttributesManager attributesManager;
+    @Mock
+    private ObaRegion region;
+    @Mock
+    private ObaArrivalInfoResponse arrivalInfoResponse;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(SpringContext.class);
+        when(SpringContext.getInstance()).thenReturn(annotationConfigApplicationContext);
+        when(annotationConfigApplicationContext.getBean("promptHelper", PromptHelper.class)).thenReturn(promptHelper);
+        when(annotationConfigApplicationContext.getBean("obaExecutor", ExecutorService.class)).thenReturn(EXECUTOR);
+        PowerMockito.mockStatic(SpeechUtil.class);
+        // The static fields are only initialized once per class loader, so point them at this test's mocks
+        Whitebox.setInternalState(StorageUtil.class, "promptHelper", promptHelper);
+        Whitebox.setInternalState(StorageUtil.class, "executor", EXECUTOR);
+        when(attributesManager.getSessionAttributes()).thenReturn(new HashMap<>());
+        when(promptHelper.getPrompt(eq(COMMUNICATION_ERROR_MESSAGE))).thenReturn("communication error");
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        EXECUTOR.shutdownNow();
+    }
+
+    @Test
+    public void finishOnboard_independentCalls_runConcurrently() throws Exception {
+        // Each call waits until all three have started, which only succeeds if they run at the same time
+        CountDownLatch allStarted = new CountDownLatch(3);
+        when(obaUserClient.getArrivalsAndDeparturesForStop(eq(STOP_ID), anyInt())).thenAnswer(i -> {
+            allStarted.countDown();
+            assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            return arrivalInfoResponse;
+        });
+        when(obaUserClient.getTimeZone()).thenAnswer(i -> {
+            allStarted.countDown();
+            assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            return TimeZone.getTimeZone("America/Los_Angeles");
+        });
+        when(obaDao.getUserData(USER_ID)).thenAnswer(i -> {
+            allStarted.countDown();
+            assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            return Optional.empty();
+        });
+
+        StorageUtil.finishOnboard(USER_ID, "Seattle", STOP_ID, "75403", region, obaUserClient, obaDao, attributesManager,
+                Deadline.after(5000));
+
+        assertEquals(0, allStarted.getCount());
+        // The user record read concurrently is reused, so it isn't read a second time before saving
+        verify(obaDao, Mockito.times(1)).getUserData(USER_ID);
+        verify(obaDao).saveUserData(any(ObaUserDataItem.class));
+    }
+
+    @Test
+    public void finishOnboard_arrivalsFail_throwsCommunicationError() throws Exception {
+        when(obaUserClient.getArrivalsAndDeparturesForStop(anyString(), anyInt())).thenThrow(new IOException("OBA Error"));
+        when(obaUserClient.getTimeZone()).thenReturn(TimeZone.getTimeZone("America/Los_Angeles"));
+        when(obaDao.getUserData(USER_ID)).thenReturn(Optional.empty());
+
+        try {
+            StorageUtil.finishOnboard(USER_ID, "Seattle", STOP_ID, "75403", region, obaUserClient, obaDao, attributesManager,
+                    Deadline.after(5000));
+        } catch (OneBusAwayException e) {
+            assertEquals("communication error", e.getMessage());
+            verify(obaDao, never()).saveUserData(any());
+            return;
+        }
+        throw new AssertionError("Expected OneBusAwayException");
+    }
+
+    @Test
+    public void finishOnboard_callOutlastsDeadline_failsAtDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(obaUserClient.getArrivalsAndDeparturesForStop(anyString(), anyInt())).thenAnswer(i -> {
+            release.await(10, TimeUnit.SECONDS);
+            return arrivalInfoResponse;
+        });
+        when(obaUserClient.getTimeZone()).thenReturn(TimeZone.getTimeZone("America/Los_Angeles"));
+        when(obaDao.getUserData(USER_ID)).thenReturn(Optional.empty());
+
+        long start = System.nanoTime();
+        try {
+            StorageUtil.finishOnboard(USER_ID, "Seattle", STOP_ID, "75403", region, obaUserClient, obaDao,
+                    attributesManager, Deadline.after(200));
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        } finally {
+            release.countDown();
+        }
+        verify(obaDao, never()).saveUserData(any());
+    }
+
+    @Test
+    public void finishOnboard_callOutlastsDeadline_interruptsCall() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(obaUserClient.getArrivalsAndDeparturesForStop(anyString(), anyInt())).thenAnswer(i -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return arrivalInfoResponse;
+        });
+        when(obaUserClient.getTimeZone()).thenReturn(TimeZone.getTimeZone("America/Los_Angeles"));
+        when(obaDao.getUserData(USER_ID)).thenReturn(Optional.empty());
+
+        try {
+            StorageUtil.finishOnboard(USER_ID, "Seattle", STOP_ID, "75403", region, obaUserClient, obaDao,
+                    attributesManager, Deadline.after(200));
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void createOrUpdateUser_regionChanged_forgetsSavedStops() {
+        ObaUserDataItem userData = new ObaUserDataItem();
+        userData.setObaBaseUrl("https://old.example.com");
+        userData.setSavedStops(new HashMap<>(Collections.singletonMap("1_100", "work")));
+
+        StorageUtil.createOrUpdateUser(Optional.of(userData), USER_ID, "Tampa", "2_200", 2, "Tampa",
+                "https://new.example.com", "", 0, 0, TimeZone.getTimeZone("America/New_York"), 1, 1, false, obaDao);
+
+        assertTrue(userData.getSavedStops().isEmpty());
+        verify(obaDao).saveUserData(userData);
+    }
+
+    @Test
+    public void createOrUpdateUser_sameRegion_keepsSavedStops() {
+        ObaUserDataItem userData = new ObaUserDataItem();
+        userData.setObaBaseUrl("https://old.example.com");
+        userData.setSavedStops(new HashMap<>(Collections.singletonMap("1_100", "work")));
+
+        StorageUtil.createOrUpdateUser(Optional.of(userData), USER_ID, "Seattle", STOP_ID, 1, "Puget Sound",
+                "https://old.example.com", "", 0, 0, TimeZone.getTimeZone("America/Los_Angeles"), 1, 1, false, obaDao);
+
+        assertEquals(Collections.singletonMap("1_100", "work"), userData.getSavedStops());
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void finishOnboard_deadlinePassed_makesNoCalls() throws Exception {
+        try {
+            StorageUtil.finishOnboard(USER_ID, "Seattle", STOP_ID, "75403", region, obaUserClient, obaDao,
+                    attributesManager, Deadline.after(0));
+        } finally {
+            verify(obaUserClient, never()).getArrivalsAndDeparturesForStop(anyString(), anyInt());
+            verify(obaDao, never()).getUserData(anyString());
+        }
+    }
+}